@@ -17,6 +17,14 @@ public class AllTestsEasyAccept {
 		suite.addTest(easyaccept.script.AllTestsScript.suite());
 		suite.addTestSuite(TestEasyAcceptTask.class);
 		suite.addTestSuite(EasyAcceptFacadeTest.class);
+		suite.addTestSuite(TestFacadeMethodIndex.class);
+		suite.addTestSuite(TestOverloadResolver.class);
+		suite.addTestSuite(TestRoutingFacade.class);
+		suite.addTestSuite(easyaccept.annotation.TestFacadeAdapterProcessor.class);
+		suite.addTestSuite(easyaccept.outputter.TestTextResultFormatter.class);
+		suite.addTestSuite(easyaccept.remote.TestRemoteFacade.class);
+		suite.addTestSuite(easyaccept.remote.TestProcessFacade.class);
+		suite.addTestSuite(easyaccept.remote.TestHttpFacade.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,19 @@
+package easyaccept;
+
+/**
+ * This exception is thrown when a command does not end before its deadline.
+ * @author jacques
+ */
+public class CommandTimeoutException extends EasyAcceptException {
+	private static final long serialVersionUID = -1367503497466967257L;
+
+	/**
+	 * Exception constructor.
+	 * 
+	 * @param errorMessage a description of the deadline that passed.
+	 */
+	public CommandTimeoutException(String errorMessage) {
+		super(errorMessage);
+	}
+
+}
@@ -102,6 +102,9 @@ public class EasyAccept {
 		} catch (Exception e) {
 			throw new EasyAcceptException("Unexpected exception while running tests: " + e.getMessage(), e);
 		}
+		if (eaFacade != null && !eaFacade.getParsingErrors().isEmpty()) {
+			throw new EasyAcceptException("Syntax errors found in test scripts!");
+		}
 		if (eaFacade != null && eaFacade.getTotalNumberOfNotPassedTests() > 0) {
 			throw new EasyAcceptException("Acceptance tests failed!");
 		}
@@ -113,13 +116,24 @@ public class EasyAccept {
 	 * access to the functionality of the software being tested.
 	 * 
 	 * @param facadeName
-	 *            the test facade name.
+	 *            the test facade name, or the facades of several namespaces
+	 *            (see {@link RoutingFacade#parseSpecification(String)}), or
+	 *            an external facade (see
+	 *            {@link RoutingFacade#isExternal(String)}).
 	 * @param filesList
 	 *            the list of files to be executed.
 	 * @return
 	 */
 	public static EasyAcceptFacade executeEasyAcceptTests(String facadeName, List<String> filesList) throws InstantiationException, IllegalAccessException, ClassNotFoundException {
-		EasyAcceptFacade eaFacade = new EasyAcceptFacade(Class.forName(facadeName).newInstance(), filesList);
+		Object facade;
+		if (RoutingFacade.isRouting(facadeName)) {
+			facade = RoutingFacade.create(RoutingFacade.parseSpecification(facadeName), EasyAccept.class.getClassLoader());
+		} else if (RoutingFacade.isExternal(facadeName)) {
+			facade = RoutingFacade.newExternalFacade(facadeName);
+		} else {
+			facade = Class.forName(facadeName).newInstance();
+		}
+		EasyAcceptFacade eaFacade = new EasyAcceptFacade(facade, filesList);
 		eaFacade.executeTests();
 		return eaFacade;
 	}
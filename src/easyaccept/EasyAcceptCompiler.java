@@ -0,0 +1,103 @@
+package easyaccept;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import util.MultiFileReader;
+import util.ParsingException;
+import easyaccept.script.CompiledScript;
+import easyaccept.script.CompiledScriptFile;
+import easyaccept.script.ScriptCompiler;
+
+/**
+ * The <code>EasyAcceptCompiler</code> class precompiles script files, so that
+ * EasyAccept can execute them without parsing their source (see
+ * {@link CompiledScriptFile}). Each script file given (or found in a directory
+ * given) is compiled into a file of the same name with the
+ * <code>.eac</code> extension added.
+ * <p>
+ * <blockquote>
+ *
+ * <pre>
+ *
+ *      java -classpath ... easyaccept.EasyAcceptCompiler tests/script1.txt tests/script2.txt
+ *
+ * </pre>
+ *
+ * </blockquote>
+ * <p>
+ * Syntax errors are reported but do not prevent the precompiled file from
+ * being written; they are reported again when the script is executed. An exit
+ * code of 0 implies that no syntax error was found.
+ *
+ * @author jacques
+ */
+public class EasyAcceptCompiler {
+	private static final String COMPILER_SYNTAX = "EasyAcceptCompiler Syntax: java easyaccept.EasyAcceptCompiler testFile [...]";
+
+	/**
+	 * Entry point for the compiler.
+	 *
+	 * @param args
+	 *            the script files or directories to be compiled
+	 */
+	public static void main(String[] args) {
+		int statusCode = 0;
+		try {
+			if (args.length < 1) {
+				throw new EasyAcceptException(COMPILER_SYNTAX);
+			}
+			List<String> filesList = new ArrayList<String>();
+			for (int i = 0; i < args.length; i++) {
+				filesList.add(args[i]);
+			}
+			List<ParsingException> errors = compileScripts(filesList);
+			for (ParsingException error : errors) {
+				System.err.println(error.getMessage());
+			}
+			if (!errors.isEmpty()) {
+				statusCode = 1;
+			}
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			statusCode = 1;
+		} finally {
+			System.exit(statusCode);
+		}
+	}
+
+	/**
+	 * Precompile script files.
+	 *
+	 * @param filesList
+	 *            the script files or directories to be compiled.
+	 * @return the syntax errors found.
+	 * @throws IOException
+	 *             if a script file cannot be read or its precompiled file
+	 *             cannot be written.
+	 */
+	public static List<ParsingException> compileScripts(List<String> filesList) throws IOException {
+		ScriptCompiler compiler = new ScriptCompiler();
+		List<ParsingException> errors = new ArrayList<ParsingException>();
+		for (String name : filesList) {
+			List<String> fileNames;
+			try {
+				fileNames = MultiFileReader.listFiles(name);
+			} catch (FileNotFoundException e) {
+				throw new FileNotFoundException("File not found: " + name);
+			}
+			for (String fileName : fileNames) {
+				if (CompiledScriptFile.isCompiledFileName(fileName)) {
+					continue;
+				}
+				CompiledScript compiled = compiler.compile(fileName);
+				CompiledScriptFile.write(compiled, new File(CompiledScriptFile.getCompiledFileName(fileName)));
+				errors.addAll(compiled.getParsingErrors(fileName));
+			}
+		}
+		return errors;
+	}
+}
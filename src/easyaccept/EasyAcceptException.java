@@ -54,4 +54,14 @@ public class EasyAcceptException extends Exception {
 		this(fileName, lineNumber, message, null);
 	}
 
+	/**
+	 * Returns the line number in the script file being processed when the
+	 * exception occurred.
+	 * 
+	 * @return the line number, or 0 if not known.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
 }
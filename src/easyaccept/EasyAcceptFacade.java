@@ -2,6 +2,7 @@ package easyaccept;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -16,6 +17,7 @@ import easyaccept.result.ErrorObserverImpl;
 import easyaccept.result.Result;
 import easyaccept.result.ResultsHandler;
 import easyaccept.result.ScriptResultsManager;
+import easyaccept.script.ScriptPrecompiler;
 
 /**
  * This is the EasyAccept facade. It enables its users to request tests
@@ -32,6 +34,7 @@ public class EasyAcceptFacade {
 	private ErrorObserverImpl eaErrorObserver;
 	private ResultsHandler resultsHandler;
 	private List<String> files;
+	private List<ParsingException> parsingErrors = new ArrayList<ParsingException>();
 
 	/**
 	 * EasyAccept Facade constructor.
@@ -42,7 +45,7 @@ public class EasyAcceptFacade {
 	 *            a list of test files.
 	 */
 	public EasyAcceptFacade(Object facade, List<String> files) {
-		this.facadeAdapter = new JavaApplicationFacadeAdapter(facade);
+		this.facadeAdapter = JavaApplicationFacadeAdapter.adapt(facade);
 		resultsHandler = new ResultsHandler();
 		this.files = files;
 	}
@@ -76,10 +79,18 @@ public class EasyAcceptFacade {
 	}
 
 	/**
-	 * Executes the acceptance test scripts.
+	 * Executes the acceptance test scripts. All scripts are first compiled; if
+	 * syntax errors are found, they are reported and no script is executed.
 	 */
 	public void executeTests() {
 		try {
+			parsingErrors = new ScriptPrecompiler().precompile(files);
+			if (!parsingErrors.isEmpty()) {
+				for (ParsingException e : parsingErrors) {
+					System.err.println(e.getMessage());
+				}
+				return;
+			}
 			VariablesImpl variablesImpl = new VariablesImpl();
 			for (int i = 0; i < files.size(); i++) {
 				runAcceptanceTest(this.facadeAdapter, files.get(i), variablesImpl);
@@ -90,6 +101,15 @@ public class EasyAcceptFacade {
 		}
 	}
 
+	/**
+	 * Gets the syntax errors found in the test scripts by the last execution.
+	 * 
+	 * @return The syntax errors, by file and line; empty if there were none.
+	 */
+	public List<ParsingException> getParsingErrors() {
+		return parsingErrors;
+	}
+
 	/**
 	 * Gets the <code>ResultHandler</code>.
 	 * 
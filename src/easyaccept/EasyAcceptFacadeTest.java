@@ -199,6 +199,23 @@ public class EasyAcceptFacadeTest extends TestCase {
 		return out;
 	}
 	
+	/**
+	 * Syntax errors in any script are reported before any script is executed.
+	 */
+	public void testSyntaxErrorsBeforeExecution() {
+		String file1 = TEST_FILES_PATH + "script2.txt";
+		String file2 = TEST_FILES_PATH + "scriptSyntaxError.txt";
+		testes.add(file1);
+		testes.add(file2);
+		EasyAcceptFacade easyAcceptFacade = new EasyAcceptFacade(new TestFacade(), testes);
+		easyAcceptFacade.executeTests();
+
+		assertEquals(1, easyAcceptFacade.getParsingErrors().size());
+		assertEquals(file2, easyAcceptFacade.getParsingErrors().get(0).getFileName());
+		assertEquals(2, easyAcceptFacade.getParsingErrors().get(0).getLineNumber());
+		assertEquals(0, easyAcceptFacade.getTotalNumberOfTests());
+	}
+	
 	/**
 	 * This class will be used by tests to receive error notifications.
 	 * @author Gustavo Farias
@@ -44,7 +44,11 @@ public class EasyAcceptSyntax {
 			{ "timetrace", "easyaccept.script.TimeTraceProcessor" },
 			{ "executescript", "easyaccept.script.ExecuteScriptProcessor" },
 			{ "threadpool", "easyaccept.script.ThreadPoolProcessor" },
-			{ "repeat", "easyaccept.script.RepeatProcessor" }
+			{ "repeat", "easyaccept.script.RepeatProcessor" },
+			{ "within", "easyaccept.script.WithinProcessor" },
+			{ "beginwithin", "easyaccept.script.BeginWithinProcessor" },
+			{ "endwithin", "easyaccept.script.EndWithinProcessor" },
+			{ "async", "easyaccept.script.AsyncProcessor" }
 			};
 
 }
\ No newline at end of file
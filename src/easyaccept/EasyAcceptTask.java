@@ -1,8 +1,11 @@
 package easyaccept;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
@@ -12,6 +15,7 @@ import org.apache.tools.ant.types.Reference;
 import org.apache.tools.ant.util.ClasspathUtils;
 import org.apache.tools.ant.util.ClasspathUtils.Delegate;
 
+import util.ParsingException;
 import util.Variables;
 import util.VariablesImpl;
 import easyaccept.outputter.ConsoleResultOutputter;
@@ -21,6 +25,7 @@ import easyaccept.outputter.TextResultFormatter;
 import easyaccept.outputter.XMLResultFormatter;
 import easyaccept.result.ResultsHandler;
 import easyaccept.result.ScriptResultsManager;
+import easyaccept.script.ScriptPrecompiler;
 
 /**
  * This class represents an Ant task that executes EasyAccept.
@@ -61,6 +66,8 @@ public class EasyAcceptTask extends Task {
 	 */
 	private static final String NO_FILES_FOUND_MSG = "No files found.";
 
+	private static final String SYNTAX_ERRORS_MSG = "Syntax errors found in test scripts.";
+
 	/**
 	 * Attribute to make the build fail when there's any error during the
 	 * execution. The default value is true. It is not required.
@@ -181,12 +188,20 @@ public class EasyAcceptTask extends Task {
 	public void execute() {
 		this.setSecurityManager();
 
-		if (this.validate()) {
+		if (this.validate() && this.precompile()) {
 			EasyAccept tester = new EasyAccept();
 			Facade facadeObj = null;
 			try {
-				facadeObj = new JavaApplicationFacadeAdapter(
-						this.cpDelegate.newInstance());
+				if (RoutingFacade.isRouting(this.facade)) {
+					facadeObj = RoutingFacade.create(RoutingFacade
+							.parseSpecification(this.facade), this.cpDelegate
+							.getClassLoader());
+				} else if (RoutingFacade.isExternal(this.facade)) {
+					facadeObj = RoutingFacade.newExternalFacade(this.facade);
+				} else {
+					facadeObj = JavaApplicationFacadeAdapter.adapt(
+							this.cpDelegate.newInstance());
+				}
 			} catch (Exception e) {
 				throw new BuildException("Invalid Facade class: " + this.facade);
 			}
@@ -222,6 +237,35 @@ public class EasyAcceptTask extends Task {
 		this.perm.setSecurityManager();
 	}
 
+	/**
+	 * Compile all test scripts before executing any of them, reporting all
+	 * syntax errors found.
+	 * 
+	 * @return true if no syntax error was found.
+	 */
+	private boolean precompile() {
+		List<String> files = new ArrayList<String>();
+		for (Path path : this.paths) {
+			files.addAll(Arrays.asList(path.list()));
+		}
+		List<ParsingException> errors = new ScriptPrecompiler().precompile(files);
+		if (errors.isEmpty()) {
+			return true;
+		}
+		for (ParsingException e : errors) {
+			this.getProject().log(e.getMessage());
+		}
+		if (this.failureproperty != null) {
+			this.getProject().setNewProperty(this.failureproperty, TRUE_VALUE);
+		}
+		if (this.failonerror) {
+			this.unsetSecurityManager();
+			throw new BuildException(SYNTAX_ERRORS_MSG);
+		}
+		this.getProject().log(SYNTAX_ERRORS_MSG);
+		return false;
+	}
+
 	/**
 	 * Execute for each path
 	 * 
@@ -380,7 +424,9 @@ public class EasyAcceptTask extends Task {
 	 * <code>true</code>.
 	 * 
 	 * @param facadeClass
-	 *            The facade class name.
+	 *            The facade class name, or the facades of several namespaces,
+	 *            whose classes are only loaded. External facades are not
+	 *            checked.
 	 * @return <code>true</code> case the class is valid. <code>false</code>
 	 *         otherwise. Throws a
 	 * @throws BuildException
@@ -389,8 +435,25 @@ public class EasyAcceptTask extends Task {
 	 */
 	private boolean validateFacade(String facadeClass) {
 		try {
-			this.cpDelegate.setClassname(facadeClass);
-			this.cpDelegate.newInstance();
+			if (RoutingFacade.isRouting(facadeClass)) {
+				for (String className : RoutingFacade.parseSpecification(
+						facadeClass).values()) {
+					if (!RoutingFacade.isExternal(className)) {
+						Class.forName(className, false, this.cpDelegate
+								.getClassLoader());
+					}
+				}
+			} else if (!RoutingFacade.isExternal(facadeClass)) {
+				this.cpDelegate.setClassname(facadeClass);
+				this.cpDelegate.newInstance();
+			}
+		} catch (ClassNotFoundException e) {
+			if (this.failonerror) {
+				throw new BuildException(THE_FACADE_CLASS_WAS_NOT_FOUND_MSG);
+			} else {
+				this.getProject().log(THE_FACADE_CLASS_WAS_NOT_FOUND_MSG);
+				return false;
+			}
 		} catch (BuildException e) {
 			if (this.failonerror) {
 				throw new BuildException(THE_FACADE_CLASS_WAS_NOT_FOUND_MSG);
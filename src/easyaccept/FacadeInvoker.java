@@ -0,0 +1,29 @@
+package easyaccept;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Invokes one facade method. Invokers are obtained from an
+ * {@link InvocationEngine}, once per method, and then used for every command
+ * the method executes.
+ *
+ * @author jacques
+ */
+public interface FacadeInvoker {
+
+	/**
+	 * Invoke the method.
+	 *
+	 * @param facade
+	 *            The facade object (ignored for static methods).
+	 * @param args
+	 *            The arguments, already converted to the parameter types.
+	 * @return The value returned by the method; null for void methods.
+	 * @throws IllegalAccessException
+	 *             if the method cannot be accessed.
+	 * @throws InvocationTargetException
+	 *             wrapping whatever the method threw, as with
+	 *             <code>Method.invoke</code>.
+	 */
+	Object invoke(Object facade, Object[] args) throws IllegalAccessException, InvocationTargetException;
+}
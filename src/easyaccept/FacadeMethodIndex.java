@@ -0,0 +1,178 @@
+package easyaccept;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import util.ConverterRegistry;
+
+/**
+ * An index of the public methods of a facade class, by name and number of
+ * parameters, so that a command is dispatched to its method without scanning
+ * all the methods of the facade. The parameter types of each method are
+ * obtained once, when the index is built.
+ * <p>
+ * The index of a class is built the first time it is asked for and then shared
+ * by all adapters, scripts and threads. Candidates keep the order of
+ * <code>Class.getMethods()</code>, so the method chosen for a command is the
+ * one a scan of the methods would find first. Among several candidates, the
+ * {@link OverloadResolver} of the index chooses the one that executes a
+ * command.
+ *
+ * @author jacques
+ */
+public class FacadeMethodIndex {
+
+	private static final ConcurrentMap<Class<?>, FacadeMethodIndex> indexes = new ConcurrentHashMap<Class<?>, FacadeMethodIndex>();
+
+	private static final Candidate[] NO_CANDIDATES = new Candidate[0];
+
+	/**
+	 * A method that may execute a command, with its parameter types and the
+	 * invoker last created for it.
+	 */
+	public static class Candidate {
+		private final Method method;
+		private final Class<?>[] parameterTypes;
+		private volatile CachedInvoker invoker;
+
+		Candidate(Method method) {
+			this.method = method;
+			this.parameterTypes = method.getParameterTypes();
+		}
+
+		/**
+		 * @return The method.
+		 */
+		public Method getMethod() {
+			return method;
+		}
+
+		/**
+		 * Obtain the parameter types of the method. The array is shared and must
+		 * not be changed.
+		 *
+		 * @return The parameter types.
+		 */
+		public Class<?>[] getParameterTypes() {
+			return parameterTypes;
+		}
+
+		/**
+		 * Obtain the invoker of the method, creating it the first time it is
+		 * asked for with an engine.
+		 *
+		 * @param engine
+		 *            The invocation engine.
+		 * @return The invoker.
+		 */
+		public FacadeInvoker getInvoker(InvocationEngine engine) {
+			CachedInvoker cached = invoker;
+			if (cached == null || cached.engine != engine) {
+				cached = new CachedInvoker(engine, engine.newInvoker(method));
+				invoker = cached;
+			}
+			return cached.invoker;
+		}
+	}
+
+	private static class CachedInvoker {
+		final InvocationEngine engine;
+		final FacadeInvoker invoker;
+
+		CachedInvoker(InvocationEngine engine, FacadeInvoker invoker) {
+			this.engine = engine;
+			this.invoker = invoker;
+		}
+	}
+
+	/**
+	 * The candidates of each method name, by number of parameters.
+	 */
+	private final Map<String, Candidate[][]> methods;
+	private final OverloadResolver resolver;
+
+	private FacadeMethodIndex(Class<?> facadeClass) {
+		Map<String, List<List<Candidate>>> byName = new HashMap<String, List<List<Candidate>>>();
+		Method[] all = facadeClass.getMethods();
+		for (int i = 0; i < all.length; i++) {
+			Candidate candidate = new Candidate(all[i]);
+			List<List<Candidate>> byArity = byName.get(all[i].getName());
+			if (byArity == null) {
+				byArity = new ArrayList<List<Candidate>>();
+				byName.put(all[i].getName(), byArity);
+			}
+			int arity = candidate.parameterTypes.length;
+			while (byArity.size() <= arity) {
+				byArity.add(null);
+			}
+			if (byArity.get(arity) == null) {
+				byArity.set(arity, new ArrayList<Candidate>());
+			}
+			byArity.get(arity).add(candidate);
+		}
+		methods = new HashMap<String, Candidate[][]>();
+		for (Map.Entry<String, List<List<Candidate>>> entry : byName.entrySet()) {
+			List<List<Candidate>> byArity = entry.getValue();
+			Candidate[][] candidates = new Candidate[byArity.size()][];
+			for (int arity = 0; arity < candidates.length; arity++) {
+				List<Candidate> list = byArity.get(arity);
+				candidates[arity] = list == null ? NO_CANDIDATES : list.toArray(new Candidate[list.size()]);
+			}
+			methods.put(entry.getKey(), candidates);
+		}
+		resolver = new OverloadResolver(this, ConverterRegistry.getDefault());
+	}
+
+	/**
+	 * Obtain the index of a facade class, building it if necessary.
+	 *
+	 * @param facadeClass
+	 *            The class of the facade.
+	 * @return The index.
+	 */
+	public static FacadeMethodIndex forClass(Class<?> facadeClass) {
+		FacadeMethodIndex index = indexes.get(facadeClass);
+		if (index == null) {
+			index = new FacadeMethodIndex(facadeClass);
+			FacadeMethodIndex previous = indexes.putIfAbsent(facadeClass, index);
+			if (previous != null) {
+				index = previous;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Obtain the methods with a name and number of parameters.
+	 *
+	 * @param name
+	 *            The method name.
+	 * @param arity
+	 *            The number of parameters.
+	 * @return The candidates, in the order of <code>Class.getMethods()</code>;
+	 *         empty if there are none. The array is shared and must not be
+	 *         changed.
+	 */
+	public Candidate[] getCandidates(String name, int arity) {
+		Candidate[][] byArity = methods.get(name);
+		if (byArity == null || arity >= byArity.length) {
+			return NO_CANDIDATES;
+		}
+		return byArity[arity];
+	}
+
+	/**
+	 * Obtain the resolver choosing among the candidates of a command, with the
+	 * converters of the default registry.
+	 *
+	 * @return The resolver.
+	 */
+	public OverloadResolver getResolver() {
+		return resolver;
+	}
+}
@@ -0,0 +1,134 @@
+package easyaccept;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Creates the {@link FacadeInvoker}s through which facade methods are called.
+ * <p>
+ * Two engines are provided. {@link #REFLECTION} calls
+ * <code>Method.invoke</code>. {@link #METHOD_HANDLES} turns each method into a
+ * MethodHandle adapted, once, to take the facade and an argument array and to
+ * return an Object; the handle is then invoked exactly, without the access
+ * checks and argument copying of reflection. A method that cannot be looked up
+ * as a handle is called through reflection.
+ * <p>
+ * The engine used by default is given by the <code>easyaccept.invoker</code>
+ * property: <code>reflection</code> (the default) or
+ * <code>methodhandles</code>. Which is faster depends on the JVM, since recent
+ * JVMs implement reflection itself with method handles; see
+ * {@link InvokerBenchmark}.
+ *
+ * @author jacques
+ */
+public abstract class InvocationEngine {
+
+	/**
+	 * The property naming the default engine.
+	 */
+	public static final String INVOKER_PROPERTY = "easyaccept.invoker";
+
+	/**
+	 * Calls facade methods through <code>Method.invoke</code>.
+	 */
+	public static final InvocationEngine REFLECTION = new InvocationEngine("reflection") {
+		public FacadeInvoker newInvoker(final Method method) {
+			return new FacadeInvoker() {
+				public Object invoke(Object facade, Object[] args) throws IllegalAccessException, InvocationTargetException {
+					return method.invoke(facade, args);
+				}
+			};
+		}
+	};
+
+	/**
+	 * Calls facade methods through method handles.
+	 */
+	public static final InvocationEngine METHOD_HANDLES = new InvocationEngine("methodhandles") {
+		public FacadeInvoker newInvoker(Method method) {
+			final MethodHandle handle;
+			try {
+				handle = spreader(method);
+			} catch (IllegalAccessException e) {
+				return REFLECTION.newInvoker(method);
+			}
+			return new FacadeInvoker() {
+				public Object invoke(Object facade, Object[] args) throws InvocationTargetException {
+					try {
+						return (Object) handle.invokeExact(facade, args);
+					} catch (Throwable t) {
+						throw new InvocationTargetException(t);
+					}
+				}
+			};
+		}
+	};
+
+	private final String name;
+
+	private InvocationEngine(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Create the invoker of a method.
+	 *
+	 * @param method
+	 *            The method.
+	 * @return The invoker.
+	 */
+	public abstract FacadeInvoker newInvoker(Method method);
+
+	/**
+	 * Obtain the engine named by the <code>easyaccept.invoker</code> property.
+	 *
+	 * @return The default engine.
+	 */
+	public static InvocationEngine getDefault() {
+		return forName(System.getProperty(INVOKER_PROPERTY, REFLECTION.name));
+	}
+
+	/**
+	 * Obtain an engine by name.
+	 *
+	 * @param name
+	 *            <code>reflection</code> or <code>methodhandles</code>.
+	 * @return The engine.
+	 * @throws IllegalArgumentException
+	 *             if there is no engine with the name.
+	 */
+	public static InvocationEngine forName(String name) {
+		if (REFLECTION.name.equalsIgnoreCase(name)) {
+			return REFLECTION;
+		} else if (METHOD_HANDLES.name.equalsIgnoreCase(name)) {
+			return METHOD_HANDLES;
+		}
+		throw new IllegalArgumentException("Unknown invocation engine: " + name);
+	}
+
+	/**
+	 * Obtain a handle of type (Object, Object[])Object calling a method: the
+	 * first argument is the facade, the array holds the method's arguments,
+	 * unboxed as needed; a void method returns null.
+	 */
+	private static MethodHandle spreader(Method method) throws IllegalAccessException {
+		MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+		int arity = method.getParameterTypes().length;
+		if (Modifier.isStatic(method.getModifiers())) {
+			handle = MethodHandles.dropArguments(handle, 0, Object.class);
+		}
+		handle = handle.asType(MethodType.genericMethodType(arity + 1));
+		return handle.asSpreader(Object[].class, arity);
+	}
+
+	/**
+	 * Show the engine's name.
+	 */
+	public String toString() {
+		return name;
+	}
+}
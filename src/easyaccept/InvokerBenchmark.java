@@ -0,0 +1,90 @@
+package easyaccept;
+
+/**
+ * Compares the throughput of the invocation engines on tiny facade methods,
+ * the case where the cost of the call itself matters most.
+ * <p>
+ * <blockquote>
+ *
+ * <pre>
+ *
+ *      java -classpath ... easyaccept.InvokerBenchmark [calls]
+ *
+ * </pre>
+ *
+ * </blockquote>
+ *
+ * @author jacques
+ */
+public class InvokerBenchmark {
+
+	/**
+	 * The facade called by the benchmark.
+	 */
+	public static class Facade {
+		private long total;
+
+		public int add(int a, int b) {
+			return a + b;
+		}
+
+		public String echo(String s) {
+			return s;
+		}
+
+		public void count(Integer n) {
+			total += n.intValue();
+		}
+	}
+
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            the number of calls per method and round (default 2000000).
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		InvocationEngine[] engines = { InvocationEngine.REFLECTION, InvocationEngine.METHOD_HANDLES };
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int i = 0; i < engines.length; i++) {
+				long nanos = run(engines[i], calls);
+				if (round > 0) {
+					// the first round only warms up
+					System.out.println(engines[i] + ": " + (nanos / (3L * calls)) + " ns/call, "
+							+ (3L * calls * 1000000L / Math.max(nanos, 1)) + " calls/ms");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Call each method of the facade a number of times.
+	 *
+	 * @return The time taken, in nanoseconds.
+	 */
+	static long run(InvocationEngine engine, int calls) throws Exception {
+		Facade facade = new Facade();
+		FacadeMethodIndex index = FacadeMethodIndex.forClass(Facade.class);
+		FacadeInvoker add = index.getCandidates("add", 2)[0].getInvoker(engine);
+		FacadeInvoker echo = index.getCandidates("echo", 1)[0].getInvoker(engine);
+		FacadeInvoker count = index.getCandidates("count", 1)[0].getInvoker(engine);
+		Object[] addArgs = { Integer.valueOf(1), Integer.valueOf(2) };
+		Object[] echoArgs = { "x" };
+		Object[] countArgs = { Integer.valueOf(1) };
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+			add.invoke(facade, addArgs);
+			echo.invoke(facade, echoArgs);
+			count.invoke(facade, countArgs);
+		}
+		long nanos = System.nanoTime() - start;
+		if (facade.total != calls) {
+			throw new IllegalStateException("Calls were lost");
+		}
+		return nanos;
+	}
+}
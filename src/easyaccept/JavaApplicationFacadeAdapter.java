@@ -1,13 +1,18 @@
 package easyaccept;
 
-import java.lang.reflect.Method;
-
-import util.MethodMatcher;
 import util.ParsedLine;
+import easyaccept.annotation.AdapterSupport;
 
 /**
  * This class represents the java application facade adapter. It allows the EasyAccept to acces and test
  * a java application.
+ * <p>
+ * Commands are dispatched through the {@link FacadeMethodIndex} of the facade
+ * class: among the public methods with the command's name and number of
+ * arguments, its {@link OverloadResolver} chooses the one that executes the
+ * command. The arguments are converted without changing the parsed line. Methods are called through the invokers of
+ * an {@link InvocationEngine}, by default the one named by the
+ * <code>easyaccept.invoker</code> property.
  * 
  * @author Magno Jefferson
  * @author Alvaro Magnum
@@ -16,6 +21,8 @@ import util.ParsedLine;
 public class JavaApplicationFacadeAdapter implements Facade {
 	
 	private Object facade;
+	private FacadeMethodIndex methods;
+	private InvocationEngine engine = InvocationEngine.getDefault();
 	
 	/**
 	 * The JavaApplicationFacadeAdapter constructor.
@@ -23,8 +30,37 @@ public class JavaApplicationFacadeAdapter implements Facade {
 	 */
 	public JavaApplicationFacadeAdapter(Object facade) {
 		this.facade = facade;
+		if (facade != null) {
+			this.methods = FacadeMethodIndex.forClass(facade.getClass());
+		}
 	}
 	
+	/**
+	 * Obtain the adapter of a facade: the adapter generated at compile time
+	 * for its class, if the class is annotated with
+	 * {@link easyaccept.annotation.EasyAcceptFacade} and was compiled with the
+	 * {@link easyaccept.annotation.FacadeAdapterProcessor}, or else a
+	 * JavaApplicationFacadeAdapter. A {@link Facade}, such as a
+	 * {@link RoutingFacade}, is its own adapter.
+	 * @param facade facade object that allows the access to the java application.
+	 * @return the adapter.
+	 */
+	public static Facade adapt(Object facade) {
+		if (facade instanceof Facade) {
+			return (Facade) facade;
+		}
+		Facade adapter = facade == null ? null : AdapterSupport.newAdapter(facade);
+		return adapter != null ? adapter : new JavaApplicationFacadeAdapter(facade);
+	}
+
+	/**
+	 * Set the engine through which facade methods are called.
+	 * @param engine the invocation engine.
+	 */
+	public void setInvocationEngine(InvocationEngine engine) {
+		this.engine = engine;
+	}
+
 	/**
 	 * The invoke method is responsible to call the method invocation. The method to be
 	 * invoked and its arguments are passed by the parsedLine parameter.
@@ -37,11 +73,10 @@ public class JavaApplicationFacadeAdapter implements Facade {
 	 * @rerturn Object An object containing the results of the invoked test.
 	 */
 	public Object invoke(ParsedLine parsedLine, char stringDelimiter, int scriptLineNumber) throws Exception {
-		Method[] methods = facade.getClass().getMethods();
-		for (int i = 0; i < methods.length; i++) {
-			if (MethodMatcher.methodMatch(methods[i], parsedLine)) {
-				return methods[i].invoke(facade, parsedLine.getArgsValues());
-			}
+		assert parsedLine.numberOfParameters() > 0;
+		OverloadResolver.Call call = methods.getResolver().resolve(parsedLine);
+		if (call != null) {
+			return call.getCandidate().getInvoker(engine).invoke(facade, call.getArgs());
 		}
 		throw new EasyAcceptException("Line "+scriptLineNumber+": Unknown command: "
 				+ parsedLine.getCommandString(stringDelimiter));
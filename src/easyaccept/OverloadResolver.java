@@ -0,0 +1,462 @@
+package easyaccept;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import util.CallSite;
+import util.Converter;
+import util.ConverterException;
+import util.ConverterRegistry;
+import util.Parameter;
+import util.ParsedLine;
+
+/**
+ * Chooses the facade method that executes a command among the methods with its
+ * name and number of arguments, and converts the arguments for it, without
+ * changing the parsed line.
+ * <p>
+ * Each argument is classified by the kind of literal it is (integer, decimal,
+ * boolean, single character or text), and the candidates are ranked by how
+ * specifically their parameter types take those kinds: an integer literal
+ * prefers an <code>int</code> parameter to a <code>long</code>, a typed
+ * parameter to a String, and a String to an Object; a primitive parameter
+ * given a literal of another kind ranks below a String. Candidates of equal rank
+ * are ordered by signature, so a line binds the same way on every run. The
+ * command is executed by the first candidate, in rank order, that converts all
+ * the arguments.
+ * <p>
+ * The ranking of a call-site shape (the command name and the kinds of its
+ * arguments) is computed once, with the converters of each candidate, and
+ * reused by every command of the same shape. Converters registered after a
+ * shape is ranked are not seen by it.
+ * <p>
+ * Besides, each line keeps in its {@link CallSite} the overload it executed
+ * with the last time, if it was the first ranked or the line has no variable
+ * arguments. The overload is used again, without ranking, while the
+ * line has the same command name and its variable arguments (those obtained
+ * from variables) the same kinds of literals; constant arguments of immutable
+ * types (primitives, wrappers, Strings and enums) are not converted again.
+ *
+ * @author jacques
+ */
+public class OverloadResolver {
+
+	static final byte INTEGER = 0;
+	static final byte DECIMAL = 1;
+	static final byte BOOLEAN = 2;
+	static final byte CHARACTER = 3;
+	static final byte TEXT = 4;
+
+	/**
+	 * The maximum number of shapes kept; the cache is emptied when it is full.
+	 */
+	private static final int MAX_SHAPES = 4096;
+
+	private static final Overload[] NO_OVERLOADS = new Overload[0];
+
+	/**
+	 * A candidate method with the converters of its parameters.
+	 */
+	public static class Overload {
+		private final ConverterRegistry registry;
+		private final FacadeMethodIndex.Candidate candidate;
+		private final Converter[] converters;
+		private final int score;
+
+		Overload(ConverterRegistry registry, FacadeMethodIndex.Candidate candidate, Converter[] converters, int score) {
+			this.registry = registry;
+			this.candidate = candidate;
+			this.converters = converters;
+			this.score = score;
+		}
+
+		/**
+		 * @return The candidate method.
+		 */
+		public FacadeMethodIndex.Candidate getCandidate() {
+			return candidate;
+		}
+
+		/**
+		 * Convert the arguments of a command to the parameter types of the
+		 * method. The parsed line is not changed.
+		 * @param parsedLine
+		 * 			The command.
+		 * @return
+		 * 			The converted arguments.
+		 * @throws ConverterException
+		 * 			if an argument cannot be converted.
+		 */
+		public Object[] convert(ParsedLine parsedLine) throws ConverterException {
+			Object[] args = new Object[converters.length];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = convert(i, parsedLine.getParameter(i + 1));
+			}
+			return args;
+		}
+
+		private Object convert(int i, Parameter param) throws ConverterException {
+			Class<?> type = candidate.getParameterTypes()[i];
+			if (type == String.class) {
+				return param.getValue();
+			}
+			return registry.convert(converters[i], type, param.getValueAsString());
+		}
+	}
+
+	/**
+	 * The method chosen for a command, with the converted arguments.
+	 */
+	public static class Call {
+		private final Overload overload;
+		private final Object[] args;
+
+		Call(Overload overload, Object[] args) {
+			this.overload = overload;
+			this.args = args;
+		}
+
+		/**
+		 * @return The chosen overload.
+		 */
+		public Overload getOverload() {
+			return overload;
+		}
+
+		/**
+		 * @return The candidate method.
+		 */
+		public FacadeMethodIndex.Candidate getCandidate() {
+			return overload.candidate;
+		}
+
+		/**
+		 * @return The converted arguments.
+		 */
+		public Object[] getArgs() {
+			return args;
+		}
+	}
+
+	private static class Shape {
+		final String name;
+		final byte[] kinds;
+		final int hash;
+
+		Shape(String name, byte[] kinds) {
+			this.name = name;
+			this.kinds = kinds;
+			this.hash = 31 * name.hashCode() + Arrays.hashCode(kinds);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Shape)) {
+				return false;
+			}
+			Shape other = (Shape) o;
+			return hash == other.hash && name.equals(other.name) && Arrays.equals(kinds, other.kinds);
+		}
+	}
+
+	/**
+	 * The overload a line executed with the last time, kept in the call site
+	 * of the line. It applies while the line has the same command name and
+	 * its variable arguments the same kinds of literals; constant arguments
+	 * of immutable types are kept converted.
+	 */
+	private static class InlineBinding {
+		final OverloadResolver resolver;
+		final String name;
+		final byte[] kinds;
+		final Overload overload;
+		/**
+		 * Whether each argument is kept converted, and the converted arguments.
+		 */
+		final boolean[] kept;
+		final Object[] keptArgs;
+
+		InlineBinding(OverloadResolver resolver, String name, byte[] kinds, Overload overload, Object[] args,
+				CallSite site) {
+			this.resolver = resolver;
+			this.name = name;
+			this.kinds = kinds;
+			this.overload = overload;
+			this.kept = new boolean[args.length];
+			this.keptArgs = new Object[args.length];
+			Class<?>[] types = overload.candidate.getParameterTypes();
+			for (int i = 0; i < args.length; i++) {
+				if (site.isConstant(i + 1) && isImmutable(types[i])) {
+					kept[i] = true;
+					keptArgs[i] = args[i];
+				}
+			}
+		}
+
+		/**
+		 * Convert the arguments of a line if the binding applies to it.
+		 * @return
+		 * 			The call, or null if the binding does not apply.
+		 */
+		Call bind(ParsedLine parsedLine) {
+			if (parsedLine.numberOfParameters() - 1 != kinds.length) {
+				return null;
+			}
+			String lineName = parsedLine.getParameter(0).getValueAsString();
+			if (lineName != name && !lineName.equals(name)) {
+				return null;
+			}
+			Object[] args = new Object[kinds.length];
+			for (int i = 0; i < args.length; i++) {
+				if (kept[i]) {
+					args[i] = keptArgs[i];
+					continue;
+				}
+				Parameter param = parsedLine.getParameter(i + 1);
+				if (kindOf(param.getValueAsString()) != kinds[i]) {
+					return null;
+				}
+				try {
+					args[i] = overload.convert(i, param);
+				} catch (ConverterException e) {
+					return null;
+				}
+			}
+			return new Call(overload, args);
+		}
+	}
+
+	private static final Comparator<Overload> RANK = new Comparator<Overload>() {
+		public int compare(Overload a, Overload b) {
+			if (a.score != b.score) {
+				return a.score > b.score ? -1 : 1;
+			}
+			return a.candidate.getMethod().toString().compareTo(b.candidate.getMethod().toString());
+		}
+	};
+
+	private final FacadeMethodIndex index;
+	private final ConverterRegistry registry;
+	private final ConcurrentMap<Shape, Overload[]> shapes = new ConcurrentHashMap<Shape, Overload[]>();
+
+	/**
+	 * The OverloadResolver constructor.
+	 * @param index
+	 * 			The index of the facade methods.
+	 * @param registry
+	 * 			The registry of the converters.
+	 */
+	public OverloadResolver(FacadeMethodIndex index, ConverterRegistry registry) {
+		this.index = index;
+		this.registry = registry;
+	}
+
+	/**
+	 * Obtain the candidates for a command, in rank order.
+	 * @param parsedLine
+	 * 			The command.
+	 * @return
+	 * 			The ranked candidates; empty if no method has the command's name
+	 * 			and number of arguments. The array is shared and must not be
+	 * 			changed.
+	 */
+	public Overload[] getOverloads(ParsedLine parsedLine) {
+		return getOverloads(parsedLine.getParameter(0).getValueAsString(), kindsOf(parsedLine));
+	}
+
+	private static byte[] kindsOf(ParsedLine parsedLine) {
+		byte[] kinds = new byte[parsedLine.numberOfParameters() - 1];
+		for (int i = 0; i < kinds.length; i++) {
+			kinds[i] = kindOf(parsedLine.getParameter(i + 1).getValueAsString());
+		}
+		return kinds;
+	}
+
+	private Overload[] getOverloads(String name, byte[] kinds) {
+		FacadeMethodIndex.Candidate[] candidates = index.getCandidates(name, kinds.length);
+		if (candidates.length == 0) {
+			return NO_OVERLOADS;
+		}
+		Shape shape = new Shape(name, kinds);
+		Overload[] overloads = shapes.get(shape);
+		if (overloads == null) {
+			overloads = rank(candidates, kinds);
+			if (shapes.size() >= MAX_SHAPES) {
+				shapes.clear();
+			}
+			shapes.put(shape, overloads);
+		}
+		return overloads;
+	}
+
+	/**
+	 * Choose the method that executes a command and convert its arguments.
+	 * The overload chosen is kept in the call site of the line, and used again
+	 * while it applies (see the class comment).
+	 * @param parsedLine
+	 * 			The command.
+	 * @return
+	 * 			The call, or null if no method has the command's name and
+	 * 			number of arguments.
+	 * @throws ConverterException
+	 * 			if no candidate converts all the arguments; the exception is
+	 * 			that of the first ranked candidate.
+	 */
+	public Call resolve(ParsedLine parsedLine) throws ConverterException {
+		CallSite site = parsedLine.getCallSite();
+		Object cached = site.getBinding();
+		if (cached instanceof InlineBinding && ((InlineBinding) cached).resolver == this) {
+			Call call = ((InlineBinding) cached).bind(parsedLine);
+			if (call != null) {
+				return call;
+			}
+		}
+		String name = parsedLine.getParameter(0).getValueAsString();
+		byte[] kinds = kindsOf(parsedLine);
+		Overload[] overloads = getOverloads(name, kinds);
+		if (overloads.length == 0) {
+			return null;
+		}
+		ConverterException failure = null;
+		for (int i = 0; i < overloads.length; i++) {
+			try {
+				Object[] args = overloads[i].convert(parsedLine);
+				if (i == 0 || isConstant(site, kinds.length)) {
+					// a lower ranked overload may not suit other values of the variables
+					site.setBinding(new InlineBinding(this, name, kinds, overloads[i], args, site));
+				}
+				return new Call(overloads[i], args);
+			} catch (ConverterException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		throw failure;
+	}
+
+	private static boolean isConstant(CallSite site, int arity) {
+		for (int i = 0; i <= arity; i++) {
+			if (!site.isConstant(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Overload[] rank(FacadeMethodIndex.Candidate[] candidates, byte[] kinds) {
+		Overload[] overloads = new Overload[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			Class<?>[] types = candidates[i].getParameterTypes();
+			Converter[] converters = new Converter[types.length];
+			int score = 0;
+			for (int j = 0; j < types.length; j++) {
+				converters[j] = registry.getConverter(types[j]);
+				if (converters[j] == null) {
+					score = Integer.MIN_VALUE;
+				} else if (score != Integer.MIN_VALUE) {
+					score += score(types[j], kinds[j]);
+				}
+			}
+			overloads[i] = new Overload(registry, candidates[i], converters, score);
+		}
+		Arrays.sort(overloads, RANK);
+		return overloads;
+	}
+
+	/**
+	 * Classify an argument by the kind of literal it is.
+	 */
+	static byte kindOf(String value) {
+		int length = value.length();
+		int i = length > 1 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+		boolean digits = false;
+		boolean point = false;
+		boolean exponent = false;
+		for (; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits = true;
+			} else if (c == '.' && !point && !exponent) {
+				point = true;
+			} else if ((c == 'e' || c == 'E') && digits && !exponent && i + 1 < length) {
+				exponent = true;
+				if (value.charAt(i + 1) == '-' || value.charAt(i + 1) == '+') {
+					i++;
+				}
+			} else {
+				break;
+			}
+		}
+		if (i == length && digits) {
+			return point || exponent ? DECIMAL : INTEGER;
+		}
+		if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+			return BOOLEAN;
+		}
+		return length == 1 ? CHARACTER : TEXT;
+	}
+
+	/**
+	 * Score how specifically a parameter type takes a kind of literal.
+	 */
+	static int score(Class<?> type, byte kind) {
+		if (type == String.class) {
+			return 1;
+		}
+		if (type.isAssignableFrom(String.class)) {
+			return 0;
+		}
+		Class<?> wrapper = ConverterRegistry.wrapper(type);
+		switch (kind) {
+		case INTEGER:
+			if (wrapper == Integer.class) {
+				return 5;
+			} else if (wrapper == Long.class) {
+				return 4;
+			} else if (wrapper == Short.class || wrapper == Byte.class) {
+				return 3;
+			}
+			break;
+		case DECIMAL:
+			if (wrapper == Double.class) {
+				return 5;
+			} else if (wrapper == Float.class) {
+				return 4;
+			}
+			break;
+		case BOOLEAN:
+			if (wrapper == Boolean.class) {
+				return 5;
+			}
+			break;
+		case CHARACTER:
+			if (wrapper == Character.class) {
+				return 5;
+			}
+			break;
+		}
+		if (kind == INTEGER && (wrapper == Double.class || wrapper == Float.class)) {
+			return 2;
+		}
+		if (isWrapper(wrapper)) {
+			// a literal of another kind, which a lenient parser may still take
+			return -1;
+		}
+		return 2;
+	}
+
+	private static boolean isImmutable(Class<?> type) {
+		return type.isPrimitive() || type == String.class || isWrapper(type) || type.isEnum();
+	}
+
+	private static boolean isWrapper(Class<?> type) {
+		return type == Integer.class || type == Long.class || type == Short.class || type == Byte.class
+				|| type == Double.class || type == Float.class || type == Boolean.class || type == Character.class;
+	}
+}
@@ -0,0 +1,309 @@
+package easyaccept;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import util.ParsedLine;
+import easyaccept.remote.HttpFacade;
+import easyaccept.remote.ProcessFacade;
+import easyaccept.remote.RemoteFacade;
+
+/**
+ * A facade routing commands to several facades by namespace. A command
+ * qualified by a namespace (<code>billing.charge ...</code>) is executed by the
+ * facade of the namespace, as the unqualified command (<code>charge ...</code>);
+ * other commands are executed by the default facade, if there is one. Each
+ * facade keeps its own dispatch tables, so each stays as small as the facade.
+ * <p>
+ * The routing table is built once, when the facade is constructed, and the
+ * route of each command name is kept after its first use. Facades given by
+ * class name are constructed in parallel (see {@link #create(Map, ClassLoader)}).
+ * <p>
+ * Facades may be specified as text, in the form
+ * <code>default.Facade,billing=com.acme.BillingFacade,inventory=com.acme.InventoryFacade</code>:
+ * a class name without a namespace is the default facade (see
+ * {@link #parseSpecification(String)}).
+ *
+ * @author jacques
+ */
+public class RoutingFacade implements Facade {
+
+	/**
+	 * The character separating a namespace from a command.
+	 */
+	public static final char SEPARATOR = '.';
+
+	/**
+	 * The namespace of the default facade.
+	 */
+	public static final String DEFAULT_NAMESPACE = "";
+
+	/**
+	 * The maximum number of command names whose routes are kept; the routes
+	 * are forgotten when it is reached.
+	 */
+	private static final int MAX_ROUTES = 4096;
+
+	/**
+	 * The facade executing the commands of a name, and the name of the
+	 * command it executes (null if the name is unchanged).
+	 */
+	private static class Route {
+		final Facade facade;
+		final String command;
+
+		Route(Facade facade, String command) {
+			this.facade = facade;
+			this.command = command;
+		}
+	}
+
+	private final Map<String, Facade> namespaces;
+	private final Facade defaultFacade;
+	private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+
+	/**
+	 * The RoutingFacade constructor.
+	 * @param namespaces
+	 * 			The facade of each namespace; the facade of the
+	 * 			{@link #DEFAULT_NAMESPACE}, if any, executes the commands not
+	 * 			qualified by a namespace.
+	 */
+	public RoutingFacade(Map<String, Facade> namespaces) {
+		this.namespaces = new HashMap<String, Facade>(namespaces);
+		this.defaultFacade = this.namespaces.remove(DEFAULT_NAMESPACE);
+		for (String namespace : this.namespaces.keySet()) {
+			if (namespace.indexOf(SEPARATOR) >= 0) {
+				throw new IllegalArgumentException("Invalid namespace: " + namespace);
+			}
+		}
+	}
+
+	/**
+	 * Create a routing facade constructing its facades, in parallel. Each
+	 * facade object is adapted by {@link JavaApplicationFacadeAdapter#adapt(Object)};
+	 * an external facade may be given instead of a class (see
+	 * {@link #isExternal(String)}).
+	 * @param classNames
+	 * 			The facade class of each namespace.
+	 * @param loader
+	 * 			The class loader of the facade classes.
+	 * @return
+	 * 			The routing facade.
+	 * @throws ClassNotFoundException
+	 * 			if a facade class is not found.
+	 * @throws InstantiationException
+	 * 			if a facade cannot be constructed.
+	 * @throws IllegalAccessException
+	 * 			if a facade constructor is not accessible.
+	 */
+	public static RoutingFacade create(Map<String, String> classNames, final ClassLoader loader)
+			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(classNames.size(), Runtime
+				.getRuntime().availableProcessors())));
+		try {
+			List<String> namespaces = new ArrayList<String>(classNames.keySet());
+			List<Future<Facade>> facades = new ArrayList<Future<Facade>>();
+			for (final String namespace : namespaces) {
+				final String className = classNames.get(namespace);
+				facades.add(executor.submit(new Callable<Facade>() {
+					public Facade call() throws Exception {
+						if (isExternal(className)) {
+							return newExternalFacade(className);
+						}
+						return JavaApplicationFacadeAdapter.adapt(instantiate(Class.forName(className, true, loader)));
+					}
+				}));
+			}
+			Map<String, Facade> routed = new HashMap<String, Facade>();
+			for (int i = 0; i < namespaces.size(); i++) {
+				routed.put(namespaces.get(i), get(facades.get(i)));
+			}
+			return new RoutingFacade(routed);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Construct a facade object through the public constructor without
+	 * arguments of its class.
+	 * @param facadeClass
+	 * 			The facade class.
+	 * @return
+	 * 			The facade object.
+	 * @throws InstantiationException
+	 * 			if the class has no such constructor, is abstract, or its
+	 * 			constructor throws a checked exception (the cause).
+	 * @throws IllegalAccessException
+	 * 			if the constructor is not accessible.
+	 */
+	public static Object instantiate(Class<?> facadeClass) throws InstantiationException, IllegalAccessException {
+		try {
+			return facadeClass.getDeclaredConstructor().newInstance();
+		} catch (NoSuchMethodException e) {
+			InstantiationException failure = new InstantiationException("No constructor without arguments: "
+					+ facadeClass.getName());
+			failure.initCause(e);
+			throw failure;
+		} catch (InvocationTargetException e) {
+			Throwable target = e.getTargetException();
+			if (target instanceof RuntimeException) {
+				throw (RuntimeException) target;
+			} else if (target instanceof Error) {
+				throw (Error) target;
+			}
+			InstantiationException failure = new InstantiationException("Cannot construct " + facadeClass.getName()
+					+ ": " + target);
+			failure.initCause(target);
+			throw failure;
+		}
+	}
+
+	private static Facade get(Future<Facade> facade) throws ClassNotFoundException, InstantiationException,
+			IllegalAccessException {
+		try {
+			return facade.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InstantiationException("Interrupted while constructing the facades");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ClassNotFoundException) {
+				throw (ClassNotFoundException) cause;
+			} else if (cause instanceof InstantiationException) {
+				throw (InstantiationException) cause;
+			} else if (cause instanceof IllegalAccessException) {
+				throw (IllegalAccessException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			InstantiationException failure = new InstantiationException(cause.toString());
+			failure.initCause(cause);
+			throw failure;
+		}
+	}
+
+	/**
+	 * Inform if a facade name designates a facade outside this JVM: the
+	 * address of a {@link RemoteFacade}, the command line of a
+	 * {@link ProcessFacade} or the base URL of an {@link HttpFacade}.
+	 * @param facadeName
+	 * 			The facade name.
+	 * @return
+	 * 			true if it is not the name of a facade class.
+	 */
+	public static boolean isExternal(String facadeName) {
+		return RemoteFacade.isAddress(facadeName) || ProcessFacade.isCommand(facadeName)
+				|| HttpFacade.isUrl(facadeName);
+	}
+
+	/**
+	 * Create a facade outside this JVM.
+	 * @param facadeName
+	 * 			The facade name (see {@link #isExternal(String)}).
+	 * @return
+	 * 			The facade.
+	 */
+	public static Facade newExternalFacade(String facadeName) {
+		if (RemoteFacade.isAddress(facadeName)) {
+			return RemoteFacade.forAddress(facadeName);
+		} else if (HttpFacade.isUrl(facadeName)) {
+			return new HttpFacade(facadeName);
+		}
+		return ProcessFacade.forCommand(facadeName);
+	}
+
+	/**
+	 * Inform if a facade specification names several facades or namespaces.
+	 * @param specification
+	 * 			The facade specification.
+	 * @return
+	 * 			true if it is not a single class name.
+	 */
+	public static boolean isRouting(String specification) {
+		return specification.indexOf('=') >= 0 || specification.indexOf(',') >= 0;
+	}
+
+	/**
+	 * Parse a facade specification: class names separated by commas, each
+	 * preceded by its namespace and '=', or by nothing for the default facade.
+	 * @param specification
+	 * 			The facade specification.
+	 * @return
+	 * 			The class name of each namespace, in the order given.
+	 */
+	public static Map<String, String> parseSpecification(String specification) {
+		Map<String, String> classNames = new LinkedHashMap<String, String>();
+		String[] entries = specification.split(",");
+		for (int i = 0; i < entries.length; i++) {
+			String entry = entries[i].trim();
+			if (entry.length() == 0) {
+				continue;
+			}
+			int equals = entry.indexOf('=');
+			String namespace = equals < 0 ? DEFAULT_NAMESPACE : entry.substring(0, equals).trim();
+			if (classNames.put(namespace, entry.substring(equals + 1).trim()) != null) {
+				throw new IllegalArgumentException("Namespace given twice: " + namespace);
+			}
+		}
+		return classNames;
+	}
+
+	/**
+	 * Obtain the facade of a namespace.
+	 * @param namespace
+	 * 			The namespace.
+	 * @return
+	 * 			The facade, or null if there is none.
+	 */
+	public Facade getFacade(String namespace) {
+		return DEFAULT_NAMESPACE.equals(namespace) ? defaultFacade : namespaces.get(namespace);
+	}
+
+	/**
+	 * Execute a command through the facade of its namespace.
+	 */
+	public Object invoke(ParsedLine parsedLine, char stringDelimiter, int scriptLineNumber) throws Exception {
+		assert parsedLine.numberOfParameters() > 0;
+		String name = parsedLine.getParameter(0).getValueAsString();
+		Route route = routes.get(name);
+		if (route == null) {
+			route = route(name);
+			if (route == null) {
+				throw new EasyAcceptException("Line " + scriptLineNumber + ": Unknown command: "
+						+ parsedLine.getCommandString(stringDelimiter));
+			}
+			if (routes.size() >= MAX_ROUTES) {
+				routes.clear();
+			}
+			routes.put(name, route);
+		}
+		return route.facade.invoke(route.command == null ? parsedLine : parsedLine.withCommand(route.command),
+				stringDelimiter, scriptLineNumber);
+	}
+
+	private Route route(String name) {
+		int separator = name.indexOf(SEPARATOR);
+		if (separator > 0) {
+			Facade facade = namespaces.get(name.substring(0, separator));
+			if (facade != null) {
+				return new Route(facade, name.substring(separator + 1));
+			}
+		}
+		return defaultFacade == null ? null : new Route(defaultFacade, null);
+	}
+}
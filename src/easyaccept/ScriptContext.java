@@ -0,0 +1,105 @@
+package easyaccept;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The execution of a script, with the scripts it executes in its thread
+ * through <code>executeScript</code> and its <code>async</code> commands. A
+ * facade keeping state for each script, such as a process facade, ties the
+ * state to the current context rather than to the current thread, and
+ * releases it when the context ends.
+ * <p>
+ * A context is current in the thread executing its script and, while they
+ * run, in the threads executing its commands for it (async commands and
+ * commands with a time limit). A script started with no current context,
+ * such as a script executed by <code>executeScript</code> on the thread pool,
+ * has a context of its own, which ends with the script.
+ *
+ * @author jacques
+ */
+public final class ScriptContext {
+
+	private static final ThreadLocal<ScriptContext> current = new ThreadLocal<ScriptContext>();
+
+	private final List<Runnable> endActions = new ArrayList<Runnable>();
+	private boolean ended;
+
+	/**
+	 * Obtain the context of the script the current thread executes.
+	 * @return
+	 * 			The context, or null if the thread executes no script.
+	 */
+	public static ScriptContext current() {
+		return current.get();
+	}
+
+	/**
+	 * Make the context current in the calling thread.
+	 * @return
+	 * 			The context current before, to be given back to
+	 * 			{@link #exit(ScriptContext)}.
+	 */
+	public ScriptContext enter() {
+		ScriptContext previous = current.get();
+		current.set(this);
+		return previous;
+	}
+
+	/**
+	 * Make the context current before {@link #enter()} current again in the
+	 * calling thread.
+	 * @param previous
+	 * 			The context returned by enter(), or null.
+	 */
+	public static void exit(ScriptContext previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * Run an action when the context ends, or at once if it has ended.
+	 * @param action
+	 * 			The action.
+	 */
+	public void onEnd(Runnable action) {
+		synchronized (this) {
+			if (!ended) {
+				endActions.add(action);
+				return;
+			}
+		}
+		action.run();
+	}
+
+	/**
+	 * End the context, running the actions waiting for its end in the order
+	 * they were given. Ending a context again does nothing.
+	 */
+	public void end() {
+		List<Runnable> actions;
+		synchronized (this) {
+			if (ended) {
+				return;
+			}
+			ended = true;
+			actions = new ArrayList<Runnable>(endActions);
+			endActions.clear();
+		}
+		for (Runnable action : actions) {
+			action.run();
+		}
+	}
+
+	/**
+	 * Inform if the context has ended.
+	 * @return
+	 * 			true once {@link #end()} was called.
+	 */
+	public synchronized boolean isEnded() {
+		return ended;
+	}
+}
@@ -0,0 +1,86 @@
+package easyaccept;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+import util.Parameter;
+import util.ParsedLine;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests the index of facade methods and the dispatch through it.
+ * @author jacques
+ */
+public class TestFacadeMethodIndex extends TestCase {
+
+	/**
+	 * Methods are found by name and number of parameters, in the order a scan
+	 * of the methods finds them.
+	 */
+	public void testCandidates() {
+		FacadeMethodIndex index = FacadeMethodIndex.forClass(TestFacade.class);
+		assertSame(index, FacadeMethodIndex.forClass(TestFacade.class));
+		assertEquals(1, index.getCandidates("commandReturningString", 0).length);
+		FacadeMethodIndex.Candidate[] candidates = index.getCandidates("commandReturningString", 1);
+		assertEquals(1, candidates.length);
+		assertEquals(String.class, candidates[0].getParameterTypes()[0]);
+		assertEquals(0, index.getCandidates("commandReturningString", 2).length);
+		assertEquals(0, index.getCandidates("noSuchCommand", 0).length);
+
+		Method[] methods = TestFacade.class.getMethods();
+		int waits = 0;
+		for (int i = 0; i < methods.length; i++) {
+			if (methods[i].getName().equals("wait") && methods[i].getParameterTypes().length == 1) {
+				assertEquals(methods[i], index.getCandidates("wait", 1)[waits++].getMethod());
+			}
+		}
+		assertEquals(waits, index.getCandidates("wait", 1).length);
+	}
+
+	/**
+	 * Both engines call the method and wrap what the method throws; static
+	 * methods are called without a facade.
+	 * @throws Exception
+	 */
+	public void testEngines() throws Exception {
+		InvocationEngine[] engines = { InvocationEngine.REFLECTION, InvocationEngine.METHOD_HANDLES };
+		FacadeMethodIndex index = FacadeMethodIndex.forClass(TestFacade.class);
+		for (int i = 0; i < engines.length; i++) {
+			TestFacade facade = new TestFacade();
+			FacadeInvoker invoker = index.getCandidates("commandReturningInt", 1)[0].getInvoker(engines[i]);
+			assertSame(invoker, index.getCandidates("commandReturningInt", 1)[0].getInvoker(engines[i]));
+			assertEquals(Integer.valueOf(8), invoker.invoke(facade, new Object[] { Integer.valueOf(7) }));
+			invoker = index.getCandidates("throwException", 1)[0].getInvoker(engines[i]);
+			try {
+				invoker.invoke(facade, new Object[] { "boom" });
+				fail("InvocationTargetException expected");
+			} catch (InvocationTargetException e) {
+				assertEquals("boom", e.getCause().getMessage());
+			}
+		}
+		FacadeInvoker parseInt = FacadeMethodIndex.forClass(Integer.class).getCandidates("parseInt", 1)[0]
+				.getInvoker(InvocationEngine.METHOD_HANDLES);
+		assertEquals(Integer.valueOf(12), parseInt.invoke(null, new Object[] { "12" }));
+		assertSame(InvocationEngine.REFLECTION, InvocationEngine.forName("Reflection"));
+	}
+
+	/**
+	 * The adapter converts the arguments to the parameter types of the method.
+	 * @throws Exception
+	 */
+	public void testInvoke() throws Exception {
+		JavaApplicationFacadeAdapter adapter = new JavaApplicationFacadeAdapter(new TestFacade());
+		ParsedLine line = new ParsedLine();
+		line.addParameter(new Parameter(null, "commandReturningInt"));
+		line.addParameter(new Parameter(null, "41"));
+		assertEquals(Integer.valueOf(42), adapter.invoke(line, '"', 1));
+		line.getParameter(0).setValue("commandReturningIntX");
+		try {
+			adapter.invoke(line, '"', 3);
+			fail("EasyAcceptException expected");
+		} catch (EasyAcceptException e) {
+			assertTrue(e.getMessage().startsWith("Line 3: Unknown command: commandReturningIntX"));
+		}
+	}
+}
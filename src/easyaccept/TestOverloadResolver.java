@@ -0,0 +1,164 @@
+package easyaccept;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import util.CallSite;
+import util.ConverterException;
+import util.Parameter;
+import util.ParsedLine;
+
+/**
+ * Tests the choice among overloaded facade methods.
+ * @author jacques
+ */
+public class TestOverloadResolver extends TestCase {
+
+	/**
+	 * A facade with overloaded commands.
+	 */
+	public static class OverloadedFacade {
+		public String f(String s) {
+			return "String";
+		}
+
+		public String f(int i) {
+			return "int";
+		}
+
+		public String f(long l) {
+			return "long";
+		}
+
+		public String f(boolean b) {
+			return "boolean";
+		}
+
+		public String g(TimeUnit unit) {
+			return "TimeUnit";
+		}
+
+		public String g(String s) {
+			return "String";
+		}
+
+		public String h(int i, int j) {
+			return "int int";
+		}
+
+		public String h(String s, String t) {
+			return "String String";
+		}
+
+		public String k(Runnable r) {
+			return "Runnable";
+		}
+	}
+
+	private static ParsedLine line(String[] words) {
+		ParsedLine parsedLine = new ParsedLine();
+		for (int i = 0; i < words.length; i++) {
+			parsedLine.addParameter(new Parameter(null, words[i]));
+		}
+		return parsedLine;
+	}
+
+	private static String resolve(String[] words) throws Exception {
+		OverloadResolver.Call call = FacadeMethodIndex.forClass(OverloadedFacade.class).getResolver().resolve(
+				line(words));
+		return (String) call.getCandidate().getMethod().invoke(new OverloadedFacade(), call.getArgs());
+	}
+
+	/**
+	 * Literal kinds are recognized.
+	 */
+	public void testKinds() {
+		assertEquals(OverloadResolver.INTEGER, OverloadResolver.kindOf("-13"));
+		assertEquals(OverloadResolver.DECIMAL, OverloadResolver.kindOf("1.5e-3"));
+		assertEquals(OverloadResolver.BOOLEAN, OverloadResolver.kindOf("True"));
+		assertEquals(OverloadResolver.CHARACTER, OverloadResolver.kindOf("-"));
+		assertEquals(OverloadResolver.TEXT, OverloadResolver.kindOf("1.2.3"));
+		assertEquals(OverloadResolver.TEXT, OverloadResolver.kindOf(""));
+	}
+
+	/**
+	 * The most specific candidate that converts the arguments is chosen.
+	 * @throws Exception
+	 */
+	public void testMostSpecific() throws Exception {
+		assertEquals("int", resolve(new String[] { "f", "13" }));
+		assertEquals("long", resolve(new String[] { "f", "99999999999" }));
+		assertEquals("boolean", resolve(new String[] { "f", "true" }));
+		assertEquals("String", resolve(new String[] { "f", "abc" }));
+		assertEquals("TimeUnit", resolve(new String[] { "g", "SECONDS" }));
+		assertEquals("String", resolve(new String[] { "g", "FORTNIGHTS" }));
+		assertEquals("int int", resolve(new String[] { "h", "1", "2" }));
+		assertEquals("String String", resolve(new String[] { "h", "1", "x" }));
+	}
+
+	/**
+	 * Resolution leaves the parsed line unchanged, and the ranking of a shape
+	 * is reused.
+	 * @throws Exception
+	 */
+	public void testNoSideEffects() throws Exception {
+		OverloadResolver resolver = FacadeMethodIndex.forClass(OverloadedFacade.class).getResolver();
+		ParsedLine parsedLine = line(new String[] { "h", "1", "x" });
+		resolver.resolve(parsedLine);
+		assertEquals("1", parsedLine.getParameter(1).getValue());
+		assertEquals("x", parsedLine.getParameter(2).getValue());
+		assertSame(resolver.getOverloads(parsedLine), resolver.getOverloads(line(new String[] { "h", "7", "y" })));
+		assertEquals(0, resolver.getOverloads(line(new String[] { "f", "1", "2", "3" })).length);
+		assertNull(resolver.resolve(line(new String[] { "nothing" })));
+	}
+
+	/**
+	 * A command no candidate can take reports the conversion problem.
+	 */
+	public void testNoConversion() {
+		try {
+			resolve(new String[] { "k", "x" });
+			fail();
+		} catch (ConverterException e) {
+			assertEquals("Problems during Type Conversion - x to interface java.lang.Runnable", e.getMessage());
+		} catch (Exception e) {
+			fail(e.toString());
+		}
+	}
+
+	/**
+	 * A line keeps its overload in its call site while the kinds of its
+	 * variable arguments are the same, and only keeps the first ranked one.
+	 * @throws Exception
+	 */
+	public void testInlineCache() throws Exception {
+		OverloadResolver resolver = FacadeMethodIndex.forClass(OverloadedFacade.class).getResolver();
+		CallSite site = new CallSite(new boolean[] { true, false });
+		ParsedLine parsedLine = line(new String[] { "f", "13" });
+		parsedLine.setCallSite(site);
+		assertEquals(Integer.valueOf(13), resolver.resolve(parsedLine).getArgs()[0]);
+		Object binding = site.getBinding();
+		assertNotNull(binding);
+		parsedLine.getParameter(1).setValue("14");
+		assertEquals(Integer.valueOf(14), resolver.resolve(parsedLine).getArgs()[0]);
+		assertSame(binding, site.getBinding());
+		parsedLine.getParameter(1).setValue("abc");
+		assertEquals("abc", resolver.resolve(parsedLine).getArgs()[0]);
+		assertNotSame(binding, site.getBinding());
+
+		site = new CallSite(new boolean[] { true, false });
+		parsedLine = line(new String[] { "g", "FORTNIGHTS" });
+		parsedLine.setCallSite(site);
+		assertEquals("String", resolver.resolve(parsedLine).getCandidate().getMethod().invoke(new OverloadedFacade(),
+				new Object[] { "x" }));
+		assertNull(site.getBinding());
+		parsedLine.getParameter(1).setValue("SECONDS");
+		assertEquals(TimeUnit.SECONDS, resolver.resolve(parsedLine).getArgs()[0]);
+
+		site = new CallSite(new boolean[] { true, true });
+		parsedLine = line(new String[] { "f", "7" });
+		parsedLine.setCallSite(site);
+		Object seven = resolver.resolve(parsedLine).getArgs()[0];
+		assertSame(seven, resolver.resolve(parsedLine).getArgs()[0]);
+	}
+}
@@ -0,0 +1,177 @@
+package easyaccept;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import util.Parameter;
+import util.ParsedLine;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests the routing of commands to the facades of their namespaces.
+ * @author jacques
+ */
+public class TestRoutingFacade extends TestCase {
+
+	private static final String TEST_FILES_PATH = "src" + File.separator + "easyaccept" + File.separator + "script"
+			+ File.separator + "test" + File.separator;
+
+	/**
+	 * A facade telling which facade executed a command.
+	 */
+	public static class NamedFacade {
+		private final String name;
+
+		public NamedFacade() {
+			this("default");
+		}
+
+		NamedFacade(String name) {
+			this.name = name;
+		}
+
+		public String who(String arg) {
+			return name + ":" + arg;
+		}
+	}
+
+	/**
+	 * A facade whose constructor fails with a checked exception.
+	 */
+	public static class FailingFacade {
+		public FailingFacade() throws Exception {
+			throw new Exception("no database");
+		}
+	}
+
+	private static ParsedLine line(String[] words) {
+		ParsedLine parsedLine = new ParsedLine();
+		for (int i = 0; i < words.length; i++) {
+			parsedLine.addParameter(new Parameter(null, words[i]));
+		}
+		return parsedLine;
+	}
+
+	private static RoutingFacade routing(boolean withDefault) {
+		Map<String, Facade> namespaces = new HashMap<String, Facade>();
+		namespaces.put("billing", JavaApplicationFacadeAdapter.adapt(new NamedFacade("billing")));
+		namespaces.put("stock", JavaApplicationFacadeAdapter.adapt(new NamedFacade("stock")));
+		if (withDefault) {
+			namespaces.put(RoutingFacade.DEFAULT_NAMESPACE, JavaApplicationFacadeAdapter.adapt(new NamedFacade()));
+		}
+		return new RoutingFacade(namespaces);
+	}
+
+	/**
+	 * Qualified commands are executed by the facade of their namespace, the
+	 * others by the default facade.
+	 */
+	public void testRouting() throws Exception {
+		RoutingFacade facade = routing(true);
+		for (int i = 0; i < 2; i++) {
+			assertEquals("billing:1", facade.invoke(line(new String[] { "billing.who", "1" }), '"', 1));
+			assertEquals("stock:2", facade.invoke(line(new String[] { "stock.who", "2" }), '"', 1));
+			assertEquals("default:3", facade.invoke(line(new String[] { "who", "3" }), '"', 1));
+		}
+		try {
+			facade.invoke(line(new String[] { "other.who", "4" }), '"', 7);
+			fail("The default facade has no other.who command");
+		} catch (EasyAcceptException e) {
+			assertTrue(e.getMessage(), e.getMessage().indexOf("other.who") >= 0);
+		}
+	}
+
+	/**
+	 * Without a default facade, unqualified commands are unknown.
+	 */
+	public void testNoDefault() throws Exception {
+		RoutingFacade facade = routing(false);
+		assertNull(facade.getFacade(RoutingFacade.DEFAULT_NAMESPACE));
+		assertEquals("billing:1", facade.invoke(line(new String[] { "billing.who", "1" }), '"', 1));
+		try {
+			facade.invoke(line(new String[] { "who", "3" }), '"', 7);
+			fail("There is no default facade");
+		} catch (EasyAcceptException e) {
+			assertEquals("Line 7: Unknown command: who 3", e.getMessage());
+		}
+	}
+
+	/**
+	 * A routed line shares the arguments of the line, which is unchanged.
+	 */
+	public void testWithCommand() {
+		ParsedLine parsedLine = line(new String[] { "billing.who", "1" });
+		ParsedLine routed = parsedLine.withCommand("who");
+		assertEquals("who 1", routed.getCommandString('"'));
+		assertEquals("billing.who 1", parsedLine.getCommandString('"'));
+		assertSame(parsedLine.getParameter(1), routed.getParameter(1));
+		assertSame(parsedLine.getCallSite(), routed.getCallSite());
+		assertTrue(parsedLine.freeze().withCommand("who").isFrozen());
+	}
+
+	/**
+	 * Specifications name the facade class of each namespace.
+	 */
+	public void testParseSpecification() {
+		assertFalse(RoutingFacade.isRouting("a.Facade"));
+		assertTrue(RoutingFacade.isRouting("a.Facade,b=b.Facade"));
+		Map<String, String> classNames = RoutingFacade.parseSpecification(" a.Facade , b = b.Facade,c=c.Facade");
+		List<String> namespaces = new ArrayList<String>(classNames.keySet());
+		assertEquals(3, namespaces.size());
+		assertEquals(RoutingFacade.DEFAULT_NAMESPACE, namespaces.get(0));
+		assertEquals("a.Facade", classNames.get(RoutingFacade.DEFAULT_NAMESPACE));
+		assertEquals("b.Facade", classNames.get("b"));
+		assertEquals("c", namespaces.get(2));
+		try {
+			RoutingFacade.parseSpecification("b=b.Facade,b=c.Facade");
+			fail("Namespace b is given twice");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Facades are constructed from their class names, and a missing class is
+	 * reported as such.
+	 */
+	public void testCreate() throws Exception {
+		Map<String, String> classNames = RoutingFacade.parseSpecification(NamedFacade.class.getName() + ",app="
+				+ TestFacade.class.getName());
+		RoutingFacade facade = RoutingFacade.create(classNames, getClass().getClassLoader());
+		assertEquals("default:x", facade.invoke(line(new String[] { "who", "x" }), '"', 1));
+		assertEquals(Integer.valueOf(4), facade.invoke(line(new String[] { "app.commandReturningInt", "3" }), '"', 1));
+		try {
+			RoutingFacade.create(RoutingFacade.parseSpecification("app=no.such.Facade"), getClass().getClassLoader());
+			fail("The facade class does not exist");
+		} catch (ClassNotFoundException e) {
+			// expected
+		}
+		try {
+			RoutingFacade.create(RoutingFacade.parseSpecification("app=" + FailingFacade.class.getName()), getClass()
+					.getClassLoader());
+			fail("The facade constructor fails");
+		} catch (InstantiationException e) {
+			assertEquals("no database", e.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * Scripts use qualified commands.
+	 */
+	public void testScript() throws Exception {
+		Map<String, String> classNames = RoutingFacade.parseSpecification(TestFacade.class.getName() + ",app="
+				+ TestFacade.class.getName());
+		String file = TEST_FILES_PATH + "scriptRouting.txt";
+		List<String> files = new ArrayList<String>();
+		files.add(file);
+		EasyAcceptFacade easyAcceptFacade = new EasyAcceptFacade(RoutingFacade.create(classNames, getClass()
+				.getClassLoader()), files);
+		easyAcceptFacade.executeTests();
+		assertEquals(3, easyAcceptFacade.getScriptNumberOfPassedTests(file));
+		assertEquals(0, easyAcceptFacade.getScriptNumberOfNotPassedTests(file));
+	}
+}
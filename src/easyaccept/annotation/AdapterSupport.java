@@ -0,0 +1,189 @@
+package easyaccept.annotation;
+
+import util.ConverterException;
+import util.ConverterRegistry;
+import util.Parameter;
+import util.ParsedLine;
+import easyaccept.Facade;
+
+/**
+ * Support for the adapters generated by the {@link FacadeAdapterProcessor}:
+ * the conversion of command arguments, and the creation of the adapter of a
+ * facade. The conversion methods take the command and the position of the
+ * argument in it.
+ * <p>
+ * Arguments of primitive, wrapper, String and enum types are converted
+ * directly; arguments of other types through the default
+ * {@link ConverterRegistry}. Conversion failures are reported as by the
+ * registry.
+ *
+ * @author jacques
+ */
+public class AdapterSupport {
+
+	/**
+	 * The suffix of the names of the generated adapters.
+	 */
+	public static final String SUFFIX = "EasyAcceptAdapter";
+
+	private AdapterSupport() {
+	}
+
+	/**
+	 * Obtain the name of the adapter generated for a facade class.
+	 * @param facadeClassName
+	 * 			The binary name of the facade class.
+	 * @return
+	 * 			The binary name of the adapter: the facade class name, with the
+	 * 			names of nested classes joined by '_', followed by
+	 * 			{@link #SUFFIX}.
+	 */
+	public static String adapterName(String facadeClassName) {
+		int packageEnd = facadeClassName.lastIndexOf('.') + 1;
+		return facadeClassName.substring(0, packageEnd) + facadeClassName.substring(packageEnd).replace('$', '_') + SUFFIX;
+	}
+
+	/**
+	 * Create the generated adapter of a facade.
+	 * @param facade
+	 * 			The facade.
+	 * @return
+	 * 			The adapter, or null if no class of the facade annotated with
+	 * 			{@link EasyAcceptFacade} has a generated adapter.
+	 */
+	public static Facade newAdapter(Object facade) {
+		for (Class<?> c = facade.getClass(); c != null; c = c.getSuperclass()) {
+			if (c.isAnnotationPresent(EasyAcceptFacade.class)) {
+				try {
+					Class<?> adapter = Class.forName(adapterName(c.getName()), true, c.getClassLoader());
+					return (Facade) adapter.getConstructor(c).newInstance(facade);
+				} catch (Exception e) {
+					// compiled without the processor
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String value(ParsedLine parsedLine, int parameter) {
+		return parsedLine.getParameter(parameter).getValueAsString();
+	}
+
+	/**
+	 * Convert an argument to a String: its value as a string.
+	 */
+	public static String toString(ParsedLine parsedLine, int parameter) {
+		Parameter param = parsedLine.getParameter(parameter);
+		return param.getValue() == null ? null : param.getValueAsString();
+	}
+
+	/**
+	 * Convert an argument to an int.
+	 */
+	public static int toInt(ParsedLine parsedLine, int parameter) throws ConverterException {
+		String value = value(parsedLine, parameter);
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw ConverterRegistry.failure(Integer.TYPE, value);
+		}
+	}
+
+	/**
+	 * Convert an argument to a long.
+	 */
+	public static long toLong(ParsedLine parsedLine, int parameter) throws ConverterException {
+		String value = value(parsedLine, parameter);
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw ConverterRegistry.failure(Long.TYPE, value);
+		}
+	}
+
+	/**
+	 * Convert an argument to a short.
+	 */
+	public static short toShort(ParsedLine parsedLine, int parameter) throws ConverterException {
+		String value = value(parsedLine, parameter);
+		try {
+			return Short.parseShort(value);
+		} catch (NumberFormatException e) {
+			throw ConverterRegistry.failure(Short.TYPE, value);
+		}
+	}
+
+	/**
+	 * Convert an argument to a byte.
+	 */
+	public static byte toByte(ParsedLine parsedLine, int parameter) throws ConverterException {
+		String value = value(parsedLine, parameter);
+		try {
+			return Byte.parseByte(value);
+		} catch (NumberFormatException e) {
+			throw ConverterRegistry.failure(Byte.TYPE, value);
+		}
+	}
+
+	/**
+	 * Convert an argument to a double.
+	 */
+	public static double toDouble(ParsedLine parsedLine, int parameter) throws ConverterException {
+		String value = value(parsedLine, parameter);
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw ConverterRegistry.failure(Double.TYPE, value);
+		}
+	}
+
+	/**
+	 * Convert an argument to a float.
+	 */
+	public static float toFloat(ParsedLine parsedLine, int parameter) throws ConverterException {
+		String value = value(parsedLine, parameter);
+		try {
+			return Float.parseFloat(value);
+		} catch (NumberFormatException e) {
+			throw ConverterRegistry.failure(Float.TYPE, value);
+		}
+	}
+
+	/**
+	 * Convert an argument to a boolean: true if it is "true", ignoring case.
+	 */
+	public static boolean toBoolean(ParsedLine parsedLine, int parameter) {
+		return Boolean.parseBoolean(value(parsedLine, parameter));
+	}
+
+	/**
+	 * Convert an argument of a single character to a char.
+	 */
+	public static char toChar(ParsedLine parsedLine, int parameter) throws ConverterException {
+		String value = value(parsedLine, parameter);
+		if (value.length() != 1) {
+			throw ConverterRegistry.failure(Character.TYPE, value);
+		}
+		return value.charAt(0);
+	}
+
+	/**
+	 * Convert an argument to the enum constant it names.
+	 */
+	public static <E extends Enum<E>> E toEnum(ParsedLine parsedLine, int parameter, Class<E> type)
+			throws ConverterException {
+		String value = value(parsedLine, parameter);
+		try {
+			return Enum.valueOf(type, value);
+		} catch (IllegalArgumentException e) {
+			throw ConverterRegistry.failure(type, value);
+		}
+	}
+
+	/**
+	 * Convert an argument through the default converter registry.
+	 */
+	public static Object convert(ParsedLine parsedLine, int parameter, Class<?> type) throws ConverterException {
+		return ConverterRegistry.getDefault().convert(type, value(parsedLine, parameter));
+	}
+}
@@ -0,0 +1,30 @@
+package easyaccept.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a facade class for which the {@link FacadeAdapterProcessor} generates
+ * an adapter at compile time. The adapter executes commands by calling the
+ * facade methods directly, without reflection; EasyAccept uses it instead of a
+ * <code>JavaApplicationFacadeAdapter</code> when it is found (see
+ * {@link AdapterSupport#newAdapter(Object)}).
+ *
+ * @author jacques
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface EasyAcceptFacade {
+
+	/**
+	 * The script files whose commands are checked against the facade at
+	 * compile time, relative to the directory the compiler runs in. A command
+	 * that is neither an internal command nor a facade method with its number
+	 * of arguments is a compilation error.
+	 */
+	String[] scripts() default {};
+}
@@ -0,0 +1,333 @@
+package easyaccept.annotation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import util.ChannelDecoder;
+import util.ParsedLine;
+import util.ParsingException;
+import util.ScriptLexer;
+import util.Template;
+import easyaccept.EasyAcceptSyntax;
+
+/**
+ * Generates the adapter of each facade class annotated with
+ * {@link EasyAcceptFacade}: a {@link easyaccept.Facade} that executes commands
+ * by switching on the command name and number of arguments and calling the
+ * facade method directly, with its arguments converted by
+ * {@link AdapterSupport}. No reflection is used to find or call the methods.
+ * <p>
+ * The commands are the public methods of the facade class, as for a
+ * <code>JavaApplicationFacadeAdapter</code>. Overloaded methods with the same
+ * number of parameters are chosen among at run time, by a
+ * <code>JavaApplicationFacadeAdapter</code>, since the choice depends on the
+ * arguments. Exceptions thrown by facade methods are wrapped in an
+ * InvocationTargetException, as reflective calls wrap them.
+ * <p>
+ * The adapter is generated in the package of the facade, named after it (see
+ * {@link AdapterSupport#adapterName(String)}). If the annotation names script
+ * files, their commands are checked against the facade.
+ *
+ * @author jacques
+ */
+@SupportedAnnotationTypes("easyaccept.annotation.EasyAcceptFacade")
+public class FacadeAdapterProcessor extends AbstractProcessor {
+
+	/**
+	 * The position of the command executed by each internal command that
+	 * executes another.
+	 */
+	private static final Map<String, Integer> NESTED_COMMANDS = new HashMap<String, Integer>();
+
+	static {
+		NESTED_COMMANDS.put("expect", 2);
+		NESTED_COMMANDS.put("expectdifferent", 2);
+		NESTED_COMMANDS.put("expecterror", 2);
+		NESTED_COMMANDS.put("expectwithin", 3);
+		NESTED_COMMANDS.put("repeat", 2);
+		NESTED_COMMANDS.put("stacktrace", 1);
+		NESTED_COMMANDS.put("timetrace", 1);
+		NESTED_COMMANDS.put("within", 2);
+		NESTED_COMMANDS.put("async", 1);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(EasyAcceptFacade.class)) {
+			if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.PRIVATE)) {
+				error("@EasyAcceptFacade applies to non-private classes", element);
+				continue;
+			}
+			TypeElement facade = (TypeElement) element;
+			Map<String, Map<Integer, List<ExecutableElement>>> commands = getCommands(facade);
+			try {
+				generate(facade, commands);
+			} catch (IOException e) {
+				error("Cannot write the adapter of " + facade.getQualifiedName() + ": " + e.getMessage(), facade);
+			}
+			String[] scripts = facade.getAnnotation(EasyAcceptFacade.class).scripts();
+			for (int i = 0; i < scripts.length; i++) {
+				checkScript(facade, commands, scripts[i]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Obtain the public methods of a facade class, by name and number of
+	 * parameters.
+	 */
+	private Map<String, Map<Integer, List<ExecutableElement>>> getCommands(TypeElement facade) {
+		Map<String, Map<Integer, List<ExecutableElement>>> commands = new TreeMap<String, Map<Integer, List<ExecutableElement>>>();
+		for (Element member : processingEnv.getElementUtils().getAllMembers(facade)) {
+			if (member.getKind() != ElementKind.METHOD || !member.getModifiers().contains(Modifier.PUBLIC)) {
+				continue;
+			}
+			ExecutableElement method = (ExecutableElement) member;
+			String name = method.getSimpleName().toString();
+			Map<Integer, List<ExecutableElement>> byArity = commands.get(name);
+			if (byArity == null) {
+				byArity = new TreeMap<Integer, List<ExecutableElement>>();
+				commands.put(name, byArity);
+			}
+			int arity = method.getParameters().size();
+			if (!byArity.containsKey(arity)) {
+				byArity.put(arity, new ArrayList<ExecutableElement>());
+			}
+			byArity.get(arity).add(method);
+		}
+		return commands;
+	}
+
+	private void generate(TypeElement facade, Map<String, Map<Integer, List<ExecutableElement>>> commands)
+			throws IOException {
+		String packageName = processingEnv.getElementUtils().getPackageOf(facade).getQualifiedName().toString();
+		String adapterName = AdapterSupport.adapterName(processingEnv.getElementUtils().getBinaryName(facade).toString());
+		String simpleName = adapterName.substring(adapterName.lastIndexOf('.') + 1);
+		String facadeType = processingEnv.getTypeUtils().erasure(facade.asType()).toString();
+
+		PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(adapterName, facade).openWriter());
+		try {
+			if (packageName.length() > 0) {
+				out.println("package " + packageName + ";");
+				out.println();
+			}
+			out.println("import easyaccept.annotation.AdapterSupport;");
+			out.println();
+			out.println("/**");
+			out.println(" * The EasyAccept adapter of {@link " + facadeType + "}, generated by the");
+			out.println(" * {@link easyaccept.annotation.FacadeAdapterProcessor}.");
+			out.println(" */");
+			out.println("public final class " + simpleName + " implements easyaccept.Facade {");
+			out.println();
+			out.println("\tprivate final " + facadeType + " facade;");
+			out.println("\tprivate easyaccept.JavaApplicationFacadeAdapter overloads;");
+			out.println();
+			out.println("\tpublic " + simpleName + "(" + facadeType + " facade) {");
+			out.println("\t\tthis.facade = facade;");
+			out.println("\t}");
+			out.println();
+			out.println("\tpublic Object invoke(util.ParsedLine parsedLine, char stringDelimiter, int scriptLineNumber) throws Exception {");
+			out.println("\t\tString command = parsedLine.getParameter(0).getValueAsString();");
+			out.println("\t\tint arity = parsedLine.numberOfParameters() - 1;");
+			out.println("\t\tswitch (command) {");
+			List<ExecutableElement> calls = new ArrayList<ExecutableElement>();
+			for (Map.Entry<String, Map<Integer, List<ExecutableElement>>> command : commands.entrySet()) {
+				out.println("\t\tcase \"" + command.getKey() + "\":");
+				out.println("\t\t\tswitch (arity) {");
+				for (Map.Entry<Integer, List<ExecutableElement>> byArity : command.getValue().entrySet()) {
+					out.println("\t\t\tcase " + byArity.getKey() + ":");
+					if (byArity.getValue().size() == 1) {
+						out.println("\t\t\t\treturn call" + calls.size() + "(parsedLine);");
+						calls.add(byArity.getValue().get(0));
+					} else {
+						out.println("\t\t\t\treturn overloads().invoke(parsedLine, stringDelimiter, scriptLineNumber);");
+					}
+				}
+				out.println("\t\t\t}");
+				out.println("\t\t\tbreak;");
+			}
+			out.println("\t\t}");
+			out.println("\t\tthrow new easyaccept.EasyAcceptException(\"Line \" + scriptLineNumber + \": Unknown command: \"");
+			out.println("\t\t\t\t+ parsedLine.getCommandString(stringDelimiter));");
+			out.println("\t}");
+			for (int i = 0; i < calls.size(); i++) {
+				generateCall(out, facadeType, calls.get(i), i);
+			}
+			out.println();
+			out.println("\tprivate synchronized easyaccept.JavaApplicationFacadeAdapter overloads() {");
+			out.println("\t\tif (overloads == null) {");
+			out.println("\t\t\toverloads = new easyaccept.JavaApplicationFacadeAdapter(facade);");
+			out.println("\t\t}");
+			out.println("\t\treturn overloads;");
+			out.println("\t}");
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void generateCall(PrintWriter out, String facadeType, ExecutableElement method, int index) {
+		List<? extends VariableElement> parameters = method.getParameters();
+		out.println();
+		out.println("\tprivate Object call" + index + "(util.ParsedLine parsedLine) throws Exception {");
+		StringBuilder args = new StringBuilder();
+		for (int i = 0; i < parameters.size(); i++) {
+			TypeMirror type = processingEnv.getTypeUtils().erasure(parameters.get(i).asType());
+			out.println("\t\t" + type + " a" + i + " = " + conversion(type, i + 1) + ";");
+			args.append(i == 0 ? "" : ", ").append('a').append(i);
+		}
+		String target = method.getModifiers().contains(Modifier.STATIC) ? facadeType : "facade";
+		String call = target + "." + method.getSimpleName() + "(" + args + ")";
+		out.println("\t\ttry {");
+		if (method.getReturnType().getKind() == TypeKind.VOID) {
+			out.println("\t\t\t" + call + ";");
+			out.println("\t\t\treturn null;");
+		} else {
+			out.println("\t\t\treturn " + call + ";");
+		}
+		out.println("\t\t} catch (Throwable e) {");
+		out.println("\t\t\tthrow new java.lang.reflect.InvocationTargetException(e);");
+		out.println("\t\t}");
+		out.println("\t}");
+	}
+
+	/**
+	 * Obtain the expression converting an argument to a parameter type.
+	 */
+	private String conversion(TypeMirror type, int parameter) {
+		String args = "(parsedLine, " + parameter;
+		switch (type.getKind()) {
+		case INT:
+			return "AdapterSupport.toInt" + args + ")";
+		case LONG:
+			return "AdapterSupport.toLong" + args + ")";
+		case SHORT:
+			return "AdapterSupport.toShort" + args + ")";
+		case BYTE:
+			return "AdapterSupport.toByte" + args + ")";
+		case DOUBLE:
+			return "AdapterSupport.toDouble" + args + ")";
+		case FLOAT:
+			return "AdapterSupport.toFloat" + args + ")";
+		case BOOLEAN:
+			return "AdapterSupport.toBoolean" + args + ")";
+		case CHAR:
+			return "AdapterSupport.toChar" + args + ")";
+		case DECLARED:
+			Element element = ((DeclaredType) type).asElement();
+			String name = type.toString();
+			if (name.equals("java.lang.String")) {
+				return "AdapterSupport.toString" + args + ")";
+			} else if (element.getKind() == ElementKind.ENUM) {
+				return "AdapterSupport.toEnum" + args + ", " + name + ".class)";
+			}
+			try {
+				return conversion(processingEnv.getTypeUtils().unboxedType(type), parameter);
+			} catch (IllegalArgumentException e) {
+				// not a wrapper
+			}
+			break;
+		default:
+			break;
+		}
+		return "(" + type + ") AdapterSupport.convert" + args + ", " + type + ".class)";
+	}
+
+	/**
+	 * Check that the commands of a script are executed by the facade.
+	 */
+	private void checkScript(TypeElement facade, Map<String, Map<Integer, List<ExecutableElement>>> commands,
+			String fileName) {
+		String text;
+		try {
+			text = ChannelDecoder.decode(ChannelDecoder.readFully(new File(fileName)));
+		} catch (IOException e) {
+			error("Cannot read script " + fileName + ": " + e.getMessage(), facade);
+			return;
+		}
+		ScriptLexer lexer = new ScriptLexer(fileName, text, 0, null);
+		lexer.setTemplates(true);
+		while (true) {
+			ParsedLine parsedLine;
+			try {
+				parsedLine = lexer.getParsedLine();
+			} catch (ParsingException e) {
+				// reported when the script runs
+				continue;
+			}
+			if (parsedLine == null) {
+				break;
+			}
+			int position = 0;
+			while (position < parsedLine.numberOfParameters()) {
+				Object value = parsedLine.getParameter(position).getValue();
+				if (value instanceof Template) {
+					break;
+				}
+				String name = String.valueOf(value);
+				if (isInternalCommand(name)) {
+					if (name.equalsIgnoreCase("stringdelimiter") && parsedLine.numberOfParameters() > 1) {
+						String delimiter = parsedLine.getParameter(1).getValueAsString();
+						if (delimiter.length() > 0) {
+							lexer.setStringDelimiter(delimiter.charAt(0));
+						}
+					}
+					Integer nested = NESTED_COMMANDS.get(name.toLowerCase());
+					if (nested == null) {
+						break;
+					}
+					position += nested;
+					continue;
+				}
+				int arity = parsedLine.numberOfParameters() - position - 1;
+				Map<Integer, List<ExecutableElement>> byArity = commands.get(name);
+				if (byArity == null || !byArity.containsKey(arity)) {
+					error(fileName + ", line " + lexer.getLineNumber() + ": Unknown command: "
+							+ parsedLine.subLine(position).getCommandString(EasyAcceptSyntax.defaultStringDelimiter), facade);
+				}
+				break;
+			}
+		}
+	}
+
+	private static boolean isInternalCommand(String name) {
+		for (int i = 0; i < EasyAcceptSyntax.internalCommandsArray.length; i++) {
+			if (EasyAcceptSyntax.internalCommandsArray[i][0].equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void error(String message, Element element) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}
@@ -0,0 +1,194 @@
+package easyaccept.annotation;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import junit.framework.TestCase;
+import util.ConverterException;
+import util.Parameter;
+import util.ParsedLine;
+import easyaccept.EasyAcceptException;
+import easyaccept.Facade;
+import easyaccept.JavaApplicationFacadeAdapter;
+
+/**
+ * Tests the generation of facade adapters: facades are compiled with the
+ * processor, and their adapters execute commands.
+ * @author jacques
+ */
+public class TestFacadeAdapterProcessor extends TestCase {
+
+	private static final String FACADE = "package gen;\n"
+			+ "import easyaccept.annotation.EasyAcceptFacade;\n"
+			+ "@EasyAcceptFacade\n"
+			+ "public class CalcFacade {\n"
+			+ "	public enum Mode { FAST, SLOW }\n"
+			+ "	public int add(int a, long b) { return (int) (a + b); }\n"
+			+ "	public String echo(String s) { return s; }\n"
+			+ "	public void reset() { }\n"
+			+ "	public Mode mode(Mode m) { return m; }\n"
+			+ "	public String f(int i) { return \"int\"; }\n"
+			+ "	public String f(String s) { return \"String\"; }\n"
+			+ "	public static String twice(char c) { return \"\" + c + c; }\n"
+			+ "	public java.math.BigDecimal big(java.math.BigDecimal b) { return b; }\n"
+			+ "	public Integer boxed(Integer i) { return i; }\n"
+			+ "	public void fail(String m) throws Exception { throw new Exception(m); }\n"
+			+ "	@EasyAcceptFacade\n"
+			+ "	public static class Nested { public String hi() { return \"hi\"; } }\n"
+			+ "}\n";
+
+	private File dir;
+
+	/**
+	 * Create the directory the facades are compiled to.
+	 */
+	public void setUp() throws IOException {
+		dir = File.createTempFile("adapters", "");
+		dir.delete();
+		new File(dir, "gen").mkdirs();
+	}
+
+	/**
+	 * Delete the directory the facades are compiled to.
+	 */
+	public void tearDown() {
+		delete(dir);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				delete(files[i]);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Compile a facade with the processor.
+	 * @return the errors, or null if it compiled.
+	 */
+	private List<String> compile(String className, String source) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		File file = new File(dir, "gen/" + className + ".java");
+		FileWriter writer = new FileWriter(file);
+		writer.write(source);
+		writer.close();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+		List<String> options = Arrays.asList("-d", dir.getPath(), "-classpath", System.getProperty("java.class.path"),
+				"-processor", FacadeAdapterProcessor.class.getName());
+		boolean compiled = compiler.getTask(null, fileManager, diagnostics, options, null,
+				fileManager.getJavaFileObjects(file)).call();
+		fileManager.close();
+		if (compiled) {
+			return null;
+		}
+		List<String> errors = new ArrayList<String>();
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				errors.add(diagnostic.getMessage(null));
+			}
+		}
+		return errors;
+	}
+
+	private static ParsedLine line(String[] words) {
+		ParsedLine parsedLine = new ParsedLine();
+		for (int i = 0; i < words.length; i++) {
+			parsedLine.addParameter(new Parameter(null, words[i]));
+		}
+		return parsedLine;
+	}
+
+	private static Object invoke(Facade adapter, String[] words) throws Exception {
+		return adapter.invoke(line(words), '"', 1);
+	}
+
+	/**
+	 * The generated adapter executes commands as the reflective adapter does.
+	 * @throws Exception
+	 */
+	public void testGeneratedAdapter() throws Exception {
+		if (ToolProvider.getSystemJavaCompiler() == null) {
+			// no compiler in this runtime
+			return;
+		}
+		assertNull(compile("CalcFacade", FACADE));
+		URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader());
+		Facade adapter = JavaApplicationFacadeAdapter.adapt(loader.loadClass("gen.CalcFacade").newInstance());
+		assertEquals("gen.CalcFacadeEasyAcceptAdapter", adapter.getClass().getName());
+
+		assertEquals(Integer.valueOf(5), invoke(adapter, new String[] { "add", "2", "3" }));
+		assertEquals("a b", invoke(adapter, new String[] { "echo", "a b" }));
+		assertNull(invoke(adapter, new String[] { "reset" }));
+		assertEquals("SLOW", invoke(adapter, new String[] { "mode", "SLOW" }).toString());
+		assertEquals("int", invoke(adapter, new String[] { "f", "1" }));
+		assertEquals("String", invoke(adapter, new String[] { "f", "x" }));
+		assertEquals("xx", invoke(adapter, new String[] { "twice", "x" }));
+		assertEquals("1.50", invoke(adapter, new String[] { "big", "1.50" }).toString());
+		assertEquals(Integer.valueOf(7), invoke(adapter, new String[] { "boxed", "7" }));
+		try {
+			invoke(adapter, new String[] { "add", "x", "3" });
+			fail();
+		} catch (ConverterException e) {
+			assertEquals("Problems during Type Conversion - x to class java.lang.Integer", e.getMessage());
+		}
+		try {
+			invoke(adapter, new String[] { "fail", "message" });
+			fail();
+		} catch (InvocationTargetException e) {
+			assertEquals("message", e.getCause().getMessage());
+		}
+		try {
+			invoke(adapter, new String[] { "add", "1" });
+			fail();
+		} catch (EasyAcceptException e) {
+			assertEquals("Line 1: Unknown command: add 1", e.getMessage());
+		}
+
+		Facade nested = JavaApplicationFacadeAdapter.adapt(loader.loadClass("gen.CalcFacade$Nested").newInstance());
+		assertEquals("gen.CalcFacade_NestedEasyAcceptAdapter", nested.getClass().getName());
+		assertEquals("hi", invoke(nested, new String[] { "hi" }));
+	}
+
+	/**
+	 * Commands of the scripts named by the annotation are checked.
+	 * @throws Exception
+	 */
+	public void testScriptCheck() throws Exception {
+		if (ToolProvider.getSystemJavaCompiler() == null) {
+			return;
+		}
+		File script = new File(dir, "script.txt");
+		FileWriter writer = new FileWriter(script);
+		writer.write("expect 3 add 1 2\nx=echo a\nnoSuchCommand 1\nexpect a echo ${x}\n${x} 1\nrepeat 2 add 1\n");
+		writer.close();
+		String source = "package gen;\n"
+				+ "@easyaccept.annotation.EasyAcceptFacade(scripts = \"" + script.getPath().replace('\\', '/') + "\")\n"
+				+ "public class Checked {\n"
+				+ "	public int add(int a, int b) { return a + b; }\n"
+				+ "	public String echo(String s) { return s; }\n"
+				+ "}\n";
+		List<String> errors = compile("Checked", source);
+		assertNotNull(errors);
+		assertEquals(2, errors.size());
+		assertTrue(errors.get(0), errors.get(0).endsWith("line 3: Unknown command: noSuchCommand 1"));
+		assertTrue(errors.get(1), errors.get(1).endsWith("line 6: Unknown command: add 1"));
+	}
+}
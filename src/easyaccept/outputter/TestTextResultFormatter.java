@@ -0,0 +1,39 @@
+package easyaccept.outputter;
+
+import easyaccept.result.ResultImpl;
+import easyaccept.result.ScriptResultsManager;
+import junit.framework.TestCase;
+
+/**
+ * Tests the text formatting of script results.
+ * @author jacques
+ */
+public class TestTextResultFormatter extends TestCase {
+
+	private static final String TEST_FILES_PATH = "src/easyaccept/script/test/";
+
+	/**
+	 * A failure is followed by the source lines around the failing line.
+	 */
+	public void testContext() {
+		ScriptResultsManager results = new ScriptResultsManager(TEST_FILES_PATH + "script21.txt");
+		ResultImpl result = new ResultImpl("expectDifferent hi echo hi", null, new Exception("Expected different"), null);
+		result.setLine(2);
+		results.addResult(result);
+		TextResultFormatter formatter = new TextResultFormatter();
+		formatter.setContextLines(1);
+		String text = formatter.format(results);
+		assertTrue(text, text.endsWith("\tAt line 2:Expected different\n"
+				+ "\t     1| expectDifferent a echo hi\n"
+				+ "\t>    2| expectDifferent hi echo hi\n"
+				+ "\t     3| \n"));
+
+		formatter.setContextLines(0);
+		assertTrue(formatter.format(results).endsWith("\tAt line 2:Expected different\n"));
+
+		results = new ScriptResultsManager(TEST_FILES_PATH + "missing.txt");
+		results.addResult(result);
+		formatter.setContextLines(2);
+		assertTrue(formatter.format(results).endsWith("\tAt line 2:Expected different\n"));
+	}
+}
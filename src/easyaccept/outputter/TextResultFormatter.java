@@ -1,16 +1,44 @@
 package easyaccept.outputter;
 
+import java.io.IOException;
+import java.util.List;
+
+import util.MultiFileReader;
 import easyaccept.result.Result;
 import easyaccept.result.ScriptResultsManager;
 
 /**
- * TODO comment/test
+ * Formats the results of a script as text.
+ * <p>
+ * Each failure is followed by the source lines around the failing line, as
+ * many before and after it as the <code>easyaccept.failure.context</code>
+ * property gives (2 by default; 0 shows no source). The lines are read by
+ * seeking the failing line through the file's line index, not by reading the
+ * file from the start.
  * 
  * @author Danilo Queiroz
  * 
  */
 public class TextResultFormatter implements ResultFormatter {
 
+	/**
+	 * The property giving the number of source lines shown before and after a
+	 * failing line.
+	 */
+	public static final String CONTEXT_PROPERTY = "easyaccept.failure.context";
+
+	private int contextLines = Integer.getInteger(CONTEXT_PROPERTY, 2).intValue();
+
+	/**
+	 * Set the number of source lines shown before and after a failing line.
+	 * 
+	 * @param lines
+	 *            The number of lines; 0 to show no source.
+	 */
+	public void setContextLines(int lines) {
+		contextLines = Math.max(lines, 0);
+	}
+
 	public String formatterExtension() {
 		return "txt";
 	}
@@ -43,6 +71,7 @@ public class TextResultFormatter implements ResultFormatter {
 					buf.append(':');
 					buf.append(failureOriginal);
 					buf.append('\n');
+					appendContext(buf, file, oneResult.getLine());
 				}
 			}
 		}
@@ -63,6 +92,30 @@ public class TextResultFormatter implements ResultFormatter {
 		return buf.toString();
 	}
 
+	/**
+	 * Append the source lines around a failing line, marking the line.
+	 */
+	private void appendContext(StringBuilder buf, String file, int line) {
+		if (contextLines == 0 || line <= 0) {
+			return;
+		}
+		int firstLine = Math.max(line - contextLines, 1);
+		List<String> lines;
+		try {
+			lines = MultiFileReader.readLines(file, firstLine, line + contextLines - firstLine + 1);
+		} catch (IOException e) {
+			// the source is not available: the failure is shown alone
+			return;
+		}
+		for (int i = 0; i < lines.size(); i++) {
+			int number = firstLine + i;
+			buf.append(number == line ? "\t>" : "\t ");
+			buf.append(String.format("%5d| ", number));
+			buf.append(lines.get(i));
+			buf.append('\n');
+		}
+	}
+
 //	private Object getCustomizedErrorMessage(String failureOriginal) {
 //		int indice = failureOriginal.indexOf(":");
 //		return failureOriginal.substring(indice + 1, failureOriginal.length());
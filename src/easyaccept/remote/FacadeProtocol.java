@@ -0,0 +1,235 @@
+package easyaccept.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import util.Parameter;
+import util.ParsedLine;
+
+/**
+ * The framing of the messages exchanged by a {@link RemoteFacade} and a
+ * {@link FacadeServer}. Every message is a frame: its length (an int) followed
+ * by its bytes, which start with the identifier of the request (an int) so that
+ * responses may be matched to requests sent before them, in any order.
+ * <p>
+ * A request holds the script line number, the string delimiter and the
+ * parameters of the line (name and value). A response holds a status and
+ * either the value returned by the facade or the class name and message of the
+ * exception it threw. Values are tagged with their type: null, strings,
+ * integers, longs, doubles and booleans are sent as such, other values as
+ * their string.
+ * 
+ * @author jacques
+ */
+final class FacadeProtocol {
+
+	/**
+	 * The largest frame accepted.
+	 */
+	static final int MAX_FRAME = 64 * 1024 * 1024;
+
+	static final byte OK = 0;
+	/**
+	 * The command failed in the server, for example because it is unknown.
+	 */
+	static final byte ERROR = 1;
+	/**
+	 * The facade method threw an exception.
+	 */
+	static final byte FACADE_ERROR = 2;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte BOOLEAN = 5;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private FacadeProtocol() {
+	}
+
+	/**
+	 * A request received by the server.
+	 */
+	static class Request {
+		final int id;
+		final int lineNumber;
+		final char stringDelimiter;
+		final ParsedLine parsedLine;
+
+		Request(int id, int lineNumber, char stringDelimiter, ParsedLine parsedLine) {
+			this.id = id;
+			this.lineNumber = lineNumber;
+			this.stringDelimiter = stringDelimiter;
+			this.parsedLine = parsedLine;
+		}
+	}
+
+	/**
+	 * A response received by the client.
+	 */
+	static class Response {
+		final int id;
+		final byte status;
+		final Object value;
+		final String exceptionClass;
+
+		Response(int id, byte status, Object value, String exceptionClass) {
+			this.id = id;
+			this.status = status;
+			this.value = value;
+			this.exceptionClass = exceptionClass;
+		}
+	}
+
+	static byte[] request(int id, ParsedLine parsedLine, char stringDelimiter, int lineNumber) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(id);
+		out.writeInt(lineNumber);
+		out.writeChar(stringDelimiter);
+		out.writeInt(parsedLine.numberOfParameters());
+		for (int i = 0; i < parsedLine.numberOfParameters(); i++) {
+			Parameter parameter = parsedLine.getParameter(i);
+			writeValue(out, parameter.getName());
+			writeValue(out, parameter.getValue());
+		}
+		return bytes.toByteArray();
+	}
+
+	static Request readRequest(byte[] frame) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+		int id = in.readInt();
+		int lineNumber = in.readInt();
+		char stringDelimiter = in.readChar();
+		int count = in.readInt();
+		ParsedLine parsedLine = new ParsedLine();
+		for (int i = 0; i < count; i++) {
+			Object name = readValue(in);
+			parsedLine.addParameter(new Parameter(name == null ? null : name.toString(), readValue(in)));
+		}
+		return new Request(id, lineNumber, stringDelimiter, parsedLine);
+	}
+
+	static byte[] response(int id, Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(id);
+		out.writeByte(OK);
+		writeValue(out, value);
+		return bytes.toByteArray();
+	}
+
+	static byte[] error(int id, byte status, Throwable exception) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(id);
+		out.writeByte(status);
+		writeValue(out, exception.getMessage());
+		writeValue(out, exception.getClass().getName());
+		return bytes.toByteArray();
+	}
+
+	static Response readResponse(byte[] frame) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+		int id = in.readInt();
+		byte status = in.readByte();
+		Object value = readValue(in);
+		String exceptionClass = status == OK ? null : (String) readValue(in);
+		return new Response(id, status, value, exceptionClass);
+	}
+
+	/**
+	 * Write a frame. The caller must not write other frames at the same time.
+	 */
+	static void writeFrame(OutputStream out, byte[] frame) throws IOException {
+		byte[] header = { (byte) (frame.length >>> 24), (byte) (frame.length >>> 16), (byte) (frame.length >>> 8),
+				(byte) frame.length };
+		out.write(header);
+		out.write(frame);
+		out.flush();
+	}
+
+	/**
+	 * Read a frame.
+	 * @return
+	 * 			The bytes of the frame, or null at the end of the stream.
+	 */
+	static byte[] readFrame(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int first = data.read();
+		if (first < 0) {
+			return null;
+		}
+		int length = (first << 24) | (data.readUnsignedByte() << 16) | (data.readUnsignedByte() << 8)
+				| data.readUnsignedByte();
+		if (length < 0 || length > MAX_FRAME) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+		byte[] frame = new byte[length];
+		try {
+			data.readFully(frame);
+		} catch (EOFException e) {
+			throw new IOException("Truncated frame");
+		}
+		return frame;
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt(((Integer) value).intValue());
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong(((Long) value).longValue());
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble(((Double) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean(((Boolean) value).booleanValue());
+		} else {
+			byte[] text = value.toString().getBytes(UTF8);
+			out.writeByte(STRING);
+			out.writeInt(text.length);
+			out.write(text);
+		}
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case NULL:
+			return null;
+		case INTEGER:
+			return Integer.valueOf(in.readInt());
+		case LONG:
+			return Long.valueOf(in.readLong());
+		case DOUBLE:
+			return Double.valueOf(in.readDouble());
+		case BOOLEAN:
+			return Boolean.valueOf(in.readBoolean());
+		case STRING:
+			int length = in.readInt();
+			if (length < 0 || length > MAX_FRAME) {
+				throw new IOException("Invalid string length: " + length);
+			}
+			byte[] text = new byte[length];
+			in.readFully(text);
+			return new String(text, UTF8);
+		default:
+			throw new IOException("Invalid value tag: " + tag);
+		}
+	}
+}
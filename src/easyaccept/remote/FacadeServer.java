@@ -0,0 +1,237 @@
+package easyaccept.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import easyaccept.Facade;
+import easyaccept.JavaApplicationFacadeAdapter;
+import easyaccept.RoutingFacade;
+
+/**
+ * A server hosting a facade for {@link RemoteFacade}s. The facade is
+ * constructed once, when the server starts, and then executes the commands of
+ * every connection until the server is closed; its state is kept from one run
+ * of the scripts to the next.
+ * <p>
+ * The requests of each connection are read as they arrive and executed by a
+ * pool of threads, so commands sent at once by several script threads are
+ * executed at once too; each response is sent as soon as its command ends.
+ * The server only accepts connections from the local host, unless it is bound
+ * to another address.
+ * <p>
+ * The server is run by:
+ * 
+ * <pre>
+ *      java -classpath ... easyaccept.remote.FacadeServer port facadeClass
+ * </pre>
+ * 
+ * where <code>facadeClass</code> may also name the facades of several
+ * namespaces (see {@link RoutingFacade#parseSpecification(String)}).
+ * 
+ * @author jacques
+ */
+public class FacadeServer {
+
+	private final Facade facade;
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor;
+	private final Set<Socket> sockets = Collections.synchronizedSet(new HashSet<Socket>());
+	private volatile boolean closed;
+
+	/**
+	 * The FacadeServer constructor. The server listens on the loopback
+	 * address; it accepts connections once started.
+	 * 
+	 * @param facade
+	 *            The facade object, adapted by
+	 *            {@link JavaApplicationFacadeAdapter#adapt(Object)}.
+	 * @param port
+	 *            The port, or 0 for any free port.
+	 * @throws IOException
+	 *             if the port cannot be bound.
+	 */
+	public FacadeServer(Object facade, int port) throws IOException {
+		this(facade, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * The FacadeServer constructor.
+	 * 
+	 * @param facade
+	 *            The facade object, adapted by
+	 *            {@link JavaApplicationFacadeAdapter#adapt(Object)}.
+	 * @param address
+	 *            The address the server listens on.
+	 * @throws IOException
+	 *             if the address cannot be bound.
+	 */
+	public FacadeServer(Object facade, InetSocketAddress address) throws IOException {
+		this.facade = JavaApplicationFacadeAdapter.adapt(facade);
+		this.serverSocket = new ServerSocket();
+		serverSocket.bind(address);
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "EasyAccept facade server worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Obtain the port the server listens on.
+	 * 
+	 * @return the port.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Start accepting connections, in a new thread.
+	 * 
+	 * @return the thread accepting connections.
+	 */
+	public Thread start() {
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "EasyAccept facade server " + getPort());
+		acceptor.start();
+		return acceptor;
+	}
+
+	private void accept() {
+		while (!closed) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				if (closed || serverSocket.isClosed()) {
+					return;
+				}
+				System.err.println("EasyAccept facade server: " + e.getMessage());
+				continue;
+			}
+			sockets.add(socket);
+			Thread reader = new Thread(new Runnable() {
+				public void run() {
+					serve(socket);
+				}
+			}, "EasyAccept facade server " + socket.getRemoteSocketAddress());
+			reader.setDaemon(true);
+			reader.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			byte[] frame;
+			while ((frame = FacadeProtocol.readFrame(in)) != null) {
+				final FacadeProtocol.Request request = FacadeProtocol.readRequest(frame);
+				executor.execute(new Runnable() {
+					public void run() {
+						byte[] response;
+						try {
+							response = execute(request);
+						} catch (IOException e) {
+							return;
+						}
+						synchronized (out) {
+							try {
+								FacadeProtocol.writeFrame(out, response);
+							} catch (IOException e) {
+								// the connection is closed by its reader
+							}
+						}
+					}
+				});
+			}
+		} catch (IOException e) {
+			// the client is gone
+		} finally {
+			sockets.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closed anyway
+			}
+		}
+	}
+
+	private byte[] execute(FacadeProtocol.Request request) throws IOException {
+		try {
+			return FacadeProtocol.response(request.id, facade.invoke(request.parsedLine, request.stringDelimiter,
+					request.lineNumber));
+		} catch (InvocationTargetException e) {
+			return FacadeProtocol.error(request.id, FacadeProtocol.FACADE_ERROR, e.getCause());
+		} catch (Throwable e) {
+			return FacadeProtocol.error(request.id, FacadeProtocol.ERROR, e);
+		}
+	}
+
+	/**
+	 * Close the server and its connections.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+		synchronized (sockets) {
+			for (Socket socket : sockets) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// closed anyway
+				}
+			}
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Host a facade until the JVM is stopped.
+	 * 
+	 * @param args
+	 *            the port, followed by the name of the facade class.
+	 * @throws Exception
+	 *             if the facade cannot be constructed or the port bound.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Syntax: easyaccept.remote.FacadeServer <port> <facadeClass>");
+			System.exit(1);
+		}
+		Object facade;
+		if (RoutingFacade.isRouting(args[1])) {
+			facade = RoutingFacade.create(RoutingFacade.parseSpecification(args[1]), FacadeServer.class
+					.getClassLoader());
+		} else {
+			facade = RoutingFacade.instantiate(Class.forName(args[1]));
+		}
+		FacadeServer server = new FacadeServer(facade, Integer.parseInt(args[0]));
+		System.out.println("EasyAccept facade server listening on port " + server.getPort());
+		server.start();
+	}
+}
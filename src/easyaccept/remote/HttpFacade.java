@@ -0,0 +1,366 @@
+package easyaccept.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import util.Parameter;
+import util.ParsedLine;
+import easyaccept.Facade;
+
+/**
+ * A facade executing commands as HTTP requests to a service. By default, a
+ * command is a <code>POST</code> to the base URL followed by the command name,
+ * with its arguments in the body (see {@link #setRoute(String, String, String)}
+ * for other methods and paths). Named arguments (<code>amount=10</code>) are
+ * sent with their names, others as <code>arg0</code>, <code>arg1</code>, ...,
+ * as a form or as a JSON object (see {@link #setJson(boolean)}).
+ * <p>
+ * The result of a command is the body of the response, or null if the
+ * response has no content. A response whose status is not 2xx is an error,
+ * whose message is the body of the response (or its status line, if the body
+ * is empty), which <code>expectError</code> compares.
+ * <p>
+ * Responses are always read to their end, so that connections are kept alive
+ * and reused from one request to the next. Commands are executed by a pool of
+ * threads: several may be in flight at once (see
+ * {@link #submit(ParsedLine, char, int)}). Each command has a timeout, for
+ * connecting and for each read (see {@link #setTimeout(String, int)}).
+ * <p>
+ * The facade of a service is given to EasyAccept as its base URL, starting
+ * with <code>http://</code> or <code>https://</code>.
+ * 
+ * @author jacques
+ */
+public class HttpFacade implements Facade {
+
+	/**
+	 * The default timeout of commands, in milliseconds.
+	 */
+	public static final int DEFAULT_TIMEOUT = 30000;
+
+	/**
+	 * The default number of requests in flight at once.
+	 */
+	public static final int DEFAULT_CONCURRENCY = 8;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The method and path of a command, with <code>{0}</code>,
+	 * <code>{1}</code>, ... standing for its arguments.
+	 */
+	private static class Route {
+		final String method;
+		final String path;
+
+		Route(String method, String path) {
+			this.method = method;
+			this.path = path;
+		}
+	}
+
+	private final String baseUrl;
+	private final Map<String, Route> routes = new ConcurrentHashMap<String, Route>();
+	private final Map<String, Integer> timeouts = new ConcurrentHashMap<String, Integer>();
+	private final ExecutorService executor;
+	private volatile int defaultTimeout = DEFAULT_TIMEOUT;
+	private volatile boolean json;
+
+	/**
+	 * Construct a facade with the default concurrency.
+	 * 
+	 * @param baseUrl
+	 *            The URL the paths of commands are relative to.
+	 */
+	public HttpFacade(String baseUrl) {
+		this(baseUrl, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * The HttpFacade constructor.
+	 * 
+	 * @param baseUrl
+	 *            The URL the paths of commands are relative to.
+	 * @param concurrency
+	 *            The number of requests in flight at once.
+	 */
+	public HttpFacade(String baseUrl, int concurrency) {
+		if (!isUrl(baseUrl)) {
+			throw new IllegalArgumentException("Not an HTTP URL: " + baseUrl);
+		}
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+		this.executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "EasyAccept HTTP facade " + HttpFacade.this.baseUrl);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Inform if a facade name is the base URL of an HTTP facade.
+	 * 
+	 * @param facadeName
+	 *            The facade name.
+	 * @return true if it starts with <code>http://</code> or
+	 *         <code>https://</code>.
+	 */
+	public static boolean isUrl(String facadeName) {
+		return facadeName.startsWith("http://") || facadeName.startsWith("https://");
+	}
+
+	/**
+	 * Configure the method and path of a command.
+	 * 
+	 * @param command
+	 *            The command name.
+	 * @param method
+	 *            The HTTP method.
+	 * @param path
+	 *            The path, relative to the base URL; <code>{0}</code>,
+	 *            <code>{1}</code>, ... are replaced by the arguments, which
+	 *            are then not sent in the body.
+	 */
+	public void setRoute(String command, String method, String path) {
+		routes.put(command, new Route(method.toUpperCase(), path.startsWith("/") ? path : "/" + path));
+	}
+
+	/**
+	 * Configure the timeout of a command.
+	 * 
+	 * @param command
+	 *            The command name, or null for the commands without their own
+	 *            timeout.
+	 * @param millis
+	 *            The timeout for connecting and for each read, in
+	 *            milliseconds; 0 for none.
+	 */
+	public void setTimeout(String command, int millis) {
+		if (command == null) {
+			defaultTimeout = millis;
+		} else {
+			timeouts.put(command, Integer.valueOf(millis));
+		}
+	}
+
+	/**
+	 * Configure the format of the arguments sent in bodies.
+	 * 
+	 * @param json
+	 *            true to send a JSON object, false to send a form.
+	 */
+	public void setJson(boolean json) {
+		this.json = json;
+	}
+
+	/**
+	 * Execute a command, waiting for its response.
+	 * 
+	 * @throws InvocationTargetException
+	 *             if the status of the response is not 2xx, with a
+	 *             {@link RemoteFacadeException} whose message is the body of
+	 *             the response.
+	 * @throws IOException
+	 *             if the service could not be reached, or timed out.
+	 */
+	public Object invoke(ParsedLine parsedLine, char stringDelimiter, int scriptLineNumber) throws Exception {
+		return execute(parsedLine);
+	}
+
+	/**
+	 * Send a command without waiting for its response, so that several
+	 * commands may be in flight at once.
+	 * 
+	 * @param parsedLine
+	 *            The command.
+	 * @param stringDelimiter
+	 *            The string delimiter.
+	 * @param scriptLineNumber
+	 *            The line number of the command.
+	 * @return The result; it fails as {@link #invoke(ParsedLine, char, int)}
+	 *         would.
+	 */
+	public Future<Object> submit(final ParsedLine parsedLine, char stringDelimiter, int scriptLineNumber) {
+		return executor.submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				return execute(parsedLine);
+			}
+		});
+	}
+
+	/**
+	 * Stop the threads executing submitted commands.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private Object execute(ParsedLine parsedLine) throws Exception {
+		String command = parsedLine.getParameter(0).getValueAsString();
+		Route route = routes.get(command);
+		if (route == null) {
+			route = new Route("POST", "/" + command);
+		}
+		Parameter[] args = parsedLine.getCommandArgs();
+		boolean[] inPath = new boolean[args.length];
+		String path = expand(route.path, args, inPath);
+		byte[] body = null;
+		if (!route.method.equals("GET") && !route.method.equals("DELETE") && !route.method.equals("HEAD")) {
+			body = json ? toJson(args, inPath) : toForm(args, inPath);
+		} else {
+			byte[] query = toForm(args, inPath);
+			if (query.length > 0) {
+				path += (path.indexOf('?') < 0 ? "?" : "&") + new String(query, UTF8);
+			}
+		}
+		Integer timeout = timeouts.get(command);
+		int millis = timeout == null ? defaultTimeout : timeout.intValue();
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		connection.setRequestMethod(route.method);
+		connection.setConnectTimeout(millis);
+		connection.setReadTimeout(millis);
+		connection.setUseCaches(false);
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			connection.setRequestProperty("Content-Type", json ? "application/json; charset=UTF-8"
+					: "application/x-www-form-urlencoded; charset=UTF-8");
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(body);
+			} finally {
+				out.close();
+			}
+		}
+		int status = connection.getResponseCode();
+		boolean success = status >= 200 && status < 300;
+		String response = readFully(success ? connection.getInputStream() : connection.getErrorStream());
+		if (!success) {
+			String message = response == null || response.length() == 0 ? "HTTP " + status + " "
+					+ connection.getResponseMessage() : response;
+			throw new InvocationTargetException(new RemoteFacadeException(null, message));
+		}
+		return status == HttpURLConnection.HTTP_NO_CONTENT ? null : response;
+	}
+
+	private static String expand(String path, Parameter[] args, boolean[] inPath) throws UnsupportedEncodingException {
+		if (path.indexOf('{') < 0) {
+			return path;
+		}
+		StringBuilder expanded = new StringBuilder(path.length());
+		int start = 0;
+		int open;
+		while ((open = path.indexOf('{', start)) >= 0) {
+			int close = path.indexOf('}', open);
+			if (close < 0) {
+				break;
+			}
+			int index;
+			try {
+				index = Integer.parseInt(path.substring(open + 1, close));
+			} catch (NumberFormatException e) {
+				index = -1;
+			}
+			if (index < 0 || index >= args.length) {
+				throw new IllegalArgumentException("No argument " + path.substring(open, close + 1) + " in " + path);
+			}
+			expanded.append(path, start, open).append(
+					URLEncoder.encode(args[index].getValueAsString(), "UTF-8").replace("+", "%20"));
+			inPath[index] = true;
+			start = close + 1;
+		}
+		return expanded.append(path.substring(start)).toString();
+	}
+
+	private static String nameOf(Parameter[] args, int i) {
+		return args[i].getName() == null ? "arg" + i : args[i].getName();
+	}
+
+	private static byte[] toForm(Parameter[] args, boolean[] inPath) throws UnsupportedEncodingException {
+		StringBuilder form = new StringBuilder();
+		for (int i = 0; i < args.length; i++) {
+			if (inPath[i]) {
+				continue;
+			}
+			if (form.length() > 0) {
+				form.append('&');
+			}
+			form.append(URLEncoder.encode(nameOf(args, i), "UTF-8")).append('=');
+			form.append(URLEncoder.encode(args[i].getValueAsString(), "UTF-8"));
+		}
+		return form.toString().getBytes(UTF8);
+	}
+
+	private static byte[] toJson(Parameter[] args, boolean[] inPath) {
+		StringBuilder object = new StringBuilder("{");
+		for (int i = 0; i < args.length; i++) {
+			if (inPath[i]) {
+				continue;
+			}
+			if (object.length() > 1) {
+				object.append(',');
+			}
+			quote(nameOf(args, i), object);
+			object.append(':');
+			Object value = args[i].getValue();
+			if (value == null) {
+				object.append("null");
+			} else {
+				quote(value.toString(), object);
+			}
+		}
+		return object.append('}').toString().getBytes(UTF8);
+	}
+
+	private static void quote(String text, StringBuilder json) {
+		json.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", Integer.valueOf(c)));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * Read a response to its end, so that its connection may be reused.
+	 */
+	private static String readFully(InputStream in) throws IOException {
+		if (in == null) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				bytes.write(buffer, 0, read);
+			}
+			return new String(bytes.toByteArray(), UTF8);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package easyaccept.remote;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The result of a command sent to a remote facade, set when its response
+ * arrives.
+ * 
+ * @author jacques
+ */
+class PendingResult extends FutureTask<Object> {
+
+	private static final Runnable NOTHING = new Runnable() {
+		public void run() {
+		}
+	};
+
+	PendingResult() {
+		super(NOTHING, null);
+	}
+
+	void complete(Object value) {
+		set(value);
+	}
+
+	void fail(Throwable exception) {
+		setException(exception);
+	}
+
+	/**
+	 * Wait for a result.
+	 * @param result
+	 * 			The result.
+	 * @return
+	 * 			Its value.
+	 * @throws Exception
+	 * 			the exception of the result, if it failed.
+	 */
+	static Object await(Future<Object> result) throws Exception {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+}
@@ -0,0 +1,389 @@
+package easyaccept.remote;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.ParsedLine;
+import easyaccept.Facade;
+import easyaccept.ScriptContext;
+
+/**
+ * A facade executing commands in worker processes running any executable,
+ * over a line protocol on their standard input and output. The processes are
+ * started once and execute every command sent to them until the facade is
+ * closed.
+ * <p>
+ * Each command is written as one line: an identifier, the command and its
+ * arguments, separated by tabs. The process answers each command with one
+ * line: the identifier of the command, a tab and <code>OK</code>, followed by
+ * a tab and the result unless it is null, or <code>ERROR</code>, a tab and an
+ * error message, which <code>expectError</code> compares. Backslashes, tabs,
+ * carriage returns and new lines are written <code>\\</code>,
+ * <code>\t</code>, <code>\r</code> and <code>\n</code> in both directions.
+ * Other lines written by the process are ignored, and its standard error is
+ * inherited.
+ * <p>
+ * Commands are pipelined: they are written as soon as they are sent (see
+ * {@link #submit(ParsedLine, char, int)}), and each answer completes the
+ * command of its identifier, so a process may answer in any order. The
+ * commands of a script all go to the same process, so that a script sees the
+ * state its previous commands left in it, whatever thread sends them: scripts
+ * are told apart by their {@link ScriptContext}, which also covers their
+ * <code>async</code> commands and the scripts they execute in their thread.
+ * Scripts are given the process with the fewest scripts, and give it back
+ * when they end; commands sent outside any script go to the first process. A
+ * process that exits is started again when it is next needed.
+ * <p>
+ * The facade is given to EasyAccept as <code>process:</code> followed by the
+ * command line of the executable (see {@link #forCommand(String)}); the
+ * number of processes is then given by the
+ * <code>easyaccept.process.workers</code> property (1 by default).
+ * 
+ * @author jacques
+ */
+public class ProcessFacade implements Facade {
+
+	/**
+	 * The prefix of the command line of a process facade.
+	 */
+	public static final String COMMAND_PREFIX = "process:";
+
+	/**
+	 * The property giving the number of processes of facades created from
+	 * their command line.
+	 */
+	public static final String WORKERS_PROPERTY = "easyaccept.process.workers";
+
+	static final String OK = "OK";
+	static final String ERROR = "ERROR";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final List<String> command;
+	private final Worker[] workers;
+	private final AtomicInteger ids = new AtomicInteger();
+	/**
+	 * The process of each script, and the number of scripts of each process.
+	 */
+	private final Map<ScriptContext, Integer> affinity = new HashMap<ScriptContext, Integer>();
+	private final int[] scripts;
+
+	/**
+	 * The ProcessFacade constructor. No process is started until a command
+	 * is sent.
+	 * 
+	 * @param command
+	 *            The executable and its arguments.
+	 * @param workers
+	 *            The number of processes.
+	 */
+	public ProcessFacade(List<String> command, int workers) {
+		if (command.isEmpty()) {
+			throw new IllegalArgumentException("No executable given");
+		}
+		if (workers < 1) {
+			throw new IllegalArgumentException("The number of workers must be positive");
+		}
+		this.command = new ArrayList<String>(command);
+		this.workers = new Worker[workers];
+		this.scripts = new int[workers];
+	}
+
+	/**
+	 * Inform if a facade name is the command line of a process facade.
+	 * 
+	 * @param facadeName
+	 *            The facade name.
+	 * @return true if it starts with <code>process:</code>.
+	 */
+	public static boolean isCommand(String facadeName) {
+		return facadeName.startsWith(COMMAND_PREFIX);
+	}
+
+	/**
+	 * Create the facade of a command line.
+	 * 
+	 * @param facadeName
+	 *            <code>process:</code> followed by the executable and its
+	 *            arguments, separated by spaces.
+	 * @return The facade, with the number of processes given by the
+	 *         <code>easyaccept.process.workers</code> property.
+	 */
+	public static ProcessFacade forCommand(String facadeName) {
+		if (!isCommand(facadeName)) {
+			throw new IllegalArgumentException("Not a process facade command: " + facadeName);
+		}
+		String commandLine = facadeName.substring(COMMAND_PREFIX.length()).trim();
+		List<String> command = commandLine.length() == 0 ? new ArrayList<String>() : Arrays.asList(commandLine
+				.split("\\s+"));
+		return new ProcessFacade(command, Integer.getInteger(WORKERS_PROPERTY, 1).intValue());
+	}
+
+	/**
+	 * Execute a command in a process, waiting for its answer.
+	 * 
+	 * @throws InvocationTargetException
+	 *             if the process answered with an error, described by a
+	 *             {@link RemoteFacadeException}.
+	 * @throws IOException
+	 *             if the process could not be started or exited.
+	 */
+	public Object invoke(ParsedLine parsedLine, char stringDelimiter, int scriptLineNumber) throws Exception {
+		return PendingResult.await(submit(parsedLine, stringDelimiter, scriptLineNumber));
+	}
+
+	/**
+	 * Send a command to the process of the current script without waiting for
+	 * its answer, so that several commands may be in flight at once.
+	 * 
+	 * @param parsedLine
+	 *            The command.
+	 * @param stringDelimiter
+	 *            The string delimiter.
+	 * @param scriptLineNumber
+	 *            The line number of the command.
+	 * @return The result; it fails as {@link #invoke(ParsedLine, char, int)}
+	 *         would.
+	 * @throws IOException
+	 *             if the command could not be sent.
+	 */
+	public Future<Object> submit(ParsedLine parsedLine, char stringDelimiter, int scriptLineNumber) throws IOException {
+		int id = ids.incrementAndGet();
+		StringBuilder request = new StringBuilder().append(id);
+		for (int i = 0; i < parsedLine.numberOfParameters(); i++) {
+			request.append('\t');
+			escape(parsedLine.getParameter(i).getValueAsString(), request);
+		}
+		request.append('\n');
+		Worker worker = getWorker();
+		PendingResult pending = new PendingResult();
+		worker.pending.put(Integer.valueOf(id), pending);
+		try {
+			worker.send(request.toString());
+		} catch (IOException e) {
+			worker.close(e);
+			throw e;
+		}
+		return pending;
+	}
+
+	private synchronized Worker getWorker() throws IOException {
+		int index = 0;
+		final ScriptContext context = ScriptContext.current();
+		if (context != null) {
+			Integer assigned = affinity.get(context);
+			if (assigned == null) {
+				int least = 0;
+				for (int i = 1; i < scripts.length; i++) {
+					if (scripts[i] < scripts[least]) {
+						least = i;
+					}
+				}
+				scripts[least]++;
+				assigned = Integer.valueOf(least);
+				affinity.put(context, assigned);
+				context.onEnd(new Runnable() {
+					public void run() {
+						release(context);
+					}
+				});
+			}
+			index = assigned.intValue();
+		}
+		Worker worker = workers[index];
+		if (worker == null || worker.closed) {
+			worker = new Worker(new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+			worker.start();
+			workers[index] = worker;
+		}
+		return worker;
+	}
+
+	/**
+	 * Give back the process of a script that ended.
+	 */
+	private synchronized void release(ScriptContext context) {
+		Integer index = affinity.remove(context);
+		if (index != null) {
+			scripts[index.intValue()]--;
+		}
+	}
+
+	/**
+	 * Obtain the number of scripts given a process and not yet ended.
+	 * 
+	 * @param worker
+	 *            The index of the process.
+	 * @return The number of scripts.
+	 */
+	synchronized int getScripts(int worker) {
+		return scripts[worker];
+	}
+
+	/**
+	 * Stop the processes. Commands waiting for their answers fail; processes
+	 * are started again if more commands are sent.
+	 */
+	public synchronized void close() {
+		for (int i = 0; i < workers.length; i++) {
+			if (workers[i] != null) {
+				workers[i].close(new IOException("The process facade was closed"));
+				workers[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Escape a value for the protocol.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @param escaped
+	 *            The builder the escaped value is appended to.
+	 */
+	static void escape(String value, StringBuilder escaped) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				escaped.append("\\\\");
+				break;
+			case '\t':
+				escaped.append("\\t");
+				break;
+			case '\r':
+				escaped.append("\\r");
+				break;
+			case '\n':
+				escaped.append("\\n");
+				break;
+			default:
+				escaped.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Obtain a value escaped for the protocol.
+	 * 
+	 * @param escaped
+	 *            The escaped value.
+	 * @return The value.
+	 */
+	static String unescape(String escaped) {
+		if (escaped.indexOf('\\') < 0) {
+			return escaped;
+		}
+		StringBuilder value = new StringBuilder(escaped.length());
+		for (int i = 0; i < escaped.length(); i++) {
+			char c = escaped.charAt(i);
+			if (c == '\\' && i + 1 < escaped.length()) {
+				c = escaped.charAt(++i);
+				switch (c) {
+				case 't':
+					c = '\t';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 'n':
+					c = '\n';
+					break;
+				}
+			}
+			value.append(c);
+		}
+		return value.toString();
+	}
+
+	/**
+	 * A worker process, with the thread reading its answers.
+	 */
+	private class Worker extends Thread {
+		final Map<Integer, PendingResult> pending = new ConcurrentHashMap<Integer, PendingResult>();
+		private final Process process;
+		private final Writer in;
+		private final BufferedReader out;
+		volatile boolean closed;
+
+		Worker(Process process) {
+			super("EasyAccept process facade " + command.get(0));
+			setDaemon(true);
+			this.process = process;
+			this.in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), UTF8));
+			this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF8));
+		}
+
+		synchronized void send(String request) throws IOException {
+			if (closed) {
+				throw new IOException("The process " + command.get(0) + " exited");
+			}
+			in.write(request);
+			in.flush();
+		}
+
+		@Override
+		public void run() {
+			try {
+				String line;
+				while ((line = out.readLine()) != null) {
+					answer(line);
+				}
+				close(new IOException("The process " + command.get(0) + " exited"));
+			} catch (IOException e) {
+				close(e);
+			}
+		}
+
+		private void answer(String line) {
+			String[] fields = line.split("\t", 3);
+			if (fields.length < 2) {
+				return;
+			}
+			PendingResult result;
+			try {
+				result = pending.remove(Integer.valueOf(fields[0]));
+			} catch (NumberFormatException e) {
+				return;
+			}
+			if (result == null) {
+				return;
+			}
+			if (OK.equals(fields[1])) {
+				result.complete(fields.length == 3 ? unescape(fields[2]) : null);
+			} else {
+				String message = fields.length == 3 ? unescape(fields[2]) : null;
+				result.fail(new InvocationTargetException(new RemoteFacadeException(null, message)));
+			}
+		}
+
+		void close(IOException cause) {
+			closed = true;
+			try {
+				in.close();
+			} catch (IOException e) {
+				// the process is stopped anyway
+			}
+			process.destroy();
+			for (Iterator<PendingResult> i = pending.values().iterator(); i.hasNext();) {
+				i.next().fail(cause);
+				i.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package easyaccept.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.ParsedLine;
+import easyaccept.Facade;
+
+/**
+ * A facade executing commands in a {@link FacadeServer}, usually hosted by
+ * another, long-lived JVM, so that the facade is constructed once for many
+ * runs.
+ * <p>
+ * Requests are pipelined over a single connection: every thread may send a
+ * command while others wait for theirs, and responses are matched to their
+ * requests as they arrive, in any order (see {@link #submit(ParsedLine, char, int)}).
+ * The connection is opened when the first command is sent, and opened again
+ * after it was lost.
+ * <p>
+ * The facade of a server is given to EasyAccept as an address of the form
+ * <code>remote:host:port</code> (see {@link #isAddress(String)}).
+ * 
+ * @author jacques
+ */
+public class RemoteFacade implements Facade {
+
+	/**
+	 * The prefix of the address of a remote facade.
+	 */
+	public static final String ADDRESS_PREFIX = "remote:";
+
+	private final String host;
+	private final int port;
+	private final AtomicInteger ids = new AtomicInteger();
+	private Connection connection;
+
+	/**
+	 * The RemoteFacade constructor. No connection is opened until a command
+	 * is sent.
+	 * 
+	 * @param host
+	 *            The host of the server.
+	 * @param port
+	 *            The port of the server.
+	 */
+	public RemoteFacade(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Inform if a facade name is the address of a remote facade.
+	 * 
+	 * @param facadeName
+	 *            The facade name.
+	 * @return true if it is of the form <code>remote:host:port</code>.
+	 */
+	public static boolean isAddress(String facadeName) {
+		return facadeName.startsWith(ADDRESS_PREFIX);
+	}
+
+	/**
+	 * Create the facade of an address.
+	 * 
+	 * @param address
+	 *            The address, <code>remote:host:port</code>, or
+	 *            <code>remote:port</code> for the local host.
+	 * @return The facade.
+	 */
+	public static RemoteFacade forAddress(String address) {
+		if (!isAddress(address)) {
+			throw new IllegalArgumentException("Not a remote facade address: " + address);
+		}
+		String hostAndPort = address.substring(ADDRESS_PREFIX.length());
+		int colon = hostAndPort.lastIndexOf(':');
+		try {
+			if (colon < 0) {
+				return new RemoteFacade(null, Integer.parseInt(hostAndPort));
+			}
+			return new RemoteFacade(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1)));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid port in remote facade address: " + address);
+		}
+	}
+
+	/**
+	 * Execute a command in the server, waiting for its result.
+	 * 
+	 * @throws InvocationTargetException
+	 *             if the facade method threw an exception, described by a
+	 *             {@link RemoteFacadeException}.
+	 * @throws RemoteFacadeException
+	 *             if the server could not execute the command.
+	 * @throws IOException
+	 *             if the server could not be reached.
+	 */
+	public Object invoke(ParsedLine parsedLine, char stringDelimiter, int scriptLineNumber) throws Exception {
+		return PendingResult.await(submit(parsedLine, stringDelimiter, scriptLineNumber));
+	}
+
+	/**
+	 * Send a command to the server without waiting for its result, so that
+	 * several commands may be in flight at once.
+	 * 
+	 * @param parsedLine
+	 *            The command.
+	 * @param stringDelimiter
+	 *            The string delimiter.
+	 * @param scriptLineNumber
+	 *            The line number of the command.
+	 * @return The result; it fails as {@link #invoke(ParsedLine, char, int)}
+	 *         would.
+	 * @throws IOException
+	 *             if the command could not be sent.
+	 */
+	public Future<Object> submit(ParsedLine parsedLine, char stringDelimiter, int scriptLineNumber) throws IOException {
+		int id = ids.incrementAndGet();
+		byte[] frame = FacadeProtocol.request(id, parsedLine, stringDelimiter, scriptLineNumber);
+		Connection current = getConnection();
+		PendingResult pending = new PendingResult();
+		current.pending.put(Integer.valueOf(id), pending);
+		try {
+			current.send(frame);
+		} catch (IOException e) {
+			current.close(e);
+			throw e;
+		}
+		return pending;
+	}
+
+	private synchronized Connection getConnection() throws IOException {
+		if (connection == null || connection.closed) {
+			Socket socket = new Socket();
+			try {
+				socket.setTcpNoDelay(true);
+				socket.connect(host == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+						: new InetSocketAddress(host, port));
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			connection = new Connection(socket);
+			connection.start();
+		}
+		return connection;
+	}
+
+	/**
+	 * Close the connection to the server. Commands waiting for their results
+	 * fail.
+	 */
+	public synchronized void close() {
+		if (connection != null) {
+			connection.close(new IOException("The remote facade was closed"));
+			connection = null;
+		}
+	}
+
+	/**
+	 * A connection to the server, with the thread reading its responses.
+	 */
+	private static class Connection extends Thread {
+		final Map<Integer, PendingResult> pending = new ConcurrentHashMap<Integer, PendingResult>();
+		private final Socket socket;
+		private final InputStream in;
+		private final OutputStream out;
+		volatile boolean closed;
+
+		Connection(Socket socket) throws IOException {
+			super("EasyAccept remote facade " + socket.getRemoteSocketAddress());
+			setDaemon(true);
+			this.socket = socket;
+			this.in = new BufferedInputStream(socket.getInputStream());
+			this.out = new BufferedOutputStream(socket.getOutputStream());
+		}
+
+		synchronized void send(byte[] frame) throws IOException {
+			if (closed) {
+				throw new IOException("The connection to the remote facade was lost");
+			}
+			FacadeProtocol.writeFrame(out, frame);
+		}
+
+		@Override
+		public void run() {
+			try {
+				byte[] frame;
+				while ((frame = FacadeProtocol.readFrame(in)) != null) {
+					FacadeProtocol.Response response = FacadeProtocol.readResponse(frame);
+					PendingResult result = pending.remove(Integer.valueOf(response.id));
+					if (result == null) {
+						continue;
+					}
+					if (response.status == FacadeProtocol.OK) {
+						result.complete(response.value);
+					} else {
+						RemoteFacadeException exception = new RemoteFacadeException(response.exceptionClass,
+								(String) response.value);
+						result.fail(response.status == FacadeProtocol.FACADE_ERROR ? new InvocationTargetException(
+								exception) : exception);
+					}
+				}
+				close(new IOException("The remote facade closed the connection"));
+			} catch (IOException e) {
+				close(e);
+			}
+		}
+
+		void close(IOException cause) {
+			closed = true;
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// the connection is abandoned anyway
+			}
+			for (Iterator<PendingResult> i = pending.values().iterator(); i.hasNext();) {
+				i.next().fail(cause);
+				i.remove();
+			}
+		}
+	}
+}
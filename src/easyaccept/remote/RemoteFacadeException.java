@@ -0,0 +1,46 @@
+package easyaccept.remote;
+
+import easyaccept.EasyAcceptException;
+
+/**
+ * An exception thrown by a remote facade while it executed a command, with
+ * the message of the exception and, when the facade is hosted by a
+ * {@link FacadeServer}, the name of its class.
+ * 
+ * @author jacques
+ */
+public class RemoteFacadeException extends EasyAcceptException {
+
+	private static final long serialVersionUID = -2476037677008126339L;
+
+	private final String remoteClassName;
+
+	/**
+	 * Exception constructor.
+	 * 
+	 * @param remoteClassName the name of the class of the exception thrown in the server, or null if it is unknown.
+	 * @param errorMessage the message of the exception thrown in the server.
+	 */
+	public RemoteFacadeException(String remoteClassName, String errorMessage) {
+		super(errorMessage);
+		this.remoteClassName = remoteClassName;
+	}
+
+	/**
+	 * Obtain the name of the class of the exception thrown in the server.
+	 * 
+	 * @return the class name, or null if it is unknown.
+	 */
+	public String getRemoteClassName() {
+		return remoteClassName;
+	}
+
+	@Override
+	public String toString() {
+		if (remoteClassName == null) {
+			return super.toString();
+		}
+		String message = getMessage();
+		return message == null ? remoteClassName : remoteClassName + ": " + message;
+	}
+}
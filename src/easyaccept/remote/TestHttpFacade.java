@@ -0,0 +1,219 @@
+package easyaccept.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import util.Parameter;
+import util.ParsedLine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import easyaccept.EasyAcceptFacade;
+
+/**
+ * Tests the execution of commands as HTTP requests, against a stub service.
+ * @author jacques
+ */
+public class TestHttpFacade extends TestCase {
+
+	private static final String TEST_FILES_PATH = "src" + File.separator + "easyaccept" + File.separator + "script"
+			+ File.separator + "test" + File.separator;
+
+	private HttpServer server;
+	private HttpFacade facade;
+	private final Set<InetSocketAddress> clients = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+	private volatile String lastBody;
+	private volatile String lastContentType;
+
+	protected void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				clients.add(exchange.getRemoteAddress());
+				String body = read(exchange.getRequestBody());
+				lastBody = body;
+				lastContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+				String path = exchange.getRequestURI().getPath();
+				String query = exchange.getRequestURI().getRawQuery();
+				Map<String, String> form = parse(exchange.getRequestMethod().equals("GET") ? query : body);
+				if (path.equals("/charge")) {
+					if (Integer.parseInt(form.get("amount")) > 100) {
+						respond(exchange, 402, "insufficient funds");
+					} else {
+						respond(exchange, 200, "charged " + form.get("amount") + " " + form.get("currency"));
+					}
+				} else if (path.startsWith("/balance/")) {
+					respond(exchange, 200, path.substring("/balance/".length()) + ":100");
+				} else if (path.equals("/echo")) {
+					respond(exchange, 200, form.get("arg0"));
+				} else if (path.equals("/sleep")) {
+					try {
+						Thread.sleep(Long.parseLong(form.get("arg0")));
+					} catch (InterruptedException e) {
+						// answer at once
+					}
+					respond(exchange, 200, "slept");
+				} else if (path.equals("/reset")) {
+					respond(exchange, 204, null);
+				} else {
+					respond(exchange, 404, null);
+				}
+			}
+		});
+		server.start();
+		facade = new HttpFacade("http://localhost:" + server.getAddress().getPort() + "/");
+		facade.setRoute("balance", "GET", "/balance/{0}");
+	}
+
+	protected void tearDown() throws Exception {
+		facade.close();
+		server.stop(0);
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, read);
+		}
+		in.close();
+		return new String(bytes.toByteArray(), "UTF-8");
+	}
+
+	private static Map<String, String> parse(String form) throws IOException {
+		Map<String, String> values = new HashMap<String, String>();
+		if (form != null && form.length() > 0 && !form.startsWith("{")) {
+			String[] pairs = form.split("&");
+			for (int i = 0; i < pairs.length; i++) {
+				int equals = pairs[i].indexOf('=');
+				values.put(URLDecoder.decode(pairs[i].substring(0, equals), "UTF-8"), URLDecoder.decode(pairs[i]
+						.substring(equals + 1), "UTF-8"));
+			}
+		}
+		return values;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body == null ? new byte[0] : body.getBytes("UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static ParsedLine line(String[] words) {
+		ParsedLine parsedLine = new ParsedLine();
+		for (int i = 0; i < words.length; i++) {
+			int equals = i == 0 ? -1 : words[i].indexOf('=');
+			parsedLine.addParameter(equals < 0 ? new Parameter(null, words[i]) : new Parameter(words[i].substring(0,
+					equals), words[i].substring(equals + 1)));
+		}
+		return parsedLine;
+	}
+
+	/**
+	 * Commands are requests, whose bodies are their results.
+	 */
+	public void testRequests() throws Exception {
+		assertEquals("charged 10 EUR", facade.invoke(line(new String[] { "charge", "amount=10", "currency=EUR" }),
+				'"', 1));
+		assertEquals("application/x-www-form-urlencoded; charset=UTF-8", lastContentType);
+		assertEquals("a b&c", facade.invoke(line(new String[] { "echo", "a b&c" }), '"', 1));
+		assertEquals("bob smith:100", facade.invoke(line(new String[] { "balance", "bob smith" }), '"', 1));
+		assertNull(facade.invoke(line(new String[] { "reset" }), '"', 1));
+	}
+
+	/**
+	 * Responses that are not 2xx are errors.
+	 */
+	public void testErrors() throws Exception {
+		try {
+			facade.invoke(line(new String[] { "charge", "amount=1000", "currency=EUR" }), '"', 1);
+			fail("The charge was refused");
+		} catch (InvocationTargetException e) {
+			assertEquals("insufficient funds", e.getCause().getMessage());
+		}
+		try {
+			facade.invoke(line(new String[] { "unknown" }), '"', 1);
+			fail("There is no such resource");
+		} catch (InvocationTargetException e) {
+			assertTrue(e.getCause().getMessage(), e.getCause().getMessage().startsWith("HTTP 404"));
+		}
+	}
+
+	/**
+	 * Arguments may be sent as JSON.
+	 */
+	public void testJson() throws Exception {
+		facade.setJson(true);
+		assertNull(facade.invoke(line(new String[] { "reset", "amount=10", "say \"hi\"\n" }), '"', 1));
+		assertEquals("application/json; charset=UTF-8", lastContentType);
+		assertEquals("{\"amount\":\"10\",\"arg1\":\"say \\\"hi\\\"\\u000a\"}", lastBody);
+	}
+
+	/**
+	 * Connections are kept alive.
+	 */
+	public void testKeepAlive() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			assertEquals("x" + i, facade.invoke(line(new String[] { "echo", "x" + i }), '"', 1));
+		}
+		assertTrue("Connections were not reused: " + clients.size(), clients.size() < 20);
+	}
+
+	/**
+	 * Submitted commands are in flight at once, and each has its timeout.
+	 */
+	public void testSubmitAndTimeout() throws Exception {
+		long start = System.currentTimeMillis();
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 4; i++) {
+			results.add(facade.submit(line(new String[] { "sleep", "300" }), '"', 1));
+		}
+		for (int i = 0; i < results.size(); i++) {
+			assertEquals("slept", results.get(i).get());
+		}
+		assertTrue("The requests were sent one by one", System.currentTimeMillis() - start < 4 * 300);
+		facade.setTimeout("sleep", 100);
+		try {
+			facade.invoke(line(new String[] { "sleep", "1000" }), '"', 1);
+			fail("The command timed out");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Scripts are executed against the service.
+	 */
+	public void testScript() throws Exception {
+		String file = TEST_FILES_PATH + "scriptHttp.txt";
+		List<String> files = new ArrayList<String>();
+		files.add(file);
+		EasyAcceptFacade easyAcceptFacade = new EasyAcceptFacade(facade, files);
+		easyAcceptFacade.executeTests();
+		assertEquals(0, easyAcceptFacade.getScriptNumberOfNotPassedTests(file));
+		assertEquals(4, easyAcceptFacade.getScriptNumberOfPassedTests(file));
+	}
+}
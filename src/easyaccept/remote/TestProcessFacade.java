@@ -0,0 +1,226 @@
+package easyaccept.remote;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import util.Parameter;
+import util.ParsedLine;
+import easyaccept.EasyAcceptFacade;
+import easyaccept.ScriptContext;
+
+/**
+ * Tests the execution of commands by worker processes.
+ * @author jacques
+ */
+public class TestProcessFacade extends TestCase {
+
+	private static final String TEST_FILES_PATH = "src" + File.separator + "easyaccept" + File.separator + "script"
+			+ File.separator + "test" + File.separator;
+
+	/**
+	 * A tool answering commands on its standard output, each in its own
+	 * thread, so that slow commands are answered after fast ones.
+	 */
+	public static class Tool {
+		private static int count;
+
+		public static void main(String[] args) throws Exception {
+			final PrintStream out = new PrintStream(System.out, false, "UTF-8");
+			out.println("a banner to be ignored");
+			out.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				final String[] fields = line.split("\t");
+				if (fields[1].equals("exit")) {
+					System.exit(0);
+				}
+				new Thread() {
+					public void run() {
+						String answer = answer(fields);
+						synchronized (out) {
+							out.println(fields[0] + "\t" + answer);
+							out.flush();
+						}
+					}
+				}.start();
+			}
+		}
+
+		private static String answer(String[] fields) {
+			String command = fields[1];
+			if (command.equals("echo")) {
+				return ProcessFacade.OK + "\t" + fields[2];
+			} else if (command.equals("nothing")) {
+				return ProcessFacade.OK;
+			} else if (command.equals("count")) {
+				synchronized (Tool.class) {
+					return ProcessFacade.OK + "\t" + ++count;
+				}
+			} else if (command.equals("sleep")) {
+				try {
+					Thread.sleep(Long.parseLong(fields[2]));
+				} catch (InterruptedException e) {
+					return ProcessFacade.ERROR + "\tinterrupted";
+				}
+				return ProcessFacade.OK + "\tslept";
+			} else if (command.equals("fail")) {
+				return ProcessFacade.ERROR + "\t" + fields[2];
+			}
+			return ProcessFacade.ERROR + "\tUnknown command: " + command;
+		}
+	}
+
+	private ProcessFacade facade;
+
+	protected void setUp() throws Exception {
+		facade = newFacade(1);
+	}
+
+	protected void tearDown() throws Exception {
+		facade.close();
+	}
+
+	private static ProcessFacade newFacade(int workers) {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		return new ProcessFacade(Arrays.asList(java, "-classpath", System.getProperty("java.class.path"), Tool.class
+				.getName()), workers);
+	}
+
+	private static ParsedLine line(String[] words) {
+		ParsedLine parsedLine = new ParsedLine();
+		for (int i = 0; i < words.length; i++) {
+			parsedLine.addParameter(new Parameter(null, words[i]));
+		}
+		return parsedLine;
+	}
+
+	/**
+	 * Values are escaped so that each command is one line.
+	 */
+	public void testEscape() {
+		StringBuilder escaped = new StringBuilder();
+		ProcessFacade.escape("a\tb\nc\\d\re", escaped);
+		assertEquals("a\\tb\\nc\\\\d\\re", escaped.toString());
+		assertEquals("a\tb\nc\\d\re", ProcessFacade.unescape(escaped.toString()));
+		assertEquals("plain", ProcessFacade.unescape("plain"));
+	}
+
+	/**
+	 * Answers are results or errors.
+	 */
+	public void testAnswers() throws Exception {
+		assertEquals("a\tb\nc \u00e7", facade.invoke(line(new String[] { "echo", "a\tb\nc \u00e7" }), '"', 1));
+		assertNull(facade.invoke(line(new String[] { "nothing" }), '"', 1));
+		try {
+			facade.invoke(line(new String[] { "fail", "boom" }), '"', 1);
+			fail("The tool answered with an error");
+		} catch (InvocationTargetException e) {
+			assertEquals("boom", e.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * Answers are matched to their commands whatever their order.
+	 */
+	public void testPipelining() throws Exception {
+		Future<Object> slow = facade.submit(line(new String[] { "sleep", "500" }), '"', 1);
+		Future<Object> fast = facade.submit(line(new String[] { "echo", "fast" }), '"', 2);
+		assertEquals("fast", fast.get());
+		assertFalse(slow.isDone());
+		assertEquals("slept", slow.get());
+	}
+
+	/**
+	 * The commands of a script go to the same process, whatever thread sends
+	 * them; another script is given another process, and a script that ends
+	 * gives its process back. A process is started again after it exits.
+	 */
+	public void testWorkers() throws Exception {
+		final ProcessFacade pool = newFacade(2);
+		final ScriptContext first = new ScriptContext();
+		ScriptContext previous = first.enter();
+		try {
+			assertEquals("1", pool.invoke(line(new String[] { "count" }), '"', 1));
+			assertEquals("2", pool.invoke(line(new String[] { "count" }), '"', 2));
+			final Object[] other = new Object[1];
+			Thread thread = new Thread() {
+				public void run() {
+					ScriptContext previous = first.enter();
+					try {
+						other[0] = pool.invoke(line(new String[] { "count" }), '"', 3);
+					} catch (Exception e) {
+						other[0] = e;
+					} finally {
+						ScriptContext.exit(previous);
+					}
+				}
+			};
+			thread.start();
+			thread.join();
+			assertEquals("3", other[0]);
+
+			new ScriptContext().enter();
+			assertEquals("1", pool.invoke(line(new String[] { "count" }), '"', 4));
+			assertEquals(1, pool.getScripts(0));
+			assertEquals(1, pool.getScripts(1));
+			first.end();
+			assertEquals(0, pool.getScripts(0));
+
+			new ScriptContext().enter();
+			assertEquals("4", pool.invoke(line(new String[] { "count" }), '"', 5));
+			try {
+				pool.invoke(line(new String[] { "exit" }), '"', 6);
+				fail("The process exited");
+			} catch (IOException e) {
+				// expected
+			}
+			assertEquals("1", pool.invoke(line(new String[] { "count" }), '"', 7));
+		} finally {
+			ScriptContext.exit(previous);
+			pool.close();
+		}
+	}
+
+	/**
+	 * The async commands of a script go to the process of the script, and the
+	 * script gives its process back when it ends.
+	 */
+	public void testAsyncScript() throws Exception {
+		ProcessFacade pool = newFacade(2);
+		try {
+			String file = TEST_FILES_PATH + "scriptProcessAsync.txt";
+			List<String> files = new ArrayList<String>();
+			files.add(file);
+			EasyAcceptFacade easyAcceptFacade = new EasyAcceptFacade(pool, files);
+			easyAcceptFacade.executeTests();
+			assertEquals(easyAcceptFacade.getCompleteResults(), 0, easyAcceptFacade.getScriptNumberOfNotPassedTests(file));
+			assertEquals(0, pool.getScripts(0));
+			assertEquals(0, pool.getScripts(1));
+		} finally {
+			pool.close();
+		}
+	}
+
+	/**
+	 * Scripts are executed against the tool.
+	 */
+	public void testScript() throws Exception {
+		String file = TEST_FILES_PATH + "scriptProcess.txt";
+		List<String> files = new ArrayList<String>();
+		files.add(file);
+		EasyAcceptFacade easyAcceptFacade = new EasyAcceptFacade(facade, files);
+		easyAcceptFacade.executeTests();
+		assertEquals(0, easyAcceptFacade.getScriptNumberOfNotPassedTests(file));
+		assertEquals(4, easyAcceptFacade.getScriptNumberOfPassedTests(file));
+	}
+}
@@ -0,0 +1,155 @@
+package easyaccept.remote;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import util.Parameter;
+import util.ParsedLine;
+import easyaccept.EasyAcceptFacade;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests the execution of commands by a facade hosted in a server.
+ * @author jacques
+ */
+public class TestRemoteFacade extends TestCase {
+
+	private static final String TEST_FILES_PATH = "src" + File.separator + "easyaccept" + File.separator + "script"
+			+ File.separator + "test" + File.separator;
+
+	/**
+	 * A facade with commands returning several types, failing and waiting.
+	 */
+	public static class HostedFacade {
+		public int twice(int i) {
+			return 2 * i;
+		}
+
+		public String echo(String s) {
+			return s;
+		}
+
+		public String nothing() {
+			return null;
+		}
+
+		public boolean not(boolean b) {
+			return !b;
+		}
+
+		public void fail(String message) {
+			throw new IllegalStateException(message);
+		}
+
+		public String sleep(long millis) throws InterruptedException {
+			Thread.sleep(millis);
+			return "slept " + millis;
+		}
+	}
+
+	private FacadeServer server;
+	private RemoteFacade facade;
+
+	protected void setUp() throws Exception {
+		server = new FacadeServer(new HostedFacade(), 0);
+		server.start();
+		facade = RemoteFacade.forAddress(RemoteFacade.ADDRESS_PREFIX + server.getPort());
+	}
+
+	protected void tearDown() throws Exception {
+		facade.close();
+		server.close();
+	}
+
+	private static ParsedLine line(String[] words) {
+		ParsedLine parsedLine = new ParsedLine();
+		for (int i = 0; i < words.length; i++) {
+			parsedLine.addParameter(new Parameter(null, words[i]));
+		}
+		return parsedLine;
+	}
+
+	/**
+	 * Results keep their types.
+	 */
+	public void testResults() throws Exception {
+		assertEquals(Integer.valueOf(6), facade.invoke(line(new String[] { "twice", "3" }), '"', 1));
+		assertEquals(Boolean.FALSE, facade.invoke(line(new String[] { "not", "true" }), '"', 1));
+		assertEquals("a b \u00e7", facade.invoke(line(new String[] { "echo", "a b \u00e7" }), '"', 1));
+		assertNull(facade.invoke(line(new String[] { "nothing" }), '"', 1));
+		ParsedLine withNull = new ParsedLine();
+		withNull.addParameter(new Parameter("x", "echo"));
+		withNull.addParameter(new Parameter(null, null));
+		assertNull(facade.invoke(withNull, '"', 1));
+	}
+
+	/**
+	 * Exceptions of the facade and of the server are told apart.
+	 */
+	public void testErrors() throws Exception {
+		try {
+			facade.invoke(line(new String[] { "fail", "boom" }), '"', 1);
+			fail("The facade threw an exception");
+		} catch (InvocationTargetException e) {
+			RemoteFacadeException cause = (RemoteFacadeException) e.getCause();
+			assertEquals("boom", cause.getMessage());
+			assertEquals(IllegalStateException.class.getName(), cause.getRemoteClassName());
+		}
+		try {
+			facade.invoke(line(new String[] { "unknown", "1" }), '"', 3);
+			fail("The command is unknown");
+		} catch (RemoteFacadeException e) {
+			assertEquals("Line 3: Unknown command: unknown 1", e.getMessage());
+		}
+	}
+
+	/**
+	 * Commands sent at once are executed at once.
+	 */
+	public void testPipelining() throws Exception {
+		long start = System.currentTimeMillis();
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 8; i++) {
+			results.add(facade.submit(line(new String[] { "sleep", "300" }), '"', i));
+		}
+		for (int i = 0; i < results.size(); i++) {
+			assertEquals("slept 300", results.get(i).get());
+		}
+		assertTrue("The commands were executed one by one", System.currentTimeMillis() - start < 8 * 300);
+	}
+
+	/**
+	 * A closed facade connects again.
+	 */
+	public void testReconnect() throws Exception {
+		assertEquals(Integer.valueOf(2), facade.invoke(line(new String[] { "twice", "1" }), '"', 1));
+		facade.close();
+		assertEquals(Integer.valueOf(4), facade.invoke(line(new String[] { "twice", "2" }), '"', 1));
+	}
+
+	/**
+	 * Scripts are executed against the hosted facade.
+	 */
+	public void testScript() throws Exception {
+		FacadeServer scriptServer = new FacadeServer(new TestFacade(), 0);
+		scriptServer.start();
+		RemoteFacade remote = RemoteFacade.forAddress(RemoteFacade.ADDRESS_PREFIX + "localhost:"
+				+ scriptServer.getPort());
+		try {
+			String file = TEST_FILES_PATH + "scriptInlineCache.txt";
+			List<String> files = new ArrayList<String>();
+			files.add(file);
+			EasyAcceptFacade easyAcceptFacade = new EasyAcceptFacade(remote, files);
+			easyAcceptFacade.executeTests();
+			assertEquals(0, easyAcceptFacade.getScriptNumberOfNotPassedTests(file));
+			assertEquals(3, easyAcceptFacade.getScriptNumberOfPassedTests(file));
+		} finally {
+			remote.close();
+			scriptServer.close();
+		}
+	}
+}
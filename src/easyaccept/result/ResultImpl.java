@@ -1,5 +1,7 @@
 package easyaccept.result;
 
+import util.ParsedLine;
+
 /**
  * Stores the results of a single script command after execution.
  * 
@@ -8,9 +10,13 @@ package easyaccept.result;
 public class ResultImpl implements Result {
 
 	/**
-	 * The executed command associated with this Result.
+	 * The executed command associated with this Result. When the Result is
+	 * created from the command line, the command is only rendered when it is
+	 * first asked for.
 	 */
 	private String command;
+	private ParsedLine parsedLine;
+	private char stringDelimiter;
 	/**
 	 * The object returned by the command when executed.
 	 */
@@ -46,6 +52,27 @@ public class ResultImpl implements Result {
 		this.timeTraceMessage = timeTraceMessage;
 	}
 
+	/**
+	 * A Result constructor for a command line, whose command string is
+	 * rendered only if asked for.
+	 * 
+	 * @param parsedLine
+	 *            The command line that produced this Result.
+	 * @param stringDelimiter
+	 *            The string delimiter used to render the command.
+	 * @param result
+	 *            The Result object returned by the command.
+	 * @param exception
+	 *            The exception thrown by the command when executed.
+	 * @param timeTraceMessage
+	 *            The time trace message generated when executing.
+	 */
+	public ResultImpl(ParsedLine parsedLine, char stringDelimiter, Object result, Throwable exception, String timeTraceMessage) {
+		this((String) null, result, exception, timeTraceMessage);
+		this.parsedLine = parsedLine;
+		this.stringDelimiter = stringDelimiter;
+	}
+
 	/**
 	 * Returns the script line associated with this Result
 	 */
@@ -63,7 +90,12 @@ public class ResultImpl implements Result {
 	/**
 	 * Returns the command that produced the Result.
 	 */
-	public String getCommand() {
+	public synchronized String getCommand() {
+		ParsedLine line = parsedLine;
+		if (line != null) {
+			command = line.getCommandString(stringDelimiter);
+			parsedLine = null;
+		}
 		return command;
 	}
 
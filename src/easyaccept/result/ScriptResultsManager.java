@@ -59,12 +59,24 @@ public class ScriptResultsManager {
 
 	/**
 	 * Adds a test Result and its associated line to the script results list.
+	 * A Result for a line already having one replaces it, as the failure of
+	 * an async command found at the end of the script replaces its start.
 	 * 
 	 * @param oneResult
 	 *            The Result to be added at the script manager list.
 	 */
 	public void addResult(Result oneResult) {
-		this.allScriptResults.put(oneResult.getLine(), oneResult);
+		Result previous = this.allScriptResults.put(oneResult.getLine(), oneResult);
+		if (previous != null) {
+			if (previous.hasError()) {
+				this.numberOfErrors--;
+			} else {
+				this.numberOfPassedTests--;
+			}
+			if (previous.hasTimeTraceMessage()) {
+				this.numberOfTimeTraces--;
+			}
+		}
 		this.totalTimeOfExecution += oneResult.getExecutionTimeInMilliseconds();
 
 		if (oneResult.hasError()) {
@@ -23,10 +23,18 @@ public class AllTestsScript {
 		suite.addTestSuite(TestQuitProcessor.class);
 		suite.addTestSuite(TestStackTraceProcessor.class);
 		suite.addTestSuite(TestExpectWithinProcessor.class);
+		suite.addTestSuite(TestWithinProcessor.class);
+		suite.addTestSuite(TestScriptCompiler.class);
+		suite.addTestSuite(TestCompiledScriptFile.class);
+		suite.addTestSuite(TestParseAhead.class);
+		suite.addTestSuite(TestScriptPrecompiler.class);
 		//Test classes below will print tests information on the screen
 		suite.addTestSuite(TestThreadPoolProcessor.class);
 		suite.addTestSuite(TestRepeatProcessor.class);
 		suite.addTestSuite(TestExecuteScriptProcessor.class);
+		suite.addTestSuite(TestWatchdog.class);
+		suite.addTestSuite(TestLatencyHistory.class);
+		suite.addTestSuite(TestAsyncProcessor.class);
 		//$JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,150 @@
+package easyaccept.script;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import easyaccept.EasyAcceptException;
+
+/**
+ * The commands of a script started by <code>async</code> and not yet joined.
+ * Commands run on threads shared by all scripts; at most a given number of
+ * the commands of a script are in flight, and starting another waits for one
+ * of them to end.
+ * <p>
+ * Joining waits for every command in flight, and gives the errors of those
+ * that failed, in the order they were started.
+ *
+ * @author jacques
+ */
+class AsyncCommands {
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "EasyAccept async");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * A command in flight; its permit is given back when it ends or is
+	 * cancelled.
+	 */
+	private class Pending extends FutureTask<Object> {
+		final String fileName;
+		final int lineNumber;
+		final String command;
+
+		Pending(Callable<Object> call, String fileName, int lineNumber, String command) {
+			super(call);
+			this.fileName = fileName;
+			this.lineNumber = lineNumber;
+			this.command = command;
+		}
+
+		@Override
+		protected void done() {
+			permits.release();
+		}
+	}
+
+	private final Semaphore permits;
+	private final int limit;
+	private final List<Pending> pending = new ArrayList<Pending>();
+
+	/**
+	 * The AsyncCommands constructor.
+	 * @param limit
+	 * 			The maximum number of commands in flight.
+	 */
+	AsyncCommands(int limit) {
+		this.limit = Math.max(limit, 1);
+		this.permits = new Semaphore(this.limit);
+	}
+
+	/**
+	 * @return The maximum number of commands in flight.
+	 */
+	int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return The number of commands started and not yet joined.
+	 */
+	int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Start a command, once fewer commands than the limit are in flight.
+	 * @param call
+	 * 			The command.
+	 * @param fileName
+	 * 			The script file of the command.
+	 * @param lineNumber
+	 * 			The line of the command.
+	 * @param command
+	 * 			The command, as written, for errors.
+	 * @throws InterruptedException
+	 * 			if interrupted while waiting for a command to end.
+	 */
+	void start(Callable<Object> call, String fileName, int lineNumber, String command) throws InterruptedException {
+		permits.acquire();
+		Pending task = new Pending(call, fileName, lineNumber, command);
+		pending.add(task);
+		try {
+			executor.execute(task);
+		} catch (RuntimeException e) {
+			pending.remove(task);
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait for every command started.
+	 * @return
+	 * 			The errors of the commands that failed, describing the command
+	 * 			and its line, in the order the commands were started.
+	 * @throws InterruptedException
+	 * 			if interrupted while waiting; the commands not joined yet are
+	 * 			kept.
+	 */
+	List<EasyAcceptException> join() throws InterruptedException {
+		List<EasyAcceptException> errors = new ArrayList<EasyAcceptException>();
+		while (!pending.isEmpty()) {
+			Pending task = pending.get(0);
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof InvocationTargetException) {
+					cause = cause.getCause();
+				}
+				errors.add(new EasyAcceptException(task.fileName, task.lineNumber, "Async command <" + task.command
+						+ "> failed: " + cause.getMessage(), cause));
+			}
+			pending.remove(0);
+		}
+		return errors;
+	}
+
+	/**
+	 * Cancel every command started, interrupting those in flight.
+	 */
+	void cancel() {
+		for (Pending task : pending) {
+			task.cancel(true);
+		}
+		pending.clear();
+	}
+}
@@ -0,0 +1,54 @@
+package easyaccept.script;
+
+import util.ParsedLine;
+import easyaccept.EasyAcceptException;
+
+/**
+ * Handles calls to EasyAccept's internal command <code>async</code>. This
+ * command starts a facade command without waiting for it to end, so that the
+ * next commands run while it is in flight.
+ * <p>
+ * <code>async</code> command has syntax:
+ * <p>
+ * <blockquote>
+ * 
+ * <pre>
+ * async &lt;facadeCommand...&gt;
+ * </pre>
+ * 
+ * </blockquote>
+ * <p>
+ * Async commands are joined by the next <code>expect</code>,
+ * <code>expectDifferent</code>, <code>expectError</code> or
+ * <code>expectWithin</code>, which first waits for every async command in
+ * flight, and fails with their errors if any of them failed; those still in
+ * flight at the end of the script are joined then. Async commands should
+ * therefore be independent of the commands between them and the next
+ * <code>expect</code>. The command runs within the time allowed to it when it
+ * starts, including the deadline of an enclosing <code>within</code>. At most
+ * <code>easyaccept.async.limit</code> commands (16 by default) are in flight
+ * at once: another async command waits for one of them to end.
+ * <p>
+ * Only facade commands can be async, and an async command has no result to
+ * assign to a variable.
+ * 
+ * @author jacques
+ */
+public class AsyncProcessor implements Command {
+
+	/**
+	 * Execute the async command.
+	 */
+	public Object execute(Script script, ParsedLine parsedLine) throws Exception {
+		if (parsedLine.numberOfParameters() < 2) {
+			throw new EasyAcceptException(script.getFileName(), script.getLineNumber(),
+					"Syntax error: async <command ...>");
+		}
+		if (parsedLine.getParameter(0).getName() != null) {
+			throw new EasyAcceptException(script.getFileName(), script.getLineNumber(),
+					"An async command has no result to assign to " + parsedLine.getParameter(0).getName());
+		}
+		script.startAsync(parsedLine.subLine(1));
+		return "OK";
+	}
+}
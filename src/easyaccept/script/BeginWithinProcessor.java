@@ -0,0 +1,52 @@
+package easyaccept.script;
+
+import util.ParsedLine;
+import easyaccept.EasyAcceptException;
+
+/**
+ * Handles calls to EasyAccept's internal command <code>beginWithin</code>,
+ * which opens a block of lines with a deadline, closed by
+ * <code>endWithin</code>. The deadline applies to every facade call of the
+ * lines of the block, as the deadline of <code>within</code> applies to the
+ * calls of its command.
+ * <p>
+ * <code>beginWithin</code> and <code>endWithin</code> have syntax:
+ * <p>
+ * <blockquote>
+ * 
+ * <pre>
+ * beginWithin &lt;duration&gt;
+ * ...
+ * endWithin
+ * </pre>
+ * 
+ * </blockquote>
+ * <p>
+ * where the duration is given as to <code>within</code>. Blocks nest with each
+ * other and with <code>within</code>: a block cannot extend the deadline of
+ * an enclosing one. Both commands must be lines of their own, not the command
+ * of another command; blocks still open at the end of the script end with it.
+ * 
+ * @author jacques
+ */
+public class BeginWithinProcessor implements Command {
+
+	/**
+	 * Execute the beginWithin command.
+	 */
+	public Object execute(Script script, ParsedLine parsedLine) throws Exception {
+		if (parsedLine.numberOfParameters() != 2) {
+			throw new EasyAcceptException(script.getFileName(), script.getLineNumber(),
+					"Syntax error: beginWithin <duration>");
+		}
+		long millis;
+		try {
+			millis = Deadline.parseDuration(parsedLine.getParameter(1).getValueAsString());
+		} catch (NumberFormatException e) {
+			throw new EasyAcceptException(script.getFileName(), script.getLineNumber(),
+					"Syntax error: beginWithin <duration>");
+		}
+		script.beginBlock(millis);
+		return "OK";
+	}
+}
@@ -0,0 +1,357 @@
+package easyaccept.script;
+
+import util.CallSite;
+import util.Parameter;
+import util.ParsedLine;
+import util.ParsingException;
+import util.ScriptLexer;
+import util.Template;
+import util.Variables;
+
+/**
+ * A script line that was parsed ahead of execution by the
+ * {@link ScriptCompiler}. A compiled line never changes, so it can be shared by
+ * any number of scripts and threads; every execution obtains its own
+ * {@link ParsedLine} through {@link #toParsedLine}.
+ * <p>
+ * A parameter value referring to variables (<code>${name}</code>) is compiled
+ * into a {@link Template}, bound to the variables' values each time the line
+ * executes, without parsing the line again. Lines whose meaning depends on
+ * execution state in other ways cannot be parsed ahead: a parameter name
+ * referring to variables, or a string delimiter in effect during execution
+ * other than the one the compiler assumed. Such lines are parsed again from
+ * their source text, exactly as a script read directly from its file would be;
+ * the other lines do not keep their source text.
+ * <p>
+ * The lines obtained from a compiled line share its {@link CallSite}, so what
+ * executing the line resolves (its internal command, or its facade method and
+ * constant arguments) is resolved once for all its executions. Lines parsed
+ * again have call sites of their own. A line without variables can also be
+ * executed from one frozen ParsedLine, created once (see
+ * {@link #toSharedParsedLine(char)}).
+ *
+ * @author jacques
+ */
+public class CompiledLine {
+
+	/**
+	 * The line number in the script file, as reported while the line executes.
+	 */
+	private final int lineNumber;
+
+	/**
+	 * The source text of the line, including comment and blank lines preceding
+	 * it, or null if the line is never parsed again.
+	 */
+	private final String source;
+
+	/**
+	 * The number of lines in the script file that precede the source text.
+	 */
+	private final int sourceLineNumber;
+
+	/**
+	 * The string delimiter in effect when the line was compiled.
+	 */
+	private final char stringDelimiter;
+
+	/**
+	 * The parameter names and values, or null if the line must be parsed again
+	 * at each execution. A value is a String, a Template or null.
+	 */
+	private final String[] names;
+	private final Object[] values;
+
+	/**
+	 * The names of the variables the line refers to, or null if it refers to
+	 * none.
+	 */
+	private final String[] variableNames;
+
+	/**
+	 * The error found when compiling the line, or null if there was none.
+	 */
+	private final String errorMessage;
+
+	/**
+	 * The call site shared by the executions of the line, or null if the line
+	 * must be parsed again at each execution.
+	 */
+	private final CallSite callSite;
+
+	/**
+	 * The frozen line shared by the executions of a line without variables,
+	 * once it is created.
+	 */
+	private volatile ParsedLine sharedLine;
+
+	CompiledLine(int lineNumber, String source, int sourceLineNumber, char stringDelimiter, String[] names, Object[] values,
+			String[] variableNames, String errorMessage) {
+		this.lineNumber = lineNumber;
+		this.source = source;
+		this.sourceLineNumber = sourceLineNumber;
+		this.stringDelimiter = stringDelimiter;
+		this.names = names;
+		this.values = values;
+		this.variableNames = variableNames;
+		this.errorMessage = errorMessage;
+		if (values != null) {
+			boolean[] constant = new boolean[values.length];
+			for (int i = 0; i < values.length; i++) {
+				constant[i] = !(values[i] instanceof Template);
+			}
+			this.callSite = new CallSite(constant);
+		} else {
+			this.callSite = null;
+		}
+	}
+
+	/**
+	 * Create a line whose parameters are known at compile time, their values
+	 * possibly as templates.
+	 */
+	static CompiledLine parsed(int lineNumber, String source, int sourceLineNumber, char stringDelimiter, ParsedLine parsedLine,
+			String[] variableNames) {
+		String[] names = new String[parsedLine.numberOfParameters()];
+		Object[] values = new Object[names.length];
+		for (int i = 0; i < names.length; i++) {
+			Parameter param = parsedLine.getParameter(i);
+			names[i] = param.getName();
+			values[i] = param.getValue();
+		}
+		return new CompiledLine(lineNumber, source, sourceLineNumber, stringDelimiter, names, values,
+				variableNames.length == 0 ? null : variableNames, null);
+	}
+
+	/**
+	 * Create a line that must be parsed again at each execution.
+	 */
+	static CompiledLine dynamic(int lineNumber, String source, int sourceLineNumber, char stringDelimiter, String[] variableNames) {
+		return new CompiledLine(lineNumber, source, sourceLineNumber, stringDelimiter, null, null, variableNames, null);
+	}
+
+	/**
+	 * Create a line that could not be parsed.
+	 */
+	static CompiledLine error(int lineNumber, String source, int sourceLineNumber, char stringDelimiter, String errorMessage) {
+		return new CompiledLine(lineNumber, source, sourceLineNumber, stringDelimiter, null, null, null, errorMessage);
+	}
+
+	/**
+	 * Obtain the line number in the script file. For a line continued over
+	 * several physical lines, this is the number of the last one.
+	 *
+	 * @return The line number.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Obtain the source text of the line, kept only if the line may be parsed
+	 * again when it executes.
+	 *
+	 * @return The source text, or null.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return The number of lines in the script file that precede the source
+	 *         text.
+	 */
+	int getSourceLineNumber() {
+		return sourceLineNumber;
+	}
+
+	/**
+	 * @return The parameter names, or null if the line must be parsed again at
+	 *         each execution.
+	 */
+	String[] getParameterNames() {
+		return names;
+	}
+
+	/**
+	 * @return The parameter values (Strings or Templates), or null if the line
+	 *         must be parsed again at each execution.
+	 */
+	Object[] getParameterValues() {
+		return values;
+	}
+
+	/**
+	 * @return The call site shared by the executions of the line, or null if
+	 *         the line must be parsed again at each execution.
+	 */
+	CallSite getCallSite() {
+		return callSite;
+	}
+
+	/**
+	 * @return The error found when compiling the line, or null if there was
+	 *         none.
+	 */
+	String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * Obtain the names of the variables the line refers to.
+	 *
+	 * @return The variable names, in order of first reference; empty if the
+	 *         line refers to no variable.
+	 */
+	public String[] getVariableNames() {
+		return variableNames == null ? new String[0] : variableNames.clone();
+	}
+
+	/**
+	 * Obtain the string delimiter assumed when the line was compiled.
+	 *
+	 * @return The string delimiter.
+	 */
+	public char getStringDelimiter() {
+		return stringDelimiter;
+	}
+
+	/**
+	 * Inform if the parameters of the line depend on execution state.
+	 *
+	 * @return true if the line refers to variables or could not be parsed.
+	 */
+	public boolean isDynamic() {
+		return values == null || variableNames != null;
+	}
+
+	/**
+	 * Inform if the line must be parsed again at each execution, rather than
+	 * having its templates bound.
+	 *
+	 * @return true if the line could not be compiled into parameters.
+	 */
+	public boolean isReparsed() {
+		return values == null;
+	}
+
+	/**
+	 * Inform if a syntax error was found when compiling the line.
+	 *
+	 * @return true if the line could not be parsed.
+	 */
+	public boolean hasError() {
+		return errorMessage != null;
+	}
+
+	/**
+	 * Inform if executing the line may change the string delimiter in a way
+	 * the compiler does not follow: its command is only known at execution,
+	 * or it uses <code>stringdelimiter</code> other than in the plain form
+	 * <code>stringdelimiter X</code>.
+	 *
+	 * @return true if the delimiter of the next lines is not certain.
+	 */
+	boolean mayChangeDelimiter() {
+		if (errorMessage != null) {
+			// with the delimiter it was compiled with, the line fails
+			return false;
+		}
+		if (values == null || values[0] instanceof Template) {
+			return true;
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] instanceof String && ScriptCompiler.isStringDelimiterCommand((String) values[i])) {
+				return i > 0 || values.length != 2 || !(values[1] instanceof String) || ((String) values[1]).length() != 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Obtain the syntax error found when compiling the line.
+	 *
+	 * @param fileName
+	 *            The name of the script file, as given by the user.
+	 * @return The syntax error, or null if the line was parsed.
+	 */
+	public ParsingException getError(String fileName) {
+		return errorMessage == null ? null : new ParsingException(fileName, lineNumber, errorMessage);
+	}
+
+	/**
+	 * Obtain the command (first parameter) as written in the script, if it is
+	 * known at compile time.
+	 *
+	 * @return The command, or null if it depends on execution state.
+	 */
+	public String getCommandName() {
+		return values == null || !(values[0] instanceof String) ? null : (String) values[0];
+	}
+
+	/**
+	 * Obtain a new ParsedLine for an execution of this line.
+	 *
+	 * @param fileName
+	 *            The name of the script file, used when reporting errors.
+	 * @param currentDelimiter
+	 *            The string delimiter in effect during execution.
+	 * @param variables
+	 *            The variables for substitution of <code>${name}</code>.
+	 * @return The parsed line.
+	 * @throws ParsingException
+	 *             if the line has syntax errors.
+	 */
+	public ParsedLine toParsedLine(String fileName, char currentDelimiter, Variables variables) throws ParsingException {
+		if (values == null || currentDelimiter != stringDelimiter) {
+			if (errorMessage != null && currentDelimiter == stringDelimiter) {
+				throw getError(fileName);
+			}
+			return reparse(fileName, currentDelimiter, variables);
+		}
+		ParsedLine parsedLine = new ParsedLine();
+		for (int i = 0; i < values.length; i++) {
+			Object value = values[i];
+			if (value instanceof Template) {
+				value = ((Template) value).bind(variables);
+			}
+			parsedLine.addParameter(new Parameter(names[i], value));
+		}
+		parsedLine.setCallSite(callSite);
+		return parsedLine;
+	}
+
+	/**
+	 * Obtain the frozen ParsedLine shared by all executions of this line, if
+	 * its parameters are the same at every execution.
+	 *
+	 * @param currentDelimiter
+	 *            The string delimiter in effect during execution.
+	 * @return The shared line, or null if the line refers to variables, must
+	 *         be parsed again or was compiled with another string delimiter.
+	 */
+	public ParsedLine toSharedParsedLine(char currentDelimiter) {
+		if (values == null || variableNames != null || currentDelimiter != stringDelimiter) {
+			return null;
+		}
+		ParsedLine line = sharedLine;
+		if (line == null) {
+			line = new ParsedLine();
+			for (int i = 0; i < values.length; i++) {
+				line.addParameter(new Parameter(names[i], values[i]));
+			}
+			line.setCallSite(callSite);
+			sharedLine = line.freeze();
+		}
+		return line;
+	}
+
+	/**
+	 * Parse the source text of the line.
+	 */
+	private ParsedLine reparse(String fileName, char currentDelimiter, Variables variables) throws ParsingException {
+		ScriptLexer lexer = ScriptCompiler.newLexer(fileName, source, sourceLineNumber, variables);
+		lexer.setStringDelimiter(currentDelimiter);
+		return lexer.getParsedLine();
+	}
+}
@@ -0,0 +1,192 @@
+package easyaccept.script;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import util.ParsingException;
+
+/**
+ * The immutable result of compiling a script file: the sequence of its
+ * command lines, parsed ahead of execution. A compiled script is shared by all
+ * executions of the same file, including scripts executed from within other
+ * scripts and scripts executed concurrently.
+ * <p>
+ * The compiled script also records the state of the file it was compiled from
+ * (modification time, length and checksum), so that the
+ * {@link CompiledScriptCache} can tell whether it is still valid.
+ *
+ * @author jacques
+ */
+public class CompiledScript {
+
+	private final String path;
+	private final long lastModified;
+	private final long length;
+	private final long checksum;
+	private final List<CompiledLine> lines;
+
+	/**
+	 * The CompiledScript constructor.
+	 *
+	 * @param path
+	 *            The canonical path of the script file.
+	 * @param lastModified
+	 *            The modification time of the file when it was compiled.
+	 * @param length
+	 *            The length of the file, in bytes.
+	 * @param checksum
+	 *            The checksum of the file contents.
+	 * @param lines
+	 *            The compiled command lines, in order.
+	 */
+	public CompiledScript(String path, long lastModified, long length, long checksum, List<CompiledLine> lines) {
+		this.path = path;
+		this.lastModified = lastModified;
+		this.length = length;
+		this.checksum = checksum;
+		this.lines = Collections.unmodifiableList(new ArrayList<CompiledLine>(lines));
+	}
+
+	/**
+	 * Construct a compiled script sharing the lines of another.
+	 */
+	private CompiledScript(CompiledScript compiled, long lastModified) {
+		this.path = compiled.path;
+		this.lastModified = lastModified;
+		this.length = compiled.length;
+		this.checksum = compiled.checksum;
+		this.lines = compiled.lines;
+	}
+
+	/**
+	 * Obtain a compiled script with the same lines, for a file whose
+	 * modification time changed but whose contents did not.
+	 *
+	 * @param newLastModified
+	 *            The new modification time.
+	 * @return The compiled script.
+	 */
+	CompiledScript withLastModified(long newLastModified) {
+		return new CompiledScript(this, newLastModified);
+	}
+
+	/**
+	 * @return The canonical path of the script file.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The modification time of the file when it was compiled.
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return The length of the file when it was compiled.
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return The checksum of the file contents when it was compiled.
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Obtain the number of command lines in the script.
+	 *
+	 * @return The number of lines.
+	 */
+	public int size() {
+		return lines.size();
+	}
+
+	/**
+	 * Obtain a command line.
+	 *
+	 * @param index
+	 *            The position of the line in the script (not its line number).
+	 * @return The compiled line.
+	 */
+	public CompiledLine getLine(int index) {
+		return lines.get(index);
+	}
+
+	/**
+	 * Find the first command line that ends at or after a line of the file,
+	 * that is, the command in which the file line is or the first command
+	 * after it.
+	 *
+	 * @param lineNumber
+	 *            The line number in the file.
+	 * @return The position of the command line in the script; size() if the
+	 *         file has no command at or after the line.
+	 */
+	public int indexOfLine(int lineNumber) {
+		int low = 0;
+		int high = lines.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (lines.get(middle).getLineNumber() < lineNumber) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Obtain a compiled script holding the command lines from a line of the
+	 * file on (see {@link #indexOfLine(int)}).
+	 *
+	 * @param lineNumber
+	 *            The line number in the file.
+	 * @return The compiled script; this script if the line is the first.
+	 */
+	public CompiledScript from(int lineNumber) {
+		int index = indexOfLine(lineNumber);
+		if (index == 0) {
+			return this;
+		}
+		return new CompiledScript(path, lastModified, length, checksum, lines.subList(index, lines.size()));
+	}
+
+	/**
+	 * @return The compiled command lines, in order.
+	 */
+	public List<CompiledLine> getLines() {
+		return lines;
+	}
+
+	/**
+	 * Obtain the syntax errors found when compiling the script that will also
+	 * be found when it executes. Once a line may change the string delimiter
+	 * in a way the compiler does not follow (see
+	 * {@link CompiledLine#mayChangeDelimiter()}), the errors of the next lines
+	 * are left out: those lines are parsed again if the delimiter differs when
+	 * they execute, and their errors, if any, are reported then.
+	 *
+	 * @param fileName
+	 *            The name of the script file, as given by the user.
+	 * @return The syntax errors, in line order; empty if there are none.
+	 */
+	public List<ParsingException> getParsingErrors(String fileName) {
+		List<ParsingException> errors = new ArrayList<ParsingException>();
+		for (CompiledLine line : lines) {
+			if (line.hasError()) {
+				errors.add(line.getError(fileName));
+			} else if (line.mayChangeDelimiter()) {
+				break;
+			}
+		}
+		return errors;
+	}
+}
@@ -0,0 +1,320 @@
+package easyaccept.script;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import util.LineIndex;
+import util.SymbolTable;
+
+/**
+ * Keeps the {@link CompiledScript} of every script file executed, so that each
+ * file is parsed only once no matter how many times it is executed (for
+ * example, a script included by many others through
+ * <code>executeScript</code>).
+ * <p>
+ * Compiled scripts are kept by canonical path. Before a compiled script is
+ * reused, the file's modification time and length are checked; if they
+ * changed, the file is read again and its checksum compared, and the file is
+ * recompiled only if its contents really changed.
+ * <p>
+ * A script file that is not in the cache is loaded from its precompiled file
+ * (see {@link CompiledScriptFile}) when there is one compiled from the same
+ * contents; otherwise it is compiled from its source. When a listener waits
+ * for its lines, a file with no compiled script to compare it with is compiled
+ * as it is read, so that the listener gets the first lines before the file is
+ * read to its end. A precompiled file may
+ * also be executed by itself: its source is then used only if it exists and
+ * was changed since it was compiled.
+ * <p>
+ * A script executed from a line on that has neither a compiled script nor a
+ * precompiled file is compiled from that line, reading its file from the
+ * nearest line given by its {@link LineIndex}; such a partial compiled script
+ * is not kept.
+ * <p>
+ * The cache holds a bounded number of compiled scripts, given by the
+ * <code>easyaccept.cache.size</code> property for the shared cache; the script
+ * used least recently is discarded to make room for another, and compiled
+ * again if it is executed again.
+ * <p>
+ * The cache is safe for use by concurrent scripts.
+ *
+ * @author jacques
+ */
+public class CompiledScriptCache {
+
+	/**
+	 * The property giving the number of compiled scripts kept by the shared
+	 * cache.
+	 */
+	public static final String SIZE_PROPERTY = "easyaccept.cache.size";
+	public static final int DEFAULT_SIZE = 1000;
+
+	private static CompiledScriptCache uniqueInstance = new CompiledScriptCache(new ScriptCompiler(), Integer.getInteger(
+			SIZE_PROPERTY, DEFAULT_SIZE).intValue());
+
+	private final Map<String, CompiledScript> compiledScripts;
+
+	private final ScriptCompiler compiler;
+
+	/**
+	 * The CompiledScriptCache constructor, keeping {@link #DEFAULT_SIZE}
+	 * compiled scripts.
+	 *
+	 * @param compiler
+	 *            The compiler used for files not in the cache.
+	 */
+	public CompiledScriptCache(ScriptCompiler compiler) {
+		this(compiler, DEFAULT_SIZE);
+	}
+
+	/**
+	 * The CompiledScriptCache constructor.
+	 *
+	 * @param compiler
+	 *            The compiler used for files not in the cache.
+	 * @param maximumSize
+	 *            The number of compiled scripts kept.
+	 */
+	public CompiledScriptCache(ScriptCompiler compiler, final int maximumSize) {
+		this.compiler = compiler;
+		// in access order, so that the eldest entry is the one used least recently
+		this.compiledScripts = Collections.synchronizedMap(new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+				return size() > Math.max(maximumSize, 1);
+			}
+		});
+	}
+
+	/**
+	 * Obtain the cache shared by all scripts.
+	 *
+	 * @return The shared cache.
+	 */
+	public static CompiledScriptCache getInstance() {
+		return uniqueInstance;
+	}
+
+	/**
+	 * Obtain the compiled script for a file, compiling it if necessary.
+	 *
+	 * @param fileName
+	 *            The name of the script file.
+	 * @return The compiled script.
+	 * @throws FileNotFoundException
+	 *             if the file cannot be found.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public CompiledScript getCompiledScript(String fileName) throws IOException {
+		return getCompiledScript(fileName, null);
+	}
+
+	/**
+	 * Obtain the compiled script for a file, compiling it if necessary. If the
+	 * file is compiled, the listener is informed of each line as soon as it is
+	 * compiled.
+	 *
+	 * @param fileName
+	 *            The name of the script file.
+	 * @param listener
+	 *            The listener, or null.
+	 * @return The compiled script.
+	 * @throws FileNotFoundException
+	 *             if the file cannot be found.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public CompiledScript getCompiledScript(String fileName, ScriptCompiler.LineListener listener) throws IOException {
+		if (CompiledScriptFile.isCompiledFileName(fileName)) {
+			String sourceFileName = CompiledScriptFile.getSourceFileName(fileName);
+			if (!new File(sourceFileName).canRead()) {
+				return getPrecompiledScript(fileName);
+			}
+			fileName = sourceFileName;
+		}
+		File file = new File(fileName);
+		if (!file.canRead()) {
+			throw new FileNotFoundException("File not found: " + fileName);
+		}
+		String path = file.getCanonicalPath();
+		long lastModified = file.lastModified();
+		CompiledScript compiled = compiledScripts.get(path);
+		if (compiled != null && compiled.getLastModified() == lastModified && compiled.getLength() == file.length()) {
+			return compiled;
+		}
+		if (compiled == null && listener != null
+				&& !new File(CompiledScriptFile.getCompiledFileName(fileName)).exists()) {
+			compiled = compiler.compile(file, path, lastModified, listener);
+			compiledScripts.put(path, compiled);
+			return compiled;
+		}
+		byte[] content = ScriptCompiler.readFile(file);
+		if (compiled != null && compiled.getLength() == content.length
+				&& compiled.getChecksum() == ScriptCompiler.checksum(content)) {
+			compiled = compiled.withLastModified(lastModified);
+		} else {
+			compiled = loadPrecompiledScript(fileName, path, lastModified, content);
+			if (compiled == null) {
+				compiled = compiler.compile(path, lastModified, content, listener);
+			}
+		}
+		compiledScripts.put(path, compiled);
+		return compiled;
+	}
+
+	/**
+	 * Obtain the compiled commands of a script file from a line on. If the file
+	 * has neither a compiled script nor a precompiled file, and it can be
+	 * indexed by line, only the lines from the nearest indexed line before the
+	 * given line are read and compiled (see
+	 * {@link ScriptCompiler#compileFrom}), and the result is not kept. The
+	 * listener is informed of each command from the line on that is compiled.
+	 *
+	 * @param fileName
+	 *            The name of the script file.
+	 * @param startLine
+	 *            The line number, from 1.
+	 * @param listener
+	 *            The listener, or null.
+	 * @return The compiled script holding the commands ending at or after the
+	 *         line.
+	 * @throws FileNotFoundException
+	 *             if the file cannot be found.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public CompiledScript getCompiledScript(String fileName, final int startLine,
+			final ScriptCompiler.LineListener listener) throws IOException {
+		if (startLine <= 1) {
+			return getCompiledScript(fileName, listener);
+		}
+		File file = new File(fileName);
+		if (file.canRead() && !CompiledScriptFile.isCompiledFileName(fileName)
+				&& !new File(CompiledScriptFile.getCompiledFileName(fileName)).exists()) {
+			String path = file.getCanonicalPath();
+			long lastModified = file.lastModified();
+			CompiledScript compiled = compiledScripts.get(path);
+			if (compiled == null || compiled.getLastModified() != lastModified || compiled.getLength() != file.length()) {
+				LineIndex index = LineIndex.getIndex(fileName);
+				if (index != null) {
+					return compiler.compileFrom(file, path, lastModified, index, startLine, listener);
+				}
+			}
+		}
+		return getCompiledScript(fileName, listener == null ? null : new ScriptCompiler.LineListener() {
+			public void lineCompiled(CompiledLine line) {
+				if (line.getLineNumber() >= startLine) {
+					listener.lineCompiled(line);
+				}
+			}
+		}).from(startLine);
+	}
+
+	/**
+	 * Load the precompiled file of a script file, if there is one compiled
+	 * from the given contents.
+	 *
+	 * @return The compiled script, or null if it must be compiled from source.
+	 */
+	private CompiledScript loadPrecompiledScript(String fileName, String path, long lastModified, byte[] content) {
+		File compiledFile = new File(CompiledScriptFile.getCompiledFileName(fileName));
+		if (!compiledFile.canRead()) {
+			return null;
+		}
+		try {
+			CompiledScript compiled = CompiledScriptFile.read(compiledFile, path, lastModified, compiler.getSymbolTable());
+			if (compiled.getLength() == content.length && compiled.getChecksum() == ScriptCompiler.checksum(content)) {
+				return compiled;
+			}
+		} catch (IOException e) {
+			// an unreadable or outdated precompiled file is ignored
+		}
+		return null;
+	}
+
+	/**
+	 * Obtain the compiled script held by a precompiled file whose source is
+	 * not available.
+	 */
+	private CompiledScript getPrecompiledScript(String fileName) throws IOException {
+		File file = new File(fileName);
+		if (!file.canRead()) {
+			throw new FileNotFoundException("File not found: " + fileName);
+		}
+		String path = file.getCanonicalPath();
+		long lastModified = file.lastModified();
+		CompiledScript compiled = compiledScripts.get(path);
+		if (compiled == null || compiled.getLastModified() != lastModified) {
+			compiled = CompiledScriptFile.read(file, path, lastModified, compiler.getSymbolTable());
+			compiledScripts.put(path, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Obtain the table through which the names and literals of the scripts
+	 * compiled for the current test suite are interned, with its statistics.
+	 *
+	 * @return The symbol table.
+	 */
+	public SymbolTable getSymbolTable() {
+		return compiler.getSymbolTable();
+	}
+
+	/**
+	 * Start a test suite: the names and literals of the scripts compiled from
+	 * now on are interned through a new symbol table, so that the symbols of
+	 * earlier suites are not kept and the statistics are those of the suite.
+	 * The compiled scripts in the cache are kept.
+	 */
+	public void startSuite() {
+		compiler.setSymbolTable(new SymbolTable());
+	}
+
+	/**
+	 * Add a compiled script to the cache, replacing any compiled script for
+	 * the same file.
+	 *
+	 * @param compiled
+	 *            The compiled script.
+	 */
+	public void put(CompiledScript compiled) {
+		compiledScripts.put(compiled.getPath(), compiled);
+	}
+
+	/**
+	 * Inform if a compiled script is kept for the file.
+	 *
+	 * @param fileName
+	 *            The name of the script file.
+	 * @return true if the file was compiled (it may have changed since).
+	 * @throws IOException
+	 */
+	public boolean contains(String fileName) throws IOException {
+		return compiledScripts.containsKey(new File(fileName).getCanonicalPath());
+	}
+
+	/**
+	 * Obtain the number of compiled scripts in the cache.
+	 *
+	 * @return The number of compiled scripts.
+	 */
+	public int size() {
+		return compiledScripts.size();
+	}
+
+	/**
+	 * Discard all compiled scripts and their symbols.
+	 */
+	public void clear() {
+		compiledScripts.clear();
+		compiler.getSymbolTable().clear();
+	}
+}
@@ -0,0 +1,341 @@
+package easyaccept.script;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import util.ChannelDecoder;
+import util.MultiFileReader;
+import util.SymbolTable;
+import util.Template;
+
+/**
+ * Reads and writes precompiled script files. A precompiled script file holds a
+ * {@link CompiledScript} (every command line already tokenized, with its
+ * parameters, line numbers and the variables it refers to), so that a script
+ * can be executed without parsing its source.
+ * <p>
+ * The precompiled file of <code>script.txt</code> is
+ * <code>script.txt.eac</code>. It starts with a header giving the format
+ * version and the length, checksum and encoding of the source it was compiled
+ * from; a precompiled file is only used while its source is unchanged.
+ *
+ * @author jacques
+ */
+public class CompiledScriptFile {
+
+	/**
+	 * The extension added to the name of a script file to obtain the name of
+	 * its precompiled file.
+	 */
+	public static final String EXTENSION = MultiFileReader.PRECOMPILED_EXTENSION;
+
+	/**
+	 * Identifies precompiled script files ("EAC!").
+	 */
+	private static final int MAGIC = 0x45414321;
+
+	/**
+	 * The version of the format, changed whenever the format changes.
+	 * Precompiled files of other versions are ignored.
+	 */
+	public static final int VERSION = 2;
+
+	private static final byte PARSED_LINE = 0;
+	private static final byte DYNAMIC_LINE = 1;
+	private static final byte ERROR_LINE = 2;
+
+	private static final byte NULL_VALUE = 0;
+	private static final byte STRING_VALUE = 1;
+	private static final byte TEMPLATE_VALUE = 2;
+	/**
+	 * The fewest bytes a line takes: its kind, line numbers, delimiter and
+	 * source string length.
+	 */
+	private static final int MINIMUM_LINE_SIZE = 15;
+
+	private static final String UTF8 = "UTF-8";
+
+	/**
+	 * Obtain the name of the precompiled file of a script file.
+	 *
+	 * @param fileName
+	 *            The name of the script file.
+	 * @return The name of the precompiled file.
+	 */
+	public static String getCompiledFileName(String fileName) {
+		return fileName + EXTENSION;
+	}
+
+	/**
+	 * Inform if a file is a precompiled script file, by its name.
+	 *
+	 * @param fileName
+	 *            The file name.
+	 * @return true if the name ends with the precompiled file extension.
+	 */
+	public static boolean isCompiledFileName(String fileName) {
+		return fileName.endsWith(EXTENSION);
+	}
+
+	/**
+	 * Obtain the name of the script file a precompiled file was compiled from.
+	 *
+	 * @param compiledFileName
+	 *            The name of the precompiled file.
+	 * @return The name of the script file.
+	 */
+	public static String getSourceFileName(String compiledFileName) {
+		return compiledFileName.substring(0, compiledFileName.length() - EXTENSION.length());
+	}
+
+	/**
+	 * Write a compiled script to a precompiled file.
+	 *
+	 * @param compiled
+	 *            The compiled script.
+	 * @param file
+	 *            The precompiled file.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void write(CompiledScript compiled, File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), ChannelDecoder.BUFFER_SIZE));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(compiled.getLength());
+			out.writeLong(compiled.getChecksum());
+			writeString(out, ChannelDecoder.getScriptCharset().name());
+			out.writeInt(compiled.size());
+			for (CompiledLine line : compiled.getLines()) {
+				writeLine(out, line);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeLine(DataOutputStream out, CompiledLine line) throws IOException {
+		if (line.hasError()) {
+			out.writeByte(ERROR_LINE);
+		} else if (line.isReparsed()) {
+			out.writeByte(DYNAMIC_LINE);
+		} else {
+			out.writeByte(PARSED_LINE);
+		}
+		out.writeInt(line.getLineNumber());
+		out.writeInt(line.getSourceLineNumber());
+		out.writeChar(line.getStringDelimiter());
+		writeString(out, line.getSource());
+		if (line.hasError()) {
+			writeString(out, line.getErrorMessage());
+		} else if (line.isReparsed()) {
+			writeStrings(out, line.getVariableNames());
+		} else {
+			writeStrings(out, line.getParameterNames());
+			Object[] values = line.getParameterValues();
+			out.writeInt(values.length);
+			for (int i = 0; i < values.length; i++) {
+				writeValue(out, values[i]);
+			}
+			writeStrings(out, line.getVariableNames());
+		}
+	}
+
+	/**
+	 * Read a compiled script from a precompiled file.
+	 *
+	 * @param file
+	 *            The precompiled file.
+	 * @param path
+	 *            The canonical path of the script file.
+	 * @param lastModified
+	 *            The modification time to be recorded in the compiled script.
+	 * @return The compiled script.
+	 * @throws IOException
+	 *             if the file cannot be read, is not a precompiled script file,
+	 *             was written by another version of the format or for another
+	 *             encoding.
+	 */
+	public static CompiledScript read(File file, String path, long lastModified) throws IOException {
+		return read(file, path, lastModified, new SymbolTable());
+	}
+
+	/**
+	 * Read a compiled script from a precompiled file, interning its names and
+	 * short values through a symbol table.
+	 *
+	 * @param file
+	 *            The precompiled file.
+	 * @param path
+	 *            The canonical path of the script file.
+	 * @param lastModified
+	 *            The modification time to be recorded in the compiled script.
+	 * @param symbols
+	 *            The symbol table.
+	 * @return The compiled script.
+	 * @throws IOException
+	 *             if the file cannot be read, is not a precompiled script file,
+	 *             was written by another version of the format or for another
+	 *             encoding.
+	 */
+	public static CompiledScript read(File file, String path, long lastModified, SymbolTable symbols) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(ChannelDecoder.readFully(file)));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a precompiled script file: " + file);
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Precompiled script file " + file + " has version " + version + ", expected " + VERSION);
+		}
+		long length = in.readLong();
+		long checksum = in.readLong();
+		String encoding = readString(in);
+		if (!ChannelDecoder.getScriptCharset().name().equals(encoding)) {
+			throw new IOException("Precompiled script file " + file + " was compiled for encoding " + encoding);
+		}
+		int size = readCount(in, MINIMUM_LINE_SIZE);
+		List<CompiledLine> lines = new ArrayList<CompiledLine>(size);
+		// as when compiling, the source is kept only for lines that may be parsed again
+		boolean delimiterUncertain = false;
+		for (int i = 0; i < size; i++) {
+			CompiledLine line = readLine(in, symbols, delimiterUncertain);
+			delimiterUncertain |= line.mayChangeDelimiter();
+			lines.add(line);
+		}
+		return new CompiledScript(path, lastModified, length, checksum, lines);
+	}
+
+	private static CompiledLine readLine(DataInputStream in, SymbolTable symbols, boolean keepSource) throws IOException {
+		byte kind = in.readByte();
+		int lineNumber = in.readInt();
+		int sourceLineNumber = in.readInt();
+		char stringDelimiter = in.readChar();
+		String source = readString(in);
+		if (!keepSource && kind != DYNAMIC_LINE) {
+			source = null;
+		}
+		switch (kind) {
+		case PARSED_LINE:
+			String[] names = symbols.internAll(readStrings(in));
+			Object[] values = new Object[readCount(in, 1)];
+			if (values.length == 0 || values.length != names.length) {
+				throw new IOException("Corrupt precompiled script file: line " + lineNumber + " has " + names.length
+						+ " names for " + values.length + " values");
+			}
+			for (int i = 0; i < values.length; i++) {
+				values[i] = readValue(in, symbols);
+			}
+			String[] variableNames = readStrings(in);
+			return new CompiledLine(lineNumber, source, sourceLineNumber, stringDelimiter, names, values,
+					variableNames.length == 0 ? null : variableNames, null);
+		case DYNAMIC_LINE:
+			return CompiledLine.dynamic(lineNumber, source, sourceLineNumber, stringDelimiter, readStrings(in));
+		case ERROR_LINE:
+			return CompiledLine.error(lineNumber, source, sourceLineNumber, stringDelimiter, readString(in));
+		default:
+			throw new IOException("Corrupt precompiled script file: unknown line kind " + kind);
+		}
+	}
+
+	/**
+	 * Strings are written as their length in bytes (-1 for null) followed by
+	 * their UTF-8 encoding, so that there is no limit to their length.
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = s.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		} else if (length > in.available()) {
+			throw new IOException("Corrupt precompiled script file: string of " + length + " bytes");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * A parameter value is written as a tag followed by the string, or by the
+	 * template's literals and variable names.
+	 */
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL_VALUE);
+		} else if (value instanceof Template) {
+			out.writeByte(TEMPLATE_VALUE);
+			writeStrings(out, ((Template) value).getLiterals());
+			writeStrings(out, ((Template) value).getVariableNames());
+		} else {
+			out.writeByte(STRING_VALUE);
+			writeString(out, (String) value);
+		}
+	}
+
+	private static Object readValue(DataInputStream in, SymbolTable symbols) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case NULL_VALUE:
+			return null;
+		case STRING_VALUE:
+			return symbols.intern(readString(in));
+		case TEMPLATE_VALUE:
+			String[] literals = readStrings(in);
+			String[] variableNames = readStrings(in);
+			if (literals.length != variableNames.length + 1) {
+				throw new IOException("Corrupt precompiled script file: bad template");
+			}
+			return new Template(literals, variableNames);
+		default:
+			throw new IOException("Corrupt precompiled script file: unknown value kind " + tag);
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+		out.writeInt(strings.length);
+		for (int i = 0; i < strings.length; i++) {
+			writeString(out, strings[i]);
+		}
+	}
+
+	private static String[] readStrings(DataInputStream in) throws IOException {
+		String[] strings = new String[readCount(in, 4)];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = readString(in);
+		}
+		return strings;
+	}
+
+	/**
+	 * Read a count of items, checking that the items can fit in what is left
+	 * of the file, so that a corrupt count is not allocated.
+	 *
+	 * @param in
+	 *            The file contents.
+	 * @param minimumSize
+	 *            The fewest bytes an item takes.
+	 */
+	private static int readCount(DataInputStream in, int minimumSize) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > in.available() / minimumSize) {
+			throw new IOException("Corrupt precompiled script file: count of " + count);
+		}
+		return count;
+	}
+}
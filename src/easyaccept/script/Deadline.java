@@ -0,0 +1,122 @@
+package easyaccept.script;
+
+/**
+ * A deadline for the commands executed in a block, such as the command of a
+ * <code>within</code> or the lines from <code>beginWithin</code> to
+ * <code>endWithin</code>. Deadlines nest: a block inside another ends no later
+ * than the outer block, whatever its own time. The deadlines of a thread
+ * apply to every script it executes, including scripts executed by
+ * <code>executeScript</code>; a script executed on the thread pool is given
+ * the deadline in effect when it was submitted (see {@link #install(Deadline)}).
+ *
+ * @author jacques
+ */
+final class Deadline {
+
+	private static final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+	private final long expiry;
+	private final Deadline parent;
+
+	private Deadline(long expiry, Deadline parent) {
+		this.expiry = expiry;
+		this.parent = parent;
+	}
+
+	/**
+	 * Obtain the deadline of the innermost block of the current thread.
+	 * @return
+	 * 			The deadline, or null if the thread is in no block.
+	 */
+	static Deadline current() {
+		return current.get();
+	}
+
+	/**
+	 * Enter a block in the current thread.
+	 * @param millis
+	 * 			The time allowed to the block, in milliseconds.
+	 * @return
+	 * 			The deadline of the block: the earliest of its own and the
+	 * 			deadline of the enclosing block.
+	 */
+	static Deadline enter(long millis) {
+		Deadline parent = current.get();
+		long expiry = System.nanoTime() + millis * 1000000L;
+		if (parent != null && parent.expiry - expiry < 0) {
+			expiry = parent.expiry;
+		}
+		Deadline deadline = new Deadline(expiry, parent);
+		current.set(deadline);
+		return deadline;
+	}
+
+	/**
+	 * Leave the block of the deadline, in the thread that entered it.
+	 */
+	void exit() {
+		if (parent == null) {
+			current.remove();
+		} else {
+			current.set(parent);
+		}
+	}
+
+	/**
+	 * Make a deadline the deadline of the current thread, as for work done on
+	 * behalf of the thread that obtained it.
+	 * @param deadline
+	 * 			The deadline, or null for none.
+	 * @return
+	 * 			The deadline of the current thread before, to be installed
+	 * 			again when the work ends.
+	 */
+	static Deadline install(Deadline deadline) {
+		Deadline previous = current.get();
+		if (deadline == null) {
+			current.remove();
+		} else {
+			current.set(deadline);
+		}
+		return previous;
+	}
+
+	/**
+	 * Obtain the time left before the deadline.
+	 * @return
+	 * 			The time left in milliseconds, 0 or less if the deadline passed.
+	 */
+	long getRemaining() {
+		long nanos = expiry - System.nanoTime();
+		return nanos <= 0 ? 0 : (nanos + 999999L) / 1000000L;
+	}
+
+	/**
+	 * Parse a duration: a number followed by <code>ms</code>, <code>s</code>
+	 * or <code>m</code>, or a number of milliseconds.
+	 * @param duration
+	 * 			The duration.
+	 * @return
+	 * 			The duration in milliseconds.
+	 * @throws NumberFormatException
+	 * 			if the duration is not a positive number of a known unit.
+	 */
+	static long parseDuration(String duration) {
+		String number = duration.trim();
+		double unit = 1;
+		if (number.endsWith("ms")) {
+			number = number.substring(0, number.length() - 2);
+		} else if (number.endsWith("s")) {
+			number = number.substring(0, number.length() - 1);
+			unit = 1000;
+		} else if (number.endsWith("m")) {
+			number = number.substring(0, number.length() - 1);
+			unit = 60000;
+		}
+		double millis = Double.parseDouble(number) * unit;
+		if (!(millis > 0) || millis > Long.MAX_VALUE / 1000000L) {
+			throw new NumberFormatException("Invalid duration: " + duration);
+		}
+		return (long) Math.ceil(millis);
+	}
+}
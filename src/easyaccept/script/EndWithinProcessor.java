@@ -0,0 +1,30 @@
+package easyaccept.script;
+
+import util.ParsedLine;
+import easyaccept.CommandTimeoutException;
+import easyaccept.EasyAcceptException;
+
+/**
+ * Handles calls to EasyAccept's internal command <code>endWithin</code>, which
+ * closes the innermost block opened by <code>beginWithin</code> (see
+ * {@link BeginWithinProcessor}). It fails with a timeout if the deadline of
+ * the block passed.
+ * 
+ * @author jacques
+ */
+public class EndWithinProcessor implements Command {
+
+	/**
+	 * Execute the endWithin command.
+	 */
+	public Object execute(Script script, ParsedLine parsedLine) throws Exception {
+		if (parsedLine.numberOfParameters() != 1) {
+			throw new EasyAcceptException(script.getFileName(), script.getLineNumber(), "Syntax error: endWithin");
+		}
+		Deadline block = script.endBlock();
+		if (block.getRemaining() <= 0) {
+			throw new CommandTimeoutException(Watchdog.TIMEOUT_MESSAGE);
+		}
+		return "OK";
+	}
+}
@@ -48,8 +48,19 @@ public class ExecuteScriptProcessor implements Command {
 		
 		if ("true".equalsIgnoreCase(newThreadInformation)){
 			if (ThreadPoolProcessor.threadPool != null){
-				Runnable newScript = new Script(testFileName, facade, variables);
-				ThreadPoolProcessor.threadPool.execute(newScript);
+				final Script newScript = new Script(testFileName, facade, variables);
+				// the script runs within the deadline of the block submitting it
+				final Deadline deadline = Deadline.current();
+				ThreadPoolProcessor.threadPool.execute(new Runnable() {
+					public void run() {
+						Deadline previous = Deadline.install(deadline);
+						try {
+							newScript.run();
+						} finally {
+							Deadline.install(previous);
+						}
+					}
+				});
 			} else {
 				throw new EasyAcceptException("Thread Pool was not initialized");
 			}
@@ -61,6 +61,7 @@ class ExpectDifferentProcessor implements Command {
 					.getLineNumber(),
 					"Syntax error: expectDifferent <string> <command ...>");
 		}
+		script.joinAsyncCommands();
 		Result resultCommand = script.executeCommand(parsedLine.subLine(2));
 		if (resultCommand.getException() != null) {
 			throw new EasyAcceptException(script.getFileName(), script
@@ -58,6 +58,7 @@ class ExpectErrorProcessor implements Command {
 					.getLineNumber(),
 					"Syntax error: expectError <string> <command ...>");
 		}
+		script.joinAsyncCommands();
 		Result resultCommand = script.executeCommand(parsedLine.subLine(2));
 		if (resultCommand.getException() != null) {
 			if (parsedLine.getParameter(1).getValueAsString().equals(
@@ -62,6 +62,7 @@ class ExpectWithinProcessor implements Command {
 					.getLineNumber(),
 					"Syntax error: expectWithin <precision> <value> <command ...>");
 		}
+		script.joinAsyncCommands();
 		// System.err.println("executing <"
 		// + parsedLine.subLine(3).getCommandString() + ">");
 		Result resultCommand = script.executeCommand(parsedLine.subLine(3));
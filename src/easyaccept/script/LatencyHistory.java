@@ -0,0 +1,713 @@
+package easyaccept.script;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import util.ChannelDecoder;
+
+/**
+ * The latency of facade commands over past runs, from which the deadline of
+ * each call is derived: the deadline of a command is its historical 99th
+ * percentile latency times a factor, but no less than a floor and no more than
+ * a ceiling. Commands are identified by script file, line and command name, so
+ * that the same command with other arguments at another line has its own
+ * history, and by the checksum of the script file, so that once the script is
+ * edited its commands start a new history rather than take that of whatever
+ * command was at their line before.
+ * <p>
+ * The latencies of a command are kept in a histogram with four buckets per
+ * doubling of latency, so that a percentile is known within about 19%. When a
+ * command has many samples, its counts are halved, so that recent runs weigh
+ * more than older ones. A command gets an adaptive deadline once it has a
+ * minimum number of samples. A call that timed out is recorded with enough
+ * weight to be its new 99th percentile (see {@link #recordTimeout(String, long)}),
+ * so that a deadline too tight, for example on a slower machine, widens at
+ * once rather than failing the command at every run.
+ * <p>
+ * Script files are identified by canonical path, so that a script run from
+ * another directory or through another relative path keeps its history.
+ * <p>
+ * If the <code>easyaccept.latency.history</code> property names a file,
+ * scripts use the history kept in that file (see {@link #getDefault()}),
+ * which is saved when a run ends (see {@link #endRun()}). Several runs may
+ * share the file, also from other JVMs: a save merges the samples recorded
+ * since the last save into the file as it is then, under a lock, and replaces
+ * the file at once, so that no run loses the samples of another or reads a
+ * file half written. The factor, floor, ceiling and
+ * minimum number of samples are given by the
+ * <code>easyaccept.latency.factor</code>, <code>.floor</code>,
+ * <code>.ceiling</code> and <code>.samples</code> properties; the floor and
+ * ceiling are durations, as given to <code>within</code>.
+ *
+ * @author jacques
+ */
+public class LatencyHistory {
+
+	/**
+	 * The property naming the file of the history used by scripts.
+	 */
+	public static final String FILE_PROPERTY = "easyaccept.latency.history";
+	public static final String FACTOR_PROPERTY = "easyaccept.latency.factor";
+	public static final String FLOOR_PROPERTY = "easyaccept.latency.floor";
+	public static final String CEILING_PROPERTY = "easyaccept.latency.ceiling";
+	public static final String SAMPLES_PROPERTY = "easyaccept.latency.samples";
+
+	public static final double DEFAULT_FACTOR = 3;
+	public static final long DEFAULT_FLOOR = 100;
+	public static final long DEFAULT_CEILING = 5 * 60 * 1000;
+	public static final int DEFAULT_SAMPLES = 20;
+
+	/**
+	 * Identifies history files ("EAL!").
+	 */
+	private static final int MAGIC = 0x45414c21;
+	private static final int VERSION = 2;
+	/**
+	 * The longest entry of a history file, in bytes.
+	 */
+	private static final int MAX_ENTRY = 1 << 16;
+
+	/**
+	 * The buckets of latencies: bucket i holds latencies from 2^(i/4) to
+	 * 2^((i+1)/4) microseconds; the last bucket also holds longer ones.
+	 */
+	static final int BUCKETS = 112;
+	private static final int BUCKETS_PER_DOUBLING = 4;
+	/**
+	 * The number of samples of a command above which its counts are halved.
+	 */
+	private static final int MAX_SAMPLES = 1000;
+
+	/**
+	 * The number of file names whose canonical paths are kept; the paths are
+	 * forgotten when it is reached.
+	 */
+	private static final int MAX_PATHS = 1024;
+	private static final ConcurrentMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+	/**
+	 * The key prefix of each script file whose fingerprint is known, by
+	 * canonical path: entries of the file with another prefix are stale.
+	 */
+	private static final ConcurrentMap<String, String> prefixes = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Serializes saves in this JVM, since file locks are held by the JVM.
+	 */
+	private static final Object saveLock = new Object();
+
+	private static final Object defaultLock = new Object();
+	private static LatencyHistory defaultHistory;
+	private static boolean defaultLoaded;
+
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+	/**
+	 * The samples recorded since the history was last saved.
+	 */
+	private final ConcurrentMap<String, Histogram> pending = new ConcurrentHashMap<String, Histogram>();
+	private final File file;
+	private int runs;
+	private double factor = DEFAULT_FACTOR;
+	private long floor = DEFAULT_FLOOR;
+	private long ceiling = DEFAULT_CEILING;
+	private int minimumSamples = DEFAULT_SAMPLES;
+
+	/**
+	 * The latencies of a command.
+	 */
+	private static class Histogram {
+		final int[] counts = new int[BUCKETS];
+		volatile int total;
+		/**
+		 * Set once the samples of a pending histogram are taken for a save.
+		 */
+		boolean saved;
+
+		synchronized void add(long micros, int samples) {
+			counts[bucketOf(micros)] += samples;
+			total += samples;
+			halve();
+		}
+
+		synchronized void addAll(int[] samples) {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] += samples[i];
+				total += samples[i];
+			}
+			halve();
+		}
+
+		private void halve() {
+			while (total > MAX_SAMPLES) {
+				total = 0;
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] /= 2;
+					total += counts[i];
+				}
+			}
+		}
+
+		synchronized long getPercentile(double percentile) {
+			long rank = (long) Math.ceil(total * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0) {
+					return upperBound(i);
+				}
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * The identity of a script file as last seen: its canonical path and the
+	 * checksum of its contents.
+	 */
+	private static class Fingerprint {
+		final long lastModified;
+		final long length;
+		final String prefix;
+
+		Fingerprint(long lastModified, long length, String prefix) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.prefix = prefix;
+		}
+	}
+
+	/**
+	 * A deadline derived from the history of a command.
+	 */
+	public static class AdaptiveDeadline {
+		private final long millis;
+		private final long percentile;
+
+		AdaptiveDeadline(long millis, long percentile) {
+			this.millis = millis;
+			this.percentile = percentile;
+		}
+
+		/**
+		 * @return The deadline, in milliseconds.
+		 */
+		public long getMillis() {
+			return millis;
+		}
+
+		/**
+		 * @return The 99th percentile latency it was derived from, in
+		 *         milliseconds.
+		 */
+		public long getPercentile() {
+			return percentile;
+		}
+
+		/**
+		 * Describe the deadline, for reports.
+		 */
+		@Override
+		public String toString() {
+			return "adaptive deadline of " + millis + " ms, from a p99 latency of " + percentile + " ms";
+		}
+	}
+
+	/**
+	 * Construct a history kept in memory only.
+	 */
+	public LatencyHistory() {
+		this(null);
+	}
+
+	/**
+	 * The LatencyHistory constructor. The history is empty until it is
+	 * loaded.
+	 * @param file
+	 * 			The file the history is saved to, or null.
+	 */
+	public LatencyHistory(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Obtain the history used by scripts: the history of the file named by
+	 * the <code>easyaccept.latency.history</code> property, loaded the first
+	 * time it is asked for.
+	 * @return
+	 * 			The history, or null if the property is not set.
+	 */
+	public static LatencyHistory getDefault() {
+		synchronized (defaultLock) {
+			if (!defaultLoaded) {
+				defaultLoaded = true;
+				String fileName = System.getProperty(FILE_PROPERTY);
+				if (fileName != null) {
+					LatencyHistory history = new LatencyHistory(new File(fileName));
+					history.setFactor(getDouble(FACTOR_PROPERTY, DEFAULT_FACTOR));
+					history.setLimits(getDuration(FLOOR_PROPERTY, DEFAULT_FLOOR), getDuration(CEILING_PROPERTY,
+							DEFAULT_CEILING));
+					history.setMinimumSamples(Integer.getInteger(SAMPLES_PROPERTY, DEFAULT_SAMPLES).intValue());
+					try {
+						history.load();
+					} catch (IOException e) {
+						// an unreadable history is started again
+					}
+					defaultHistory = history;
+				}
+			}
+			return defaultHistory;
+		}
+	}
+
+	private static double getDouble(String property, double defaultValue) {
+		try {
+			return Double.parseDouble(System.getProperty(property, "" + defaultValue));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private static long getDuration(String property, long defaultValue) {
+		String value = System.getProperty(property);
+		if (value != null) {
+			try {
+				return Deadline.parseDuration(value);
+			} catch (NumberFormatException e) {
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Configure the factor of the 99th percentile latency giving a deadline.
+	 * @param factor
+	 * 			The factor.
+	 */
+	public void setFactor(double factor) {
+		this.factor = factor;
+	}
+
+	/**
+	 * Configure the shortest and longest deadlines.
+	 * @param floor
+	 * 			The shortest deadline, in milliseconds.
+	 * @param ceiling
+	 * 			The longest deadline, in milliseconds.
+	 */
+	public void setLimits(long floor, long ceiling) {
+		this.floor = floor;
+		this.ceiling = Math.max(floor, ceiling);
+	}
+
+	/**
+	 * Configure the number of samples a command needs to get a deadline.
+	 * @param samples
+	 * 			The number of samples.
+	 */
+	public void setMinimumSamples(int samples) {
+		this.minimumSamples = Math.max(samples, 1);
+	}
+
+	/**
+	 * Obtain the key of a command.
+	 * @param fileName
+	 * 			The script file, identified by its canonical path and the
+	 * 			checksum of its contents.
+	 * @param lineNumber
+	 * 			The line of the command.
+	 * @param command
+	 * 			The command name.
+	 * @return
+	 * 			The key.
+	 */
+	public static String keyOf(String fileName, int lineNumber, String command) {
+		return prefixOf(fileName) + ":" + lineNumber + ":" + command;
+	}
+
+	/**
+	 * Obtain the part of the keys naming a script file: its canonical path and
+	 * checksum, computed again when the file changes.
+	 */
+	private static String prefixOf(String fileName) {
+		File file = new File(fileName);
+		long lastModified = file.lastModified();
+		long length = file.length();
+		Fingerprint fingerprint = fingerprints.get(fileName);
+		if (fingerprint == null || fingerprint.lastModified != lastModified || fingerprint.length != length) {
+			String path;
+			try {
+				path = file.getCanonicalPath();
+			} catch (IOException e) {
+				path = file.getAbsolutePath();
+			}
+			CRC32 checksum = new CRC32();
+			try {
+				checksum.update(ChannelDecoder.readFully(file));
+			} catch (IOException e) {
+				// an unreadable script has the checksum of an empty one
+			}
+			fingerprint = new Fingerprint(lastModified, length, path + "@" + Long.toHexString(checksum.getValue()));
+			if (fingerprints.size() >= MAX_PATHS) {
+				fingerprints.clear();
+			}
+			fingerprints.put(fileName, fingerprint);
+			prefixes.put(path, fingerprint.prefix);
+		}
+		return fingerprint.prefix;
+	}
+
+	/**
+	 * Inform if the key of an entry is that of a script file as it was before
+	 * it last changed.
+	 */
+	private static boolean isStale(String key) {
+		int command = key.lastIndexOf(':');
+		int line = command > 0 ? key.lastIndexOf(':', command - 1) : -1;
+		int at = line > 0 ? key.lastIndexOf('@', line - 1) : -1;
+		if (at < 0) {
+			return false;
+		}
+		String prefix = prefixes.get(key.substring(0, at));
+		return prefix != null && !prefix.equals(key.substring(0, line));
+	}
+
+	/**
+	 * Record the latency of a call.
+	 * @param key
+	 * 			The key of the command (see {@link #keyOf(String, int, String)}).
+	 * @param nanos
+	 * 			The latency, in nanoseconds.
+	 */
+	public void record(String key, long nanos) {
+		getHistogram(histograms, key).add(nanos / 1000, 1);
+		addPending(key, nanos / 1000, 1);
+	}
+
+	/**
+	 * Record a call that timed out, as a latency at least as long as its
+	 * deadline, weighing as much as 1% of the samples of the command plus
+	 * one, so that the 99th percentile of the command is at least that
+	 * latency.
+	 * @param key
+	 * 			The key of the command (see {@link #keyOf(String, int, String)}).
+	 * @param nanos
+	 * 			The time until the timeout, in nanoseconds.
+	 */
+	public void recordTimeout(String key, long nanos) {
+		Histogram histogram = getHistogram(histograms, key);
+		int samples = histogram.total / 100 + 1;
+		histogram.add(nanos / 1000, samples);
+		addPending(key, nanos / 1000, samples);
+	}
+
+	private void addPending(String key, long micros, int samples) {
+		if (file == null) {
+			return;
+		}
+		while (true) {
+			Histogram histogram = getHistogram(pending, key);
+			synchronized (histogram) {
+				// else taken by a save since: add to the next one
+				if (!histogram.saved) {
+					histogram.add(micros, samples);
+					return;
+				}
+			}
+		}
+	}
+
+	private static Histogram getHistogram(ConcurrentMap<String, Histogram> histograms, String key) {
+		Histogram histogram = histograms.get(key);
+		if (histogram == null) {
+			histogram = new Histogram();
+			Histogram previous = histograms.putIfAbsent(key, histogram);
+			if (previous != null) {
+				histogram = previous;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Obtain the deadline of the next call of a command.
+	 * @param key
+	 * 			The key of the command (see {@link #keyOf(String, int, String)}).
+	 * @return
+	 * 			The deadline, or null if the command has too few samples.
+	 */
+	public AdaptiveDeadline getDeadline(String key) {
+		Histogram histogram = histograms.get(key);
+		if (histogram == null || histogram.total < minimumSamples) {
+			return null;
+		}
+		long micros = histogram.getPercentile(99);
+		long percentile = (micros + 999) / 1000;
+		long millis = (long) Math.ceil(micros * factor / 1000);
+		return new AdaptiveDeadline(Math.min(Math.max(millis, floor), ceiling), percentile);
+	}
+
+	/**
+	 * Obtain the number of samples of a command.
+	 * @param key
+	 * 			The key of the command.
+	 * @return
+	 * 			The number of samples, after halving.
+	 */
+	public int getSampleCount(String key) {
+		Histogram histogram = histograms.get(key);
+		if (histogram == null) {
+			return 0;
+		}
+		synchronized (histogram) {
+			return histogram.total;
+		}
+	}
+
+	static int bucketOf(long micros) {
+		if (micros <= 1) {
+			return 0;
+		}
+		int bucket = (int) Math.floor(Math.log(micros) / Math.log(2) * BUCKETS_PER_DOUBLING);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	static long upperBound(int bucket) {
+		return (long) Math.ceil(Math.pow(2, (double) (bucket + 1) / BUCKETS_PER_DOUBLING));
+	}
+
+	/**
+	 * Load the history from its file, if it exists. Entries that are corrupt
+	 * are left out, and a file cut short gives the entries before the cut.
+	 * @throws IOException
+	 * 			if the file cannot be read, or is not a history of this version.
+	 */
+	public void load() throws IOException {
+		if (file == null || !file.exists()) {
+			return;
+		}
+		synchronized (saveLock) {
+			histograms.putAll(read(ChannelDecoder.readFully(file)));
+		}
+	}
+
+	private Map<String, Histogram> read(byte[] bytes) throws IOException {
+		Map<String, Histogram> entries = new HashMap<String, Histogram>();
+		if (bytes.length == 0) {
+			return entries;
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (bytes.length < 8 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Not a latency history of version " + VERSION + ": " + file);
+		}
+		CRC32 checksum = new CRC32();
+		try {
+			while (true) {
+				int length = in.readUnsignedShort();
+				int crc = in.readInt();
+				byte[] entry = new byte[length];
+				in.readFully(entry);
+				checksum.reset();
+				checksum.update(entry);
+				if ((int) checksum.getValue() == crc) {
+					readEntry(entry, entries);
+				}
+			}
+		} catch (EOFException e) {
+			// the end of the file, or of the entries written before it was cut
+		}
+		return entries;
+	}
+
+	private void readEntry(byte[] entry, Map<String, Histogram> entries) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+			String key = in.readUTF();
+			Histogram histogram = new Histogram();
+			int buckets = in.readUnsignedByte();
+			for (int j = 0; j < buckets; j++) {
+				int bucket = in.readUnsignedByte();
+				int samples = in.readInt();
+				if (bucket >= BUCKETS || samples < 0) {
+					return;
+				}
+				histogram.counts[bucket] = samples;
+				histogram.total += samples;
+			}
+			if (!isStale(key)) {
+				entries.put(key, histogram);
+			}
+		} catch (IOException e) {
+			// a corrupt entry is left out
+		}
+	}
+
+	private static byte[] writeEntry(String key, Histogram histogram) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(key);
+		synchronized (histogram) {
+			int buckets = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				if (histogram.counts[i] > 0) {
+					buckets++;
+				}
+			}
+			out.writeByte(buckets);
+			for (int i = 0; i < BUCKETS; i++) {
+				if (histogram.counts[i] > 0) {
+					out.writeByte(i);
+					out.writeInt(histogram.counts[i]);
+				}
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Start a run of scripts using the history. Runs may nest or overlap, as
+	 * scripts executed on the thread pool; the history is saved once all have
+	 * ended.
+	 */
+	public synchronized void beginRun() {
+		runs++;
+	}
+
+	/**
+	 * End a run of scripts begun by {@link #beginRun()}, saving the history
+	 * if it was the last one. A history that cannot be saved is not, since it
+	 * is only an optimization.
+	 */
+	public void endRun() {
+		synchronized (this) {
+			if (runs == 0 || --runs > 0) {
+				return;
+			}
+		}
+		try {
+			save();
+		} catch (IOException e) {
+			// the samples are kept for the next save
+		}
+	}
+
+	/**
+	 * Save the samples recorded since the history was last saved, if any:
+	 * merge them into the history in the file, as saved by this or other
+	 * runs, under a lock of the file, and replace the file with the result at
+	 * once. Entries of scripts that changed since are dropped. The history
+	 * then holds that of the file.
+	 * @throws IOException
+	 * 			if the file cannot be written; the samples are then kept
+	 * 			for the next save.
+	 */
+	public void save() throws IOException {
+		if (file == null || pending.isEmpty()) {
+			return;
+		}
+		synchronized (saveLock) {
+			File directory = file.getAbsoluteFile().getParentFile();
+			RandomAccessFile lockFile = new RandomAccessFile(new File(file.getPath() + ".lock"), "rw");
+			try {
+				FileLock lock = lockFile.getChannel().lock();
+				try {
+					Map<String, Histogram> merged;
+					try {
+						merged = file.exists() ? read(ChannelDecoder.readFully(file)) : new HashMap<String, Histogram>();
+					} catch (IOException e) {
+						// not a history: replaced by this one
+						merged = new HashMap<String, Histogram>();
+					}
+					List<Map.Entry<String, Histogram>> taken = new ArrayList<Map.Entry<String, Histogram>>();
+					for (Iterator<Map.Entry<String, Histogram>> i = pending.entrySet().iterator(); i.hasNext();) {
+						Map.Entry<String, Histogram> entry = i.next();
+						i.remove();
+						Histogram samples = entry.getValue();
+						synchronized (samples) {
+							samples.saved = true;
+						}
+						taken.add(entry);
+						if (isStale(entry.getKey())) {
+							continue;
+						}
+						Histogram histogram = merged.get(entry.getKey());
+						if (histogram == null) {
+							histogram = new Histogram();
+							merged.put(entry.getKey(), histogram);
+						}
+						histogram.addAll(samples.counts);
+					}
+					try {
+						write(merged, directory);
+					} catch (IOException e) {
+						for (Map.Entry<String, Histogram> entry : taken) {
+							Histogram histogram = getHistogram(pending, entry.getKey());
+							histogram.addAll(entry.getValue().counts);
+						}
+						throw e;
+					}
+					for (String key : histograms.keySet()) {
+						if (isStale(key)) {
+							histograms.remove(key);
+						}
+					}
+					histograms.putAll(merged);
+				} finally {
+					lock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		}
+	}
+
+	private void write(Map<String, Histogram> entries, File directory) throws IOException {
+		File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				CRC32 checksum = new CRC32();
+				for (Map.Entry<String, Histogram> entry : entries.entrySet()) {
+					byte[] bytes = writeEntry(entry.getKey(), entry.getValue());
+					if (bytes.length >= MAX_ENTRY) {
+						continue;
+					}
+					checksum.reset();
+					checksum.update(bytes);
+					out.writeShort(bytes.length);
+					out.writeInt((int) checksum.getValue());
+					out.write(bytes);
+				}
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temporary.delete();
+		}
+	}
+}
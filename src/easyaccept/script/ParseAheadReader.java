@@ -0,0 +1,159 @@
+package easyaccept.script;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reads and compiles the files of a script on a producer thread, ahead of
+ * execution. Compiled lines are handed to the script through a bounded queue,
+ * so reading and tokenizing overlap with the execution of earlier commands.
+ * <p>
+ * Only compiled lines are produced ahead: a line referring to variables is
+ * turned into a ParsedLine by the script just before it executes, so it sees
+ * the values assigned by the commands before it.
+ *
+ * @author jacques
+ */
+class ParseAheadReader implements Runnable {
+
+	/**
+	 * An entry of the queue: a compiled line and the index of its file. The
+	 * last entry has no line; it may carry the error that stopped the producer.
+	 */
+	private static class Entry {
+		final int fileIndex;
+		final CompiledLine line;
+		final Throwable error;
+
+		Entry(int fileIndex, CompiledLine line, Throwable error) {
+			this.fileIndex = fileIndex;
+			this.line = line;
+			this.error = error;
+		}
+	}
+
+	private final List<String> fileNames;
+	private final int startLine;
+	private final BlockingQueue<Entry> queue;
+	private Thread producer;
+	private Entry last;
+
+	/**
+	 * The ParseAheadReader constructor.
+	 *
+	 * @param fileNames
+	 *            The script files, in execution order.
+	 * @param startLine
+	 *            The line of the first file from which lines are produced.
+	 * @param capacity
+	 *            The number of compiled lines that may wait to be executed.
+	 */
+	ParseAheadReader(List<String> fileNames, int startLine, int capacity) {
+		this.fileNames = fileNames;
+		this.startLine = startLine;
+		this.queue = new ArrayBlockingQueue<Entry>(capacity);
+	}
+
+	/**
+	 * Start producing lines.
+	 */
+	void start() {
+		producer = new Thread(this, "EasyAccept parse-ahead");
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/**
+	 * Produce the compiled lines of all files. Lines of a file being compiled
+	 * are queued as soon as they are compiled, while the rest of the file is
+	 * still being read (see {@link CompiledScriptCache}); lines of a file
+	 * already compiled are queued from its compiled script. The first file is
+	 * compiled only from the start line on, if it can be (see
+	 * {@link CompiledScriptCache#getCompiledScript(String, int, ScriptCompiler.LineListener)}).
+	 */
+	public void run() {
+		Throwable error = null;
+		try {
+			for (int i = 0; i < fileNames.size(); i++) {
+				final int fileIndex = i;
+				final int[] queued = new int[1];
+				CompiledScript compiled = CompiledScriptCache.getInstance().getCompiledScript(fileNames.get(i),
+						i == 0 ? startLine : 1, new ScriptCompiler.LineListener() {
+							public void lineCompiled(CompiledLine line) {
+								try {
+									queue.put(new Entry(fileIndex, line, null));
+									queued[0]++;
+								} catch (InterruptedException e) {
+									throw new CancellationException();
+								}
+							}
+						});
+				for (int j = queued[0]; j < compiled.size(); j++) {
+					queue.put(new Entry(fileIndex, compiled.getLine(j), null));
+				}
+			}
+		} catch (InterruptedException e) {
+			return;
+		} catch (CancellationException e) {
+			return;
+		} catch (IOException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = e;
+		} catch (Error e) {
+			error = e;
+		}
+		try {
+			queue.put(new Entry(fileNames.size(), null, error));
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * Obtain the next compiled line, waiting for it to be produced.
+	 *
+	 * @return The compiled line, or null at the end of the script.
+	 * @throws IOException
+	 *             if a script file could not be read.
+	 */
+	CompiledLine next() throws IOException {
+		if (last == null || last.line != null) {
+			try {
+				last = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the script to be read");
+			}
+		}
+		if (last.error instanceof IOException) {
+			throw (IOException) last.error;
+		} else if (last.error instanceof RuntimeException) {
+			throw (RuntimeException) last.error;
+		} else if (last.error instanceof Error) {
+			throw (Error) last.error;
+		}
+		return last.line;
+	}
+
+	/**
+	 * Obtain the index of the file of the last line obtained.
+	 *
+	 * @return The file index; the number of files at the end of the script.
+	 */
+	int getFileIndex() {
+		return last == null ? 0 : last.fileIndex;
+	}
+
+	/**
+	 * Stop producing lines.
+	 */
+	void close() {
+		if (producer != null) {
+			producer.interrupt();
+			producer = null;
+		}
+	}
+}
@@ -10,17 +10,19 @@ package easyaccept.script;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
+import util.CallSite;
 import util.LogicalLineReader;
 import util.MultiFileEvent;
 import util.MultiFileReader;
@@ -30,11 +32,13 @@ import util.ParsedLineReader;
 import util.ParsingException;
 import util.Variables;
 import util.VariablesImpl;
+import easyaccept.CommandTimeoutException;
 import easyaccept.EasyAcceptException;
 import easyaccept.EasyAcceptInternalException;
 import easyaccept.EasyAcceptSyntax;
 import easyaccept.Facade;
 import easyaccept.QuitSignalException;
+import easyaccept.ScriptContext;
 import easyaccept.TimeTraceSignalException;
 import easyaccept.result.ErrorEvent;
 import easyaccept.result.ErrorObserverImpl;
@@ -69,19 +73,141 @@ import easyaccept.result.ScriptResultsManager;
  * Once a script is created, it can be executed, either one command at a time or
  * all commands at once. Results can be obtained about the execution of a
  * script's commands.
+ * <p>
+ * Scripts are not executed straight from their files: each file is compiled
+ * once into a {@link CompiledScript}, kept in the {@link CompiledScriptCache},
+ * and every execution of the file runs from the compiled script.
  * 
  * @author jacques
  */
 public class Script implements MultiFileReaderObserver, Runnable {
 	private static final String TIMEOUT_PROPERTY = "easyaccept.timeout";
+	/**
+	 * The property giving the number of lines to be parsed ahead of execution
+	 * (see {@link #setParseAhead(int)}).
+	 */
+	public static final String PARSE_AHEAD_PROPERTY = "easyaccept.parseahead";
+	/**
+	 * The property giving the line of the first script file from which
+	 * execution starts (see {@link #setStartLine(int)}).
+	 */
+	public static final String START_LINE_PROPERTY = "easyaccept.startline";
+	/**
+	 * The property telling whether lines without variables are executed from
+	 * shared lines (see {@link #setSharedLines(boolean)}).
+	 */
+	public static final String SHARED_LINES_PROPERTY = "easyaccept.sharedlines";
+	/**
+	 * The property giving the number of <code>async</code> commands that may
+	 * be in flight at once (see {@link #setAsyncLimit(int)}).
+	 */
+	public static final String ASYNC_LIMIT_PROPERTY = "easyaccept.async.limit";
+	public static final int DEFAULT_ASYNC_LIMIT = 16;
 	
 	/**
 	 * Table to check if a command is an internal command.
 	 */
 	private Map<String, Command> internalCommands;
 	/**
-	 * Provides access to the script file, with automatic parsing of the command
-	 * line.
+	 * The time allowed to each facade call, 0 for no limit.
+	 */
+	private long timeout;
+	/**
+	 * The history of command latencies giving adaptive deadlines, or null.
+	 */
+	private LatencyHistory latencyHistory;
+	/**
+	 * The <code>async</code> commands not yet joined.
+	 */
+	private AsyncCommands asyncCommands;
+	/**
+	 * The results of the <code>async</code> commands found failed at the end
+	 * of the script, yet to be given, each at the line of its command.
+	 */
+	private List<Result> asyncFailures = new ArrayList<Result>();
+	/**
+	 * The context of the execution, while the script executes: its own, or
+	 * that of the script executing it in the same thread.
+	 */
+	private ScriptContext context;
+	private boolean ownContext;
+	/**
+	 * The deadlines of the blocks opened by <code>beginWithin</code> and not
+	 * yet closed, innermost last, and the deadline in effect before the first.
+	 */
+	private List<Deadline> blocks = new ArrayList<Deadline>();
+	private Deadline blockBase;
+	/**
+	 * The number of commands being executed: a line and the commands it
+	 * executes, such as the command of <code>within</code>.
+	 */
+	private int commandDepth;
+	/**
+	 * The internal command (null for none) of each command name instance seen.
+	 * The command names of compiled lines are interned, so each name is looked
+	 * up in the table of internal commands once rather than at every command.
+	 */
+	private Map<String, Command> commandsByName = new IdentityHashMap<String, Command>();
+	private static final int MAX_COMMAND_NAMES = 1024;
+
+	/**
+	 * The internal command (null for none) a script found for a command name,
+	 * kept in the call site of a line.
+	 */
+	private static class CommandBinding {
+		final Map<String, Command> internalCommands;
+		final String name;
+		final Command command;
+
+		CommandBinding(Map<String, Command> internalCommands, String name, Command command) {
+			this.internalCommands = internalCommands;
+			this.name = name;
+			this.command = command;
+		}
+	}
+	/**
+	 * The script files, as given (directories are expanded).
+	 */
+	private List<String> fileNames;
+	/**
+	 * The compiled script of each file, obtained when execution starts.
+	 */
+	private List<CompiledScript> compiledScripts;
+	/**
+	 * The position of the next command: the file, and the line in the file.
+	 */
+	private int fileIndex;
+	private int lineIndex;
+	/**
+	 * The number of lines parsed ahead of execution; 0 if lines are parsed as
+	 * they execute.
+	 */
+	private int parseAhead;
+	/**
+	 * Produces the compiled lines when parsing ahead.
+	 */
+	private ParseAheadReader parseAheadReader;
+	/**
+	 * The line of the first file from which execution starts.
+	 */
+	private int startLine;
+	/**
+	 * Whether lines without variables are executed from the frozen lines of
+	 * their compiled lines.
+	 */
+	private boolean sharedLines;
+	/**
+	 * The script file and the line number of the current command.
+	 */
+	private String currentFileName;
+	private int lineNumber;
+	/**
+	 * The variables set by the script.
+	 */
+	private Variables variables;
+	/**
+	 * Provides direct access to the script file, with automatic parsing of the
+	 * command line. Only created if requested through getParsedLineReader().
 	 */
 	private ParsedLineReader plr;
 	/**
@@ -123,17 +249,17 @@ public class Script implements MultiFileReaderObserver, Runnable {
 	 * @throws EasyAcceptInternalException
 	 */
 	public Script(String fileName, Facade facade, Variables variables) throws FileNotFoundException, EasyAcceptException, EasyAcceptInternalException {
-		MultiFileReader mfReader = new MultiFileReader();
-
-		plr = new ParsedLineReader(new LogicalLineReader(mfReader, EasyAcceptSyntax.defaultComment, EasyAcceptSyntax.defaultContinuation),
-				EasyAcceptSyntax.defaultStringDelimiter, EasyAcceptSyntax.defaultEscapeCharacter, variables);
-
+		this.variables = variables;
 		setStringDelimiter(EasyAcceptSyntax.defaultStringDelimiter);
-		mfReader.addMultiFileReaderObserver(plr);
-		mfReader.addMultiFileReaderObserver(this);
+		setParseAhead(Integer.getInteger(PARSE_AHEAD_PROPERTY, 0).intValue());
+		setStartLine(Integer.getInteger(START_LINE_PROPERTY, 1).intValue());
+		setSharedLines(Boolean.getBoolean(SHARED_LINES_PROPERTY));
+		setTimeout(getTimeoutProperty());
+		setLatencyHistory(LatencyHistory.getDefault());
+		setAsyncLimit(Integer.getInteger(ASYNC_LIMIT_PROPERTY, DEFAULT_ASYNC_LIMIT).intValue());
 
 		try {
-			plr.addFile(fileName);
+			fileNames = MultiFileReader.listFiles(fileName);
 		} catch (FileNotFoundException e) {
 			throw new FileNotFoundException("File not found: " + fileName);
 		}
@@ -203,7 +329,23 @@ public class Script implements MultiFileReaderObserver, Runnable {
 	 * again. Old results are thrown out.
 	 */
 	public void close() throws IOException {
-		plr.close();
+		asyncCommands.cancel();
+		asyncFailures.clear();
+		endBlocks();
+		endContext();
+		compiledScripts = null;
+		if (parseAheadReader != null) {
+			parseAheadReader.close();
+			parseAheadReader = null;
+		}
+		fileIndex = 0;
+		lineIndex = 0;
+		currentFileName = null;
+		lineNumber = 0;
+		restoreDefaults();
+		if (plr != null) {
+			plr.close();
+		}
 	}
 
 	/**
@@ -220,10 +362,196 @@ public class Script implements MultiFileReaderObserver, Runnable {
 	 *             if syntax errors are discovered in the script.
 	 */
 	public Result getAndExecuteCommand() throws IOException, ParsingException, EasyAcceptException {
-		ParsedLine parsedLine = plr.getParsedLine();
+		if (context == null) {
+			context = ScriptContext.current();
+			ownContext = context == null;
+			if (ownContext) {
+				context = new ScriptContext();
+				// a script of its own context is a run: the history is saved when the run ends
+				final LatencyHistory history = latencyHistory;
+				if (history != null) {
+					history.beginRun();
+					context.onEnd(new Runnable() {
+						public void run() {
+							history.endRun();
+						}
+					});
+				}
+			}
+		}
+		ScriptContext previous = context.enter();
+		try {
+			Result result = getAndExecuteNextCommand();
+			if (result == null) {
+				endBlocks();
+				endContext();
+			}
+			return result;
+		} finally {
+			ScriptContext.exit(previous);
+		}
+	}
+
+	/**
+	 * End the context of the execution, if the script started it.
+	 */
+	private void endContext() {
+		if (context != null && ownContext) {
+			context.end();
+		}
+		context = null;
+	}
+
+	private Result getAndExecuteNextCommand() throws IOException, ParsingException, EasyAcceptException {
+		ParsedLine parsedLine = getNextParsedLine();
+		if (parsedLine == null && asyncCommands.size() > 0) {
+			// the async commands still in flight end with the script
+			try {
+				for (EasyAcceptException error : joinAsyncErrors()) {
+					ResultImpl result = new ResultImpl("async", null, error, null);
+					result.setLine(error.getLineNumber());
+					asyncFailures.add(result);
+				}
+			} catch (EasyAcceptException e) {
+				return new ResultImpl("async", null, e, null);
+			}
+		}
+		if (parsedLine == null && !asyncFailures.isEmpty()) {
+			return asyncFailures.remove(0);
+		}
 		return executeCommand(parsedLine);
 	}
 
+	/**
+	 * Obtain the next command of the script, from the compiled scripts.
+	 * 
+	 * @return the command, or null at the end of the script.
+	 * @throws IOException
+	 *             if IO errors occur while reading the script.
+	 * @throws ParsingException
+	 *             if the command has syntax errors.
+	 */
+	private ParsedLine getNextParsedLine() throws IOException, ParsingException {
+		if (parseAhead > 0) {
+			return getNextParsedLineAhead();
+		}
+		if (compiledScripts == null) {
+			compiledScripts = new ArrayList<CompiledScript>();
+			CompiledScriptCache cache = CompiledScriptCache.getInstance();
+			for (String fileName : fileNames) {
+				if (compiledScripts.isEmpty() && startLine > 1) {
+					CompiledScript first = cache.getCompiledScript(fileName, startLine, null);
+					if (first.size() > 0) {
+						stringDelimiter = first.getLine(0).getStringDelimiter();
+					}
+					compiledScripts.add(first);
+				} else {
+					compiledScripts.add(cache.getCompiledScript(fileName));
+				}
+			}
+		}
+		while (fileIndex < compiledScripts.size()) {
+			CompiledScript compiled = compiledScripts.get(fileIndex);
+			currentFileName = fileNames.get(fileIndex);
+			if (lineIndex < compiled.size()) {
+				CompiledLine line = compiled.getLine(lineIndex++);
+				lineNumber = line.getLineNumber();
+				return toParsedLine(line);
+			}
+			fileIndex++;
+			lineIndex = 0;
+			restoreDefaults();
+		}
+		return null;
+	}
+
+	/**
+	 * Obtain the next command of the script, from the lines parsed ahead.
+	 * Variables are substituted only now, so that the values assigned by the
+	 * commands executed before are seen.
+	 */
+	private ParsedLine getNextParsedLineAhead() throws IOException, ParsingException {
+		boolean starting = parseAheadReader == null;
+		if (starting) {
+			parseAheadReader = new ParseAheadReader(fileNames, startLine, parseAhead);
+			parseAheadReader.start();
+		}
+		CompiledLine line = parseAheadReader.next();
+		if (starting && startLine > 1 && line != null && parseAheadReader.getFileIndex() == 0) {
+			stringDelimiter = line.getStringDelimiter();
+		}
+		if (parseAheadReader.getFileIndex() != fileIndex) {
+			fileIndex = parseAheadReader.getFileIndex();
+			restoreDefaults();
+		}
+		if (line == null) {
+			return null;
+		}
+		currentFileName = fileNames.get(fileIndex);
+		lineNumber = line.getLineNumber();
+		return toParsedLine(line);
+	}
+
+	/**
+	 * Obtain the ParsedLine executing a compiled line.
+	 */
+	private ParsedLine toParsedLine(CompiledLine line) throws ParsingException {
+		if (sharedLines) {
+			ParsedLine shared = line.toSharedParsedLine(stringDelimiter);
+			if (shared != null) {
+				return shared;
+			}
+		}
+		return line.toParsedLine(currentFileName, stringDelimiter, variables);
+	}
+
+	/**
+	 * Set the number of command lines read and parsed ahead of execution, on
+	 * a separate thread. Parsing ahead lets reading the script files overlap
+	 * with the execution of commands; it is worthwhile for scripts whose
+	 * commands are cheap compared with reading them. By default, lines are
+	 * parsed ahead if the <code>easyaccept.parseahead</code> property gives
+	 * their number.
+	 * 
+	 * @param lines
+	 *            The number of lines; 0 to parse each line as it executes.
+	 */
+	public void setParseAhead(int lines) {
+		parseAhead = Math.max(lines, 0);
+	}
+
+	/**
+	 * Set the line of the first script file from which execution starts: the
+	 * commands ending before it are skipped, with the commands that set
+	 * variables among them. Execution starts with the string delimiter in
+	 * effect at that line. A first file not compiled yet is read from the
+	 * nearest line before the start line given by its line index, not from
+	 * its beginning. By default, execution starts at the line given by
+	 * the <code>easyaccept.startline</code> property, or at the beginning.
+	 * 
+	 * @param line
+	 *            The line number, from 1.
+	 */
+	public void setStartLine(int line) {
+		startLine = Math.max(line, 1);
+	}
+
+	/**
+	 * Set whether lines without variables are executed from shared lines. A
+	 * compiled line without variables is then turned into a ParsedLine once,
+	 * and every execution of the line executes that same frozen ParsedLine,
+	 * with the internal command, facade method and converted arguments
+	 * already bound in its call site. Results are the same as when lines are
+	 * executed from new ParsedLines. By default, lines are shared if the
+	 * <code>easyaccept.sharedlines</code> property is true.
+	 * 
+	 * @param shared
+	 *            true to share lines.
+	 */
+	public void setSharedLines(boolean shared) {
+		sharedLines = shared;
+	}
+
 	/**
 	 * Execute the command givem by the ParsedLine object.
 	 * 
@@ -238,9 +566,11 @@ public class Script implements MultiFileReaderObserver, Runnable {
 			Object result = null;
 			String timeTraceMessage = null;
 			assert parsedLine.numberOfParameters() > 0;
+			commandDepth++;
 			try {
-				if (isInternalCommand(parsedLine)) {
-					result = executeInternalCommand(parsedLine);
+				Command command = getInternalCommand(parsedLine);
+				if (command != null) {
+					result = command.execute(this, parsedLine);
 				} else {
 					result = execute(parsedLine);
 				}
@@ -260,6 +590,8 @@ public class Script implements MultiFileReaderObserver, Runnable {
 				cause = ex;
 			} catch (Throwable ex) {
 				cause = ex;
+			} finally {
+				commandDepth--;
 			}
 
 			// handle variables
@@ -267,12 +599,66 @@ public class Script implements MultiFileReaderObserver, Runnable {
 			if (varName != null && cause == null) {
 				setVariable(varName, result);
 			}
-			return new ResultImpl(parsedLine.getCommandString(stringDelimiter), result, cause, timeTraceMessage);
+			return new ResultImpl(parsedLine, stringDelimiter, result, cause, timeTraceMessage);
 		} else {
 			return null;
 		}
 	}
 
+	/**
+	 * Open a block of lines with a deadline, for <code>beginWithin</code>:
+	 * the facade calls of the lines up to the matching <code>endWithin</code>
+	 * are bounded by it.
+	 * 
+	 * @param millis
+	 *            The time allowed to the block, in milliseconds.
+	 * @throws EasyAcceptException
+	 *             if the command opening the block is the command of another.
+	 */
+	void beginBlock(long millis) throws EasyAcceptException {
+		checkLineOfItsOwn("beginWithin");
+		if (blocks.isEmpty()) {
+			blockBase = Deadline.current();
+		}
+		blocks.add(Deadline.enter(millis));
+	}
+
+	/**
+	 * Close the innermost block opened by <code>beginWithin</code>.
+	 * 
+	 * @return The deadline of the block.
+	 * @throws EasyAcceptException
+	 *             if no block is open, or the command closing it is the
+	 *             command of another.
+	 */
+	Deadline endBlock() throws EasyAcceptException {
+		checkLineOfItsOwn("endWithin");
+		if (blocks.isEmpty()) {
+			throw new EasyAcceptException(getFileName(), getLineNumber(), "endWithin without beginWithin");
+		}
+		Deadline block = blocks.remove(blocks.size() - 1);
+		Deadline.install(blocks.isEmpty() ? blockBase : blocks.get(blocks.size() - 1));
+		return block;
+	}
+
+	private void checkLineOfItsOwn(String command) throws EasyAcceptException {
+		if (commandDepth > 1) {
+			throw new EasyAcceptException(getFileName(), getLineNumber(), command
+					+ " must be a command of its own, not the command of another");
+		}
+	}
+
+	/**
+	 * Close the blocks still open at the end of the script.
+	 */
+	private void endBlocks() {
+		if (!blocks.isEmpty()) {
+			blocks.clear();
+			Deadline.install(blockBase);
+		}
+		blockBase = null;
+	}
+
 	/**
 	 * Set the variable at the ParsedLineReader
 	 * 
@@ -282,43 +668,90 @@ public class Script implements MultiFileReaderObserver, Runnable {
 	 *            The variable's value to be seted.
 	 */
 	private void setVariable(String varName, Object value) {
-		plr.setVariable(varName, value);
+		variables.put(varName, value);
 	}
 
 	/**
-	 * Execute an internal EasyAccept command by the ParsedLine given.
+	 * Obtain the internal EasyAccept command of the ParsedLine given. The
+	 * command found is kept in the call site of the line, and used again while
+	 * the line executes in this script with the same command name.
 	 * 
 	 * @param parsedLine
 	 *            The object where the command will be catch.
-	 * @return The result of the command execution.
-	 * @throws Exception
+	 * @return The internal command, or null if the ParsedLine is not an
+	 *         internal command.
 	 */
-	private Object executeInternalCommand(ParsedLine parsedLine) throws Exception {
-		Command command = internalCommands.get(parsedLine.getParameter(0).getValueAsString().toLowerCase());
-		return command.execute(this, parsedLine);
+	private Command getInternalCommand(ParsedLine parsedLine) {
+		String name = parsedLine.getParameter(0).getValueAsString();
+		CallSite site = parsedLine.getCallSite();
+		Object cached = site.getCommand();
+		if (cached instanceof CommandBinding) {
+			CommandBinding binding = (CommandBinding) cached;
+			if (binding.internalCommands == internalCommands && (binding.name == name || binding.name.equals(name))) {
+				return binding.command;
+			}
+		}
+		Command command = commandsByName.get(name);
+		if (command == null && !commandsByName.containsKey(name)) {
+			command = internalCommands.get(name.toLowerCase());
+			if (commandsByName.size() >= MAX_COMMAND_NAMES) {
+				// names not interned (for example, bound from templates)
+				commandsByName.clear();
+			}
+			commandsByName.put(name, command);
+		}
+		site.setCommand(new CommandBinding(internalCommands, name, command));
+		return command;
 	}
 
 	/**
-	 * Inform if the ParsedLine given is an internal EasyAccept command.
+	 * Obtain the timeout given by the <code>easyaccept.timeout</code>
+	 * property: a number of milliseconds, or a duration as given to
+	 * <code>within</code>.
 	 * 
-	 * @param parsedLine
-	 *            The object that will be verified.
-	 * @return Return true if the ParsedLine is an internal command, otherwise
-	 *         returns false.
+	 * @return The timeout in milliseconds, or 0 if there is none.
 	 */
-	private boolean isInternalCommand(ParsedLine parsedLine) {
-		return internalCommands.containsKey(parsedLine.getParameter(0).getValueAsString().toLowerCase());
-	}
-
-	private Long getTimeout() {
-		String timeoutPropety = System.getProperty(TIMEOUT_PROPERTY);
-		if (timeoutPropety != null) {
+	private static long getTimeoutProperty() {
+		String timeoutProperty = System.getProperty(TIMEOUT_PROPERTY);
+		if (timeoutProperty != null) {
 			try {
-				return Long.parseLong(timeoutPropety);
+				return Deadline.parseDuration(timeoutProperty);
 			} catch (NumberFormatException e) {
 			}
 		}
-		return null;
+		return 0;
+	}
+
+	/**
+	 * Configure the time allowed to each facade call. By default, it is given
+	 * by the <code>easyaccept.timeout</code> property, read when the script is
+	 * constructed. Calls in the command of a <code>within</code> are also
+	 * bounded by its deadline.
+	 * 
+	 * @param millis
+	 *            The time in milliseconds, or 0 for no limit.
+	 */
+	public void setTimeout(long millis) {
+		timeout = millis;
+	}
+
+	/**
+	 * Obtain the time allowed to the next facade call.
+	 * 
+	 * @return The time in milliseconds, or 0 for no limit.
+	 * @throws CommandTimeoutException
+	 *             if the deadline of the enclosing block passed.
+	 */
+	private long getTimeout() throws CommandTimeoutException {
+		Deadline deadline = Deadline.current();
+		if (deadline == null) {
+			return timeout;
+		}
+		long remaining = deadline.getRemaining();
+		if (remaining <= 0) {
+			throw new CommandTimeoutException(Watchdog.TIMEOUT_MESSAGE);
+		}
+		return timeout > 0 && timeout < remaining ? timeout : remaining;
 	}
 
 	/**
@@ -340,32 +773,210 @@ public class Script implements MultiFileReaderObserver, Runnable {
 	private Object execute(final ParsedLine parsedLine) throws Throwable {
 		assert parsedLine.numberOfParameters() > 0;
 		
-		Long timeout = getTimeout();
-		if (timeout != null) {
-			return invokeWithTimeout(parsedLine, timeout);
-		} else {
-			return facade.invoke(parsedLine, stringDelimiter, plr.getLineNumber());
+		return invoke(parsedLine, stringDelimiter, getFileName(), getLineNumber(), getTimeout());
+	}
+
+	/**
+	 * Invoke a facade command, awaiting its result if it is asynchronous, and
+	 * record its latency. The position of the command is given, since
+	 * <code>async</code> commands are invoked while the script goes on.
+	 */
+	private Object invoke(final ParsedLine parsedLine, final char delimiter, String fileName, final int lineNumber,
+			long timeout) throws Throwable {
+		LatencyHistory history = latencyHistory;
+		if (history == null) {
+			if (timeout > 0) {
+				return invokeWithTimeout(parsedLine, delimiter, lineNumber, timeout, null);
+			}
+			return await(facade.invoke(parsedLine, delimiter, lineNumber));
+		}
+		String key = LatencyHistory.keyOf(fileName, lineNumber, parsedLine.getParameter(0).getValueAsString());
+		LatencyHistory.AdaptiveDeadline adaptive = history.getDeadline(key);
+		String deadline = null;
+		if (adaptive != null && (timeout <= 0 || adaptive.getMillis() < timeout)) {
+			timeout = adaptive.getMillis();
+			deadline = adaptive.toString();
+		}
+		long start = System.nanoTime();
+		try {
+			Object result = timeout > 0 ? invokeWithTimeout(parsedLine, delimiter, lineNumber, timeout, deadline)
+					: await(facade.invoke(parsedLine, delimiter, lineNumber));
+			history.record(key, System.nanoTime() - start);
+			return result;
+		} catch (CommandTimeoutException e) {
+			// the call took at least its deadline: a deadline too tight must widen
+			history.recordTimeout(key, Math.max(System.nanoTime() - start, TimeUnit.MILLISECONDS.toNanos(timeout)));
+			throw e;
+		} catch (Throwable e) {
+			history.record(key, System.nanoTime() - start);
+			throw e;
 		}
 	}
 
-	private Object invokeWithTimeout(final ParsedLine parsedLine, Long timeout) throws Throwable {
-		Callable<Object> callable = new Callable<Object>() {
+	private Object invokeWithTimeout(final ParsedLine parsedLine, final char delimiter, final int lineNumber,
+			long timeout, String deadline) throws Throwable {
+		final ScriptContext scriptContext = ScriptContext.current();
+		return Watchdog.getShared().call(new Callable<Object>() {
 			public Object call() throws Exception {
-				return facade.invoke(parsedLine, stringDelimiter, plr.getLineNumber());
+				ScriptContext previous = scriptContext == null ? null : scriptContext.enter();
+				try {
+					return await(facade.invoke(parsedLine, delimiter, lineNumber));
+				} finally {
+					if (scriptContext != null) {
+						ScriptContext.exit(previous);
+					}
+				}
 			}
-		};
+		}, timeout, deadline);
+	}
 
-		ExecutorService executor = Executors.newSingleThreadExecutor();
-		Future<Object> task = executor.submit(callable);
+	/**
+	 * Await the result of an asynchronous facade method: the value of a
+	 * {@link Future} or {@link CompletionStage}, rather than the object
+	 * standing for it. The wait is interrupted, and the future cancelled, when
+	 * the deadline of the command passes.
+	 * 
+	 * @param result
+	 *            The object returned by the facade.
+	 * @return The value of the future, or the object itself if it is not a
+	 *         future.
+	 * @throws InvocationTargetException
+	 *             if the future failed, with its exception as cause.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	static Object await(Object result) throws InvocationTargetException, InterruptedException {
+		while (result instanceof Future || result instanceof CompletionStage) {
+			Future<?> future = result instanceof CompletionStage ? ((CompletionStage<?>) result)
+					.toCompletableFuture() : (Future<?>) result;
+			try {
+				result = future.get();
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				throw e;
+			} catch (ExecutionException e) {
+				throw new InvocationTargetException(e.getCause());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Start a facade command without waiting for it, for the
+	 * <code>async</code> command. The command runs within the time allowed
+	 * to it now and in the context of the script, and its error, if any, is given when it is joined (see
+	 * {@link #joinAsyncCommands()}).
+	 * 
+	 * @param parsedLine
+	 *            The command.
+	 * @throws EasyAcceptException
+	 *             if it is an internal command, or the deadline of the
+	 *             enclosing block passed.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a command in flight to end.
+	 */
+	void startAsync(final ParsedLine parsedLine) throws EasyAcceptException, InterruptedException {
+		if (getInternalCommand(parsedLine) != null) {
+			throw new EasyAcceptException(getFileName(), getLineNumber(), "Internal commands cannot be async: "
+					+ parsedLine.getCommandString(stringDelimiter));
+		}
+		final char delimiter = stringDelimiter;
+		final String fileName = getFileName();
+		final int lineNumber = getLineNumber();
+		final long timeout = getTimeout();
+		final ScriptContext scriptContext = ScriptContext.current();
+		asyncCommands.start(new Callable<Object>() {
+			public Object call() throws Exception {
+				ScriptContext previous = scriptContext == null ? null : scriptContext.enter();
+				try {
+					return invoke(parsedLine, delimiter, fileName, lineNumber, timeout);
+				} catch (Exception e) {
+					throw e;
+				} catch (Error e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new InvocationTargetException(e);
+				} finally {
+					if (scriptContext != null) {
+						ScriptContext.exit(previous);
+					}
+				}
+			}
+		}, fileName, lineNumber, parsedLine.getCommandString(delimiter));
+	}
+
+	/**
+	 * Wait for the <code>async</code> commands started, as
+	 * <code>expect</code> commands do before checking anything.
+	 * 
+	 * @throws EasyAcceptException
+	 *             if an async command failed: its error, or an error listing
+	 *             the errors of all those that failed.
+	 */
+	void joinAsyncCommands() throws EasyAcceptException {
+		List<EasyAcceptException> errors = joinAsyncErrors();
+		if (errors.size() == 1) {
+			throw errors.get(0);
+		} else if (errors.size() > 1) {
+			StringBuffer message = new StringBuffer(errors.size() + " async commands failed:");
+			for (EasyAcceptException error : errors) {
+				message.append("\n").append(error.getMessage());
+			}
+			throw new EasyAcceptException(message.toString(), errors.get(0));
+		}
+	}
+
+	/**
+	 * Wait for the <code>async</code> commands started.
+	 * 
+	 * @return the errors of the async commands that failed, each at the line
+	 *         of its command, in the order they were started.
+	 * @throws EasyAcceptException
+	 *             if interrupted while waiting.
+	 */
+	private List<EasyAcceptException> joinAsyncErrors() throws EasyAcceptException {
+		if (asyncCommands.size() == 0) {
+			return new ArrayList<EasyAcceptException>();
+		}
 		try {
-			return task.get(timeout, TimeUnit.MILLISECONDS);
-		} catch (TimeoutException e) {
-			throw new EasyAcceptException("EasyAccept timeout: command timed out!");
-		} catch (ExecutionException e) {
-			throw e.getCause();
-		} finally {
-			task.cancel(true);
+			return asyncCommands.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EasyAcceptException(getFileName(), getLineNumber(), "Interrupted while joining async commands");
+		}
+	}
+
+	/**
+	 * Configure the number of <code>async</code> commands that may be in
+	 * flight at once; another async command waits for one of them to end. By
+	 * default, it is given by the <code>easyaccept.async.limit</code>
+	 * property.
+	 * 
+	 * @param limit
+	 *            The number of commands.
+	 */
+	public void setAsyncLimit(int limit) {
+		if (asyncCommands != null) {
+			asyncCommands.cancel();
 		}
+		asyncFailures.clear();
+		asyncCommands = new AsyncCommands(limit);
+	}
+
+	/**
+	 * Configure the history of command latencies from which the deadlines of
+	 * facade calls are derived, and to which their latencies are added. By
+	 * default, it is the history of the <code>easyaccept.latency.history</code>
+	 * property, if set (see {@link LatencyHistory#getDefault()}). An adaptive
+	 * deadline applies when it is earlier than the other limits, and the
+	 * timeout it causes tells so. The history is saved when the run of the
+	 * script ends (see {@link LatencyHistory#endRun()}).
+	 * 
+	 * @param history
+	 *            The history, or null to use none.
+	 */
+	public void setLatencyHistory(LatencyHistory history) {
+		latencyHistory = history;
 	}
 
 	/**
@@ -374,7 +985,18 @@ public class Script implements MultiFileReaderObserver, Runnable {
 	 * @return the name of the script.
 	 */
 	public String getFileName() {
-		return plr.getCurrentFileName();
+		if (isReadingDirectly()) {
+			return plr.getCurrentFileName();
+		}
+		return currentFileName;
+	}
+
+	/**
+	 * Inform if the script file is being read through getParsedLineReader()
+	 * rather than executed from the compiled script.
+	 */
+	private boolean isReadingDirectly() {
+		return plr != null && compiledScripts == null && parseAheadReader == null;
 	}
 
 	/**
@@ -429,7 +1051,10 @@ public class Script implements MultiFileReaderObserver, Runnable {
 			// adjust execution time and line
 			long now = System.currentTimeMillis();
 			oneResult.setExecutionTimeInMilliseconds(now - start);
-			oneResult.setLine(plr.getLineNumber());
+			if (oneResult.getLine() == 0) {
+				// else given at the line of its command, as the failure of an async command
+				oneResult.setLine(getLineNumber());
+			}
 			// adds to the scriptResultsManager
 			this.scriptResultsManager.addResult(oneResult);
 			start = now;
@@ -439,7 +1064,6 @@ public class Script implements MultiFileReaderObserver, Runnable {
 				}
 			}
 		}
-
 	}
 
 	/**
@@ -472,7 +1096,10 @@ public class Script implements MultiFileReaderObserver, Runnable {
 	 * @return The line number.
 	 */
 	public int getLineNumber() {
-		return plr.getLineNumber();
+		if (isReadingDirectly()) {
+			return plr.getLineNumber();
+		}
+		return lineNumber;
 	}
 
 	/**
@@ -493,16 +1120,32 @@ public class Script implements MultiFileReaderObserver, Runnable {
 	 */
 	public void setStringDelimiter(char delimiter) {
 		stringDelimiter = delimiter;
-		plr.setStringDelimiter(delimiter);
-
+		if (plr != null) {
+			plr.setStringDelimiter(delimiter);
+		}
 	}
 
 	/**
-	 * Obtain the current ParsedLineReader object.
+	 * Obtain a ParsedLineReader reading the script file directly. The reader
+	 * is independent of the script's own execution, which runs from the
+	 * compiled script.
 	 * 
 	 * @return The ParsedLineReader object.
+	 * @throws FileNotFoundException
+	 *             if the script file cannot be found.
 	 */
-	public ParsedLineReader getParsedLineReader() {
+	public ParsedLineReader getParsedLineReader() throws FileNotFoundException {
+		if (plr == null) {
+			MultiFileReader mfReader = new MultiFileReader();
+			plr = new ParsedLineReader(new LogicalLineReader(mfReader, EasyAcceptSyntax.defaultComment, EasyAcceptSyntax.defaultContinuation),
+					EasyAcceptSyntax.defaultStringDelimiter, EasyAcceptSyntax.defaultEscapeCharacter, variables);
+			plr.setStringDelimiter(stringDelimiter);
+			mfReader.addMultiFileReaderObserver(plr);
+			mfReader.addMultiFileReaderObserver(this);
+			for (String fileName : fileNames) {
+				mfReader.addFile(fileName);
+			}
+		}
 		return plr;
 	}
 
@@ -533,7 +1176,8 @@ public class Script implements MultiFileReaderObserver, Runnable {
 	 * @return The varName variable value.
 	 */
 	public String getVariableValue(String varName) {
-		return plr.getVariableValue(varName);
+		Object var = variables.get(varName);
+		return var == null ? null : var.toString();
 	}
 
 	/**
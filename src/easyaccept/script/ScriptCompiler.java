@@ -0,0 +1,394 @@
+package easyaccept.script;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import util.ChannelDecoder;
+import util.LineIndex;
+import util.ParsedLine;
+import util.ParsingException;
+import util.ScriptLexer;
+import util.SymbolTable;
+import util.Variables;
+import easyaccept.EasyAcceptSyntax;
+
+/**
+ * Compiles script files into {@link CompiledScript} objects. The script text is
+ * read and tokenized once by a {@link ScriptLexer}, which splits lines exactly
+ * as the readers used to execute a script directly from its file.
+ * <p>
+ * The compiler follows <code>stringdelimiter</code> commands so that the lines
+ * after them are tokenized with the new delimiter. Syntax errors do not stop
+ * compilation: the line is recorded as an error, to be reported when (and if)
+ * execution reaches it. Tokens referring to variables are compiled into
+ * templates, bound when the line executes.
+ * <p>
+ * Command names, parameter names and short literals are interned through the
+ * compiler's {@link SymbolTable}, shared by the scripts it compiles for a test
+ * suite, so that a script repeating the same words holds one copy of each and
+ * command names can be compared by identity.
+ * <p>
+ * The source text of a line is kept only if the line may be parsed again when
+ * it executes: if its parameter names refer to variables, or if a line before
+ * it may change the string delimiter in a way the compiler does not follow
+ * (see {@link CompiledLine#mayChangeDelimiter()}).
+ * <p>
+ * A file compiled as it is read is also indexed by line (see
+ * {@link LineIndex}), so that it can later be compiled from a line on without
+ * reading the lines before it.
+ *
+ * @author jacques
+ */
+public class ScriptCompiler {
+
+	private static final String STRING_DELIMITER_COMMAND = "stringdelimiter";
+
+	private volatile SymbolTable symbols;
+
+	/**
+	 * Construct a compiler with a symbol table of default bounds.
+	 */
+	public ScriptCompiler() {
+		this(new SymbolTable());
+	}
+
+	/**
+	 * The ScriptCompiler constructor.
+	 *
+	 * @param symbols
+	 *            The table through which tokens are interned.
+	 */
+	public ScriptCompiler(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Obtain the table through which tokens are interned.
+	 *
+	 * @return The symbol table.
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	/**
+	 * Set the table through which the tokens of the scripts compiled from now
+	 * on are interned.
+	 *
+	 * @param symbols
+	 *            The symbol table.
+	 */
+	public void setSymbolTable(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Compile a script file.
+	 *
+	 * @param fileName
+	 *            The name of the script file.
+	 * @return The compiled script.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public CompiledScript compile(String fileName) throws IOException {
+		File file = new File(fileName);
+		long lastModified = file.lastModified();
+		return compile(file.getCanonicalPath(), lastModified, readFile(file));
+	}
+
+	/**
+	 * Compile the contents of a script file.
+	 *
+	 * @param path
+	 *            The canonical path of the script file.
+	 * @param lastModified
+	 *            The modification time of the file.
+	 * @param content
+	 *            The bytes of the file.
+	 * @return The compiled script.
+	 * @throws IOException
+	 *             if the contents cannot be decoded.
+	 */
+	public CompiledScript compile(String path, long lastModified, byte[] content) throws IOException {
+		return compile(path, lastModified, content, null);
+	}
+
+	/**
+	 * Compile the contents of a script file, informing a listener of each
+	 * line as soon as it is compiled.
+	 *
+	 * @param path
+	 *            The canonical path of the script file.
+	 * @param lastModified
+	 *            The modification time of the file.
+	 * @param content
+	 *            The bytes of the file.
+	 * @param listener
+	 *            The listener, or null.
+	 * @return The compiled script.
+	 * @throws IOException
+	 *             if the contents cannot be decoded.
+	 */
+	public CompiledScript compile(String path, long lastModified, byte[] content, LineListener listener) throws IOException {
+		List<CompiledLine> lines = compileText(path, ChannelDecoder.decode(content), listener);
+		return new CompiledScript(path, lastModified, content.length, checksum(content), lines);
+	}
+
+	/**
+	 * Compile a script file as it is read, informing a listener of each line
+	 * as soon as it is compiled, so that the first lines can execute while
+	 * the rest of the file is still being read. The file is indexed by line
+	 * as it is read.
+	 *
+	 * @param file
+	 *            The script file.
+	 * @param path
+	 *            The canonical path of the script file.
+	 * @param lastModified
+	 *            The modification time of the file.
+	 * @param listener
+	 *            The listener, or null.
+	 * @return The compiled script.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public CompiledScript compile(File file, String path, long lastModified, LineListener listener) throws IOException {
+		ChannelDecoder input = new ChannelDecoder();
+		try {
+			input.open(file.getPath());
+			if (LineIndex.isIndexable(ChannelDecoder.getScriptCharset())) {
+				input.setLineIndex(new LineIndex());
+			}
+			ScriptLexer lexer = new ScriptLexer(path, input, 0, null);
+			setSyntax(lexer);
+			List<CompiledLine> lines = compileLines(lexer, listener);
+			if (lexer.getInputError() != null) {
+				throw lexer.getInputError();
+			}
+			LineIndex index = input.getCompleteLineIndex();
+			if (index != null) {
+				LineIndex.put(file.getPath(), index);
+			}
+			return new CompiledScript(path, lastModified, input.getLength(), input.getChecksum(), lines);
+		} finally {
+			input.release();
+		}
+	}
+
+	/**
+	 * Compile the commands of a script file from a line on. The file is read
+	 * from the nearest line before it given by the file's line index (see
+	 * {@link LineIndex#getStartLine(int)}), not from the start; the commands
+	 * ending before the line are compiled but not kept. The listener is
+	 * informed of each command kept as soon as it is compiled.
+	 *
+	 * @param file
+	 *            The script file.
+	 * @param path
+	 *            The canonical path of the script file.
+	 * @param lastModified
+	 *            The modification time of the file.
+	 * @param index
+	 *            The line index of the file.
+	 * @param startLine
+	 *            The line number, from 1.
+	 * @param listener
+	 *            The listener, or null.
+	 * @return The compiled script holding the commands from the line on; its
+	 *         length and checksum are those of the bytes read.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public CompiledScript compileFrom(File file, String path, long lastModified, LineIndex index, final int startLine,
+			final LineListener listener) throws IOException {
+		ChannelDecoder input = new ChannelDecoder();
+		try {
+			input.open(file.getPath());
+			int firstLine = index.getStartLine(startLine);
+			input.seek(index.getOffset(firstLine));
+			ScriptLexer lexer = new ScriptLexer(path, input, firstLine - 1, null);
+			setSyntax(lexer);
+			List<CompiledLine> lines = compileLines(lexer, listener == null ? null : new LineListener() {
+				public void lineCompiled(CompiledLine line) {
+					if (line.getLineNumber() >= startLine) {
+						listener.lineCompiled(line);
+					}
+				}
+			});
+			if (lexer.getInputError() != null) {
+				throw lexer.getInputError();
+			}
+			CompiledScript compiled = new CompiledScript(path, lastModified, input.getLength(), input.getChecksum(), lines);
+			return compiled.from(startLine);
+		} finally {
+			input.release();
+		}
+	}
+
+	/**
+	 * Compile script text into command lines.
+	 *
+	 * @param fileName
+	 *            The file name used in syntax error messages.
+	 * @param text
+	 *            The script text.
+	 * @return The compiled lines, in order.
+	 * @throws IOException
+	 */
+	public List<CompiledLine> compileText(String fileName, String text) throws IOException {
+		return compileText(fileName, text, null);
+	}
+
+	private List<CompiledLine> compileText(String fileName, String text, LineListener listener) {
+		return compileLines(newLexer(fileName, text, 0, null), listener);
+	}
+
+	private List<CompiledLine> compileLines(ScriptLexer lexer, LineListener listener) {
+		List<CompiledLine> lines = new ArrayList<CompiledLine>();
+		lexer.setTemplates(true);
+		lexer.setSymbolTable(symbols);
+		char delimiter = EasyAcceptSyntax.defaultStringDelimiter;
+		// once true, the next lines may execute with another delimiter, and be parsed again
+		boolean delimiterUncertain = false;
+		int previousLineNumber = lexer.getLineNumber();
+		int previousOffset = 0;
+		while (true) {
+			ParsedLine parsedLine;
+			try {
+				parsedLine = lexer.getParsedLine();
+			} catch (ParsingException e) {
+				int lineNumber = lexer.getLineNumber();
+				add(lines, CompiledLine.error(lineNumber, delimiterUncertain ? lexer.getText(previousOffset, lexer
+						.getOffset()) : null, previousLineNumber, delimiter, e.getErrorMessage()), listener);
+				previousLineNumber = lineNumber;
+				previousOffset = lexer.getOffset();
+				continue;
+			}
+			if (parsedLine == null) {
+				break;
+			}
+			int lineNumber = lexer.getLineNumber();
+			String lineSource = lexer.hasTemplateName() || delimiterUncertain ? lexer.getText(previousOffset, lexer
+					.getOffset()) : null;
+			previousOffset = lexer.getOffset();
+			List<String> references = lexer.getReferences();
+			String[] variableNames = references.toArray(new String[references.size()]);
+			CompiledLine line;
+			if (lexer.hasTemplateName()) {
+				line = CompiledLine.dynamic(lineNumber, lineSource, previousLineNumber, delimiter, variableNames);
+				add(lines, line, listener);
+			} else {
+				line = CompiledLine.parsed(lineNumber, lineSource, previousLineNumber, delimiter, parsedLine, variableNames);
+				add(lines, line, listener);
+				char newDelimiter = newStringDelimiter(parsedLine, delimiter);
+				if (newDelimiter != delimiter) {
+					delimiter = newDelimiter;
+					lexer.setStringDelimiter(delimiter);
+				}
+			}
+			delimiterUncertain |= line.mayChangeDelimiter();
+			previousLineNumber = lineNumber;
+		}
+		return lines;
+	}
+
+	private static void add(List<CompiledLine> lines, CompiledLine line, LineListener listener) {
+		lines.add(line);
+		if (listener != null) {
+			listener.lineCompiled(line);
+		}
+	}
+
+	/**
+	 * Create a lexer for script text, with the default EasyAccept syntax.
+	 *
+	 * @param fileName
+	 *            The file name used in syntax error messages.
+	 * @param text
+	 *            The script text.
+	 * @param lineNumber
+	 *            The number of lines that precede the text in its file.
+	 * @param variables
+	 *            The variables for substitution of <code>${name}</code>.
+	 * @return The lexer.
+	 */
+	static ScriptLexer newLexer(String fileName, String text, int lineNumber, Variables variables) {
+		ScriptLexer lexer = new ScriptLexer(fileName, text, lineNumber, variables);
+		setSyntax(lexer);
+		return lexer;
+	}
+
+	private static void setSyntax(ScriptLexer lexer) {
+		lexer.setCommentCharacter(EasyAcceptSyntax.defaultComment);
+		lexer.setContinuation(EasyAcceptSyntax.defaultContinuation);
+		lexer.setStringDelimiter(EasyAcceptSyntax.defaultStringDelimiter);
+		lexer.setEscape(EasyAcceptSyntax.defaultEscapeCharacter);
+	}
+
+	/**
+	 * Obtain the string delimiter in effect after a line executes. Only the
+	 * plain form of the <code>stringdelimiter</code> command is followed; other
+	 * changes of delimiter are detected during execution (see
+	 * {@link CompiledLine#toParsedLine}).
+	 */
+	private static char newStringDelimiter(ParsedLine parsedLine, char delimiter) {
+		if (parsedLine.numberOfParameters() == 2 && parsedLine.getParameter(1).getValue() instanceof String
+				&& isStringDelimiterCommand(parsedLine.getParameter(0).getValueAsString())) {
+			String value = (String) parsedLine.getParameter(1).getValue();
+			if (value.length() == 1) {
+				return value.charAt(0);
+			}
+		}
+		return delimiter;
+	}
+
+	/**
+	 * Inform if a word is the <code>stringdelimiter</code> command.
+	 */
+	static boolean isStringDelimiterCommand(String word) {
+		return STRING_DELIMITER_COMMAND.equalsIgnoreCase(word);
+	}
+
+	/**
+	 * Read all bytes of a file.
+	 *
+	 * @param file
+	 *            The file.
+	 * @return The file contents.
+	 * @throws IOException
+	 */
+	public static byte[] readFile(File file) throws IOException {
+		return ChannelDecoder.readFully(file);
+	}
+
+	/**
+	 * Compute the checksum of the contents of a script file.
+	 *
+	 * @param content
+	 *            The file contents.
+	 * @return The checksum.
+	 */
+	public static long checksum(byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, content.length);
+		return crc.getValue();
+	}
+
+	/**
+	 * Informed of each line as soon as it is compiled, so that a script can
+	 * start executing before the whole file is compiled.
+	 */
+	public interface LineListener {
+		/**
+		 * A line was compiled. Lines are informed in order.
+		 *
+		 * @param line
+		 *            The compiled line.
+		 */
+		void lineCompiled(CompiledLine line);
+	}
+}
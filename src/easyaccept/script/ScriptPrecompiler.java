@@ -0,0 +1,110 @@
+package easyaccept.script;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import util.MultiFileReader;
+import util.ParsingException;
+
+/**
+ * Compiles all the script files of a test suite before any of them is
+ * executed, so that syntax errors are reported at once, with their file and
+ * line, instead of when execution reaches them. The files are compiled in
+ * parallel, one task per file, and the compiled scripts are left in the
+ * {@link CompiledScriptCache}, from which the scripts then execute. A
+ * precompilation starts a suite in the cache (see
+ * {@link CompiledScriptCache#startSuite()}), so the scripts of the suite share
+ * a symbol table of their own.
+ * <p>
+ * Files that cannot be read are skipped; the error is reported when the script
+ * is executed, as usual.
+ *
+ * @author jacques
+ */
+public class ScriptPrecompiler {
+
+	private final CompiledScriptCache cache;
+	private final int threads;
+
+	/**
+	 * Construct a precompiler using the shared cache and one thread per
+	 * processor.
+	 */
+	public ScriptPrecompiler() {
+		this(CompiledScriptCache.getInstance(), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * The ScriptPrecompiler constructor.
+	 *
+	 * @param cache
+	 *            The cache to be filled with the compiled scripts.
+	 * @param threads
+	 *            The number of files compiled at the same time.
+	 */
+	public ScriptPrecompiler(CompiledScriptCache cache, int threads) {
+		this.cache = cache;
+		this.threads = Math.max(threads, 1);
+	}
+
+	/**
+	 * Compile script files.
+	 *
+	 * @param fileNames
+	 *            The script files or directories.
+	 * @return The syntax errors found, by file (in the order given) and line.
+	 */
+	public List<ParsingException> precompile(List<String> fileNames) {
+		Set<String> scriptFiles = new LinkedHashSet<String>();
+		for (String fileName : fileNames) {
+			try {
+				scriptFiles.addAll(MultiFileReader.listFiles(fileName));
+			} catch (FileNotFoundException e) {
+				// reported when the script is executed
+			}
+		}
+		cache.startSuite();
+		List<ParsingException> errors = new ArrayList<ParsingException>();
+		if (scriptFiles.isEmpty()) {
+			return errors;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, scriptFiles.size()), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "EasyAccept precompiler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<List<ParsingException>>> results = new ArrayList<Future<List<ParsingException>>>();
+			for (final String fileName : scriptFiles) {
+				results.add(executor.submit(new Callable<List<ParsingException>>() {
+					public List<ParsingException> call() throws Exception {
+						return cache.getCompiledScript(fileName).getParsingErrors(fileName);
+					}
+				}));
+			}
+			for (Future<List<ParsingException>> result : results) {
+				try {
+					errors.addAll(result.get());
+				} catch (ExecutionException e) {
+					// the file cannot be read: reported when the script is executed
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		return errors;
+	}
+}
@@ -0,0 +1,94 @@
+package easyaccept.script;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.TestCase;
+import util.TestUtils;
+import easyaccept.result.Result;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests asynchronous facade methods and async commands.
+ * @author jacques
+ */
+public class TestAsyncProcessor extends TestCase {
+
+	/**
+	 * Futures are awaited, and their failures are failures of the command.
+	 */
+	public void testAwait() throws Exception {
+		assertEquals("value", Script.await("value"));
+		assertNull(Script.await(null));
+		assertEquals("value", Script.await(CompletableFuture.completedFuture("value")));
+		assertEquals("value", Script.await(CompletableFuture.completedFuture(CompletableFuture
+				.completedFuture("value"))));
+		CompletableFuture<String> failed = new CompletableFuture<String>();
+		Exception failure = new Exception("failed");
+		failed.completeExceptionally(failure);
+		try {
+			Script.await(failed);
+			fail("The future failed");
+		} catch (InvocationTargetException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	/**
+	 * Async commands run at once up to the limit, and their errors are given
+	 * at the next expect or at the end of the script.
+	 */
+	public void testScript() throws Exception {
+		Script script = TestUtils.createJavaAppScript("src/easyaccept/script/test/scriptAsync.txt",
+				new TestFacade());
+		script.setAsyncLimit(2);
+		String[] errors = new String[15];
+		long[] ends = new long[15];
+		int[] lines = new int[15];
+		long start = System.currentTimeMillis();
+		Result result;
+		int count = 0;
+		while ((result = script.getAndExecuteCommand()) != null) {
+			count++;
+			ends[count] = System.currentTimeMillis() - start;
+			errors[count] = result.hasError() ? result.getErrorMessage() : null;
+			lines[count] = result.getLine();
+		}
+		assertEquals(14, count);
+		for (int i = 1; i <= 7; i++) {
+			assertNull("Line " + i + ": " + errors[i], errors[i]);
+		}
+		assertTrue("The third async command waits for a permit", ends[5] >= 190);
+		assertTrue("The expect waits for all async commands", ends[6] >= 390);
+		assertTrue(errors[8], errors[8].indexOf("Line 7") >= 0);
+		assertTrue(errors[8], errors[8].indexOf("Async command <throwException boom> failed: boom") >= 0);
+		assertNull(errors[9], errors[9]);
+		assertNull(errors[10], errors[10]);
+		assertTrue(errors[11], errors[11].indexOf("no result to assign") >= 0);
+		assertTrue(errors[12], errors[12].indexOf("Internal commands cannot be async") >= 0);
+		assertNull(errors[13]);
+		assertTrue(errors[14], errors[14].indexOf("Line 13") >= 0);
+		assertTrue(errors[14], errors[14].indexOf("failed: late") >= 0);
+		assertEquals(13, lines[14]);
+	}
+
+	/**
+	 * An async command failing at the end of the script is reported at its
+	 * line, in place of its start, and the other results are kept.
+	 */
+	public void testResultsAtEnd() throws Exception {
+		Script script = TestUtils.createJavaAppScript("src/easyaccept/script/test/scriptAsyncEnd.txt",
+				new TestFacade());
+		assertFalse(script.executeAndCheck());
+		Map<Integer, Result> results = script.getResultManager().getResults();
+		assertEquals(3, results.size());
+		assertTrue(results.get(1).getErrorMessage(), results.get(1).getErrorMessage().indexOf(
+				"Async command <throwException early> failed: early") >= 0);
+		assertFalse(results.get(2).hasError());
+		assertFalse(results.get(3).hasError());
+		assertEquals("last", results.get(3).getResult());
+		assertEquals(1, script.getResultManager().getNumberOfErrors());
+		assertEquals(2, script.getResultManager().getNumberOfPassedTests());
+	}
+}
@@ -0,0 +1,238 @@
+package easyaccept.script;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import util.ChannelDecoder;
+import util.MultiFileReader;
+import util.ParsedLine;
+import util.TestUtils;
+import util.VariablesImpl;
+import easyaccept.EasyAcceptCompiler;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests precompiled script files.
+ * @author jacques
+ */
+public class TestCompiledScriptFile extends TestCase {
+
+	private static final String TEST_FILES_PATH = "src/easyaccept/script/test/";
+
+	private File directory;
+
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("easyaccept", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	protected void tearDown() throws Exception {
+		File[] files = directory.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			files[i].delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * A compiled script read back from its precompiled file has the same
+	 * lines.
+	 * @throws Exception
+	 */
+	public void testWriteAndRead() throws Exception {
+		CompiledScript compiled = new ScriptCompiler().compile(TEST_FILES_PATH + "scriptCompiled.txt");
+		File file = new File(directory, "scriptCompiled.txt.eac");
+		CompiledScriptFile.write(compiled, file);
+		CompiledScript read = CompiledScriptFile.read(file, compiled.getPath(), compiled.getLastModified());
+		assertEquals(compiled.getLength(), read.getLength());
+		assertEquals(compiled.getChecksum(), read.getChecksum());
+		assertEquals(compiled.size(), read.size());
+		for (int i = 0; i < compiled.size(); i++) {
+			CompiledLine expected = compiled.getLine(i);
+			CompiledLine actual = read.getLine(i);
+			assertEquals(expected.getLineNumber(), actual.getLineNumber());
+			assertEquals(expected.getSource(), actual.getSource());
+			assertEquals(expected.getStringDelimiter(), actual.getStringDelimiter());
+			assertEquals(expected.isDynamic(), actual.isDynamic());
+			assertEquals(expected.isReparsed(), actual.isReparsed());
+			assertEquals(Arrays.asList(expected.getVariableNames()), Arrays.asList(actual.getVariableNames()));
+			VariablesImpl variables = new VariablesImpl();
+			variables.put("x", "hi");
+			char delimiter = expected.getStringDelimiter();
+			assertEquals(toString(expected.toParsedLine("f", delimiter, variables)), toString(actual.toParsedLine("f", delimiter,
+					variables)));
+		}
+		assertEquals("x", read.getLine(3).getVariableNames()[0]);
+	}
+
+	/**
+	 * The precompiled file is used while the source is unchanged, and the
+	 * source is compiled again once it changes.
+	 * @throws Exception
+	 */
+	public void testFallBackToSource() throws Exception {
+		File source = new File(directory, "script.txt");
+		write(source, "echo a\n");
+		EasyAcceptCompiler.compileScripts(Arrays.asList(new String[] { source.getPath() }));
+		assertTrue(new File(directory, "script.txt.eac").exists());
+
+		CountingCompiler compiler = new CountingCompiler();
+		CompiledScript compiled = new CompiledScriptCache(compiler).getCompiledScript(source.getPath());
+		assertEquals(0, compiler.compilations);
+		assertEquals(1, compiled.size());
+
+		write(source, "echo b\necho c\n");
+		compiled = new CompiledScriptCache(compiler).getCompiledScript(source.getPath());
+		assertEquals(1, compiler.compilations);
+		assertEquals(2, compiled.size());
+	}
+
+	/**
+	 * A precompiled file is executed by itself when its source is missing,
+	 * and is not executed twice when found in a directory with its source.
+	 * @throws Exception
+	 */
+	public void testExecutePrecompiled() throws Exception {
+		File source = new File(directory, "script.txt");
+		write(source, "echo a\necho b\n");
+		EasyAcceptCompiler.compileScripts(Arrays.asList(new String[] { directory.getPath() }));
+		assertEquals(1, MultiFileReader.listFiles(directory.getPath()).size());
+
+		source.delete();
+		String compiledFileName = new File(directory, "script.txt.eac").getPath();
+		assertEquals(Arrays.asList(new String[] { compiledFileName }), MultiFileReader.listFiles(directory.getPath()));
+		Script script = TestUtils.createJavaAppScript(compiledFileName, new TestFacade());
+		assertEquals("a", script.getAndExecuteCommand().getResult());
+		assertEquals("b", script.getAndExecuteCommand().getResult());
+		assertEquals(2, script.getLineNumber());
+		assertNull(script.getAndExecuteCommand());
+	}
+
+	/**
+	 * A precompiled file with a corrupt count is rejected rather than
+	 * allocated.
+	 * @throws Exception
+	 */
+	public void testCorruptCounts() throws Exception {
+		int[] counts = { -1, Integer.MAX_VALUE };
+		for (int i = 0; i < counts.length; i++) {
+			File file = new File(directory, "corrupt.txt.eac");
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+			out.writeInt(0x45414321);
+			out.writeInt(CompiledScriptFile.VERSION);
+			out.writeLong(0);
+			out.writeLong(0);
+			byte[] encoding = ChannelDecoder.getScriptCharset().name().getBytes("UTF-8");
+			out.writeInt(encoding.length);
+			out.write(encoding);
+			out.writeInt(counts[i]);
+			out.close();
+			try {
+				CompiledScriptFile.read(file, "corrupt.txt", 0);
+				fail("Corrupt count " + counts[i]);
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt"));
+			}
+		}
+	}
+
+	/**
+	 * A parsed line without values, or with as many names as values, is
+	 * rejected as corrupt, and the cache falls back to the source.
+	 * @throws Exception
+	 */
+	public void testCorruptLine() throws Exception {
+		File source = new File(directory, "corrupt.txt");
+		write(source, "echo a\n");
+		int[][] counts = { { 0, 0 }, { 2, 1 } };
+		for (int i = 0; i < counts.length; i++) {
+			File file = new File(directory, "corrupt.txt.eac");
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+			out.writeInt(0x45414321);
+			out.writeInt(CompiledScriptFile.VERSION);
+			out.writeLong(source.length());
+			out.writeLong(ScriptCompiler.checksum(ScriptCompiler.readFile(source)));
+			byte[] encoding = ChannelDecoder.getScriptCharset().name().getBytes("UTF-8");
+			out.writeInt(encoding.length);
+			out.write(encoding);
+			out.writeInt(1);
+			out.writeByte(0); // a parsed line
+			out.writeInt(1);
+			out.writeInt(1);
+			out.writeChar('"');
+			out.writeInt(-1);
+			out.writeInt(counts[i][0]);
+			for (int j = 0; j < counts[i][0]; j++) {
+				out.writeInt(-1);
+			}
+			out.writeInt(counts[i][1]);
+			for (int j = 0; j < counts[i][1]; j++) {
+				out.writeByte(0); // a null value
+			}
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.close();
+			try {
+				CompiledScriptFile.read(file, "corrupt.txt", 0);
+				fail("Corrupt line " + i);
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt"));
+			}
+			CompiledScript compiled = new CompiledScriptCache(new ScriptCompiler()).getCompiledScript(source.getPath());
+			assertEquals("echo", compiled.getLine(0).getCommandName());
+		}
+	}
+
+	/**
+	 * A file that is not a precompiled script is rejected.
+	 * @throws Exception
+	 */
+	public void testNotPrecompiled() throws Exception {
+		File file = new File(directory, "script.txt.eac");
+		write(file, "echo a\n");
+		try {
+			CompiledScriptFile.read(file, file.getPath(), 0);
+			fail("IOException expected");
+		} catch (IOException e) {
+		}
+	}
+
+	private static String toString(ParsedLine parsedLine) {
+		List<String> parameters = new ArrayList<String>();
+		for (int i = 0; i < parsedLine.numberOfParameters(); i++) {
+			parameters.add(parsedLine.getParameter(i).getName() + "=" + parsedLine.getParameter(i).getValue());
+		}
+		return parameters.toString();
+	}
+
+	private static void write(File file, String text) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * A compiler that counts the scripts it compiles.
+	 */
+	private static class CountingCompiler extends ScriptCompiler {
+		int compilations;
+
+		public CompiledScript compile(String path, long lastModified, byte[] content, LineListener listener) throws IOException {
+			compilations++;
+			return super.compile(path, lastModified, content, listener);
+		}
+	}
+}
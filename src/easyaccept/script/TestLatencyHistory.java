@@ -0,0 +1,298 @@
+package easyaccept.script;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+import util.TestUtils;
+import easyaccept.result.Result;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests the deadlines derived from the history of command latencies.
+ * @author jacques
+ */
+public class TestLatencyHistory extends TestCase {
+
+	private static final long MILLISECOND = 1000000L;
+
+	/**
+	 * Bucket bounds are within a quarter of a doubling of latencies.
+	 */
+	public void testBuckets() {
+		assertEquals(0, LatencyHistory.bucketOf(0));
+		assertEquals(0, LatencyHistory.bucketOf(1));
+		for (long micros = 2; micros < 100000000L; micros = micros * 3 / 2) {
+			long bound = LatencyHistory.upperBound(LatencyHistory.bucketOf(micros));
+			assertTrue(micros + " <= " + bound, micros <= bound);
+			assertTrue(micros + " ~ " + bound, bound <= micros * 1.2 + 1);
+		}
+		assertEquals(LatencyHistory.BUCKETS - 1, LatencyHistory.bucketOf(Long.MAX_VALUE / 1000));
+	}
+
+	/**
+	 * Deadlines are a multiple of the 99th percentile, within limits, once a
+	 * command has enough samples.
+	 */
+	public void testDeadline() throws Exception {
+		LatencyHistory history = new LatencyHistory();
+		history.setMinimumSamples(100);
+		history.setFactor(3);
+		history.setLimits(10, 10000);
+		String key = LatencyHistory.keyOf("script.txt", 3, "command");
+		assertTrue(key, key.startsWith(new File("script.txt").getCanonicalPath() + "@"));
+		assertTrue(key, key.endsWith(":3:command"));
+		assertEquals(key, LatencyHistory.keyOf("dir/../script.txt", 3, "command"));
+		for (int i = 0; i < 99; i++) {
+			history.record(key, 100 * MILLISECOND);
+		}
+		assertNull(history.getDeadline(key));
+		history.record(key, 1000 * MILLISECOND);
+		LatencyHistory.AdaptiveDeadline deadline = history.getDeadline(key);
+		assertTrue(deadline.getPercentile() >= 100 && deadline.getPercentile() <= 120);
+		assertTrue(deadline.getMillis() >= 300 && deadline.getMillis() <= 360);
+		assertTrue(deadline.toString().startsWith("adaptive deadline of "));
+
+		history.setLimits(500, 10000);
+		assertEquals(500, history.getDeadline(key).getMillis());
+		history.setLimits(10, 50);
+		assertEquals(50, history.getDeadline(key).getMillis());
+	}
+
+	/**
+	 * A timeout weighs enough to widen the deadline at once, however many
+	 * faster samples the command has.
+	 */
+	public void testTimeout() {
+		LatencyHistory history = new LatencyHistory();
+		history.setMinimumSamples(100);
+		history.setFactor(3);
+		history.setLimits(10, 100000);
+		for (int i = 0; i < 500; i++) {
+			history.record("k", 10 * MILLISECOND);
+		}
+		assertTrue(history.getDeadline("k").getMillis() <= 40);
+		history.recordTimeout("k", 40 * MILLISECOND);
+		assertEquals(506, history.getSampleCount("k"));
+		assertTrue(history.getDeadline("k").getPercentile() >= 40);
+		assertTrue(history.getDeadline("k").getMillis() >= 120);
+	}
+
+	/**
+	 * Old samples weigh less as new ones are recorded.
+	 */
+	public void testDecay() {
+		LatencyHistory history = new LatencyHistory();
+		history.setMinimumSamples(1);
+		for (int i = 0; i < 1000; i++) {
+			history.record("k", 1000 * MILLISECOND);
+		}
+		for (int i = 0; i < 10000; i++) {
+			history.record("k", 1 * MILLISECOND);
+		}
+		assertTrue(history.getSampleCount("k") <= 1000);
+		assertTrue(history.getDeadline("k").getPercentile() <= 2);
+	}
+
+	/**
+	 * Histories are saved and loaded again.
+	 */
+	public void testPersistence() throws Exception {
+		File file = File.createTempFile("latency", ".eal");
+		file.delete();
+		try {
+			LatencyHistory history = new LatencyHistory(file);
+			history.load();
+			history.setMinimumSamples(1);
+			for (int i = 0; i < 50; i++) {
+				history.record("a", 20 * MILLISECOND);
+				history.record("b", 2 * MILLISECOND);
+			}
+			history.save();
+			LatencyHistory loaded = new LatencyHistory(file);
+			loaded.setMinimumSamples(1);
+			loaded.load();
+			assertEquals(50, loaded.getSampleCount("a"));
+			assertEquals(history.getDeadline("a").getMillis(), loaded.getDeadline("a").getMillis());
+			assertEquals(history.getDeadline("b").getPercentile(), loaded.getDeadline("b").getPercentile());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Histories saved by several runs sharing a file are merged, rather than
+	 * the last save replacing the others.
+	 */
+	public void testMerge() throws Exception {
+		File file = File.createTempFile("latency", ".eal");
+		file.delete();
+		try {
+			LatencyHistory first = new LatencyHistory(file);
+			LatencyHistory second = new LatencyHistory(file);
+			for (int i = 0; i < 10; i++) {
+				first.record("a", 20 * MILLISECOND);
+				second.record("a", 20 * MILLISECOND);
+				second.record("b", 2 * MILLISECOND);
+			}
+			first.save();
+			second.save();
+			// nothing new to save
+			first.save();
+			assertEquals(20, second.getSampleCount("a"));
+			first.record("b", 2 * MILLISECOND);
+			first.save();
+			assertEquals(20, first.getSampleCount("a"));
+			assertEquals(11, first.getSampleCount("b"));
+			LatencyHistory loaded = new LatencyHistory(file);
+			loaded.load();
+			assertEquals(20, loaded.getSampleCount("a"));
+			assertEquals(11, loaded.getSampleCount("b"));
+			assertFalse(new File(file.getParentFile(), file.getName() + ".tmp").exists());
+		} finally {
+			file.delete();
+			new File(file.getPath() + ".lock").delete();
+		}
+	}
+
+	/**
+	 * A corrupt entry, or a file cut short, loses only the entries concerned.
+	 */
+	public void testCorrupt() throws Exception {
+		File file = File.createTempFile("latency", ".eal");
+		file.delete();
+		try {
+			LatencyHistory history = new LatencyHistory(file);
+			for (int i = 0; i < 5; i++) {
+				history.record("a", 20 * MILLISECOND);
+				history.record("b", 2 * MILLISECOND);
+			}
+			history.save();
+			long length = file.length();
+			RandomAccessFile contents = new RandomAccessFile(file, "rw");
+			try {
+				// the last byte of the last entry
+				contents.seek(length - 1);
+				int last = contents.read();
+				contents.seek(length - 1);
+				contents.write(last ^ 0xff);
+			} finally {
+				contents.close();
+			}
+			LatencyHistory loaded = new LatencyHistory(file);
+			loaded.load();
+			assertEquals(5, loaded.getSampleCount("a") + loaded.getSampleCount("b"));
+
+			FileOutputStream out = new FileOutputStream(file, true);
+			out.write(new byte[] { 0, 100, 1 });
+			out.close();
+			loaded = new LatencyHistory(file);
+			loaded.load();
+			assertEquals(5, loaded.getSampleCount("a") + loaded.getSampleCount("b"));
+		} finally {
+			file.delete();
+			new File(file.getPath() + ".lock").delete();
+		}
+	}
+
+	/**
+	 * Once a script changes, its commands start a new history, and that of
+	 * the script as it was is dropped when the history is saved.
+	 */
+	public void testChangedScript() throws Exception {
+		File script = File.createTempFile("script", ".txt");
+		File file = File.createTempFile("latency", ".eal");
+		file.delete();
+		try {
+			writeScript(script, "sleep 1\n");
+			String key = LatencyHistory.keyOf(script.getPath(), 1, "sleep");
+			LatencyHistory history = new LatencyHistory(file);
+			history.record(key, 20 * MILLISECOND);
+			history.save();
+			writeScript(script, "echo a\nsleep 1\n");
+			String changed = LatencyHistory.keyOf(script.getPath(), 1, "sleep");
+			assertFalse(key.equals(changed));
+			assertEquals(0, history.getSampleCount(changed));
+			history.record(changed, 20 * MILLISECOND);
+			history.save();
+			assertEquals(0, history.getSampleCount(key));
+			LatencyHistory loaded = new LatencyHistory(file);
+			loaded.load();
+			assertEquals(0, loaded.getSampleCount(key));
+			assertEquals(1, loaded.getSampleCount(changed));
+		} finally {
+			script.delete();
+			file.delete();
+			new File(file.getPath() + ".lock").delete();
+		}
+	}
+
+	private static void writeScript(File script, String text) throws Exception {
+		long lastModified = script.lastModified();
+		FileWriter writer = new FileWriter(script);
+		writer.write(text);
+		writer.close();
+		// a change within the resolution of modification times is still seen
+		script.setLastModified(lastModified + 1000);
+	}
+
+	/**
+	 * A run saves the history once, when it ends, rather than at the end of
+	 * each script it executes.
+	 */
+	public void testRuns() throws Exception {
+		File file = File.createTempFile("latency", ".eal");
+		file.delete();
+		try {
+			LatencyHistory history = new LatencyHistory(file);
+			history.beginRun();
+			history.beginRun();
+			history.record("a", 20 * MILLISECOND);
+			history.endRun();
+			assertFalse(file.exists());
+			history.endRun();
+			assertTrue(file.exists());
+			// a run ended again is not saved again
+			history.record("a", 20 * MILLISECOND);
+			history.endRun();
+			LatencyHistory loaded = new LatencyHistory(file);
+			loaded.load();
+			assertEquals(1, loaded.getSampleCount("a"));
+		} finally {
+			file.delete();
+			new File(file.getPath() + ".lock").delete();
+		}
+	}
+
+	/**
+	 * A call much slower than its history times out, and its timeout tells
+	 * that its deadline was adaptive.
+	 */
+	public void testScript() throws Exception {
+		String fileName = "src/easyaccept/script/test/scriptAdaptive.txt";
+		LatencyHistory history = new LatencyHistory();
+		history.setMinimumSamples(10);
+		history.setLimits(50, 10000);
+		for (int i = 0; i < 10; i++) {
+			// the same script, through another path
+			history.record(LatencyHistory.keyOf("src/easyaccept/../easyaccept/script/test/scriptAdaptive.txt", 2,
+					"sleep"), 5 * MILLISECOND);
+		}
+		Script script = TestUtils.createJavaAppScript(fileName, new TestFacade());
+		script.setLatencyHistory(history);
+		long start = System.currentTimeMillis();
+		Result result = script.getAndExecuteCommand();
+		assertFalse(result.hasError());
+		assertEquals(1, history.getSampleCount(LatencyHistory.keyOf(fileName, 1, "sleep")));
+		result = script.getAndExecuteCommand();
+		assertTrue(result.hasError());
+		assertTrue(result.getErrorMessage(), result.getErrorMessage().startsWith(
+				Watchdog.TIMEOUT_MESSAGE + " (adaptive deadline of 50 ms"));
+		assertTrue(System.currentTimeMillis() - start < 1500);
+		// the timeout is recorded, and widens the deadline
+		assertEquals(11, history.getSampleCount(LatencyHistory.keyOf(fileName, 2, "sleep")));
+		assertTrue(history.getDeadline(LatencyHistory.keyOf(fileName, 2, "sleep")).getPercentile() >= 50);
+	}
+}
@@ -0,0 +1,101 @@
+package easyaccept.script;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import util.ParsingException;
+import util.TestUtils;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests the execution of scripts parsed ahead on a separate thread.
+ * @author jacques
+ */
+public class TestParseAhead extends TestCase {
+
+	private static final String TEST_FILES_PATH = "src/easyaccept/script/test/";
+
+	/**
+	 * Variables are substituted with the values assigned by the commands
+	 * executed before.
+	 * @throws Exception
+	 */
+	public void testVariables() throws Exception {
+		Script script = TestUtils.createJavaAppScript(TEST_FILES_PATH + "scriptCompiled.txt", new TestFacade());
+		script.setParseAhead(1);
+		assertEquals("OK", script.getAndExecuteCommand().getResult());
+		assertEquals("a b c", script.getAndExecuteCommand().getResult());
+		assertEquals("hi", script.getAndExecuteCommand().getResult());
+		assertEquals("hi \"d e\"", script.getAndExecuteCommand().getResult());
+		assertEquals(7, script.getLineNumber());
+		assertNull(script.getAndExecuteCommand());
+		assertNull(script.getAndExecuteCommand());
+		script.close();
+
+		assertEquals("OK", script.getAndExecuteCommand().getResult());
+		assertEquals(2, script.getLineNumber());
+		script.close();
+	}
+
+	/**
+	 * Syntax errors are reported when execution reaches them.
+	 * @throws Exception
+	 */
+	public void testSyntaxError() throws Exception {
+		Script script = TestUtils.createJavaAppScript(TEST_FILES_PATH + "scriptSyntaxError.txt", new TestFacade());
+		script.setParseAhead(10);
+		assertEquals("first", script.getAndExecuteCommand().getResult());
+		try {
+			script.getAndExecuteCommand();
+			fail("ParsingException expected");
+		} catch (ParsingException e) {
+			assertEquals(2, e.getLineNumber());
+		}
+		assertEquals("third", script.getAndExecuteCommand().getResult());
+		assertNull(script.getAndExecuteCommand());
+		script.close();
+	}
+
+	/**
+	 * The string delimiter is restored at the start of each file.
+	 * @throws Exception
+	 */
+	public void testFiles() throws Exception {
+		File directory = File.createTempFile("easyaccept", "");
+		directory.delete();
+		directory.mkdir();
+		File first = new File(directory, "a.txt");
+		File second = new File(directory, "b.txt");
+		try {
+			write(first, "stringdelimiter '\necho 'x y'\n");
+			write(second, "echo \"z w\"\n");
+			Script script = TestUtils.createJavaAppScript(directory.getPath(), new TestFacade());
+			script.setParseAhead(1);
+			List<Object> results = new ArrayList<Object>();
+			for (int i = 0; i < 3; i++) {
+				results.add(script.getAndExecuteCommand().getResult());
+			}
+			assertTrue(results.contains("x y"));
+			assertTrue(results.contains("z w"));
+			assertNull(script.getAndExecuteCommand());
+			script.close();
+		} finally {
+			first.delete();
+			second.delete();
+			directory.delete();
+		}
+	}
+
+	private static void write(File file, String text) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package easyaccept.script;
 
 import junit.framework.TestCase;
+import util.CallSite;
+import util.ParsedLine;
 import util.TestUtils;
 import easyaccept.result.Result;
 import easyaccept.script.test.TestFacade;
@@ -360,4 +362,81 @@ public class TestScript extends TestCase {
 		script.close();
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Test starting execution at a line: the commands before it are skipped,
+	 * and the string delimiter is the one in effect at that line.
+	 * @throws Exception
+	 */
+	public void testStartLine() throws Exception {
+		for (int ahead = 0; ahead <= 1; ahead++) {
+			Script script = TestUtils.createJavaAppScript(TEST_FILES_PATH + "scriptCompiled.txt", new TestFacade());
+			script.setParseAhead(ahead);
+			script.setStartLine(4);
+			assertEquals("a b c", script.getAndExecuteCommand().getResult());
+			assertEquals(5, script.getLineNumber());
+			assertEquals("hi", script.getAndExecuteCommand().getResult());
+			script.close();
+
+			script.setStartLine(100);
+			assertNull(script.getAndExecuteCommand());
+			script.close();
+		}
+	}
+
+	/**
+	 * Test that executions of a line after the first use what the first
+	 * resolved: the command and facade bindings in its call site are kept.
+	 * @throws Exception
+	 */
+	public void testInlineCache() throws Exception {
+		String fileName = TEST_FILES_PATH + "scriptInlineCache.txt";
+		Script script = TestUtils.createJavaAppScript(fileName, new TestFacade());
+		assertTrue(script.executeAndCheck());
+		CompiledScript compiled = CompiledScriptCache.getInstance().getCompiledScript(fileName);
+		CallSite repeat = compiled.getLine(0).getCallSite();
+		Object command = repeat.getCommand();
+		Object binding = repeat.getSubSite(2).getBinding();
+		assertNotNull(command);
+		assertNotNull(binding);
+		CallSite expect = compiled.getLine(2).getCallSite();
+		Object expectBinding = expect.getSubSite(2).getBinding();
+		assertNotNull(expectBinding);
+		assertTrue(expect.getSubSite(2).isConstant(0));
+		assertFalse(expect.getSubSite(2).isConstant(1));
+
+		script.close();
+		assertTrue(script.executeAndCheck());
+		assertSame(command, repeat.getCommand());
+		assertSame(binding, repeat.getSubSite(2).getBinding());
+		assertSame(expectBinding, expect.getSubSite(2).getBinding());
+	}
+
+	/**
+	 * Test executing lines without variables from shared lines: the results
+	 * are the same, and each such line is executed from the same ParsedLine.
+	 * @throws Exception
+	 */
+	public void testSharedLines() throws Exception {
+		String fileName = TEST_FILES_PATH + "scriptInlineCache.txt";
+		Script script = TestUtils.createJavaAppScript(fileName, new TestFacade());
+		script.setSharedLines(true);
+		Result first = script.getAndExecuteCommand();
+		assertEquals("OK", first.getResult());
+		assertEquals(1, script.getLineNumber());
+		assertEquals("4", script.getAndExecuteCommand().getResultAsString());
+		Result third = script.getAndExecuteCommand();
+		assertEquals("OK", third.getResult());
+		assertEquals("expect 5 commandReturningInt 4", third.getCommand());
+		assertNull(script.getAndExecuteCommand());
+		script.close();
+		assertTrue(script.executeAndCheck());
+
+		CompiledScript compiled = CompiledScriptCache.getInstance().getCompiledScript(fileName);
+		ParsedLine shared = compiled.getLine(0).toSharedParsedLine('"');
+		assertTrue(shared.isFrozen());
+		assertSame(shared, compiled.getLine(0).toSharedParsedLine('"'));
+		assertSame(compiled.getLine(0).getCallSite(), shared.getCallSite());
+		assertNull(compiled.getLine(0).toSharedParsedLine('\''));
+		assertNull(compiled.getLine(2).toSharedParsedLine('"'));
+	}
+}
@@ -0,0 +1,312 @@
+package easyaccept.script;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import util.ChannelDecoder;
+import util.LineIndex;
+import util.ParsedLine;
+import util.ParsingException;
+import util.TestUtils;
+import util.VariablesImpl;
+import easyaccept.result.Result;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests the script compiler and the compiled script cache.
+ * @author jacques
+ */
+public class TestScriptCompiler extends TestCase {
+
+	private static final String TEST_FILES_PATH = "src/easyaccept/script/test/";
+
+	/**
+	 * Lines are parsed ahead, following continuation and string delimiter
+	 * changes; lines with variables are left for execution.
+	 * @throws Exception
+	 */
+	public void testCompile() throws Exception {
+		CompiledScript compiled = new ScriptCompiler().compile(TEST_FILES_PATH + "scriptCompiled.txt");
+		assertEquals(4, compiled.size());
+
+		CompiledLine line = compiled.getLine(0);
+		assertEquals(2, line.getLineNumber());
+		assertEquals("stringdelimiter", line.getCommandName());
+
+		line = compiled.getLine(1);
+		assertEquals(5, line.getLineNumber());
+		assertFalse(line.isDynamic());
+		ParsedLine parsedLine = line.toParsedLine("f", '\'', new VariablesImpl());
+		assertEquals(3, parsedLine.numberOfParameters());
+		assertEquals("a b", parsedLine.getParameter(1).getValue());
+		assertEquals("c", parsedLine.getParameter(2).getValue());
+
+		line = compiled.getLine(2);
+		assertEquals(6, line.getLineNumber());
+		assertEquals("x", line.toParsedLine("f", '\'', new VariablesImpl()).getParameter(0).getName());
+
+		line = compiled.getLine(3);
+		assertEquals(7, line.getLineNumber());
+		assertTrue(line.isDynamic());
+		assertFalse(line.isReparsed());
+		assertEquals("echo", line.getCommandName());
+	}
+
+	/**
+	 * Command names, parameter names and literals repeated in a script are
+	 * held once.
+	 * @throws Exception
+	 */
+	public void testSymbols() throws Exception {
+		ScriptCompiler compiler = new ScriptCompiler();
+		List<CompiledLine> lines = compiler.compileText("f", "doIt name=a\ndoIt name=\"a\"\n");
+		ParsedLine first = lines.get(0).toParsedLine("f", '"', new VariablesImpl());
+		ParsedLine second = lines.get(1).toParsedLine("f", '"', new VariablesImpl());
+		assertSame(first.getParameter(0).getValue(), second.getParameter(0).getValue());
+		assertSame(first.getParameter(1).getName(), second.getParameter(1).getName());
+		assertSame(first.getParameter(1).getValue(), second.getParameter(1).getValue());
+		assertEquals(3, compiler.getSymbolTable().getHits());
+	}
+
+	/**
+	 * A line referring to variables is bound to their current values at each
+	 * execution.
+	 * @throws Exception
+	 */
+	public void testTemplates() throws Exception {
+		List<CompiledLine> lines = new ScriptCompiler().compileText("f", "echo a${x}b${y} \"${x}\" ${x}\n${x}=echo\n");
+		CompiledLine line = lines.get(0);
+		assertFalse(line.isReparsed());
+		assertEquals(Arrays.asList(new String[] { "x", "y" }), Arrays.asList(line.getVariableNames()));
+		VariablesImpl variables = new VariablesImpl();
+		variables.put("x", "1");
+		ParsedLine parsedLine = line.toParsedLine("f", '"', variables);
+		assertEquals("a1b", parsedLine.getParameter(1).getValue());
+		assertEquals("${x}", parsedLine.getParameter(2).getValue());
+		assertEquals("1", parsedLine.getParameter(3).getValue());
+		variables.put("x", "2");
+		variables.put("y", Integer.valueOf(3));
+		assertEquals("a2b3", line.toParsedLine("f", '"', variables).getParameter(1).getValue());
+
+		line = lines.get(1);
+		assertTrue(line.isReparsed());
+		assertEquals("2", line.toParsedLine("f", '"', variables).getParameter(0).getName());
+	}
+
+	/**
+	 * Each execution of a compiled line obtains its own parameters.
+	 * @throws Exception
+	 */
+	public void testParsedLinesAreNotShared() throws Exception {
+		CompiledScript compiled = new ScriptCompiler().compile(TEST_FILES_PATH + "scriptCompiled.txt");
+		ParsedLine first = compiled.getLine(1).toParsedLine("f", '\'', new VariablesImpl());
+		first.getParameter(1).setValue(Integer.valueOf(1));
+		ParsedLine second = compiled.getLine(1).toParsedLine("f", '\'', new VariablesImpl());
+		assertEquals("a b", second.getParameter(1).getValue());
+	}
+
+	/**
+	 * A compiled script executes as the script file would.
+	 * @throws Exception
+	 */
+	public void testExecuteCompiled() throws Exception {
+		Script script = TestUtils.createJavaAppScript(TEST_FILES_PATH + "scriptCompiled.txt", new TestFacade());
+		assertEquals("OK", script.getAndExecuteCommand().getResult());
+		assertEquals(2, script.getLineNumber());
+		assertEquals("a b c", script.getAndExecuteCommand().getResult());
+		assertEquals("hi", script.getAndExecuteCommand().getResult());
+		Result result = script.getAndExecuteCommand();
+		assertEquals("hi \"d e\"", result.getResult());
+		assertEquals(7, script.getLineNumber());
+		assertNull(script.getAndExecuteCommand());
+		script.close();
+	}
+
+	/**
+	 * A line using a delimiter other than the one assumed by the compiler is
+	 * parsed again during execution. Only the lines that may be parsed again
+	 * keep their source text.
+	 * @throws Exception
+	 */
+	public void testDelimiterChangedDuringExecution() throws Exception {
+		List<CompiledLine> lines = new ScriptCompiler().compileText("f",
+				"echo 'a b'\nstringdelimiter ${d}\necho 'a b'\n${n}=echo\n");
+		assertNull(lines.get(0).getSource());
+		assertNull(lines.get(1).getSource());
+		assertEquals("echo 'a b'\n", lines.get(2).getSource());
+		assertEquals("${n}=echo\n", lines.get(3).getSource());
+		VariablesImpl variables = new VariablesImpl();
+		assertEquals("'a", lines.get(2).toParsedLine("f", '"', variables).getParameter(1).getValue());
+		assertEquals("a b", lines.get(2).toParsedLine("f", '\'', variables).getParameter(1).getValue());
+
+		CompiledScript compiled = new ScriptCompiler().compile(TEST_FILES_PATH + "scriptCompiled.txt");
+		for (int i = 0; i < compiled.size(); i++) {
+			assertEquals(compiled.getLine(i).isReparsed(), compiled.getLine(i).getSource() != null);
+		}
+	}
+
+	/**
+	 * Syntax errors are reported when execution reaches them; the other lines
+	 * are still executed.
+	 * @throws Exception
+	 */
+	public void testSyntaxError() throws Exception {
+		String fileName = TEST_FILES_PATH + "scriptSyntaxError.txt";
+		CompiledScript compiled = new ScriptCompiler().compile(fileName);
+		assertEquals(3, compiled.size());
+		assertEquals(1, compiled.getParsingErrors(fileName).size());
+		assertEquals(2, compiled.getParsingErrors(fileName).get(0).getLineNumber());
+
+		Script script = TestUtils.createJavaAppScript(fileName, new TestFacade());
+		assertEquals("first", script.getAndExecuteCommand().getResult());
+		try {
+			script.getAndExecuteCommand();
+			fail("ParsingException expected");
+		} catch (ParsingException e) {
+			assertTrue(e.getMessage().startsWith("Line 2, file " + fileName + ": Missing end-delimiter"));
+		}
+		assertEquals("third", script.getAndExecuteCommand().getResult());
+		assertNull(script.getAndExecuteCommand());
+	}
+
+	/**
+	 * The cache compiles a file only once, and again if it changes.
+	 * @throws Exception
+	 */
+	public void testCache() throws Exception {
+		CompiledScriptCache cache = new CompiledScriptCache(new ScriptCompiler());
+		File file = File.createTempFile("easyaccept", ".txt");
+		file.deleteOnExit();
+		try {
+			write(file, "echo a\n");
+			CompiledScript compiled = cache.getCompiledScript(file.getPath());
+			assertSame(compiled, cache.getCompiledScript(file.getPath()));
+			assertSame(compiled, cache.getCompiledScript(file.getParent() + "/./" + file.getName()));
+			assertEquals(1, cache.size());
+
+			assertTrue(file.setLastModified(file.lastModified() - 10000));
+			CompiledScript touched = cache.getCompiledScript(file.getPath());
+			assertSame(compiled.getLines(), touched.getLines());
+
+			write(file, "echo b\necho c\n");
+			assertTrue(file.setLastModified(file.lastModified() + 20000));
+			CompiledScript changed = cache.getCompiledScript(file.getPath());
+			assertEquals(2, changed.size());
+			assertTrue(compiled.getChecksum() != changed.getChecksum());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A file compiled as it is read, across several decoded blocks, gives the
+	 * same lines and checksum as the same file compiled from its contents.
+	 * @throws Exception
+	 */
+	public void testCompileAsRead() throws Exception {
+		File file = File.createTempFile("easyaccept", ".txt");
+		file.deleteOnExit();
+		try {
+			StringBuffer text = new StringBuffer();
+			for (int i = 0; text.length() < 3 * ChannelDecoder.BUFFER_SIZE; i++) {
+				text.append("echo line").append(i).append(" \\\r\n  continued \"a string\"\r\n");
+				text.append("x=commandReturningString ${y}\n# comment\n");
+			}
+			write(file, text.toString());
+			ScriptCompiler compiler = new ScriptCompiler();
+			final List<CompiledLine> listened = new ArrayList<CompiledLine>();
+			CompiledScript read = compiler.compile(file, file.getPath(), 1, new ScriptCompiler.LineListener() {
+				public void lineCompiled(CompiledLine line) {
+					listened.add(line);
+				}
+			});
+			CompiledScript compiled = compiler.compile(file.getPath(), 1, ScriptCompiler.readFile(file));
+			assertEquals(compiled.getLength(), read.getLength());
+			assertEquals(compiled.getChecksum(), read.getChecksum());
+			assertEquals(compiled.size(), read.size());
+			assertEquals(read.getLines(), listened);
+			for (int i = 0; i < compiled.size(); i++) {
+				assertEquals(compiled.getLine(i).getLineNumber(), read.getLine(i).getLineNumber());
+				assertEquals(compiled.getLine(i).getSource(), read.getLine(i).getSource());
+				assertEquals(compiled.getLine(i).getCommandName(), read.getLine(i).getCommandName());
+				assertEquals(compiled.getLine(i).isReparsed(), read.getLine(i).isReparsed());
+				if (!compiled.getLine(i).isReparsed()) {
+					assertTrue(Arrays.equals(compiled.getLine(i).getParameterNames(), read.getLine(i).getParameterNames()));
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A file compiled from a line on is read from an indexed line before it,
+	 * not from the start, and gives the same commands from that line as the
+	 * whole file compiled.
+	 * @throws Exception
+	 */
+	public void testCompileFrom() throws Exception {
+		File file = File.createTempFile("easyaccept", ".txt");
+		file.deleteOnExit();
+		try {
+			StringBuffer text = new StringBuffer();
+			for (int i = 0; i < 2000; i++) {
+				text.append("echo line").append(i).append(i % 3 == 0 ? " \\\n  continued\n" : "\n");
+			}
+			write(file, text.toString());
+			ScriptCompiler compiler = new ScriptCompiler();
+			final List<CompiledLine> listened = new ArrayList<CompiledLine>();
+			CompiledScript read = compiler.compileFrom(file, file.getPath(), 1, LineIndex.getIndex(file.getPath()),
+					2000, new ScriptCompiler.LineListener() {
+						public void lineCompiled(CompiledLine line) {
+							listened.add(line);
+						}
+					});
+			CompiledScript compiled = compiler.compile(file.getPath()).from(2000);
+			assertTrue(read.getLength() < file.length() / 2);
+			assertEquals(compiled.size(), read.size());
+			assertEquals(read.getLines(), listened);
+			assertEquals(2000, read.getLine(0).getLineNumber());
+			for (int i = 0; i < compiled.size(); i++) {
+				assertEquals(compiled.getLine(i).getLineNumber(), read.getLine(i).getLineNumber());
+				assertEquals(compiled.getLine(i).toParsedLine("f", '"', new VariablesImpl()).getParameter(1).getValue(), read.getLine(i)
+						.toParsedLine("f", '"', new VariablesImpl()).getParameter(1).getValue());
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * The cache discards the script used least recently when it is full.
+	 * @throws Exception
+	 */
+	public void testEviction() throws Exception {
+		CompiledScriptCache cache = new CompiledScriptCache(new ScriptCompiler(), 2);
+		String first = TEST_FILES_PATH + "script1.txt";
+		String second = TEST_FILES_PATH + "script2.txt";
+		String third = TEST_FILES_PATH + "script3.txt";
+		CompiledScript compiled = cache.getCompiledScript(first);
+		cache.getCompiledScript(second);
+		assertSame(compiled, cache.getCompiledScript(first));
+		cache.getCompiledScript(third);
+		assertEquals(2, cache.size());
+		assertTrue(cache.contains(first));
+		assertFalse(cache.contains(second));
+		assertTrue(cache.contains(third));
+	}
+
+	private static void write(File file, String text) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package easyaccept.script;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import util.ParsingException;
+import util.SymbolTable;
+import util.TestUtils;
+import easyaccept.result.Result;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests the compilation of a whole test suite before execution.
+ * @author jacques
+ */
+public class TestScriptPrecompiler extends TestCase {
+
+	private File directory;
+
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("easyaccept", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	protected void tearDown() throws Exception {
+		File[] files = directory.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			files[i].delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * All syntax errors of all files are found, in file and line order, and
+	 * the compiled scripts are left in the cache.
+	 * @throws Exception
+	 */
+	public void testPrecompile() throws Exception {
+		List<String> fileNames = new ArrayList<String>();
+		for (int i = 0; i < 8; i++) {
+			File file = new File(directory, "script" + i + ".txt");
+			write(file, i % 2 == 0 ? "echo a\necho \"b\n" : "echo a\necho b\necho \"c\necho \"d\n");
+			fileNames.add(file.getPath());
+		}
+		fileNames.add(new File(directory, "missing.txt").getPath());
+
+		CompiledScriptCache cache = new CompiledScriptCache(new ScriptCompiler());
+		List<ParsingException> errors = new ScriptPrecompiler(cache, 3).precompile(fileNames);
+		assertEquals(12, errors.size());
+		assertEquals(fileNames.get(0), errors.get(0).getFileName());
+		assertEquals(2, errors.get(0).getLineNumber());
+		assertEquals(fileNames.get(1), errors.get(1).getFileName());
+		assertEquals(3, errors.get(1).getLineNumber());
+		assertEquals(fileNames.get(1), errors.get(2).getFileName());
+		assertEquals(4, errors.get(2).getLineNumber());
+		assertEquals(8, cache.size());
+
+		// each precompilation starts a suite with its own symbol table
+		SymbolTable symbols = cache.getSymbolTable();
+		assertTrue(symbols.getLookups() > 0);
+		new ScriptPrecompiler(cache, 3).precompile(fileNames);
+		assertNotSame(symbols, cache.getSymbolTable());
+		assertEquals(0, cache.getSymbolTable().getLookups());
+		assertEquals(8, cache.size());
+	}
+
+	/**
+	 * Lines after a change of delimiter the compiler does not follow are not
+	 * reported, and parse with the delimiter set when they execute.
+	 * @throws Exception
+	 */
+	public void testDelimiterSetAtExecution() throws Exception {
+		File file = new File(directory, "script.txt");
+		write(file, "echo \"a\nd=echo '\nstringdelimiter ${d}\necho 'b\"c'\n");
+		List<String> fileNames = new ArrayList<String>();
+		fileNames.add(file.getPath());
+		List<ParsingException> errors = new ScriptPrecompiler(new CompiledScriptCache(new ScriptCompiler()), 1)
+				.precompile(fileNames);
+		assertEquals(1, errors.size());
+		assertEquals(1, errors.get(0).getLineNumber());
+
+		write(file, "d=echo '\nstringdelimiter ${d}\necho 'b\"c'\n");
+		assertTrue(new ScriptPrecompiler(new CompiledScriptCache(new ScriptCompiler()), 1).precompile(fileNames)
+				.isEmpty());
+		Script script = TestUtils.createJavaAppScript(file.getPath(), new TestFacade());
+		assertFalse(script.getAndExecuteCommand().hasError());
+		assertFalse(script.getAndExecuteCommand().hasError());
+		Result result = script.getAndExecuteCommand();
+		assertFalse(result.getErrorMessage(), result.hasError());
+		assertEquals("b\"c", result.getResult());
+	}
+
+	/**
+	 * A suite without syntax errors gives no errors.
+	 * @throws Exception
+	 */
+	public void testNoErrors() throws Exception {
+		List<String> fileNames = new ArrayList<String>();
+		fileNames.add("src/easyaccept/script/test/scriptCompiled.txt");
+		assertTrue(new ScriptPrecompiler().precompile(fileNames).isEmpty());
+	}
+
+	private static void write(File file, String text) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+}
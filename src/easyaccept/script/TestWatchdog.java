@@ -0,0 +1,201 @@
+package easyaccept.script;
+
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+import easyaccept.EasyAcceptException;
+
+/**
+ * Tests the deadlines of calls.
+ * @author jacques
+ */
+public class TestWatchdog extends TestCase {
+
+	private static Callable<String> sleeping(final long millis) {
+		return new Callable<String>() {
+			public String call() throws Exception {
+				Thread.sleep(millis);
+				return "slept";
+			}
+		};
+	}
+
+	/**
+	 * Calls returning before their deadline are not disturbed, leave no timer
+	 * armed, and reuse their worker.
+	 */
+	public void testInTime() throws Exception {
+		Watchdog watchdog = new Watchdog(100);
+		int threads = Thread.activeCount();
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("slept", watchdog.call(sleeping(0), 10000));
+		}
+		assertEquals(1000, watchdog.getCallCount());
+		assertEquals(0, watchdog.getExpiredCount());
+		assertEquals(0, watchdog.getArmedCount());
+		assertTrue(threads + " " + Thread.activeCount(), Thread.activeCount() <= threads + 2);
+		assertEquals(1, watchdog.getIdleCount());
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+	/**
+	 * Exceptions of calls are thrown as they are.
+	 */
+	public void testException() throws Exception {
+		try {
+			new Watchdog(100).call(new Callable<Object>() {
+				public Object call() throws Exception {
+					throw new IllegalStateException("boom");
+				}
+			}, 10000);
+			fail("The call threw an exception");
+		} catch (IllegalStateException e) {
+			assertEquals("boom", e.getMessage());
+		}
+	}
+
+	/**
+	 * Calls are interrupted at their deadline, and the interrupt does not
+	 * outlive them.
+	 */
+	public void testExpired() throws Exception {
+		Watchdog watchdog = new Watchdog(1000);
+		long start = System.currentTimeMillis();
+		try {
+			watchdog.call(sleeping(10000), 100);
+			fail("The call timed out");
+		} catch (EasyAcceptException e) {
+			assertEquals(Watchdog.TIMEOUT_MESSAGE, e.getMessage());
+		}
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertFalse(Thread.currentThread().isInterrupted());
+		assertEquals(1, watchdog.getExpiredCount());
+		assertEquals(1, watchdog.getInterruptedCount());
+		assertEquals(0, watchdog.getStuckCount());
+	}
+
+	/**
+	 * Calls ignoring interruption are counted as stuck, and left behind at the
+	 * end of the grace period, while other calls get another worker.
+	 */
+	public void testStuck() throws Exception {
+		Watchdog watchdog = new Watchdog(50, 1);
+		long start = System.currentTimeMillis();
+		try {
+			watchdog.call(new Callable<Object>() {
+				public Object call() {
+					long end = System.currentTimeMillis() + 500;
+					while (System.currentTimeMillis() < end) {
+						// ignores interruption
+					}
+					return null;
+				}
+			}, 50);
+			fail("The call timed out");
+		} catch (EasyAcceptException e) {
+			assertEquals(Watchdog.TIMEOUT_MESSAGE, e.getMessage());
+		}
+		assertTrue(System.currentTimeMillis() - start < 400);
+		assertFalse(Thread.currentThread().isInterrupted());
+		assertEquals(1, watchdog.getExpiredCount());
+		assertEquals(0, watchdog.getInterruptedCount());
+		assertEquals(1, watchdog.getStuckCount());
+		assertEquals("slept", watchdog.call(sleeping(0), 100));
+	}
+
+	/**
+	 * Calls wait for a worker when all are busy, and their deadline starts
+	 * only once they have one.
+	 */
+	public void testBounded() throws Exception {
+		final Watchdog watchdog = new Watchdog(1000, 1);
+		Thread busy = new Thread() {
+			public void run() {
+				try {
+					watchdog.call(sleeping(500), 10000);
+				} catch (Exception e) {
+					// not expected
+				}
+			}
+		};
+		busy.start();
+		while (watchdog.getCallCount() == 0) {
+			Thread.sleep(1);
+		}
+		Thread.sleep(50);
+		long start = System.currentTimeMillis();
+		assertEquals("slept", watchdog.call(sleeping(0), 100));
+		assertTrue(System.currentTimeMillis() - start >= 300);
+		busy.join();
+		assertEquals(0, watchdog.getExpiredCount());
+	}
+
+	/**
+	 * More concurrent calls than workers all run within their deadlines,
+	 * however long they wait for a worker.
+	 */
+	public void testMoreCallsThanWorkers() throws Exception {
+		final Watchdog watchdog = new Watchdog(1000, 2);
+		final Object[] results = new Object[6];
+		Thread[] callers = new Thread[results.length];
+		for (int i = 0; i < callers.length; i++) {
+			final int caller = i;
+			callers[i] = new Thread() {
+				public void run() {
+					try {
+						results[caller] = watchdog.call(sleeping(150), 300);
+					} catch (Exception e) {
+						results[caller] = e;
+					}
+				}
+			};
+			callers[i].start();
+		}
+		for (int i = 0; i < callers.length; i++) {
+			callers[i].join();
+			assertEquals("slept", results[i]);
+		}
+		assertEquals(6, watchdog.getCallCount());
+		assertEquals(0, watchdog.getExpiredCount());
+	}
+
+	/**
+	 * A caller interrupted while waiting gives up, and the call is
+	 * interrupted too.
+	 */
+	public void testCallerInterrupted() throws Exception {
+		Watchdog watchdog = new Watchdog(1000);
+		final Thread caller = Thread.currentThread();
+		final boolean[] interrupted = new boolean[1];
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				caller.interrupt();
+			}
+		}.start();
+		try {
+			watchdog.call(new Callable<Object>() {
+				public Object call() {
+					try {
+						Thread.sleep(10000);
+					} catch (InterruptedException e) {
+						interrupted[0] = true;
+					}
+					return null;
+				}
+			}, 10000);
+			fail("The caller was interrupted");
+		} catch (InterruptedException e) {
+			// expected
+		}
+		long end = System.currentTimeMillis() + 5000;
+		while (!interrupted[0] && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertTrue(interrupted[0]);
+		assertEquals(0, watchdog.getExpiredCount());
+	}
+}
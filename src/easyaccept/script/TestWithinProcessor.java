@@ -0,0 +1,135 @@
+package easyaccept.script;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import util.TestUtils;
+import easyaccept.result.Result;
+import easyaccept.script.test.TestFacade;
+
+/**
+ * Tests the deadlines of commands and blocks.
+ * @author jacques
+ */
+public class TestWithinProcessor extends TestCase {
+
+	/**
+	 * Durations are given with units.
+	 */
+	public void testParseDuration() {
+		assertEquals(250, Deadline.parseDuration("250ms"));
+		assertEquals(250, Deadline.parseDuration("250"));
+		assertEquals(1500, Deadline.parseDuration("1.5s"));
+		assertEquals(120000, Deadline.parseDuration("2m"));
+		String[] invalid = { "", "ms", "-1s", "0", "1h", "abc" };
+		for (int i = 0; i < invalid.length; i++) {
+			try {
+				Deadline.parseDuration(invalid[i]);
+				fail("Invalid duration: " + invalid[i]);
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * A nested deadline cannot be later than the enclosing one.
+	 */
+	public void testNesting() {
+		assertNull(Deadline.current());
+		Deadline outer = Deadline.enter(1000);
+		Deadline inner = Deadline.enter(60000);
+		assertSame(inner, Deadline.current());
+		assertTrue(inner.getRemaining() <= 1000);
+		Deadline innermost = Deadline.enter(10);
+		assertTrue(innermost.getRemaining() <= 10);
+		innermost.exit();
+		inner.exit();
+		assertSame(outer, Deadline.current());
+		outer.exit();
+		assertNull(Deadline.current());
+	}
+
+	/**
+	 * Commands fail when they do not end within their deadline.
+	 */
+	public void testScript() throws Exception {
+		Script script = TestUtils.createJavaAppScript("src/easyaccept/script/test/scriptWithin.txt",
+				new TestFacade());
+		long start = System.currentTimeMillis();
+		Result result;
+		int count = 0;
+		while ((result = script.getAndExecuteCommand()) != null) {
+			assertFalse(result.getCommand() + ": " + result.getErrorMessage(), result.hasError());
+			count++;
+		}
+		assertEquals(7, count);
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertNull(Deadline.current());
+	}
+
+	/**
+	 * The timeout of facade calls applies within blocks too.
+	 */
+	public void testTimeout() throws Exception {
+		Script script = TestUtils.createJavaAppScript("src/easyaccept/script/test/scriptWithin.txt",
+				new TestFacade());
+		script.setTimeout(5);
+		Result result = script.getAndExecuteCommand();
+		assertTrue(result.hasError());
+		assertEquals("Line 1, file src/easyaccept/script/test/scriptWithin.txt: Unexpected error: "
+				+ Watchdog.TIMEOUT_MESSAGE, result.getErrorMessage());
+	}
+
+	/**
+	 * The lines of a block are bounded by its deadline; blocks nest, and must
+	 * be lines of their own.
+	 */
+	public void testBlocks() throws Exception {
+		Script script = TestUtils.createJavaAppScript("src/easyaccept/script/test/scriptWithinBlock.txt",
+				new TestFacade());
+		for (int line = 1; line <= 9; line++) {
+			Result result = script.getAndExecuteCommand();
+			assertFalse(line + ": " + result.getErrorMessage(), result.hasError());
+		}
+		for (int line = 10; line <= 11; line++) {
+			Result result = script.getAndExecuteCommand();
+			assertTrue(result.hasError());
+			assertEquals(Watchdog.TIMEOUT_MESSAGE, result.getErrorMessage());
+		}
+		assertNull(Deadline.current());
+		assertFalse(script.getAndExecuteCommand().hasError());
+		Result result = script.getAndExecuteCommand();
+		assertTrue(result.getErrorMessage().endsWith("endWithin without beginWithin"));
+		result = script.getAndExecuteCommand();
+		assertTrue(result.getErrorMessage().endsWith("beginWithin must be a command of its own, not the command of another"));
+		assertNull(Deadline.current());
+		assertFalse(script.getAndExecuteCommand().hasError());
+		assertNotNull(Deadline.current());
+		assertNull(script.getAndExecuteCommand());
+		assertNull(Deadline.current());
+	}
+
+	/**
+	 * A script executed on the thread pool runs within the deadline of the
+	 * block that submitted it.
+	 */
+	public void testThreadPool() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		ExecutorService previous = ThreadPoolProcessor.threadPool;
+		ThreadPoolProcessor.threadPool = pool;
+		Deadline deadline = Deadline.enter(200);
+		try {
+			Script script = TestUtils.createJavaAppScript("src/easyaccept/script/test/scriptWithinPool.txt",
+					new TestFacade());
+			assertFalse(script.getAndExecuteCommand().hasError());
+		} finally {
+			deadline.exit();
+			ThreadPoolProcessor.threadPool = previous;
+		}
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(3, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,403 @@
+package easyaccept.script;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import easyaccept.CommandTimeoutException;
+
+/**
+ * A watchdog bounding the time of calls. A call runs on a worker thread taken
+ * from a bounded pool, while the calling thread waits for it and a timer
+ * shared by all calls is armed for its deadline. The deadline starts once the
+ * call has a worker: a call waiting for one while the pool is busy does not
+ * lose its time, and cannot time out before it runs. If the call has not returned
+ * when the timer expires, its worker is interrupted, and the call fails with a
+ * timeout whatever its outcome. Arming and disarming a timer costs about as
+ * much as an object allocation, and workers are reused from call to call.
+ * <p>
+ * A call that ignores interruption and is still running some time after its
+ * deadline (the grace period) is counted as stuck (see
+ * {@link #getStuckCount()}): the caller gets its timeout then, and the worker
+ * is left behind, to end when the call returns. It no longer counts against
+ * the bound of the pool, so stuck calls cannot starve the others.
+ *
+ * @author jacques
+ */
+public class Watchdog {
+
+	/**
+	 * The message of the exception thrown when a call times out.
+	 */
+	public static final String TIMEOUT_MESSAGE = "EasyAccept timeout: command timed out!";
+
+	/**
+	 * The default time after its deadline at which a call still running is
+	 * counted as stuck, in milliseconds.
+	 */
+	public static final long DEFAULT_GRACE_PERIOD = 1000;
+
+	/**
+	 * The property giving the number of workers of the shared watchdog.
+	 */
+	public static final String WORKERS_PROPERTY = "easyaccept.watchdog.workers";
+	public static final int DEFAULT_WORKERS = 64;
+
+	/**
+	 * The time an idle worker waits for a call before it ends, in
+	 * milliseconds.
+	 */
+	private static final long KEEP_ALIVE = 60000;
+
+	private static final int RUNNING = 0;
+	private static final int DONE = 1;
+	private static final int EXPIRING = 2;
+	private static final int INTERRUPTED = 3;
+	private static final int STUCK = 4;
+
+	private static final Watchdog shared = new Watchdog(DEFAULT_GRACE_PERIOD, Integer.getInteger(WORKERS_PROPERTY,
+			DEFAULT_WORKERS).intValue());
+
+	private final ScheduledThreadPoolExecutor timer;
+	private final long gracePeriod;
+	/**
+	 * A permit for each worker that may run a call; the permit of a stuck
+	 * call is given back when it is left behind.
+	 */
+	private final Semaphore permits;
+	private final ConcurrentLinkedDeque<Worker> idle = new ConcurrentLinkedDeque<Worker>();
+	private final AtomicInteger workerNumber = new AtomicInteger();
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicLong interrupted = new AtomicLong();
+	private final AtomicLong stuck = new AtomicLong();
+
+	/**
+	 * The state of a call, changed either by its worker when the call returns
+	 * or by the timer when it expires.
+	 */
+	private class Watch<T> implements Runnable {
+		final Callable<T> call;
+		final Thread worker;
+		final AtomicInteger state = new AtomicInteger(RUNNING);
+		final CountDownLatch finished = new CountDownLatch(1);
+		T result;
+		Throwable failure;
+		boolean inTime;
+
+		Watch(Callable<T> call, Thread worker) {
+			this.call = call;
+			this.worker = worker;
+		}
+
+		/**
+		 * Expire the call at its deadline.
+		 */
+		public void run() {
+			expire(true);
+		}
+
+		/**
+		 * Interrupt the call, and leave its worker behind if it is still
+		 * running at the end of the grace period.
+		 * @param deadline
+		 * 			true if the deadline passed, false if the caller gave up.
+		 */
+		void expire(boolean deadline) {
+			if (!state.compareAndSet(RUNNING, EXPIRING)) {
+				return;
+			}
+			if (deadline) {
+				expired.incrementAndGet();
+			}
+			worker.interrupt();
+			state.set(INTERRUPTED);
+			timer.schedule(new Runnable() {
+				public void run() {
+					if (state.compareAndSet(INTERRUPTED, STUCK)) {
+						stuck.incrementAndGet();
+						permits.release();
+						finish();
+					}
+				}
+			}, gracePeriod, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Make the call on its worker; the caller is told once the worker
+		 * is back in the pool (see {@link #finish()}).
+		 * @return
+		 * 			true if the call was left behind as stuck.
+		 */
+		boolean execute() {
+			if (state.get() == RUNNING) {
+				// else it expired before its worker took it
+				try {
+					result = call.call();
+				} catch (Throwable e) {
+					failure = e;
+				}
+			}
+			return end();
+		}
+
+		/**
+		 * Tell the caller the call ended.
+		 */
+		void finish() {
+			finished.countDown();
+		}
+
+		private boolean end() {
+			if (state.compareAndSet(RUNNING, DONE)) {
+				inTime = true;
+				return false;
+			}
+			while (state.get() == EXPIRING) {
+				Thread.yield();
+			}
+			if (state.compareAndSet(INTERRUPTED, DONE)) {
+				interrupted.incrementAndGet();
+				// the interrupt delivered by the watchdog was meant for the call only
+				Thread.interrupted();
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A thread making calls, one at a time, and waiting in the idle workers
+	 * between them.
+	 */
+	private class Worker extends Thread {
+		private Watch<?> task;
+
+		Worker() {
+			super("EasyAccept watchdog worker " + workerNumber.incrementAndGet());
+			setDaemon(true);
+		}
+
+		synchronized void execute(Watch<?> watch) {
+			task = watch;
+			notify();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Watch<?> watch;
+				synchronized (this) {
+					long end = System.currentTimeMillis() + KEEP_ALIVE;
+					while (task == null) {
+						long wait = end - System.currentTimeMillis();
+						try {
+							if (wait > 0) {
+								wait(wait);
+							} else if (idle.remove(this)) {
+								return;
+							} else {
+								// taken by a caller: its call is coming
+								wait();
+							}
+						} catch (InterruptedException e) {
+							// an interrupt meant for a call that already ended
+						}
+					}
+					watch = task;
+					task = null;
+				}
+				// an interrupt for the call comes once its state is checked
+				Thread.interrupted();
+				if (watch.execute()) {
+					// left behind: the pool has another worker instead
+					watch.finish();
+					return;
+				}
+				idle.push(this);
+				permits.release();
+				watch.finish();
+			}
+		}
+	}
+
+	/**
+	 * The Watchdog constructor, with a pool of {@link #DEFAULT_WORKERS}
+	 * workers.
+	 * @param gracePeriod
+	 * 			The time after its deadline at which a call still running is
+	 * 			left behind as stuck, in milliseconds.
+	 */
+	public Watchdog(long gracePeriod) {
+		this(gracePeriod, DEFAULT_WORKERS);
+	}
+
+	/**
+	 * The Watchdog constructor.
+	 * @param gracePeriod
+	 * 			The time after its deadline at which a call still running is
+	 * 			left behind as stuck, in milliseconds.
+	 * @param workers
+	 * 			The number of calls that may run at once, not counting stuck
+	 * 			calls; other calls wait for a worker before their deadline
+	 * 			starts.
+	 */
+	public Watchdog(long gracePeriod, int workers) {
+		this.gracePeriod = gracePeriod;
+		this.permits = new Semaphore(Math.max(workers, 1));
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "EasyAccept watchdog");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Obtain the watchdog shared by all scripts. Its number of workers is
+	 * given by the <code>easyaccept.watchdog.workers</code> property.
+	 * @return
+	 * 			The watchdog.
+	 */
+	public static Watchdog getShared() {
+		return shared;
+	}
+
+	/**
+	 * Make a call on a worker, interrupting it at its deadline.
+	 * @param call
+	 * 			The call.
+	 * @param timeout
+	 * 			The time allowed to the call, in milliseconds.
+	 * @return
+	 * 			The result of the call.
+	 * @throws CommandTimeoutException
+	 * 			if the call did not return before its deadline.
+	 * @throws Exception
+	 * 			the exception thrown by the call.
+	 */
+	public <T> T call(Callable<T> call, long timeout) throws Exception {
+		return call(call, timeout, null);
+	}
+
+	/**
+	 * Make a call on a worker, interrupting it at its deadline. The calling
+	 * thread waits for a worker, then until the call returns, or until the end
+	 * of the grace period if the call ignores interruption. A worker is given
+	 * back at the latest at the end of the grace period of its call, so the
+	 * wait for one is bounded.
+	 * @param call
+	 * 			The call.
+	 * @param timeout
+	 * 			The time allowed to the call once it has a worker, in
+	 * 			milliseconds.
+	 * @param deadline
+	 * 			A description of the deadline, added to the message of the
+	 * 			timeout, or null.
+	 * @return
+	 * 			The result of the call.
+	 * @throws CommandTimeoutException
+	 * 			if the call did not return before its deadline.
+	 * @throws InterruptedException
+	 * 			if the calling thread is interrupted; the call is interrupted
+	 * 			too, or not made if it is still waiting for a worker.
+	 * @throws Exception
+	 * 			the exception thrown by the call.
+	 */
+	public <T> T call(Callable<T> call, long timeout, String deadline) throws Exception {
+		calls.incrementAndGet();
+		permits.acquire();
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		Watch<T> watch;
+		try {
+			Worker worker = idle.poll();
+			if (worker == null) {
+				worker = new Worker();
+				worker.start();
+			}
+			watch = new Watch<T>(call, worker);
+			worker.execute(watch);
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		} catch (Error e) {
+			permits.release();
+			throw e;
+		}
+		ScheduledFuture<?> alarm = timer.schedule(watch, Math.max(end - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+		try {
+			watch.finished.await();
+		} catch (InterruptedException e) {
+			alarm.cancel(false);
+			watch.expire(false);
+			throw e;
+		}
+		alarm.cancel(false);
+		if (!watch.inTime) {
+			throw timeout(deadline);
+		} else if (watch.failure instanceof Error) {
+			throw (Error) watch.failure;
+		} else if (watch.failure != null) {
+			throw (Exception) watch.failure;
+		}
+		return watch.result;
+	}
+
+	private static CommandTimeoutException timeout(String deadline) {
+		return new CommandTimeoutException(deadline == null ? TIMEOUT_MESSAGE : TIMEOUT_MESSAGE + " (" + deadline + ")");
+	}
+
+	/**
+	 * @return The number of calls made.
+	 */
+	public long getCallCount() {
+		return calls.get();
+	}
+
+	/**
+	 * @return The number of calls that did not return before their deadline.
+	 */
+	public long getExpiredCount() {
+		return expired.get();
+	}
+
+	/**
+	 * @return The number of expired calls that returned within the grace
+	 *         period, once interrupted.
+	 */
+	public long getInterruptedCount() {
+		return interrupted.get();
+	}
+
+	/**
+	 * @return The number of calls still running at the end of the grace
+	 *         period after their deadline, whose workers were left behind.
+	 */
+	public long getStuckCount() {
+		return stuck.get();
+	}
+
+	/**
+	 * @return The number of timers armed, for calls running or for the grace
+	 *         period of expired calls.
+	 */
+	public int getArmedCount() {
+		return timer.getQueue().size();
+	}
+
+	/**
+	 * @return The number of workers waiting for a call.
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+}
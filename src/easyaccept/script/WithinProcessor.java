@@ -0,0 +1,69 @@
+package easyaccept.script;
+
+import util.ParsedLine;
+import easyaccept.CommandTimeoutException;
+import easyaccept.EasyAcceptException;
+import easyaccept.result.Result;
+
+/**
+ * Handles calls to EasyAccept's internal command <code>within</code>. This
+ * command executes a given script command, failing with a timeout if it does
+ * not end within a given time.
+ * <p>
+ * <code>within</code> command has syntax:
+ * <p>
+ * <blockquote>
+ * 
+ * <pre>
+ * within &lt;duration&gt; &lt;anyCommand...&gt;
+ * </pre>
+ * 
+ * </blockquote>
+ * <p>
+ * where the duration is a number of milliseconds, optionally followed by
+ * <code>ms</code>, or a number followed by <code>s</code> (seconds) or
+ * <code>m</code> (minutes). The deadline applies to every facade call of the
+ * command, which is interrupted when it passes, including the calls of
+ * commands such as <code>repeat</code>. A <code>within</code> inside another
+ * cannot extend the deadline of the outer one. Otherwise, the result or error
+ * of the command is the result or error of <code>within</code>. A deadline
+ * for several lines is given by a block (see {@link BeginWithinProcessor}).
+ * 
+ * @author jacques
+ */
+public class WithinProcessor implements Command {
+
+	/**
+	 * Execute the within command.
+	 */
+	public Object execute(Script script, ParsedLine parsedLine) throws Exception {
+		if (parsedLine.numberOfParameters() < 3) {
+			throw new EasyAcceptException(script.getFileName(), script.getLineNumber(),
+					"Syntax error: within <duration> <command ...>");
+		}
+		long millis;
+		try {
+			millis = Deadline.parseDuration(parsedLine.getParameter(1).getValueAsString());
+		} catch (NumberFormatException e) {
+			throw new EasyAcceptException(script.getFileName(), script.getLineNumber(),
+					"Syntax error: within <duration> <command ...>");
+		}
+		Deadline deadline = Deadline.enter(millis);
+		Result result;
+		try {
+			result = script.executeCommand(parsedLine.subLine(2));
+		} finally {
+			deadline.exit();
+		}
+		Throwable exception = result.getException();
+		if (exception instanceof Exception) {
+			throw (Exception) exception;
+		} else if (exception != null) {
+			throw (Error) exception;
+		}
+		if (deadline.getRemaining() <= 0) {
+			throw new CommandTimeoutException(Watchdog.TIMEOUT_MESSAGE);
+		}
+		return result.getResult();
+	}
+}
@@ -1,5 +1,10 @@
 package easyaccept.script.test;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * A facade used in EasyAccept unit tests.
@@ -7,6 +12,10 @@ package easyaccept.script.test;
  * @author jacques
  */
 public class TestFacade {
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger mostInFlight = new AtomicInteger();
+	private CompletableFuture<String> never;
 	
 	/**
 	 * Return a default string that will be the test command.  
@@ -141,5 +150,95 @@ public class TestFacade {
 	public String returnParam(String param) {
 		return param;
 	}
-	
-}
\ No newline at end of file
+	/**
+	 * Wait for some time.
+	 * @param millis
+	 * 			The time to wait, in milliseconds.
+	 * @return
+	 * 			"slept".
+	 * @throws InterruptedException
+	 */
+	public String sleep(int millis) throws InterruptedException {
+		Thread.sleep(millis);
+		return "slept";
+	}
+	/**
+	 * Return a value later, from another thread.
+	 * @param value
+	 * 			The value.
+	 * @param millis
+	 * 			The time before the value is given, in milliseconds.
+	 * @return
+	 * 			The future value.
+	 */
+	public CompletableFuture<String> later(final String value, final int millis) {
+		return CompletableFuture.supplyAsync(new Supplier<String>() {
+			public String get() {
+				try {
+					Thread.sleep(millis);
+				} catch (InterruptedException e) {
+					throw new CompletionException(e);
+				}
+				return value;
+			}
+		});
+	}
+	/**
+	 * Return a future failing with an Exception.
+	 * @param message
+	 * 			The message of the Exception.
+	 * @return
+	 * 			The failed future.
+	 */
+	public Future<String> failLater(String message) {
+		CompletableFuture<String> future = new CompletableFuture<String>();
+		future.completeExceptionally(new Exception(message));
+		return future;
+	}
+	/**
+	 * Return a future that is never completed.
+	 * @return
+	 * 			The future.
+	 */
+	public CompletableFuture<String> never() {
+		never = new CompletableFuture<String>();
+		return never;
+	}
+	/**
+	 * Inform if the last future returned by never was cancelled.
+	 * @return
+	 * 			true if it was cancelled.
+	 */
+	public boolean neverCancelled() {
+		return never != null && never.isCancelled();
+	}
+	/**
+	 * Wait for some time, counting the calls waiting at once.
+	 * @param millis
+	 * 			The time to wait, in milliseconds.
+	 * @return
+	 * 			"tracked".
+	 * @throws InterruptedException
+	 */
+	public String track(int millis) throws InterruptedException {
+		int now = inFlight.incrementAndGet();
+		int most;
+		while (now > (most = mostInFlight.get()) && !mostInFlight.compareAndSet(most, now)) {
+		}
+		try {
+			Thread.sleep(millis);
+		} finally {
+			inFlight.decrementAndGet();
+		}
+		return "tracked";
+	}
+	/**
+	 * Obtain the most calls of track waiting at once.
+	 * @return
+	 * 			The number of calls.
+	 */
+	public int mostInFlight() {
+		return mostInFlight.get();
+	}
+
+}
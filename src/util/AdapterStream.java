@@ -72,5 +72,11 @@ public class AdapterStream implements Stream {
 		
 		return stream.getLineNumber();
 	}
+	/**
+	 * Position the stream at the start of a line.
+	 */
+	public void seekLine(int line) throws IOException {
+		stream.seekLine(line);
+	}
 
 }
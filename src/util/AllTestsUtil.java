@@ -29,6 +29,11 @@ public class AllTestsUtil {
 		suite.addTestSuite(TestLogicalLineReader.class);
 		suite.addTestSuite(TestParsedLineReader.class);
 		suite.addTestSuite(TestParameterTypeConverter.class);
+		suite.addTestSuite(TestConverterRegistry.class);
+		suite.addTestSuite(TestScriptLexer.class);
+		suite.addTestSuite(TestSymbolTable.class);
+		suite.addTestSuite(TestLineIndex.class);
+		suite.addTestSuite(TestParsedLine.class);
 		//$JUnit-END$
 		return suite;
 	}
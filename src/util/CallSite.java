@@ -0,0 +1,125 @@
+package util;
+
+/**
+ * The inline cache of a command: what executing it resolved the last time, kept
+ * so that executing it again need not resolve it again. Each parsed line has a
+ * call site; the lines of a compiled script share the call site of their
+ * compiled line across executions, and a sub line has a call site of its own,
+ * kept by the call site of its line.
+ * <p>
+ * A call site keeps two bindings: the <em>command</em>, set by the script (the
+ * internal command the line executes, if any), and the <em>binding</em>, set by
+ * the facade (the method it calls, with its converted constant arguments). A
+ * call site does not interpret its bindings: whoever sets a binding keeps in it
+ * what is needed to check that it still applies, and replaces it when it does
+ * not. Bindings are replaced as a whole, so a call site can be shared by
+ * concurrent threads.
+ * <p>
+ * A call site knows which parameters of its line are constant: those not
+ * obtained from variables. Parameters of lines that are not compiled are never
+ * constant.
+ *
+ * @author jacques
+ */
+public class CallSite {
+
+	/**
+	 * Whether each parameter is constant, or null if none is.
+	 */
+	private final boolean[] constant;
+	private volatile Object command;
+	private volatile Object binding;
+	/**
+	 * The call sites of the sub lines, by number of parameters skipped.
+	 */
+	private CallSite[] subSites;
+
+	/**
+	 * Construct a call site for a line without constant parameters.
+	 */
+	public CallSite() {
+		this(null);
+	}
+
+	/**
+	 * The CallSite constructor.
+	 * @param constant
+	 * 			Whether each parameter of the line is constant, or null if none
+	 * 			is.
+	 */
+	public CallSite(boolean[] constant) {
+		this.constant = constant;
+	}
+
+	/**
+	 * Inform if a parameter is the same at every execution of the line.
+	 * @param parameter
+	 * 			The parameter position.
+	 * @return
+	 * 			true if the parameter is constant.
+	 */
+	public boolean isConstant(int parameter) {
+		return constant != null && parameter < constant.length && constant[parameter];
+	}
+
+	/**
+	 * @return
+	 * 			The command binding, or null if there is none.
+	 */
+	public Object getCommand() {
+		return command;
+	}
+
+	/**
+	 * @param command
+	 * 			The new command binding.
+	 */
+	public void setCommand(Object command) {
+		this.command = command;
+	}
+
+	/**
+	 * @return
+	 * 			The facade binding, or null if there is none.
+	 */
+	public Object getBinding() {
+		return binding;
+	}
+
+	/**
+	 * @param binding
+	 * 			The new facade binding.
+	 */
+	public void setBinding(Object binding) {
+		this.binding = binding;
+	}
+
+	/**
+	 * Obtain the call site of a sub line, creating it if necessary.
+	 * @param skip
+	 * 			The number of parameters the sub line skips.
+	 * @return
+	 * 			The call site.
+	 */
+	public synchronized CallSite getSubSite(int skip) {
+		if (skip == 0) {
+			return this;
+		}
+		if (subSites == null || skip >= subSites.length) {
+			CallSite[] larger = new CallSite[skip + 1];
+			if (subSites != null) {
+				System.arraycopy(subSites, 0, larger, 0, subSites.length);
+			}
+			subSites = larger;
+		}
+		if (subSites[skip] == null) {
+			boolean[] subConstant = null;
+			if (constant != null && skip < constant.length) {
+				subConstant = new boolean[constant.length - skip];
+				System.arraycopy(constant, skip, subConstant, 0, subConstant.length);
+			}
+			subSites[skip] = new CallSite(subConstant);
+		}
+		return subSites[skip];
+	}
+}
@@ -0,0 +1,308 @@
+package util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Reads script files in large blocks through a FileChannel and decodes them
+ * into a CharBuffer whose array can be scanned directly, avoiding a method
+ * call per character.
+ * <p>
+ * A ChannelDecoder is reused for all files read by its owner: the
+ * CharsetDecoder is reset between files and only replaced when the encoding
+ * changes. The byte and character buffers are taken from a pool shared by all
+ * decoders and returned to it by {@link #release()}.
+ * <p>
+ * Script files are decoded with the encoding given by the
+ * <code>easyaccept.file.encoding</code> property or, if it is not set, with
+ * the platform's default encoding. As with a Reader, malformed input is
+ * replaced rather than reported.
+ * <p>
+ * The length and CRC-32 checksum of the bytes read from a file are kept as it
+ * is decoded, so that a file can be identified without being read twice.
+ * <p>
+ * The decoder can feed the bytes it reads to a {@link LineIndex}, so that a
+ * file is indexed as it is read, and can be positioned at a byte offset where
+ * a line starts.
+ *
+ * @author jacques
+ */
+public class ChannelDecoder {
+
+	/**
+	 * The property naming the encoding of script files.
+	 */
+	public static final String ENCODING_PROPERTY = "easyaccept.file.encoding";
+
+	/**
+	 * The size of the pooled buffers, in bytes and characters.
+	 */
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final Queue<ByteBuffer> byteBufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final Queue<CharBuffer> charBufferPool = new ConcurrentLinkedQueue<CharBuffer>();
+
+	private CharsetDecoder decoder;
+	private FileInputStream in;
+	private FileChannel channel;
+	private ByteBuffer bytes;
+	private CharBuffer chars;
+	private boolean endOfInput;
+	private boolean finished;
+	private final CRC32 checksum = new CRC32();
+	private long length;
+	private LineIndex lineIndex;
+
+	/**
+	 * Obtain the encoding of script files.
+	 * @return
+	 * 			The charset.
+	 * @throws UnsupportedEncodingException
+	 * 			if the encoding given by the property is not supported.
+	 */
+	public static Charset getScriptCharset() throws UnsupportedEncodingException {
+		String encoding = System.getProperty(ENCODING_PROPERTY);
+		if (encoding == null) {
+			return Charset.defaultCharset();
+		}
+		try {
+			return Charset.forName(encoding);
+		} catch (IllegalCharsetNameException e) {
+			throw new UnsupportedEncodingException(encoding);
+		} catch (UnsupportedCharsetException e) {
+			throw new UnsupportedEncodingException(encoding);
+		}
+	}
+
+	/**
+	 * Open a file for decoding, closing the file previously open.
+	 * @param fileName
+	 * 			The name of the file.
+	 * @throws FileNotFoundException
+	 * 			if the file cannot be opened.
+	 * @throws UnsupportedEncodingException
+	 * 			if the script file encoding is not supported.
+	 */
+	public void open(String fileName) throws FileNotFoundException, UnsupportedEncodingException {
+		close();
+		Charset charset = getScriptCharset();
+		if (decoder == null || !decoder.charset().equals(charset)) {
+			decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(
+					CodingErrorAction.REPLACE);
+		} else {
+			decoder.reset();
+		}
+		in = new FileInputStream(fileName);
+		channel = in.getChannel();
+		if (bytes == null) {
+			bytes = takeByteBuffer();
+			chars = takeCharBuffer();
+		}
+		bytes.clear();
+		chars.clear();
+		chars.flip();
+		endOfInput = false;
+		finished = false;
+		checksum.reset();
+		length = 0;
+		lineIndex = null;
+	}
+
+	/**
+	 * Position the decoder at a byte offset of the file. The offset must be
+	 * the start of a character; the bytes read are no longer indexed.
+	 * @param offset
+	 * 			The byte offset.
+	 * @throws IOException
+	 */
+	public void seek(long offset) throws IOException {
+		channel.position(offset);
+		decoder.reset();
+		bytes.clear();
+		chars.clear();
+		chars.flip();
+		endOfInput = false;
+		finished = false;
+		checksum.reset();
+		length = 0;
+		lineIndex = null;
+	}
+
+	/**
+	 * Give the bytes of the file, as they are read, to an index. Must be set
+	 * before the first fill().
+	 * @param index
+	 * 			The index, or null.
+	 */
+	public void setLineIndex(LineIndex index) {
+		this.lineIndex = index;
+	}
+
+	/**
+	 * Obtain the index of the file, once the whole file was read.
+	 * @return
+	 * 			The index given by setLineIndex(), or null if the file was not
+	 * 			read from start to end.
+	 */
+	public LineIndex getCompleteLineIndex() {
+		return finished ? lineIndex : null;
+	}
+
+	/**
+	 * Decode the next block of the file. The characters decoded are available
+	 * from {@link #getArray()}, from position 0 to the value returned.
+	 * @return
+	 * 			The number of characters decoded; 0 at the end of the file.
+	 * @throws IOException
+	 */
+	public int fill() throws IOException {
+		chars.clear();
+		while (chars.position() == 0 && !finished) {
+			int start = bytes.position();
+			if (!endOfInput && bytes.hasRemaining()) {
+				int count = channel.read(bytes);
+				if (count < 0) {
+					endOfInput = true;
+				} else if (lineIndex != null) {
+					lineIndex.scan(bytes.array(), start, count);
+				}
+			}
+			checksum.update(bytes.array(), start, bytes.position() - start);
+			length += bytes.position() - start;
+			bytes.flip();
+			CoderResult result = decoder.decode(bytes, chars, endOfInput);
+			bytes.compact();
+			if (result.isError()) {
+				result.throwException();
+			}
+			if (endOfInput && result.isUnderflow() && decoder.flush(chars).isUnderflow()) {
+				finished = true;
+			}
+		}
+		chars.flip();
+		return chars.limit();
+	}
+
+	/**
+	 * Obtain the number of bytes read from the file since it was opened or
+	 * positioned.
+	 * @return
+	 * 			The number of bytes; the length of the file once it is decoded
+	 * 			from the start.
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Obtain the CRC-32 checksum of the bytes read from the file since it was
+	 * opened or positioned.
+	 * @return
+	 * 			The checksum; that of the whole file once it is decoded from the
+	 * 			start.
+	 */
+	public long getChecksum() {
+		return checksum.getValue();
+	}
+
+	/**
+	 * Obtain the array holding the characters decoded by the last fill().
+	 * @return
+	 * 			The character array.
+	 */
+	public char[] getArray() {
+		return chars.array();
+	}
+
+	/**
+	 * Close the file being decoded. The buffers are kept for the next file.
+	 */
+	public void close() {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+			in = null;
+			channel = null;
+		}
+	}
+
+	/**
+	 * Close the file being decoded and give the buffers back to the pool.
+	 */
+	public void release() {
+		close();
+		if (bytes != null) {
+			byteBufferPool.offer(bytes);
+			charBufferPool.offer(chars);
+			bytes = null;
+			chars = null;
+		}
+	}
+
+	/**
+	 * Read a whole file through its channel.
+	 * @param file
+	 * 			The file.
+	 * @return
+	 * 			The file contents.
+	 * @throws IOException
+	 */
+	public static byte[] readFully(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+			while (content.hasRemaining() && channel.read(content) >= 0) {
+			}
+			if (content.hasRemaining()) {
+				// the file became shorter while it was read
+				byte[] shorter = new byte[content.position()];
+				System.arraycopy(content.array(), 0, shorter, 0, shorter.length);
+				return shorter;
+			}
+			return content.array();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Decode the contents of a script file.
+	 * @param content
+	 * 			The file contents.
+	 * @return
+	 * 			The decoded characters.
+	 * @throws UnsupportedEncodingException
+	 * 			if the script file encoding is not supported.
+	 */
+	public static String decode(byte[] content) throws UnsupportedEncodingException {
+		return new String(content, getScriptCharset());
+	}
+
+	private static ByteBuffer takeByteBuffer() {
+		ByteBuffer buffer = byteBufferPool.poll();
+		return buffer == null ? ByteBuffer.allocate(BUFFER_SIZE) : buffer;
+	}
+
+	private static CharBuffer takeCharBuffer() {
+		CharBuffer buffer = charBufferPool.poll();
+		return buffer == null ? CharBuffer.allocate(BUFFER_SIZE) : buffer;
+	}
+}
@@ -0,0 +1,23 @@
+package util;
+
+/**
+ * Converts the text of a script argument to the type of a facade method
+ * parameter. Converters are registered in a {@link ConverterRegistry}, one per
+ * type, and may be used by several threads at once.
+ *
+ * @author jacques
+ */
+public interface Converter {
+
+	/**
+	 * Convert an argument.
+	 * @param value
+	 * 			The argument text.
+	 * @return
+	 * 			The converted value.
+	 * @throws Exception
+	 * 			if the text cannot be converted; the registry reports it as a
+	 * 			{@link ConverterException}.
+	 */
+	Object convert(String value) throws Exception;
+}
@@ -0,0 +1,307 @@
+package util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the {@link Converter} of each parameter type. The converter of a type
+ * is resolved the first time the type is converted to and then reused, so
+ * converting an argument costs a map lookup and the conversion itself.
+ * <p>
+ * Converters are resolved, in order, as:
+ * <ul>
+ * <li>the converter registered for the type;</li>
+ * <li>no conversion, for types a String can be assigned to;</li>
+ * <li>a parser, for primitive and wrapper types (<code>char</code> takes a
+ * single character);</li>
+ * <li><code>Enum.valueOf</code>, for enum types;</li>
+ * <li>the public constructor taking a String;</li>
+ * <li>a public static <code>valueOf</code> or <code>parse</code> method taking a
+ * String (or a CharSequence) and returning the type.</li>
+ * </ul>
+ * The registry is safe for use by concurrent threads.
+ *
+ * @author jacques
+ */
+public class ConverterRegistry {
+
+	private static final ConverterRegistry defaultRegistry = new ConverterRegistry();
+
+	/**
+	 * Marks the types that cannot be converted to.
+	 */
+	private static final Converter NO_CONVERTER = new Converter() {
+		public Object convert(String value) throws Exception {
+			throw new UnsupportedOperationException();
+		}
+	};
+
+	private static final Converter IDENTITY = new Converter() {
+		public Object convert(String value) {
+			return value;
+		}
+	};
+
+	private final ConcurrentMap<Class<?>, Converter> converters = new ConcurrentHashMap<Class<?>, Converter>();
+
+	/**
+	 * Obtain the registry used to convert the arguments of facade methods.
+	 * @return
+	 * 			The default registry.
+	 */
+	public static ConverterRegistry getDefault() {
+		return defaultRegistry;
+	}
+
+	/**
+	 * Register the converter of a type, replacing the converter it had.
+	 * @param type
+	 * 			The type.
+	 * @param converter
+	 * 			The converter.
+	 */
+	public void register(Class<?> type, Converter converter) {
+		converters.put(type, converter);
+	}
+
+	/**
+	 * Obtain the converter of a type.
+	 * @param type
+	 * 			The type.
+	 * @return
+	 * 			The converter, or null if values of the type cannot be converted
+	 * 			from text.
+	 */
+	public Converter getConverter(Class<?> type) {
+		Converter converter = converters.get(type);
+		if (converter == null) {
+			converter = resolve(type);
+			Converter previous = converters.putIfAbsent(type, converter);
+			if (previous != null) {
+				converter = previous;
+			}
+		}
+		return converter == NO_CONVERTER ? null : converter;
+	}
+
+	/**
+	 * Convert an argument to a type.
+	 * @param type
+	 * 			The type.
+	 * @param value
+	 * 			The argument text.
+	 * @return
+	 * 			The converted value.
+	 * @throws ConverterException
+	 * 			if there is no converter for the type or the conversion fails.
+	 */
+	public Object convert(Class<?> type, String value) throws ConverterException {
+		return convert(getConverter(type), type, value);
+	}
+
+	/**
+	 * Convert an argument with a converter obtained from the registry.
+	 * @param converter
+	 * 			The converter of the type, or null if it has none.
+	 * @param type
+	 * 			The type.
+	 * @param value
+	 * 			The argument text.
+	 * @return
+	 * 			The converted value.
+	 * @throws ConverterException
+	 * 			if there is no converter or the conversion fails.
+	 */
+	public Object convert(Converter converter, Class<?> type, String value) throws ConverterException {
+		if (converter != null) {
+			try {
+				return converter.convert(value);
+			} catch (Exception e) {
+				// reported below
+			}
+		}
+		throw failure(type, value);
+	}
+
+	/**
+	 * Create the exception reporting that an argument cannot be converted.
+	 * @param type
+	 * 			The type.
+	 * @param value
+	 * 			The argument text.
+	 * @return
+	 * 			The exception.
+	 */
+	public static ConverterException failure(Class<?> type, String value) {
+		return new ConverterException("Problems during Type Conversion - " + value + " to " + wrapper(type).toString());
+	}
+
+	/**
+	 * Obtain the wrapper class of a primitive type.
+	 * @param type
+	 * 			The type.
+	 * @return
+	 * 			The wrapper class, or the type itself if it is not primitive.
+	 */
+	public static Class<?> wrapper(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return type;
+		} else if (type == Integer.TYPE) {
+			return Integer.class;
+		} else if (type == Long.TYPE) {
+			return Long.class;
+		} else if (type == Boolean.TYPE) {
+			return Boolean.class;
+		} else if (type == Double.TYPE) {
+			return Double.class;
+		} else if (type == Float.TYPE) {
+			return Float.class;
+		} else if (type == Short.TYPE) {
+			return Short.class;
+		} else if (type == Byte.TYPE) {
+			return Byte.class;
+		} else if (type == Character.TYPE) {
+			return Character.class;
+		}
+		return Void.class;
+	}
+
+	private static Converter resolve(Class<?> type) {
+		if (type.isAssignableFrom(String.class)) {
+			return IDENTITY;
+		}
+		Converter converter = primitiveConverter(wrapper(type));
+		if (converter != null) {
+			return converter;
+		}
+		if (type.isEnum()) {
+			return enumConverter(type);
+		}
+		converter = constructorConverter(type);
+		if (converter == null) {
+			converter = factoryConverter(type, "valueOf");
+		}
+		if (converter == null) {
+			converter = factoryConverter(type, "parse");
+		}
+		return converter == null ? NO_CONVERTER : converter;
+	}
+
+	private static Converter primitiveConverter(Class<?> type) {
+		if (type == Integer.class) {
+			return new Converter() {
+				public Object convert(String value) {
+					return Integer.valueOf(Integer.parseInt(value));
+				}
+			};
+		} else if (type == Long.class) {
+			return new Converter() {
+				public Object convert(String value) {
+					return Long.valueOf(Long.parseLong(value));
+				}
+			};
+		} else if (type == Boolean.class) {
+			return new Converter() {
+				public Object convert(String value) {
+					return Boolean.valueOf(value);
+				}
+			};
+		} else if (type == Double.class) {
+			return new Converter() {
+				public Object convert(String value) {
+					return Double.valueOf(value);
+				}
+			};
+		} else if (type == Float.class) {
+			return new Converter() {
+				public Object convert(String value) {
+					return Float.valueOf(value);
+				}
+			};
+		} else if (type == Short.class) {
+			return new Converter() {
+				public Object convert(String value) {
+					return Short.valueOf(Short.parseShort(value));
+				}
+			};
+		} else if (type == Byte.class) {
+			return new Converter() {
+				public Object convert(String value) {
+					return Byte.valueOf(Byte.parseByte(value));
+				}
+			};
+		} else if (type == Character.class) {
+			return new Converter() {
+				public Object convert(String value) {
+					if (value.length() != 1) {
+						throw new IllegalArgumentException("Not a single character: " + value);
+					}
+					return Character.valueOf(value.charAt(0));
+				}
+			};
+		}
+		return null;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Converter enumConverter(final Class type) {
+		return new Converter() {
+			public Object convert(String value) {
+				return Enum.valueOf(type, value);
+			}
+		};
+	}
+
+	private static Converter constructorConverter(Class<?> type) {
+		if (Modifier.isAbstract(type.getModifiers())) {
+			return null;
+		}
+		final Constructor<?> constructor;
+		try {
+			constructor = type.getConstructor(String.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+		return new Converter() {
+			public Object convert(String value) throws Exception {
+				try {
+					return constructor.newInstance(value);
+				} catch (InvocationTargetException e) {
+					throw (Exception) (e.getCause() instanceof Exception ? e.getCause() : e);
+				}
+			}
+		};
+	}
+
+	private static Converter factoryConverter(Class<?> type, String name) {
+		Class<?>[] argumentTypes = { String.class, CharSequence.class };
+		for (int i = 0; i < argumentTypes.length; i++) {
+			final Method factory;
+			try {
+				factory = type.getMethod(name, argumentTypes[i]);
+			} catch (NoSuchMethodException e) {
+				continue;
+			} catch (SecurityException e) {
+				return null;
+			}
+			if (Modifier.isStatic(factory.getModifiers()) && type.isAssignableFrom(factory.getReturnType())) {
+				return new Converter() {
+					public Object convert(String value) throws Exception {
+						try {
+							return factory.invoke(null, value);
+						} catch (InvocationTargetException e) {
+							throw (Exception) (e.getCause() instanceof Exception ? e.getCause() : e);
+						}
+					}
+				};
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,443 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A sparse index of the lines of a script file: the byte offset at which every
+ * <code>interval</code>-th line starts (lines 1, 1 + interval, 1 + 2 *
+ * interval, ...). With the index, a reader can be positioned at any line by
+ * seeking to the nearest indexed line before it and skipping at most
+ * <code>interval - 1</code> lines, instead of reading the file from the start.
+ * <p>
+ * The index is built by scanning the bytes of the file for new lines, so it
+ * can only be built for encodings in which a new line is the single byte
+ * <code>'\n'</code> and that byte never occurs inside another character (any
+ * ASCII-compatible encoding, such as UTF-8 or ISO-8859-1).
+ * <p>
+ * So that a script can be read from an indexed line, the index also records
+ * which indexed lines continue the line before them (the line before ends
+ * with a backslash) and the first line in which the string delimiter may
+ * change (the first line holding the word <code>stringdelimiter</code>, in
+ * any case): before that line, the script is read with the default string
+ * delimiter.
+ * <p>
+ * The index of each file is built once, while the file is first read by a
+ * {@link MultiFileReader} or when a line is first sought, and kept while the
+ * file's length and modification time are unchanged. If the
+ * <code>easyaccept.lineindex.persist</code> property is true, indexes are also
+ * written next to their files (with the <code>.eai</code> extension added), so
+ * that later runs need not scan the files again.
+ *
+ * @author jacques
+ */
+public class LineIndex {
+
+	/**
+	 * The extension added to the name of a script file to obtain the name of
+	 * its persisted index.
+	 */
+	public static final String EXTENSION = ".eai";
+
+	/**
+	 * The property telling whether indexes are persisted next to their files.
+	 */
+	public static final String PERSIST_PROPERTY = "easyaccept.lineindex.persist";
+
+	public static final int DEFAULT_INTERVAL = 256;
+
+	/**
+	 * Identifies persisted indexes ("EAI!").
+	 */
+	private static final int MAGIC = 0x45414921;
+	private static final int VERSION = 2;
+
+	/**
+	 * The word whose first occurrence is recorded, in lower case.
+	 */
+	private static final byte[] DELIMITER_WORD = "stringdelimiter".getBytes();
+
+	private static final ConcurrentMap<String, LineIndex> indexes = new ConcurrentHashMap<String, LineIndex>();
+
+	private final int interval;
+	/**
+	 * The offsets of the indexed lines: offsets[k] is the offset of line
+	 * 1 + k * interval.
+	 */
+	private long[] offsets = new long[16];
+	private int count;
+	/**
+	 * The number of new lines, the offset after the last one and the number of
+	 * bytes scanned.
+	 */
+	private int newLines;
+	private long lastLineStart;
+	private long length;
+	private long lastModified;
+	/**
+	 * The indexed lines continuing the line before them: bit k is set if line
+	 * 1 + k * interval does.
+	 */
+	private BitSet continued = new BitSet();
+	/**
+	 * The last byte scanned other than a carriage return.
+	 */
+	private int lastByte = -1;
+	/**
+	 * The first line holding the delimiter word (0 if none was found), and the
+	 * number of bytes of the word matched by the last bytes scanned.
+	 */
+	private int firstDelimiterLine;
+	private int matched;
+
+	/**
+	 * Construct an empty index with the default interval.
+	 */
+	public LineIndex() {
+		this(DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * The LineIndex constructor. The index is empty: the file's bytes are
+	 * given to it through {@link #scan(byte[], int, int)}.
+	 * @param interval
+	 * 			The number of lines from an indexed line to the next.
+	 */
+	public LineIndex(int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("The interval must be positive");
+		}
+		this.interval = interval;
+		offsets[count++] = 0;
+	}
+
+	/**
+	 * Scan the next bytes of the file.
+	 * @param bytes
+	 * 			The array holding the bytes.
+	 * @param offset
+	 * 			The position of the first byte.
+	 * @param count
+	 * 			The number of bytes.
+	 */
+	public void scan(byte[] bytes, int offset, int count) {
+		long base = length - offset;
+		for (int i = offset; i < offset + count; i++) {
+			byte b = bytes[i];
+			if (b == '\n') {
+				newLines++;
+				matched = 0;
+				lastLineStart = base + i + 1;
+				if (newLines % interval == 0) {
+					if (lastByte == '\\') {
+						continued.set(this.count);
+					}
+					addOffset(lastLineStart);
+				}
+			} else if (firstDelimiterLine == 0) {
+				matchDelimiterWord(b);
+			}
+			if (b != '\r') {
+				lastByte = b;
+			}
+		}
+		length += count;
+	}
+
+	private void matchDelimiterWord(byte b) {
+		if (b >= 'A' && b <= 'Z') {
+			b += 'a' - 'A';
+		}
+		// the first letter of the word does not occur again in it
+		if (b == DELIMITER_WORD[matched]) {
+			matched++;
+		} else {
+			matched = b == DELIMITER_WORD[0] ? 1 : 0;
+		}
+		if (matched == DELIMITER_WORD.length) {
+			firstDelimiterLine = newLines + 1;
+		}
+	}
+
+	private void addOffset(long offset) {
+		if (count == offsets.length) {
+			long[] larger = new long[offsets.length * 2];
+			System.arraycopy(offsets, 0, larger, 0, count);
+			offsets = larger;
+		}
+		offsets[count++] = offset;
+	}
+
+	/**
+	 * Build the index of file contents.
+	 * @param content
+	 * 			The bytes of the file.
+	 * @return
+	 * 			The index.
+	 */
+	public static LineIndex build(byte[] content) {
+		LineIndex index = new LineIndex();
+		index.scan(content, 0, content.length);
+		return index;
+	}
+
+	/**
+	 * Build the index of a file, reading it in blocks.
+	 * @param file
+	 * 			The file.
+	 * @return
+	 * 			The index.
+	 * @throws IOException
+	 * 			if the file cannot be read.
+	 */
+	public static LineIndex build(File file) throws IOException {
+		LineIndex index = new LineIndex();
+		index.lastModified = file.lastModified();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer block = ByteBuffer.allocate(ChannelDecoder.BUFFER_SIZE);
+			while (channel.read(block) >= 0) {
+				index.scan(block.array(), 0, block.position());
+				block.clear();
+			}
+		} finally {
+			in.close();
+		}
+		return index;
+	}
+
+	/**
+	 * Inform if the files of an encoding can be indexed.
+	 * @param charset
+	 * 			The encoding.
+	 * @return
+	 * 			true if a new line is encoded as the single byte '\n'.
+	 */
+	public static boolean isIndexable(Charset charset) {
+		if (!charset.canEncode()) {
+			return false;
+		}
+		byte[] newLine = "\n".getBytes(charset);
+		return newLine.length == 1 && newLine[0] == '\n';
+	}
+
+	/**
+	 * Obtain the index of a file, building it if necessary.
+	 * @param fileName
+	 * 			The name of the file.
+	 * @return
+	 * 			The index, or null if files of the script encoding cannot be
+	 * 			indexed.
+	 * @throws IOException
+	 * 			if the file cannot be read.
+	 */
+	public static LineIndex getIndex(String fileName) throws IOException {
+		if (!isIndexable(ChannelDecoder.getScriptCharset())) {
+			return null;
+		}
+		File file = new File(fileName);
+		String path = file.getCanonicalPath();
+		LineIndex index = indexes.get(path);
+		if (index != null && index.isCurrent(file)) {
+			return index;
+		}
+		File indexFile = new File(fileName + EXTENSION);
+		if (indexFile.canRead()) {
+			try {
+				index = read(indexFile);
+				if (index.isCurrent(file)) {
+					indexes.put(path, index);
+					return index;
+				}
+			} catch (IOException e) {
+				// an unreadable or outdated index is built again
+			}
+		}
+		index = build(file);
+		put(fileName, index);
+		return index;
+	}
+
+	/**
+	 * Keep the index built for a file while it was read, persisting it if
+	 * indexes are persisted.
+	 * @param fileName
+	 * 			The name of the file.
+	 * @param index
+	 * 			The index of the whole file.
+	 */
+	public static void put(String fileName, LineIndex index) {
+		File file = new File(fileName);
+		if (index.lastModified == 0) {
+			index.lastModified = file.lastModified();
+		}
+		if (!index.isCurrent(file)) {
+			// the file changed while it was read
+			return;
+		}
+		try {
+			LineIndex previous = indexes.put(file.getCanonicalPath(), index);
+			if (Boolean.getBoolean(PERSIST_PROPERTY)
+					&& (previous == null || previous.lastModified != index.lastModified || previous.length != index.length)) {
+				index.write(new File(fileName + EXTENSION));
+			}
+		} catch (IOException e) {
+			// the index is only an optimization
+		}
+	}
+
+	private boolean isCurrent(File file) {
+		return length == file.length() && lastModified == file.lastModified();
+	}
+
+	/**
+	 * Obtain the number of lines of the file. A last line without a new line
+	 * is counted.
+	 * @return
+	 * 			The number of lines.
+	 */
+	public int getLineCount() {
+		return length > lastLineStart ? newLines + 1 : newLines;
+	}
+
+	/**
+	 * Obtain the length of the file.
+	 * @return
+	 * 			The number of bytes scanned.
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Obtain the nearest indexed line at or before a line.
+	 * @param line
+	 * 			The line number, from 1.
+	 * @return
+	 * 			The indexed line number.
+	 */
+	public int getIndexedLine(int line) {
+		int k = Math.min(Math.max(line - 1, 0) / interval, count - 1);
+		return 1 + k * interval;
+	}
+
+	/**
+	 * Obtain the offset at which an indexed line starts.
+	 * @param indexedLine
+	 * 			The indexed line number (see {@link #getIndexedLine(int)}).
+	 * @return
+	 * 			The byte offset.
+	 */
+	public long getOffset(int indexedLine) {
+		if ((indexedLine - 1) % interval != 0 || (indexedLine - 1) / interval >= count) {
+			throw new IllegalArgumentException("Line " + indexedLine + " is not indexed");
+		}
+		return offsets[(indexedLine - 1) / interval];
+	}
+
+	/**
+	 * Obtain the nearest indexed line at or before a line from which the
+	 * script can be read as if it were read from the start: the line does not
+	 * continue the line before it and is not after the first line in which
+	 * the string delimiter may change.
+	 * @param line
+	 * 			The line number, from 1.
+	 * @return
+	 * 			The indexed line number.
+	 */
+	public int getStartLine(int line) {
+		if (firstDelimiterLine > 0) {
+			line = Math.min(line, firstDelimiterLine);
+		}
+		int indexedLine = getIndexedLine(line);
+		while (indexedLine > 1 && continued.get((indexedLine - 1) / interval)) {
+			indexedLine -= interval;
+		}
+		return indexedLine;
+	}
+
+	/**
+	 * Obtain the first line in which the string delimiter may change.
+	 * @return
+	 * 			The line number, or 0 if the delimiter never changes.
+	 */
+	public int getFirstDelimiterLine() {
+		return firstDelimiterLine;
+	}
+
+	/**
+	 * Write the index to a file.
+	 * @param file
+	 * 			The index file.
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(length);
+			out.writeLong(lastModified);
+			out.writeInt(interval);
+			out.writeInt(newLines);
+			out.writeLong(lastLineStart);
+			out.writeInt(firstDelimiterLine);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				out.writeLong(offsets[i]);
+				out.writeBoolean(continued.get(i));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read an index from a file.
+	 * @param file
+	 * 			The index file.
+	 * @return
+	 * 			The index.
+	 * @throws IOException
+	 * 			if the file cannot be read, or is not an index of this version.
+	 */
+	public static LineIndex read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(ChannelDecoder.readFully(file)));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Not a line index of version " + VERSION + ": " + file);
+		}
+		long length = in.readLong();
+		long lastModified = in.readLong();
+		LineIndex index = new LineIndex(in.readInt());
+		index.length = length;
+		index.lastModified = lastModified;
+		index.newLines = in.readInt();
+		index.lastLineStart = in.readLong();
+		index.firstDelimiterLine = in.readInt();
+		int count = in.readInt();
+		if (count < 1) {
+			throw new IOException("Corrupt line index: " + file);
+		}
+		index.count = 0;
+		for (int i = 0; i < count; i++) {
+			index.addOffset(in.readLong());
+			if (in.readBoolean()) {
+				index.continued.set(i);
+			}
+		}
+		return index;
+	}
+}
@@ -18,6 +18,11 @@ public class LogicalLineReader extends AdapterStream {
 	private char commentCharacter;
 	private char continuation;
 	StringBuffer lineBuffer;
+	/**
+	 * The position of the next character to read in the lineBuffer; characters
+	 * before it were already read.
+	 */
+	private int position;
 	/**
 	 * The LogicalLineReader constructor.
 	 * @param stream
@@ -41,16 +46,26 @@ public class LogicalLineReader extends AdapterStream {
 		if (!fillBufferWithANonEmptyLine()) {
 			return null;
 		}
-		String line = lineBuffer.toString().trim();
+		String line = lineBuffer.substring(position).trim();
 		emptyBuffer();
 		return line;
 	}
 
+	/**
+	 * Position the stream at the start of a line, discarding the line being
+	 * read.
+	 */
+	public void seekLine(int line) throws IOException {
+		emptyBuffer();
+		super.seekLine(line);
+	}
+
 	/**
 	 *  Empty the buffer.
  	 */
 	private void emptyBuffer() {
-		lineBuffer.delete(0, lineBuffer.length());
+		lineBuffer.setLength(0);
+		position = 0;
 	}
 	/**
 	 * Read a char from the buffer and return the number.
@@ -59,16 +74,18 @@ public class LogicalLineReader extends AdapterStream {
 		if (!fillBufferWithANonEmptyLine()) {
 			return -1;
 		} else {
-			int c = lineBuffer.charAt(0);
-			lineBuffer.deleteCharAt(0);
-			return c;
+			return lineBuffer.charAt(position++);
 		}
 	}
 	/**
 	 * Set as unread.
 	 */
 	public void unread(int nextChar) throws IOException {
-		lineBuffer.insert(0, (char) nextChar);
+		if (position > 0 && lineBuffer.charAt(position - 1) == nextChar) {
+			position--;
+		} else {
+			lineBuffer.insert(position, (char) nextChar);
+		}
 	}
 	/**
 	 * Fill the buffer with lines.
@@ -77,9 +94,10 @@ public class LogicalLineReader extends AdapterStream {
 	 * @throws IOException
 	 */
 	private boolean fillBufferWithANonEmptyLine() throws IOException {
-		if (lineBuffer.length() > 0) {
+		if (position < lineBuffer.length()) {
 			return true;
 		}
+		emptyBuffer();
 		while (true) {
 			if (!fillBufferWithALogicalLine()) {
 				return false;
@@ -5,15 +5,10 @@
  * Java - Code Generation - Code and Comments
  */
 package util;
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PushbackReader;
-import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -30,13 +25,33 @@ import java.util.Vector;
 
 /**
  * The MultiFileReader class make possible work out and read multi file.
+ * <p>
+ * Files are read in large blocks through a {@link ChannelDecoder}; characters
+ * are then taken straight from the decoded block.
+ * <p>
+ * Each file read to its end is indexed by line (see {@link LineIndex}), so that
+ * the reader can later be positioned at any line of a file without reading it
+ * from the start.
  * @author  Jacques  To change the template for this generated type comment go to Window -  Preferences - Java - Code Generation - Code and Comments
  */
 public class MultiFileReader implements Stream {
-	private List fileList;
+	private List<String> fileList;
 	private int nextFile;
-	private PushbackReader reader = null;
+	private ChannelDecoder input = new ChannelDecoder();
+	private boolean fileOpen = false;
+	/**
+	 * The decoded block being read: characters from position to limit are yet to be read.
+	 */
+	private char[] buffer;
+	private int position;
+	private int limit;
 	private final int SIZE_PUSHBACK = 10;
+	/**
+	 * The extension of precompiled script files (see easyaccept.script.CompiledScriptFile).
+	 */
+	public static final String PRECOMPILED_EXTENSION = ".eac";
+	private char[] pushback = new char[SIZE_PUSHBACK];
+	private int pushbackCount;
 	private String currentFileName;
 	private int lineNumber;
 	private int previousCharacter;
@@ -46,7 +61,7 @@ public class MultiFileReader implements Stream {
 	 * Construct a MultiFileReader object.
 	 */
 	public MultiFileReader() {
-		fileList = new ArrayList();
+		fileList = new ArrayList<String>();
 		startAtFirstFile();
 	}
 
@@ -65,22 +80,58 @@ public class MultiFileReader implements Stream {
 	 * 			The file name to be added. 
 	 */
 	public void addFile(String fileName) throws FileNotFoundException {
+		fileList.addAll(listFiles(fileName));
+	}
+
+	/**
+	 * Obtain the names of the files that would be read if the given name was
+	 * added to a MultiFileReader. Directories are expanded recursively.
+	 * @param fileName
+	 * 			The file or directory name.
+	 * @return
+	 * 			The file names, in reading order.
+	 * @throws FileNotFoundException
+	 * 			if one of the files cannot be read.
+	 */
+	public static List<String> listFiles(String fileName) throws FileNotFoundException {
+		List<String> files = new ArrayList<String>();
+		addFileNames(fileName, files);
+		return files;
+	}
+
+	/**
+	 * Add the file name, or the names of the files in a directory, to the list.
+	 * A precompiled script found in a directory next to its source is left out,
+	 * since it is used in place of the source.
+	 */
+	private static void addFileNames(String fileName, List<String> files) throws FileNotFoundException {
 		File file = new File(fileName);
 		if (file.isDirectory()) {
 			if (!fileName.endsWith("/CVS")) {
 				String[] list = file.list();
 				for (int i = 0; i < list.length; i++) {
-					addFile(fileName + "/" + list[i]);
+					if (isDerivedFile(file, list[i], PRECOMPILED_EXTENSION) || isDerivedFile(file, list[i], LineIndex.EXTENSION)) {
+						continue;
+					}
+					addFileNames(fileName + "/" + list[i], files);
 				}
 			}
 		} else {
 			if (!file.canRead()) {
 				throw new FileNotFoundException();
 			}
-			fileList.add(fileName);
+			files.add(fileName);
 		}
 	}
 
+	/**
+	 * Inform if a file is derived from a source file in the same directory,
+	 * whose name it extends.
+	 */
+	private static boolean isDerivedFile(File directory, String name, String extension) {
+		return name.endsWith(extension) && new File(directory, name.substring(0, name.length() - extension.length())).exists();
+	}
+
 	/**
 	 * Read line by the current file.
 	 * @return
@@ -105,54 +156,172 @@ public class MultiFileReader implements Stream {
 	private String readALine() throws IOException {
 		StringBuffer sb = null;
 		int c;
-		while ((c = reader.read()) >= 0) {
+		while (pushbackCount > 0) {
 			if (sb == null) {
 				sb = new StringBuffer();
 			}
+			c = pushback[--pushbackCount];
 			if (c != '\r') {
 				sb.append((char) c);
 			}
 			if (c == '\n') {
 				lineNumber++;
-				break;
+				return sb.toString();
+			}
+		}
+		while (position < limit || fillBuffer()) {
+			if (sb == null) {
+				sb = new StringBuffer();
+			}
+			// scan the block for the end of the line, copying whole runs of characters
+			int start = position;
+			int end = start;
+			while (end < limit && buffer[end] != '\n' && buffer[end] != '\r') {
+				end++;
+			}
+			sb.append(buffer, start, end - start);
+			position = end;
+			if (end < limit) {
+				c = buffer[position++];
+				if (c == '\n') {
+					sb.append('\n');
+					lineNumber++;
+					break;
+				}
 			}
 		}
 		return sb == null ? null : sb.toString();
 	}
 
+	/**
+	 * Decode the next block of the current file.
+	 * @return
+	 * 			false at the end of the file.
+	 */
+	private boolean fillBuffer() throws IOException {
+		limit = input.fill();
+		buffer = input.getArray();
+		position = 0;
+		return limit > 0;
+	}
+
+	/**
+	 * Obtain the next character of the current file.
+	 * @return
+	 * 			The character, or END_OF_FILE.
+	 */
+	private int nextCharacter() throws IOException {
+		if (pushbackCount > 0) {
+			return pushback[--pushbackCount];
+		}
+		if (position < limit || fillBuffer()) {
+			return buffer[position++];
+		}
+		return END_OF_FILE;
+	}
+
 	/**
 	 *  Close the current file.
 	 */
 	private void closeFile() {
-		if (reader != null) {
-			try {
-				reader.close();
-				notifyObservers(); 
-			} catch (IOException e) {
+		if (fileOpen) {
+			LineIndex index = input.getCompleteLineIndex();
+			if (index != null) {
+				LineIndex.put(currentFileName, index);
 			}
-			reader = null;
+			input.close();
+			fileOpen = false;
+			position = limit = 0;
+			pushbackCount = 0;
+			notifyObservers(); 
 		}
 	}
 	/**
 	 *  Open the next file.
 	 */
 	private boolean openFile() throws FileNotFoundException, UnsupportedEncodingException {
-		if (reader == null && hasNextFile()) {
+		if (!fileOpen && hasNextFile()) {
 			currentFileName = nextFile();
-
-			String encoding = System.getProperty("easyaccept.file.encoding");
-			
-			Reader fileReader = encoding == null ? new FileReader(
-					currentFileName) : new InputStreamReader(
-					new FileInputStream(currentFileName), encoding);
-
-			reader = new PushbackReader(new BufferedReader(fileReader), SIZE_PUSHBACK);
-			
+			input.open(currentFileName);
+			if (LineIndex.isIndexable(ChannelDecoder.getScriptCharset())) {
+				input.setLineIndex(new LineIndex());
+			}
+			fileOpen = true;
+			position = limit = 0;
+			pushbackCount = 0;
 			lineNumber = 0;
 		}
-		return reader != null;
+		return fileOpen;
 	}
 	
+	/**
+	 * Position the reader at the start of a line of the current file (or of
+	 * the next file, if no file is being read). The line is reached through the
+	 * file's line index, skipping at most the lines from the nearest indexed
+	 * line; if the file cannot be indexed, it is read again from the start.
+	 * @param line
+	 * 			The line number, from 1.
+	 * @throws EOFException
+	 * 			if the file has fewer lines.
+	 * @throws IOException
+	 * 			if there is no file to be read.
+	 */
+	public void seekLine(int line) throws IOException {
+		if (!openFile()) {
+			throw new IOException("No file to seek line " + line + " in");
+		}
+		LineIndex index = LineIndex.getIndex(currentFileName);
+		int firstLine = 1;
+		if (index != null) {
+			firstLine = index.getIndexedLine(line);
+			input.seek(index.getOffset(firstLine));
+		} else {
+			input.open(currentFileName);
+		}
+		position = limit = 0;
+		pushbackCount = 0;
+		lineNumber = firstLine - 1;
+		while (lineNumber < line - 1) {
+			if (readALine() == null) {
+				throw new EOFException("Line " + line + " is beyond the end of file " + currentFileName);
+			}
+		}
+		setPrevCharacter(lineNumber > 0 ? '\n' : END_OF_FILE);
+	}
+
+	/**
+	 * Read lines of a file, seeking the first through the file's line index.
+	 * Useful to show the source around a line.
+	 * @param fileName
+	 * 			The file name.
+	 * @param firstLine
+	 * 			The number of the first line, from 1.
+	 * @param count
+	 * 			The maximum number of lines.
+	 * @return
+	 * 			The lines, without new line characters; fewer than asked for at
+	 * 			the end of the file.
+	 * @throws IOException
+	 * 			if the file cannot be read.
+	 */
+	public static List<String> readLines(String fileName, int firstLine, int count) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		MultiFileReader reader = new MultiFileReader();
+		try {
+			reader.addFile(fileName);
+			reader.seekLine(Math.max(firstLine, 1));
+			String line;
+			while (lines.size() < count && (line = reader.readALine()) != null) {
+				lines.add(StringUtil.removeNewLine(line));
+			}
+		} catch (EOFException e) {
+			// the file has fewer lines
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
 	/**
 	 * Inform it has next file.
 	 * @return
@@ -168,7 +337,7 @@ public class MultiFileReader implements Stream {
 	 * 			The next file.
 	 */
 	private String nextFile() {
-		return (String) fileList.get(nextFile++);
+		return fileList.get(nextFile++);
 	}
 
 	/**
@@ -176,6 +345,7 @@ public class MultiFileReader implements Stream {
 	 */
 	public void close() {
 		closeFile();
+		input.release();
 		startAtFirstFile();
 	}
 	/**
@@ -202,11 +372,19 @@ public class MultiFileReader implements Stream {
 	 * 			The read character. 
 	 */
 	public int read() throws IOException {
-		
+		// fast path: a character other than carriage return in the decoded block
+		if (pushbackCount == 0 && position < limit && buffer[position] != '\r') {
+			char c = buffer[position++];
+			if (c == '\n') {
+				lineNumber++;
+			}
+			previousCharacter = c;
+			return c;
+		}
 		boolean readMore = true;
 		int carac = END_OF_FILE;
 		while (readMore && openFile()) {
-			carac = reader.read();
+			carac = nextCharacter();
 			if (carac == '\r') {
 				continue;
 			}
@@ -241,7 +419,10 @@ public class MultiFileReader implements Stream {
 	 * Determine if the character represents an unread line.
 	 */
 	public void unread(int nextChar) throws IOException {
-		reader.unread(nextChar);
+		if (pushbackCount == SIZE_PUSHBACK) {
+			throw new IOException("Pushback buffer overflow");
+		}
+		pushback[pushbackCount++] = (char) nextChar;
 		if(nextChar == '\n') {
 			lineNumber--;
 		}
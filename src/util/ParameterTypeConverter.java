@@ -6,8 +6,6 @@
  */
 package util;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 
 /**
@@ -20,7 +18,6 @@ import java.util.HashMap;
 public class ParameterTypeConverter {
 
 	private static HashMap primitiveWraper = new HashMap();
-	private static Class classString[] = {java.lang.String.class};
 	
 	static{
 		primitiveWraper.put("boolean",java.lang.Boolean.class); 
@@ -44,52 +41,30 @@ public class ParameterTypeConverter {
 	}
 	
 	/**
-	 * Execute the parameter type comverter. 
+	 * Execute the parameter type comverter. Each argument is converted by the
+	 * converter the default {@link ConverterRegistry} keeps for its parameter
+	 * type; the values of String parameters are taken as they are. The
+	 * parameters themselves are not changed.
 	 * @param facadeParam
 	 * 				The facade parameter used.
 	 * @param userDefParam
 	 * 				The user defined parameter.
+	 * @return
+	 * 				The converted values, one per facade parameter.
 	 * @throws ConverterException
 	 */
-	public static void convertParam(Class[] facadeParam, Parameter[] userDefParam) throws ConverterException{
-		
-    	String argValue[] = new String[1];
-    	Class paramClass = null;
-    	String argType = null;
-    	Class argTypeClassTmp = null;
-		Object convertedArg;
-    	for (int i = 0; i < facadeParam.length; i++) {
-    		
-    		paramClass = facadeParam[i];
-            argValue[0] = userDefParam[i].getValueAsString();
-            // Gets the parameter type defined in facade
-            argType = paramClass.getName();
-        	if ( !argType.equals("java.lang.String")) {
-            	Constructor c;
-            	try {
-            		argTypeClassTmp = (Class) primitiveWraper.get(argType);
-            		if (argTypeClassTmp != null){
-            			paramClass = argTypeClassTmp;
-            		}
-            		c = paramClass.getConstructor(classString);
-            		convertedArg = c.newInstance(argValue);
-					userDefParam[i].setValue(convertedArg);            	
-            	} catch (SecurityException e) {
-            		throw new ConverterException ("Problems during Type Conversion - " + argValue[0] +" to " + paramClass.toString() );
-				} catch (NoSuchMethodException e) {
-					throw new ConverterException ("Problems during Type Conversion - " + argValue[0] +" to " + paramClass.toString() );
-				} catch (IllegalArgumentException e) {
-					throw new ConverterException ("Problems during Type Conversion - " + argValue[0] +" to " + paramClass.toString());
-				} catch (InstantiationException e) {
-					throw new ConverterException ("Problems during Type Conversion - " + argValue[0] +" to " + paramClass.toString());
-				} catch (IllegalAccessException e) {
-					throw new ConverterException ("Problems during Type Conversion - " + argValue[0] +" to " + paramClass.toString());
-				} catch (InvocationTargetException e) {
-					throw new ConverterException ("Problems during Type Conversion - " + argValue[0] +" to " + paramClass.toString());
-				}
-			}//if    
-        }//for  	
-     }
+	public static Object[] convertParam(Class[] facadeParam, Parameter[] userDefParam) throws ConverterException{
+		ConverterRegistry registry = ConverterRegistry.getDefault();
+		Object[] values = new Object[facadeParam.length];
+		for (int i = 0; i < facadeParam.length; i++) {
+			if (facadeParam[i] != String.class) {
+				values[i] = registry.convert(facadeParam[i], userDefParam[i].getValueAsString());
+			} else {
+				values[i] = userDefParam[i].getValue();
+			}
+		}
+		return values;
+	}
 	
 	/**
 	 * This method converts string classes name to its associated Class object representation.
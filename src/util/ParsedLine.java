@@ -8,11 +8,21 @@ package util;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 
 /**
  * The ParsedLine class. 
+ * <p>
+ * A sub line (see {@link #subLine(int)}) is a view of the parameters of its
+ * line from an offset on: no parameter is copied. Adding parameters to a sub
+ * line first copies its parameters, so the line it came from is unchanged.
+ * <p>
+ * Each line has a {@link CallSite} caching what executing it resolves; a sub
+ * line has the call site its line keeps for it.
+ * <p>
+ * A line may be frozen (see {@link #freeze()}) to be executed any number of
+ * times, by any number of threads: parameters can no longer be added to it,
+ * and its sub lines are created once and frozen too.
  * @author Jacques
  * 
  * To change the template for this generated type comment go to Window -
@@ -20,6 +30,18 @@ import java.util.List;
  */
 public class ParsedLine {
 	private List<Parameter> parameters;
+	/**
+	 * The position in the parameters list of the first parameter of the line,
+	 * and whether the list belongs to another line.
+	 */
+	private int offset;
+	private boolean view;
+	private CallSite callSite;
+	/**
+	 * Whether the line is frozen, and its sub lines if it is.
+	 */
+	private volatile boolean frozen;
+	private ParsedLine[] subLines;
 	
 	/**
 	 * Construct a ParsedLine object. 
@@ -28,13 +50,44 @@ public class ParsedLine {
 		parameters = new ArrayList<Parameter>();
 	}
 
+	/**
+	 * Construct a view of parameters from an offset on.
+	 */
+	private ParsedLine(List<Parameter> parameters, int offset, CallSite callSite) {
+		this.parameters = parameters;
+		this.offset = offset;
+		this.view = true;
+		this.callSite = callSite;
+	}
+
+	/**
+	 * Obtain the call site of the line, creating one if it has none.
+	 * @return
+	 * 			The call site.
+	 */
+	public CallSite getCallSite() {
+		if (callSite == null) {
+			callSite = new CallSite();
+		}
+		return callSite;
+	}
+
+	/**
+	 * Configure the call site of the line.
+	 * @param callSite
+	 * 			The call site, shared by the executions of a compiled line.
+	 */
+	public void setCallSite(CallSite callSite) {
+		this.callSite = callSite;
+	}
+
 	/**
 	 * Returns the ParsedLine number of parameters. 
 	 * @return
 	 * 			The number of parameters.
 	 */
 	public int numberOfParameters() {
-		return parameters.size();
+		return parameters.size() - offset;
 	}
 
 	/**
@@ -45,7 +98,7 @@ public class ParsedLine {
 	 * 			A parameter.
 	 */
 	public Parameter getParameter(int aParameter) {
-		return (Parameter) parameters.get(aParameter);
+		return parameters.get(offset + aParameter);
 	}
 
 	/**
@@ -54,6 +107,7 @@ public class ParsedLine {
 	 * 			The parameter to be added.
 	 */
 	public void addParameter(Parameter param) {
+		ownParameters();
 		parameters.add(param);
 	}
 
@@ -63,9 +117,24 @@ public class ParsedLine {
 	 * 			The parameters collection to be added.
 	 */
 	public void addAllParameters(Collection coll) {
+		ownParameters();
 		parameters.addAll(coll);
 	}
 
+	/**
+	 * Copy the parameters of a sub line before they are changed.
+	 */
+	private void ownParameters() {
+		if (frozen) {
+			throw new UnsupportedOperationException("The line is frozen");
+		}
+		if (view) {
+			parameters = new ArrayList<Parameter>(parameters.subList(offset, parameters.size()));
+			offset = 0;
+			view = false;
+		}
+	}
+
 	/**
 	 * Obtain the command by a string.  
 	 * @return
@@ -73,13 +142,11 @@ public class ParsedLine {
 	 */
 	public String getCommandString(char stringDelimiter) {
 		StringBuffer sb = new StringBuffer();
-		Iterator it = parameters.iterator();
-		while (it.hasNext()) {
-			Parameter param = (Parameter) it.next();
-			sb.append(param.toString(stringDelimiter));
-			if (it.hasNext()) {
+		for (int i = offset; i < parameters.size(); i++) {
+			if (i > offset) {
 				sb.append(" ");
 			}
+			sb.append(parameters.get(i).toString(stringDelimiter));
 		}
 		return sb.toString();
 	}
@@ -90,9 +157,9 @@ public class ParsedLine {
 	 * 		The args values.
 	 */
 	public Object[] getArgsValues() {
-		Object[] args = new Object[parameters.size() - 1];
+		Object[] args = new Object[numberOfParameters() - 1];
 		for (int i = 0; i < args.length; i++) {
-			args[i] = ((Parameter) parameters.get(i + 1)).getValue();
+			args[i] = parameters.get(offset + i + 1).getValue();
 		}
 		return args;
 	}
@@ -103,22 +170,80 @@ public class ParsedLine {
 	 * 			The args.
 	 */
 	public Parameter[] getCommandArgs() {
-		Parameter[] args = new Parameter[parameters.size() - 1];
+		Parameter[] args = new Parameter[numberOfParameters() - 1];
 		for (int i = 0; i < args.length; i++) {
-			args[i] = (Parameter) parameters.get(i + 1);
+			args[i] = parameters.get(offset + i + 1);
 		}
 		return args;
 	}
 
 	/**
-	 * 
+	 * Obtain the line without its first parameters, as a view sharing the
+	 * parameters of this line.
 	 * @param skip
+	 * 			The number of parameters skipped.
 	 * @return
+	 * 			The sub line.
 	 */
 	public ParsedLine subLine(int skip) {
-		ParsedLine sub = new ParsedLine();
-		sub.addAllParameters(parameters.subList(skip, numberOfParameters()));
-		return sub;
+		if (skip < 0 || skip > numberOfParameters()) {
+			throw new IndexOutOfBoundsException("Cannot skip " + skip + " of " + numberOfParameters() + " parameters");
+		}
+		if (!frozen) {
+			return new ParsedLine(parameters, offset + skip, getCallSite().getSubSite(skip));
+		}
+		synchronized (this) {
+			if (subLines == null || skip >= subLines.length) {
+				ParsedLine[] larger = new ParsedLine[numberOfParameters() + 1];
+				if (subLines != null) {
+					System.arraycopy(subLines, 0, larger, 0, subLines.length);
+				}
+				subLines = larger;
+			}
+			if (subLines[skip] == null) {
+				subLines[skip] = new ParsedLine(parameters, offset + skip, callSite.getSubSite(skip)).freeze();
+			}
+			return subLines[skip];
+		}
+	}
+
+	/**
+	 * Obtain the line with another command, as a copy sharing the arguments
+	 * and the call site of this line.
+	 * @param command
+	 * 			The command.
+	 * @return
+	 * 			The line.
+	 */
+	public ParsedLine withCommand(String command) {
+		List<Parameter> renamed = new ArrayList<Parameter>(numberOfParameters());
+		renamed.add(new Parameter(getParameter(0).getName(), command));
+		renamed.addAll(parameters.subList(offset + 1, parameters.size()));
+		ParsedLine line = new ParsedLine(renamed, 0, getCallSite());
+		line.view = false;
+		return frozen ? line.freeze() : line;
+	}
+
+	/**
+	 * Freeze the line, so that it can be executed many times: parameters can no
+	 * longer be added, and sub lines are kept. The values of the parameters
+	 * must not be changed either.
+	 * @return
+	 * 			The line.
+	 */
+	public ParsedLine freeze() {
+		getCallSite();
+		frozen = true;
+		return this;
+	}
+
+	/**
+	 * Inform if the line is frozen.
+	 * @return
+	 * 			true if the line was frozen.
+	 */
+	public boolean isFrozen() {
+		return frozen;
 	}
 
 }
\ No newline at end of file
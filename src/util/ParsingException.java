@@ -42,4 +42,31 @@ public class ParsingException extends Exception {
 		this(fileName, lineNumber, message, null);
 	}
 
+	/**
+	 * Obtain the name of the script file being processed when the exception occurred.
+	 * @return
+	 * 			The file name, or null if it is not known.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Obtain the line number in the script file where the exception occurred.
+	 * @return
+	 * 			The line number.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Obtain the description of the error, without file and line information.
+	 * @return
+	 * 			The error description.
+	 */
+	public String getErrorMessage() {
+		return errorMessage == null ? getMessage() : errorMessage;
+	}
+
 }
@@ -0,0 +1,610 @@
+package util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads parsed lines from script text that is already in memory. The lexer
+ * does in a single forward scan over a character array the work otherwise done
+ * by a {@link LogicalLineReader} feeding a {@link ParsedLineReader}: comment
+ * and blank lines are skipped, continued lines are joined, and lines are split
+ * into parameters, honoring string delimiters, escapes and
+ * <code>${name}</code> variable substitution. The lines obtained are the same
+ * the two readers would give for the same text.
+ * <p>
+ * Logical lines that need no joining are not copied; tokens without string
+ * delimiters, escapes or variables are taken as slices of the line.
+ * <p>
+ * In template mode, variables are not substituted: a token referring to
+ * variables is given as a {@link Template}, to be bound later.
+ * <p>
+ * If the lexer is given a {@link SymbolTable}, tokens are interned through it,
+ * so that the repeated words of a script are held once.
+ * <p>
+ * The text may also be decoded from a file as it is read, through a
+ * {@link ChannelDecoder}: a block is decoded only when the lines before it
+ * have been read, so the first lines are available before the file is read
+ * to its end.
+ *
+ * @author jacques
+ */
+public class ScriptLexer {
+
+	public static final char NUL = '\u0000';
+
+	private String fileName;
+	private char[] text;
+	private int length;
+	private int offset;
+	private int lineNumber;
+	private int previousCharacter;
+	private boolean endReached;
+	private ChannelDecoder input;
+	private IOException inputError;
+
+	private char commentCharacter = '#';
+	private char continuation = '\\';
+	private char stringDelimiter = '"';
+	private char escape = '\\';
+	private char variableStart = '$';
+	private Variables variables;
+	private boolean templates;
+	private SymbolTable symbols;
+
+	/**
+	 * In template mode, the variables referred to by the current line, and
+	 * whether a parameter name refers to variables.
+	 */
+	private List<String> references = new ArrayList<String>();
+	private boolean templateName;
+
+	/**
+	 * The variable references in the token being read: their positions in the
+	 * token and the variable names.
+	 */
+	private List<Integer> slotPositions = new ArrayList<Integer>();
+	private List<String> slotNames = new ArrayList<String>();
+
+	/**
+	 * The logical line being parsed: characters from position to limit are yet
+	 * to be read. The array is either the text itself or the joined buffer.
+	 */
+	private char[] line;
+	private int position;
+	private int limit;
+	private char[] joined = new char[128];
+
+	/**
+	 * The ScriptLexer constructor.
+	 * @param fileName
+	 * 			The name of the file the text came from, used in error messages.
+	 * @param text
+	 * 			The script text.
+	 * @param lineNumber
+	 * 			The number of lines that precede the text in its file.
+	 * @param variables
+	 * 			The variables for substitution of <code>${name}</code>.
+	 */
+	public ScriptLexer(String fileName, String text, int lineNumber, Variables variables) {
+		this(fileName, text.toCharArray(), text.length(), lineNumber, variables);
+	}
+
+	/**
+	 * The ScriptLexer constructor.
+	 * @param fileName
+	 * 			The name of the file the text came from, used in error messages.
+	 * @param text
+	 * 			The array holding the script text; it is not copied.
+	 * @param length
+	 * 			The number of characters of text in the array.
+	 * @param lineNumber
+	 * 			The number of lines that precede the text in its file.
+	 * @param variables
+	 * 			The variables for substitution of <code>${name}</code>.
+	 */
+	public ScriptLexer(String fileName, char[] text, int length, int lineNumber, Variables variables) {
+		this.fileName = fileName;
+		this.text = text;
+		this.length = length;
+		this.lineNumber = lineNumber;
+		this.variables = variables;
+	}
+
+	/**
+	 * The ScriptLexer constructor for text decoded from a file as it is read.
+	 * @param fileName
+	 * 			The name of the file the text came from, used in error messages.
+	 * @param input
+	 * 			The decoder of the open file.
+	 * @param lineNumber
+	 * 			The number of lines that precede the text in its file.
+	 * @param variables
+	 * 			The variables for substitution of <code>${name}</code>.
+	 */
+	public ScriptLexer(String fileName, ChannelDecoder input, int lineNumber, Variables variables) {
+		this(fileName, new char[ChannelDecoder.BUFFER_SIZE], 0, lineNumber, variables);
+		this.input = input;
+	}
+
+	/**
+	 * Obtain the next line of the script.
+	 * @return
+	 * 			The parsed line, or null at the end of the text.
+	 * @throws ParsingException
+	 * 			if the line has syntax errors; the rest of the line is skipped.
+	 */
+	public ParsedLine getParsedLine() throws ParsingException {
+		references.clear();
+		templateName = false;
+		ParsedLine parsedLine = null;
+		Parameter param;
+		while ((param = getParameter()) != null) {
+			if (parsedLine == null) {
+				parsedLine = new ParsedLine();
+			}
+			parsedLine.addParameter(param);
+		}
+		// read the end-of-line character
+		read();
+		return parsedLine;
+	}
+
+	private Parameter getParameter() throws ParsingException {
+		skipWhiteSpace();
+		Object token = getToken();
+		if (token == null) {
+			return null;
+		}
+		String name = null;
+		Object value;
+		int nextChar = read();
+		if (nextChar == '=') {
+			if (token instanceof Template) {
+				templateName = true;
+			}
+			name = token.toString();
+			value = getToken();
+		} else {
+			value = token;
+			if (nextChar >= 0) {
+				unread();
+			}
+		}
+		return new Parameter(name, value);
+	}
+
+	private Object getToken() throws ParsingException {
+		if (position == limit && !fillLine()) {
+			return null;
+		}
+		// fast path: a plain token is a slice of the line
+		int start = position;
+		while (position < limit) {
+			char c = line[position];
+			if (Character.isWhitespace(c) || c == '=') {
+				return position == start ? null : newString(line, start, position - start);
+			}
+			if (c == stringDelimiter || c == escape || c == variableStart) {
+				break;
+			}
+			position++;
+		}
+		StringBuilder sb = null;
+		if (position > start) {
+			sb = new StringBuilder(position - start + 16);
+			sb.append(line, start, position - start);
+		}
+		slotPositions.clear();
+		slotNames.clear();
+		int c = read();
+		while (c >= 0 && !Character.isWhitespace((char) c) && c != '=') {
+			if (sb == null) {
+				sb = new StringBuilder();
+			}
+			if ((char) c == stringDelimiter) {
+				parseString(stringDelimiter, sb);
+				c = read();
+			} else if ((char) c == escape) {
+				c = read();
+				if (c >= 0) {
+					sb.append((char) c);
+					c = read();
+				}
+			} else if ((char) c == variableStart) {
+				c = read();
+				if (c >= 0) {
+					if ((char) c == '{') {
+						StringBuilder varName = new StringBuilder();
+						parseString('}', varName);
+						if (templates) {
+							addSlot(sb.length(), varName.toString());
+						} else {
+							String varValue = getVariableValue(varName.toString());
+							if (varValue != null) {
+								sb.append(varValue);
+							}
+						}
+					} else {
+						sb.append(variableStart);
+						sb.append((char) c);
+					}
+					c = read();
+				} else {
+					sb.append(variableStart);
+					c = read();
+				}
+			} else {
+				sb.append((char) c);
+				c = read();
+			}
+		}
+		if (c >= 0) {
+			unread();
+		}
+		if (sb == null) {
+			return null;
+		}
+		if (!slotNames.isEmpty()) {
+			return Template.fromText(sb, slotPositions, slotNames);
+		}
+		return symbols == null ? sb.toString() : symbols.intern(sb);
+	}
+
+	private String newString(char[] chars, int offset, int count) {
+		return symbols == null ? new String(chars, offset, count) : symbols.intern(chars, offset, count);
+	}
+
+	/**
+	 * Note a variable reference in the token being read.
+	 */
+	private void addSlot(int position, String varName) {
+		slotPositions.add(Integer.valueOf(position));
+		slotNames.add(varName);
+		if (!references.contains(varName)) {
+			references.add(varName);
+		}
+	}
+
+	/**
+	 * Append to a buffer the characters up to an end delimiter, which is
+	 * consumed.
+	 */
+	private void parseString(char endDelimiter, StringBuilder sb) throws ParsingException {
+		int start = position;
+		while (position < limit) {
+			char c = line[position];
+			if (c == endDelimiter) {
+				sb.append(line, start, position - start);
+				position++;
+				return;
+			}
+			if (c == '\n' || c == escape) {
+				break;
+			}
+			position++;
+		}
+		sb.append(line, start, position - start);
+		int c;
+		while ((c = read()) >= 0 && c != '\n' && c != endDelimiter) {
+			if (c == escape) {
+				c = read();
+			}
+			sb.append((char) c);
+		}
+		if (c != endDelimiter) {
+			throw new ParsingException(fileName, lineNumber, "Missing end-delimiter character :: " + endDelimiter + " -- "
+					+ (char) c + " -- ");
+		}
+	}
+
+	private void skipWhiteSpace() {
+		int c;
+		while ((c = read()) >= 0 && (c == ' ' || c == '\t')) {
+		}
+		if (c >= 0) {
+			unread();
+		}
+	}
+
+	/**
+	 * Obtain the variable's value by its name.
+	 * @param varName
+	 * 			The variable name.
+	 * @return
+	 * 			The value as a string, or null if the variable has no value.
+	 */
+	public String getVariableValue(String varName) {
+		Object var = variables.get(varName);
+		return var == null ? null : var.toString();
+	}
+
+	/**
+	 * Read a character of the current logical line, moving on to the next
+	 * non-empty logical line when the current one is exhausted.
+	 */
+	private int read() {
+		if (position < limit || fillLine()) {
+			return line[position++];
+		}
+		return Stream.END_OF_FILE;
+	}
+
+	/**
+	 * Give back the character just read.
+	 */
+	private void unread() {
+		position--;
+	}
+
+	/**
+	 * Fill the line with the next logical line that is neither blank nor a
+	 * comment.
+	 * @return
+	 * 			false at the end of the text.
+	 */
+	private boolean fillLine() {
+		while (fillLogicalLine()) {
+			if (isBlank(line, position, limit)) {
+				continue;
+			}
+			if (line[position] == commentCharacter) {
+				continue;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean isBlank(char[] chars, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (chars[i] > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Fill the line with the next logical line, joining continued lines. The
+	 * line ends with its new line character, if it has one.
+	 * @return
+	 * 			false at the end of the text.
+	 */
+	private boolean fillLogicalLine() {
+		// fast path: a line without continuation or carriage return is used in place
+		for (int i = offset; i < length || readInput(); i++) {
+			char c = text[i];
+			if (c == '\n') {
+				line = text;
+				position = offset;
+				limit = i + 1;
+				offset = i + 1;
+				lineNumber++;
+				previousCharacter = '\n';
+				return true;
+			}
+			if (c == '\r' || (continuation != NUL && c == continuation)) {
+				break;
+			}
+		}
+		int count = 0;
+		boolean readMore = true;
+		while (readMore) {
+			int c = readText();
+			if (c < 0) {
+				readMore = false;
+			} else if (continuation != NUL && c == continuation) {
+				c = readText();
+				if (c < 0) {
+					readMore = false;
+				}
+				if (c != '\n') {
+					count = join(count, continuation);
+					count = join(count, (char) c);
+				}
+			} else {
+				if (c == '\n') {
+					readMore = false;
+				}
+				count = join(count, (char) c);
+			}
+		}
+		line = joined;
+		position = 0;
+		limit = count;
+		return count > 0;
+	}
+
+	private int join(int count, char c) {
+		if (count == joined.length) {
+			char[] larger = new char[joined.length * 2];
+			System.arraycopy(joined, 0, larger, 0, count);
+			joined = larger;
+		}
+		joined[count] = c;
+		return count + 1;
+	}
+
+	/**
+	 * Read a character of the text as a MultiFileReader reads a file: carriage
+	 * returns are dropped and the text always ends with a new line.
+	 */
+	private int readText() {
+		while (offset < length || readInput()) {
+			char c = text[offset++];
+			if (c == '\r') {
+				continue;
+			}
+			if (c == '\n') {
+				lineNumber++;
+			}
+			previousCharacter = c;
+			return c;
+		}
+		if (!endReached) {
+			endReached = true;
+			lineNumber++;
+			if (previousCharacter != '\n') {
+				previousCharacter = '\n';
+				return '\n';
+			}
+		}
+		return Stream.END_OF_FILE;
+	}
+
+	/**
+	 * Append the next block decoded from the input to the text. The text
+	 * already read is kept, so that offsets in the text stay valid.
+	 * @return
+	 * 			false at the end of the input, or if it cannot be read.
+	 */
+	private boolean readInput() {
+		if (input == null) {
+			return false;
+		}
+		int count;
+		try {
+			count = input.fill();
+		} catch (IOException e) {
+			inputError = e;
+			count = 0;
+		}
+		if (count == 0) {
+			input = null;
+			return false;
+		}
+		if (length + count > text.length) {
+			char[] larger = new char[Math.max(text.length * 2, length + count)];
+			System.arraycopy(text, 0, larger, 0, length);
+			text = larger;
+		}
+		System.arraycopy(input.getArray(), 0, text, length, count);
+		length += count;
+		return true;
+	}
+
+	/**
+	 * Obtain the error that stopped the reading of the input; the text ends
+	 * where the error occurred.
+	 * @return
+	 * 			The error, or null.
+	 */
+	public IOException getInputError() {
+		return inputError;
+	}
+
+	/**
+	 * Obtain part of the text read.
+	 * @param from
+	 * 			The offset of the first character.
+	 * @param to
+	 * 			The offset after the last character, at most {@link #getOffset()}.
+	 * @return
+	 * 			The characters.
+	 */
+	public String getText(int from, int to) {
+		return new String(text, from, to - from);
+	}
+
+	/**
+	 * Set template mode. In template mode, variables are not substituted:
+	 * parameter values referring to variables are given as {@link Template}s.
+	 * @param templates
+	 * 			true for template mode.
+	 */
+	public void setTemplates(boolean templates) {
+		this.templates = templates;
+	}
+
+	/**
+	 * Set the table through which tokens are interned.
+	 * @param symbols
+	 * 			The symbol table, or null for tokens not to be interned.
+	 */
+	public void setSymbolTable(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * In template mode, obtain the variables referred to by the last line.
+	 * @return
+	 * 			The variable names, in order of first reference.
+	 */
+	public List<String> getReferences() {
+		return new ArrayList<String>(references);
+	}
+
+	/**
+	 * In template mode, inform if a parameter name of the last line refers to
+	 * variables. Such a name is given as text, not as a template.
+	 * @return
+	 * 			true if a parameter name refers to variables.
+	 */
+	public boolean hasTemplateName() {
+		return templateName;
+	}
+
+	/**
+	 * Obtain the position in the text up to which characters were read.
+	 * @return
+	 * 			The offset of the first character not yet read.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Obtain the line number of the last line read.
+	 * @return
+	 * 			The line number.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Obtain the name of the file the text came from.
+	 * @return
+	 * 			The file name.
+	 */
+	public String getCurrentFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Set the string delimiter.
+	 * @param c
+	 * 			The new string delimiter.
+	 */
+	public void setStringDelimiter(char c) {
+		stringDelimiter = c;
+	}
+
+	/**
+	 * Set the escape character.
+	 * @param c
+	 * 			The new escape character.
+	 */
+	public void setEscape(char c) {
+		escape = c;
+	}
+
+	/**
+	 * Set the comment character.
+	 * @param c
+	 * 			The new comment character.
+	 */
+	public void setCommentCharacter(char c) {
+		commentCharacter = c;
+	}
+
+	/**
+	 * Set the line continuation character; NUL means lines are never continued.
+	 * @param c
+	 * 			The new continuation character.
+	 */
+	public void setContinuation(char c) {
+		continuation = c;
+	}
+}
@@ -25,4 +25,13 @@ public interface Stream {
 	public void unread(int nextChar) throws IOException;
 	public String getCurrentFileName();
 	public int getLineNumber();
+	/**
+	 * Position the stream at the start of a line of the current file, so that
+	 * the next character read is the first of that line.
+	 * @param line
+	 * 			The line number, from 1.
+	 * @throws IOException
+	 * 			if the line cannot be reached.
+	 */
+	public void seekLine(int line) throws IOException;
 }
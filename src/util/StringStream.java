@@ -0,0 +1,167 @@
+package util;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * A Stream over script text that is already in memory. It reads the text
+ * exactly as a {@link MultiFileReader} reads a single file: carriage returns
+ * are dropped, lines are counted, and a new line is supplied at the end of the
+ * text when the text does not end with one.
+ *
+ * @author jacques
+ */
+public class StringStream implements Stream {
+
+	private String fileName;
+	private String text;
+	private int position;
+	private int lineNumber;
+	private int firstLineNumber;
+	private int previousCharacter;
+	private StringBuffer pushback;
+
+	/**
+	 * Construct a StringStream object.
+	 * @param fileName
+	 * 			The name of the file the text came from.
+	 * @param text
+	 * 			The text to be read.
+	 * @param lineNumber
+	 * 			The number of lines that precede the text in its file.
+	 */
+	public StringStream(String fileName, String text, int lineNumber) {
+		this.fileName = fileName;
+		this.text = text;
+		this.lineNumber = lineNumber;
+		this.firstLineNumber = lineNumber;
+		this.pushback = new StringBuffer();
+	}
+
+	/**
+	 * Construct a StringStream object for the whole text of a file.
+	 * @param fileName
+	 * 			The name of the file the text came from.
+	 * @param text
+	 * 			The text to be read.
+	 */
+	public StringStream(String fileName, String text) {
+		this(fileName, text, 0);
+	}
+
+	/**
+	 * A StringStream reads a single text; files cannot be added.
+	 */
+	public void addFile(String fileName) throws FileNotFoundException {
+		throw new UnsupportedOperationException("Files cannot be added to a StringStream");
+	}
+
+	/**
+	 * Read a line of the text.
+	 * @return
+	 * 			The line read, without the new line character, or null at the end of the text.
+	 */
+	public String readLine() throws IOException {
+		StringBuffer sb = null;
+		int c;
+		while ((c = read()) >= 0) {
+			if (sb == null) {
+				sb = new StringBuffer();
+			}
+			if (c == '\n') {
+				break;
+			}
+			sb.append((char) c);
+		}
+		return sb == null ? null : sb.toString();
+	}
+
+	/**
+	 * Go back to the end of the text.
+	 */
+	public void close() {
+		position = text.length() + 1;
+		pushback.setLength(0);
+	}
+
+	/**
+	 * Read a character of the text.
+	 * @return
+	 * 			The character read, or END_OF_FILE.
+	 */
+	public int read() throws IOException {
+		int length = pushback.length();
+		if (length > 0) {
+			int c = pushback.charAt(length - 1);
+			pushback.setLength(length - 1);
+			if (c == '\n') {
+				lineNumber++;
+			}
+			return c;
+		}
+		while (position < text.length()) {
+			char c = text.charAt(position++);
+			if (c == '\r') {
+				continue;
+			}
+			if (c == '\n') {
+				lineNumber++;
+			}
+			previousCharacter = c;
+			return c;
+		}
+		if (position == text.length()) {
+			// as in MultiFileReader, the last line always ends with a new line
+			position++;
+			lineNumber++;
+			if (previousCharacter != '\n') {
+				previousCharacter = '\n';
+				return '\n';
+			}
+		}
+		return END_OF_FILE;
+	}
+
+	/**
+	 * Position the stream at the start of a line of the text, counting lines
+	 * as the file the text came from.
+	 * @throws EOFException
+	 * 			if the text has fewer lines.
+	 */
+	public void seekLine(int line) throws IOException {
+		position = 0;
+		lineNumber = firstLineNumber;
+		previousCharacter = END_OF_FILE;
+		pushback.setLength(0);
+		while (lineNumber < line - 1) {
+			if (read() < 0) {
+				throw new EOFException("Line " + line + " is beyond the end of file " + fileName);
+			}
+		}
+	}
+
+	/**
+	 * Give back a character so that it is read again.
+	 */
+	public void unread(int nextChar) throws IOException {
+		pushback.append((char) nextChar);
+		if (nextChar == '\n') {
+			lineNumber--;
+		}
+	}
+
+	/**
+	 * Obtain the name of the file the text came from.
+	 */
+	public String getCurrentFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Obtain the line number.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+}
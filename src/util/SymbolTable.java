@@ -0,0 +1,283 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A table of symbols: the command names, parameter names and short literal
+ * values of scripts. Interning a string through the table gives the same
+ * String instance for equal contents, so that scripts repeating the same words
+ * many times hold one copy of each, and strings obtained from the table can be
+ * compared by identity.
+ * <p>
+ * Characters can be interned straight from an array, without creating a
+ * String unless the symbol is new. The table is bounded: strings longer than
+ * the maximum symbol length are not interned, and once the table holds its
+ * maximum number of symbols, new strings are no longer added (those already in
+ * the table are still found). Lookups and hits are counted.
+ * <p>
+ * The table is safe for use by concurrent threads. Symbols already in the
+ * table are found without locking, so that threads compiling scripts in
+ * parallel do not wait for each other; only adding a symbol takes a lock.
+ *
+ * @author jacques
+ */
+public class SymbolTable {
+
+	public static final int DEFAULT_MAX_SYMBOLS = 65536;
+	public static final int DEFAULT_MAX_LENGTH = 64;
+
+	/**
+	 * A symbol in the chain of its bucket. Entries are never changed: a new
+	 * symbol is added at the head of its chain, so a chain can be read while
+	 * another thread adds to it.
+	 */
+	private static class Entry {
+		final String symbol;
+		final int hash;
+		final Entry next;
+
+		Entry(String symbol, int hash, Entry next) {
+			this.symbol = symbol;
+			this.hash = hash;
+			this.next = next;
+		}
+	}
+
+	private final int maxSymbols;
+	private final int maxLength;
+	private volatile AtomicReferenceArray<Entry> buckets = new AtomicReferenceArray<Entry>(64);
+	private int size;
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+
+	/**
+	 * Construct a table with the default bounds.
+	 */
+	public SymbolTable() {
+		this(DEFAULT_MAX_SYMBOLS, DEFAULT_MAX_LENGTH);
+	}
+
+	/**
+	 * The SymbolTable constructor.
+	 * @param maxSymbols
+	 * 			The maximum number of symbols kept.
+	 * @param maxLength
+	 * 			The maximum length of a symbol.
+	 */
+	public SymbolTable(int maxSymbols, int maxLength) {
+		this.maxSymbols = maxSymbols;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Obtain the symbol for characters of an array.
+	 * @param chars
+	 * 			The array.
+	 * @param offset
+	 * 			The position of the first character.
+	 * @param length
+	 * 			The number of characters.
+	 * @return
+	 * 			The symbol, or a new string if the characters cannot be interned.
+	 */
+	public String intern(char[] chars, int offset, int length) {
+		if (length > maxLength) {
+			return new String(chars, offset, length);
+		}
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		lookups.increment();
+		String symbol = find(buckets, hash, chars, offset, length);
+		if (symbol == null) {
+			synchronized (this) {
+				// added by another thread meanwhile, or moved by a rehash
+				symbol = find(buckets, hash, chars, offset, length);
+				if (symbol == null) {
+					return add(new String(chars, offset, length), hash);
+				}
+			}
+		}
+		hits.increment();
+		return symbol;
+	}
+
+	/**
+	 * Obtain the symbol for a sequence of characters.
+	 * @param chars
+	 * 			The characters.
+	 * @return
+	 * 			The symbol, or the characters as a new string if they cannot be
+	 * 			interned; null for null.
+	 */
+	public String intern(CharSequence chars) {
+		if (chars == null) {
+			return null;
+		}
+		int length = chars.length();
+		if (length > maxLength) {
+			return chars.toString();
+		}
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + chars.charAt(i);
+		}
+		lookups.increment();
+		String symbol = find(buckets, hash, chars);
+		if (symbol == null) {
+			synchronized (this) {
+				symbol = find(buckets, hash, chars);
+				if (symbol == null) {
+					return add(chars.toString(), hash);
+				}
+			}
+		}
+		hits.increment();
+		return symbol;
+	}
+
+	/**
+	 * Intern all strings of an array, in place.
+	 * @param strings
+	 * 			The strings; null elements are left alone.
+	 * @return
+	 * 			The array.
+	 */
+	public String[] internAll(String[] strings) {
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = intern(strings[i]);
+		}
+		return strings;
+	}
+
+	private static String find(AtomicReferenceArray<Entry> table, int hash, char[] chars, int offset, int length) {
+		for (Entry e = table.get(hash & (table.length() - 1)); e != null; e = e.next) {
+			if (e.hash == hash && matches(e.symbol, chars, offset, length)) {
+				return e.symbol;
+			}
+		}
+		return null;
+	}
+
+	private static String find(AtomicReferenceArray<Entry> table, int hash, CharSequence chars) {
+		for (Entry e = table.get(hash & (table.length() - 1)); e != null; e = e.next) {
+			if (e.hash == hash && matches(e.symbol, chars)) {
+				return e.symbol;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Add a symbol; called with the lock held.
+	 */
+	private String add(String symbol, int hash) {
+		if (size >= maxSymbols) {
+			return symbol;
+		}
+		AtomicReferenceArray<Entry> table = buckets;
+		if (size >= table.length() - table.length() / 4) {
+			table = rehash(table);
+		}
+		int index = hash & (table.length() - 1);
+		table.set(index, new Entry(symbol, hash, table.get(index)));
+		size++;
+		return symbol;
+	}
+
+	/**
+	 * Copy the symbols to a larger table, and publish it once it is complete.
+	 */
+	private AtomicReferenceArray<Entry> rehash(AtomicReferenceArray<Entry> table) {
+		AtomicReferenceArray<Entry> larger = new AtomicReferenceArray<Entry>(table.length() * 2);
+		for (int i = 0; i < table.length(); i++) {
+			for (Entry e = table.get(i); e != null; e = e.next) {
+				int index = e.hash & (larger.length() - 1);
+				larger.set(index, new Entry(e.symbol, e.hash, larger.get(index)));
+			}
+		}
+		buckets = larger;
+		return larger;
+	}
+
+	private static boolean matches(String symbol, char[] chars, int offset, int length) {
+		if (symbol.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (symbol.charAt(i) != chars[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches(String symbol, CharSequence chars) {
+		if (symbol.length() != chars.length()) {
+			return false;
+		}
+		for (int i = 0; i < symbol.length(); i++) {
+			if (symbol.charAt(i) != chars.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Obtain the number of symbols in the table.
+	 * @return
+	 * 			The number of symbols.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Obtain the number of strings looked up, not counting those too long to
+	 * be interned.
+	 * @return
+	 * 			The number of lookups.
+	 */
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	/**
+	 * Obtain the number of lookups that found their symbol in the table.
+	 * @return
+	 * 			The number of hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Obtain the fraction of lookups that found their symbol in the table.
+	 * @return
+	 * 			The hit rate, from 0 to 1; 0 if there were no lookups.
+	 */
+	public double getHitRate() {
+		long lookupCount = lookups.sum();
+		return lookupCount == 0 ? 0 : (double) hits.sum() / lookupCount;
+	}
+
+	/**
+	 * Remove all symbols and reset the statistics.
+	 */
+	public synchronized void clear() {
+		buckets = new AtomicReferenceArray<Entry>(64);
+		size = 0;
+		lookups.reset();
+		hits.reset();
+	}
+
+	/**
+	 * Show the statistics of the table.
+	 */
+	public synchronized String toString() {
+		return "Symbols: " + size + " | Lookups: " + lookups.sum() + " | Hits: " + hits.sum();
+	}
+}
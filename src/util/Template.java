@@ -0,0 +1,115 @@
+package util;
+
+import java.util.List;
+
+/**
+ * A script token that refers to variables, compiled into literal segments and
+ * variable slots. Binding the template to the variables gives the token's
+ * value, just as substitution of <code>${name}</code> while reading the token
+ * would, but without reading the characters of the token again.
+ * <p>
+ * A template is immutable and can be bound any number of times.
+ *
+ * @author jacques
+ */
+public class Template {
+
+	/**
+	 * The literal segments: one before each slot, and one after the last.
+	 */
+	private final String[] literals;
+
+	/**
+	 * The name of the variable filling each slot.
+	 */
+	private final String[] variableNames;
+
+	/**
+	 * The Template constructor.
+	 * @param literals
+	 * 			The literal segments: one before each slot, and one after the last.
+	 * @param variableNames
+	 * 			The name of the variable filling each slot.
+	 */
+	public Template(String[] literals, String[] variableNames) {
+		if (literals.length != variableNames.length + 1) {
+			throw new IllegalArgumentException("A template needs one literal more than its variables");
+		}
+		this.literals = literals.clone();
+		this.variableNames = variableNames.clone();
+	}
+
+	/**
+	 * Create a template from a token's text and the variable references found
+	 * in it.
+	 * @param text
+	 * 			The token text, without the variable references.
+	 * @param positions
+	 * 			The position in the text of each reference.
+	 * @param names
+	 * 			The name of the variable of each reference.
+	 * @return
+	 * 			The template.
+	 */
+	static Template fromText(CharSequence text, List<Integer> positions, List<String> names) {
+		String[] literals = new String[names.size() + 1];
+		int start = 0;
+		for (int i = 0; i < names.size(); i++) {
+			int position = positions.get(i).intValue();
+			literals[i] = text.subSequence(start, position).toString();
+			start = position;
+		}
+		literals[names.size()] = text.subSequence(start, text.length()).toString();
+		return new Template(literals, names.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * Obtain the value of the token for the current values of the variables. A
+	 * variable without a value contributes nothing.
+	 * @param variables
+	 * 			The variables.
+	 * @return
+	 * 			The value.
+	 */
+	public String bind(Variables variables) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < variableNames.length; i++) {
+			sb.append(literals[i]);
+			Object value = variables.get(variableNames[i]);
+			if (value != null) {
+				sb.append(value.toString());
+			}
+		}
+		sb.append(literals[variableNames.length]);
+		return sb.toString();
+	}
+
+	/**
+	 * Obtain the literal segments.
+	 * @return
+	 * 			The literals: one before each slot, and one after the last.
+	 */
+	public String[] getLiterals() {
+		return literals.clone();
+	}
+
+	/**
+	 * Obtain the names of the variables filling the slots.
+	 * @return
+	 * 			The variable names, one per slot.
+	 */
+	public String[] getVariableNames() {
+		return variableNames.clone();
+	}
+
+	/**
+	 * Show the template as the token would be written, without delimiters.
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < variableNames.length; i++) {
+			sb.append(literals[i]).append("${").append(variableNames[i]).append('}');
+		}
+		return sb.append(literals[variableNames.length]).toString();
+	}
+}
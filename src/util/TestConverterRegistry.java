@@ -0,0 +1,104 @@
+package util;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the converter registry.
+ * @author jacques
+ */
+public class TestConverterRegistry extends TestCase {
+
+	/**
+	 * A type converted by a static factory only.
+	 */
+	public static class Code {
+		private final String text;
+
+		private Code(String text) {
+			this.text = text;
+		}
+
+		/**
+		 * @param text
+		 * @return The code.
+		 */
+		public static Code valueOf(String text) {
+			if (text.length() != 3) {
+				throw new IllegalArgumentException(text);
+			}
+			return new Code(text);
+		}
+	}
+
+	/**
+	 * Primitive and wrapper types are parsed.
+	 * @throws Exception
+	 */
+	public void testPrimitives() throws Exception {
+		ConverterRegistry registry = new ConverterRegistry();
+		assertEquals(Integer.valueOf(13), registry.convert(Integer.TYPE, "13"));
+		assertEquals(Integer.valueOf(13), registry.convert(Integer.class, "13"));
+		assertEquals(Long.valueOf(1230), registry.convert(Long.TYPE, "1230"));
+		assertEquals(Boolean.TRUE, registry.convert(Boolean.TYPE, "true"));
+		assertEquals(Double.valueOf(1.5), registry.convert(Double.TYPE, "1.5"));
+		assertEquals(Character.valueOf('x'), registry.convert(Character.TYPE, "x"));
+		try {
+			registry.convert(Integer.TYPE, "ARG");
+			fail();
+		} catch (ConverterException e) {
+			assertEquals("Problems during Type Conversion - ARG to class java.lang.Integer", e.getMessage());
+		}
+		try {
+			registry.convert(Character.TYPE, "xy");
+			fail();
+		} catch (ConverterException e) {
+			// a char takes one character
+		}
+	}
+
+	/**
+	 * Enums, String constructors and static factories are used.
+	 * @throws Exception
+	 */
+	public void testResolution() throws Exception {
+		ConverterRegistry registry = new ConverterRegistry();
+		assertEquals(TimeUnit.SECONDS, registry.convert(TimeUnit.class, "SECONDS"));
+		assertEquals(new BigDecimal("1.25"), registry.convert(BigDecimal.class, "1.25"));
+		assertEquals("abc", ((Code) registry.convert(Code.class, "abc")).text);
+		assertEquals("abc", registry.convert(Object.class, "abc"));
+		try {
+			registry.convert(Code.class, "ab");
+			fail();
+		} catch (ConverterException e) {
+			// the factory rejects it
+		}
+		assertNull(registry.getConverter(Runnable.class));
+		try {
+			registry.convert(Runnable.class, "x");
+			fail();
+		} catch (ConverterException e) {
+			// no converter
+		}
+	}
+
+	/**
+	 * Converters are resolved once, and registered converters take
+	 * precedence.
+	 * @throws Exception
+	 */
+	public void testRegister() throws Exception {
+		ConverterRegistry registry = new ConverterRegistry();
+		Converter converter = registry.getConverter(Integer.TYPE);
+		assertSame(converter, registry.getConverter(Integer.TYPE));
+		registry.register(Integer.TYPE, new Converter() {
+			public Object convert(String value) {
+				return Integer.valueOf(value.length());
+			}
+		});
+		assertEquals(Integer.valueOf(3), registry.convert(Integer.TYPE, "abc"));
+		assertEquals(Integer.valueOf(12), registry.convert(Integer.class, "12"));
+	}
+}
@@ -0,0 +1,97 @@
+package util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the line index of script files.
+ * @author jacques
+ */
+public class TestLineIndex extends TestCase {
+
+	/**
+	 * Every interval-th line is indexed with the offset at which it starts.
+	 */
+	public void testOffsets() {
+		LineIndex index = new LineIndex(2);
+		byte[] content = "a\nbb\nccc\ndddd\ne".getBytes();
+		index.scan(content, 0, 4);
+		index.scan(content, 4, content.length - 4);
+		assertEquals(5, index.getLineCount());
+		assertEquals(content.length, index.getLength());
+		assertEquals(1, index.getIndexedLine(2));
+		assertEquals(0, index.getOffset(1));
+		assertEquals(3, index.getIndexedLine(3));
+		assertEquals(5, index.getOffset(3));
+		assertEquals(5, index.getIndexedLine(100));
+		assertEquals(14, index.getOffset(5));
+		try {
+			index.getOffset(2);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(2, LineIndex.build("a\nb\n".getBytes()).getLineCount());
+	}
+
+	/**
+	 * A script is read from the nearest indexed line that neither continues
+	 * the line before it nor follows a possible change of string delimiter.
+	 */
+	public void testStartLine() {
+		LineIndex index = LineIndex.build("a\nb \\\r\nc\nd\ne\nf\n".getBytes());
+		assertEquals(0, index.getFirstDelimiterLine());
+		index = new LineIndex(2);
+		byte[] content = "a\nb \\\r\nc\nd\ne\nf\n".getBytes();
+		index.scan(content, 0, content.length);
+		assertEquals(5, index.getStartLine(6));
+		assertEquals(1, index.getStartLine(4));
+
+		index = new LineIndex(2);
+		content = "a\nb\nc\nd\nx StringDelim\niter\nStringDelimiter '\nh\n".getBytes();
+		index.scan(content, 0, 20);
+		index.scan(content, 20, content.length - 20);
+		assertEquals(7, index.getFirstDelimiterLine());
+		assertEquals(7, index.getStartLine(8));
+		assertEquals(5, index.getStartLine(6));
+	}
+
+	/**
+	 * An index written to a file is read back, and used while its file is
+	 * unchanged.
+	 * @throws IOException
+	 */
+	public void testPersist() throws IOException {
+		File file = File.createTempFile("easyaccept", ".txt");
+		File indexFile = new File(file.getPath() + LineIndex.EXTENSION);
+		file.deleteOnExit();
+		indexFile.deleteOnExit();
+		try {
+			FileWriter writer = new FileWriter(file);
+			for (int i = 0; i < 1000; i++) {
+				writer.write(i == 600 ? "stringdelimiter\n" : i == 255 ? "lin\\\n" : "line\n");
+			}
+			writer.close();
+			LineIndex index = LineIndex.build(file);
+			index.write(indexFile);
+			LineIndex read = LineIndex.read(indexFile);
+			assertEquals(index.getLineCount(), read.getLineCount());
+			assertEquals(index.getOffset(513), read.getOffset(513));
+			assertEquals(512 * 5, read.getOffset(513));
+			assertEquals(601, read.getFirstDelimiterLine());
+			assertEquals(1, read.getStartLine(300));
+			assertEquals(513, read.getStartLine(900));
+
+			System.setProperty(LineIndex.PERSIST_PROPERTY, "true");
+			indexFile.delete();
+			assertEquals(1000, LineIndex.getIndex(file.getPath()).getLineCount());
+			assertTrue(indexFile.exists());
+		} finally {
+			System.getProperties().remove(LineIndex.PERSIST_PROPERTY);
+			file.delete();
+			indexFile.delete();
+		}
+	}
+}
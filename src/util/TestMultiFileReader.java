@@ -3,8 +3,12 @@
  *
  */
 package util;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -226,6 +230,90 @@ public class TestMultiFileReader extends TestCase {
 		assertNull(line3);
 		assertEquals(1, mfo.getNumCalls()); 
 	}
+	/**
+	 * Execute the long lines test: lines longer than a decoded block, ended
+	 * by carriage return and line feed.
+	 * @throws IOException
+	 */
+	public void testLongLines() throws IOException {
+		StringBuffer longLine = new StringBuffer();
+		while (longLine.length() < ChannelDecoder.BUFFER_SIZE + 100) {
+			longLine.append("0123456789");
+		}
+		File file = File.createTempFile("easyaccept", ".txt");
+		file.deleteOnExit();
+		try {
+			FileWriter writer = new FileWriter(file);
+			writer.write(longLine + "\r\n" + longLine + "\r\nz");
+			writer.close();
+
+			MultiFileReader mfr = new MultiFileReader();
+			mfr.addFile(file.getPath());
+			assertEquals(longLine.toString(), mfr.readLine());
+			assertEquals(1, mfr.getLineNumber());
+			StringBuffer read = new StringBuffer();
+			int c;
+			while ((c = mfr.read()) != '\n') {
+				read.append((char) c);
+			}
+			assertEquals(longLine.toString(), read.toString());
+			assertEquals(2, mfr.getLineNumber());
+			assertEquals('z', mfr.read());
+			assertEquals('\n', mfr.read());
+			assertEquals(MultiFileReader.END_OF_FILE, mfr.read());
+			mfr.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Execute the seek line test: the reader is positioned at any line,
+	 * forwards or backwards, through the line index built while reading.
+	 * @throws IOException
+	 */
+	public void testSeekLine() throws IOException {
+		File file = File.createTempFile("easyaccept", ".txt");
+		file.deleteOnExit();
+		try {
+			FileWriter writer = new FileWriter(file);
+			for (int i = 1; i <= 1000; i++) {
+				writer.write("line " + i + (i % 2 == 0 ? "\r\n" : "\n"));
+			}
+			writer.close();
+
+			MultiFileReader mfr = new MultiFileReader();
+			mfr.addFile(file.getPath());
+			mfr.seekLine(700);
+			assertEquals(699, mfr.getLineNumber());
+			assertEquals("line 700", mfr.readLine());
+			assertEquals(700, mfr.getLineNumber());
+			mfr.seekLine(3);
+			assertEquals('l', mfr.read());
+			assertEquals("ine 3", mfr.readLine());
+			mfr.seekLine(1000);
+			assertEquals("line 1000", mfr.readLine());
+			assertNull(mfr.readLine());
+			mfr.close();
+
+			mfr = new MultiFileReader();
+			mfr.addFile(file.getPath());
+			try {
+				mfr.seekLine(1002);
+				fail("EOFException expected");
+			} catch (EOFException e) {
+			}
+			mfr.close();
+
+			List<String> lines = MultiFileReader.readLines(file.getPath(), 999, 5);
+			assertEquals(2, lines.size());
+			assertEquals("line 999", lines.get(0));
+			assertEquals("line 1000", lines.get(1));
+			assertTrue(MultiFileReader.readLines(file.getPath(), 2000, 5).isEmpty());
+		} finally {
+			file.delete();
+		}
+	}
 }
 
 /**
@@ -63,12 +63,14 @@ public class TestParameterTypeConverter extends TestCase {
 	public void testConvertParam() {
 		for (int i = 0; i < methods.length; i++) {
 			if(methods[i].getName().equals("commandManyParameters")){
+				Object[] values = null;
 				try {
-					ParameterTypeConverter.convertParam( methods[i].getParameterTypes(), parametersA );
+					values = ParameterTypeConverter.convertParam( methods[i].getParameterTypes(), parametersA );
 				} catch (ConverterException e) {
 					fail();
 				}
-				assertEquals("java.lang.Integer", parametersA[0].getValue().getClass().getName());
+				assertEquals("java.lang.Integer", values[0].getClass().getName());
+				assertEquals("13", parametersA[0].getValue());
 				try {
 					ParameterTypeConverter.convertParam( methods[i].getParameterTypes(), parametersB );
 					fail();
@@ -78,14 +80,15 @@ public class TestParameterTypeConverter extends TestCase {
 				}
 			}//if
 			if(methods[i].getName().equals("commandManyParametersNum")){
+				Object[] values = null;
 				try {
-					ParameterTypeConverter.convertParam( methods[i].getParameterTypes(), parametersA );
+					values = ParameterTypeConverter.convertParam( methods[i].getParameterTypes(), parametersA );
 				} catch (ConverterException e) {
 					e.printStackTrace();
 					fail();
 				}
-				assertEquals("java.lang.Integer", parametersA[0].getValue().getClass().getName());
-				assertEquals("java.lang.Long", parametersA[1].getValue().getClass().getName());
+				assertEquals("java.lang.Integer", values[0].getClass().getName());
+				assertEquals("java.lang.Long", values[1].getClass().getName());
 				try {
 					ParameterTypeConverter.convertParam( methods[i].getParameterTypes(), parametersB );
 					fail();
@@ -95,13 +98,14 @@ public class TestParameterTypeConverter extends TestCase {
 				}
 			}//if
 			if(methods[i].getName().equals("commandBoolean")){
+				Object[] values = null;
 				try {
-					ParameterTypeConverter.convertParam( methods[i].getParameterTypes(), parametersBool );
+					values = ParameterTypeConverter.convertParam( methods[i].getParameterTypes(), parametersBool );
 				} catch (ConverterException e) {
 					e.printStackTrace();
 					fail();
 				}
-				assertEquals("java.lang.Boolean", parametersBool[0].getValue().getClass().getName());	
+				assertEquals("java.lang.Boolean", values[0].getClass().getName());	
 			}//if	
 		}//for		
 	}
@@ -0,0 +1,74 @@
+package util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests parsed lines and their sub lines.
+ * @author jacques
+ */
+public class TestParsedLine extends TestCase {
+
+	private ParsedLine newLine() {
+		ParsedLine line = new ParsedLine();
+		line.addParameter(new Parameter(null, "expect"));
+		line.addParameter(new Parameter(null, "a b"));
+		line.addParameter(new Parameter("x", "echo"));
+		line.addParameter(new Parameter(null, "c"));
+		return line;
+	}
+
+	/**
+	 * A sub line sees the parameters of its line from an offset on.
+	 */
+	public void testSubLine() {
+		ParsedLine line = newLine();
+		ParsedLine sub = line.subLine(2);
+		assertEquals(2, sub.numberOfParameters());
+		assertSame(line.getParameter(2), sub.getParameter(0));
+		assertEquals("x=echo c", sub.getCommandString('"'));
+		assertEquals(1, sub.getArgsValues().length);
+		assertEquals("c", sub.getArgsValues()[0]);
+		assertSame(line.getParameter(3), sub.getCommandArgs()[0]);
+		ParsedLine subSub = sub.subLine(1);
+		assertEquals(1, subSub.numberOfParameters());
+		assertEquals("c", subSub.getParameter(0).getValue());
+		assertEquals(0, subSub.subLine(1).numberOfParameters());
+		try {
+			sub.subLine(3);
+			fail("IndexOutOfBoundsException expected");
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	/**
+	 * Adding parameters to a sub line leaves its line unchanged.
+	 */
+	public void testAddToSubLine() {
+		ParsedLine line = newLine();
+		ParsedLine sub = line.subLine(0);
+		sub.addParameter(new Parameter(null, "d"));
+		assertEquals(5, sub.numberOfParameters());
+		assertEquals(4, line.numberOfParameters());
+		assertEquals("expect \"a b\" x=echo c", line.getCommandString('"'));
+	}
+
+	/**
+	 * A frozen line keeps its sub lines, frozen too, and cannot be added to.
+	 */
+	public void testFreeze() {
+		ParsedLine line = newLine().freeze();
+		assertTrue(line.isFrozen());
+		ParsedLine sub = line.subLine(2);
+		assertSame(sub, line.subLine(2));
+		assertTrue(sub.isFrozen());
+		assertSame(line.getCallSite().getSubSite(2), sub.getCallSite());
+		assertEquals("x=echo c", sub.getCommandString('"'));
+		try {
+			sub.addParameter(new Parameter(null, "d"));
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// frozen
+		}
+		assertEquals(2, sub.numberOfParameters());
+	}
+}
@@ -0,0 +1,157 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the script lexer: it must split script text exactly as a
+ * LogicalLineReader feeding a ParsedLineReader does.
+ * @author jacques
+ */
+public class TestScriptLexer extends TestCase {
+
+	private static final String[] TEXTS = {
+		"a b c\n",
+		"a b c",
+		"",
+		"\n\n# comment\n  \nx=y z= w\n",
+		"echo \"a b\" \\\n c\r\nnext line\r\n",
+		"echo \"unterminated\nafter\n",
+		"echo ${v} \"${v}\" $x ${missing}end\n",
+		"echo a\\ b \\\\\n\\",
+		"echo $\nnext\n",
+		"=x y\n",
+		"  # not a comment\n",
+		"a \"x\\\"y\" 'single'\n",
+	};
+
+	/**
+	 * Lines read from text are the same the readers give.
+	 * @throws Exception
+	 */
+	public void testSameAsReaders() throws Exception {
+		for (int i = 0; i < TEXTS.length; i++) {
+			assertSameLines(TEXTS[i]);
+		}
+	}
+
+	/**
+	 * Lines read from the test files are the same the readers give.
+	 * @throws Exception
+	 */
+	public void testSameAsReadersOnFiles() throws Exception {
+		File[] files = new File("src/util/test").listFiles();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].isFile()) {
+				assertSameLines(ChannelDecoder.decode(ChannelDecoder.readFully(files[i])));
+			}
+		}
+	}
+
+	/**
+	 * In template mode, binding the templates gives the values variable
+	 * substitution gives.
+	 * @throws Exception
+	 */
+	public void testTemplates() throws Exception {
+		VariablesImpl variables = new VariablesImpl();
+		variables.put("v", "value");
+		for (int i = 0; i < TEXTS.length; i++) {
+			ScriptLexer substituting = new ScriptLexer("f", TEXTS[i], 0, variables);
+			ScriptLexer templating = new ScriptLexer("f", TEXTS[i], 0, null);
+			templating.setTemplates(true);
+			while (true) {
+				String expected = nextLine(null, substituting);
+				String actual;
+				try {
+					ParsedLine parsedLine = templating.getParsedLine();
+					if (parsedLine != null) {
+						for (int j = 0; j < parsedLine.numberOfParameters(); j++) {
+							Parameter param = parsedLine.getParameter(j);
+							if (param.getValue() instanceof Template) {
+								param.setValue(((Template) param.getValue()).bind(variables));
+							}
+						}
+					}
+					actual = toString(parsedLine);
+				} catch (ParsingException e) {
+					actual = e.getMessage();
+				}
+				assertEquals(TEXTS[i], expected, actual);
+				if (expected == null) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A string delimiter change applies to the lines that follow.
+	 * @throws Exception
+	 */
+	public void testStringDelimiter() throws Exception {
+		ScriptLexer lexer = new ScriptLexer("f", "a \"b c\"\na 'b c'\n", 0, new VariablesImpl());
+		assertEquals("b c", lexer.getParsedLine().getParameter(1).getValue());
+		lexer.setStringDelimiter('\'');
+		assertEquals("b c", lexer.getParsedLine().getParameter(1).getValue());
+		assertNull(lexer.getParsedLine());
+	}
+
+	/**
+	 * Very long lines are read in linear time.
+	 * @throws Exception
+	 */
+	public void testLongLine() throws Exception {
+		StringBuffer text = new StringBuffer("expect \"");
+		for (int i = 0; i < 200000; i++) {
+			text.append("0123456789");
+		}
+		text.append("\" echo x\n");
+		ScriptLexer lexer = new ScriptLexer("f", text.toString(), 0, new VariablesImpl());
+		ParsedLine parsedLine = lexer.getParsedLine();
+		assertEquals(4, parsedLine.numberOfParameters());
+		assertEquals(2000000, ((String) parsedLine.getParameter(1).getValue()).length());
+		assertEquals(1, lexer.getLineNumber());
+	}
+
+	private void assertSameLines(String text) throws IOException {
+		VariablesImpl variables = new VariablesImpl();
+		variables.put("v", "value");
+		ParsedLineReader plr = new ParsedLineReader(new LogicalLineReader(new StringStream("f", text), '#', '\\'), '"',
+				'\\', variables);
+		ScriptLexer lexer = new ScriptLexer("f", text, 0, variables);
+		while (true) {
+			String expected = nextLine(plr, null);
+			String actual = nextLine(null, lexer);
+			assertEquals(text, expected, actual);
+			assertEquals(text, plr.getLineNumber(), lexer.getLineNumber());
+			if (expected == null) {
+				break;
+			}
+		}
+	}
+
+	private static String nextLine(ParsedLineReader plr, ScriptLexer lexer) throws IOException {
+		ParsedLine parsedLine;
+		try {
+			parsedLine = plr != null ? plr.getParsedLine() : lexer.getParsedLine();
+		} catch (ParsingException e) {
+			return e.getMessage();
+		}
+		return toString(parsedLine);
+	}
+
+	private static String toString(ParsedLine parsedLine) {
+		if (parsedLine == null) {
+			return null;
+		}
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < parsedLine.numberOfParameters(); i++) {
+			Parameter param = parsedLine.getParameter(i);
+			sb.append('[').append(param.getName()).append('|').append(param.getValue()).append(']');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,91 @@
+package util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the symbol table.
+ * @author jacques
+ */
+public class TestSymbolTable extends TestCase {
+
+	/**
+	 * Equal strings are interned to the same instance, from strings or from
+	 * characters of an array.
+	 */
+	public void testIntern() {
+		SymbolTable symbols = new SymbolTable();
+		String echo = symbols.intern(new String("echo"));
+		assertSame(echo, symbols.intern(new StringBuilder("echo")));
+		assertSame(echo, symbols.intern("say echo".toCharArray(), 4, 4));
+		assertNotSame(echo, symbols.intern("ech"));
+		assertNull(symbols.intern((String) null));
+		assertEquals(2, symbols.size());
+		assertEquals(4, symbols.getLookups());
+		assertEquals(2, symbols.getHits());
+		assertEquals(0.5, symbols.getHitRate(), 0);
+	}
+
+	/**
+	 * The table grows past its initial buckets and keeps all its symbols.
+	 */
+	public void testGrowth() {
+		SymbolTable symbols = new SymbolTable();
+		String[] interned = new String[1000];
+		for (int i = 0; i < interned.length; i++) {
+			interned[i] = symbols.intern("symbol" + i);
+		}
+		for (int i = 0; i < interned.length; i++) {
+			assertSame(interned[i], symbols.intern("symbol" + i));
+		}
+		assertEquals(interned.length, symbols.size());
+	}
+
+	/**
+	 * Threads interning the same words concurrently, while the table grows,
+	 * all get the same instance of each word.
+	 */
+	public void testConcurrent() throws Exception {
+		final SymbolTable symbols = new SymbolTable();
+		final String[][] interned = new String[4][2000];
+		Thread[] threads = new Thread[interned.length];
+		for (int t = 0; t < threads.length; t++) {
+			final String[] mine = interned[t];
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < mine.length; i++) {
+						mine[i] = symbols.intern(("word" + i).toCharArray(), 0, ("word" + i).length());
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+		}
+		for (int i = 0; i < interned[0].length; i++) {
+			for (int t = 1; t < interned.length; t++) {
+				assertSame(interned[0][i], interned[t][i]);
+			}
+			assertSame(interned[0][i], symbols.intern("word" + i));
+		}
+		assertEquals(interned[0].length, symbols.size());
+		assertEquals(interned.length * interned[0].length + interned[0].length, symbols.getLookups());
+	}
+
+	/**
+	 * Long strings are not interned, and a full table adds no new symbols but
+	 * still finds those it holds.
+	 */
+	public void testBounds() {
+		SymbolTable symbols = new SymbolTable(2, 5);
+		String a = symbols.intern("a");
+		symbols.intern("b");
+		assertNotSame(symbols.intern(new String("c")), symbols.intern(new String("c")));
+		assertNotSame(symbols.intern(new String("longer")), symbols.intern(new String("longer")));
+		assertSame(a, symbols.intern(new String("a")));
+		assertEquals(2, symbols.size());
+		symbols.clear();
+		assertEquals(0, symbols.size());
+		assertEquals(0, symbols.getLookups());
+	}
+}